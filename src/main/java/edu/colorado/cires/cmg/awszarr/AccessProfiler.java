@@ -0,0 +1,240 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Records the chunk reads and writes of an {@link AwsS3ZarrStore} per array, together with the selections read by the
+ * application, for {@link ArrayAccessProfile}.
+ */
+final class AccessProfiler {
+
+  /**
+   * The maximum number of distinct selections kept per array.  Further selections are counted but not used for
+   * recommendations.
+   */
+  static final int MAX_SELECTIONS = 10_000;
+
+  /**
+   * Lists the objects under an array.
+   */
+  interface Lister {
+
+    /**
+     * Lists the objects under an array.
+     *
+     * @param arrayKey the array key relative to the store root
+     * @return a {@link Stream} of {@link S3Object} with keys relative to the array
+     * @throws IOException if the objects could not be listed
+     */
+    Stream<S3Object> list(String arrayKey) throws IOException;
+  }
+
+  private final ConcurrentMap<String, Counters> arrays = new ConcurrentHashMap<>();
+
+  void onRead(ChunkKey chunkKey, long bytes, boolean found) {
+    counters(chunkKey).onRead(chunkKey, bytes, found);
+  }
+
+  void onWrite(ChunkKey chunkKey, long bytes) {
+    counters(chunkKey).onWrite(chunkKey, bytes);
+  }
+
+  void onSelection(String arrayKey, ZarrArrayMetadata metadata, int[] shape, int[] offset) {
+    if (shape.length != metadata.getDimensions() || offset.length != metadata.getDimensions()) {
+      throw new IllegalArgumentException("Selection does not match the dimensions of " + arrayKey);
+    }
+    int[] arrayShape = metadata.getShape();
+    for (int d = 0; d < arrayShape.length; d++) {
+      if (offset[d] < 0 || shape[d] < 0 || (long) offset[d] + shape[d] > arrayShape[d]) {
+        throw new IllegalArgumentException("Selection is outside of " + arrayKey);
+      }
+    }
+    arrays.computeIfAbsent(arrayKey, key -> new Counters(metadata)).onSelection(metadata, shape, offset);
+  }
+
+  private Counters counters(ChunkKey chunkKey) {
+    return arrays.computeIfAbsent(chunkKey.getArrayKey(), key -> new Counters(chunkKey.getMetadata()));
+  }
+
+  /**
+   * Wraps the {@link InputStream} of a chunk to record the read when it is closed.
+   *
+   * @param chunkKey the chunk
+   * @param inputStream the contents of the chunk
+   * @return an {@link InputStream} that records the bytes read from it
+   */
+  InputStream profile(ChunkKey chunkKey, InputStream inputStream) {
+    return new FilterInputStream(inputStream) {
+
+      private long count;
+      private boolean closed;
+
+      @Override
+      public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+          count++;
+        }
+        return b;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+          count += n;
+        }
+        return n;
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        try {
+          super.close();
+        } finally {
+          onRead(chunkKey, count, true);
+        }
+      }
+    };
+  }
+
+  /**
+   * Creates a snapshot of the profiles of every array that has been read, written or selected.
+   *
+   * @param lister lists the chunks of each array for their stored sizes
+   * @return the profiles, ordered by array key
+   * @throws IOException if an array could not be listed or its dtype is not supported
+   */
+  List<ArrayAccessProfile> snapshot(Lister lister) throws IOException {
+    List<ArrayAccessProfile> profiles = new ArrayList<>();
+    for (Map.Entry<String, Counters> entry : new TreeMap<>(arrays).entrySet()) {
+      String arrayKey = entry.getKey();
+      Counters counters = entry.getValue();
+      ZarrArrayMetadata metadata = counters.metadata();
+      long storedChunks = 0;
+      long storedBytes = 0;
+      try (Stream<S3Object> objects = lister.list(arrayKey)) {
+        for (S3Object object : (Iterable<S3Object>) objects::iterator) {
+          if (metadata.parseChunkKey(object.key()) != null) {
+            storedChunks++;
+            storedBytes += object.size() == null ? 0L : object.size();
+          }
+        }
+      }
+      profiles.add(counters.snapshot(arrayKey, storedChunks, storedBytes));
+    }
+    return profiles;
+  }
+
+  private static final class Counters {
+
+    private ZarrArrayMetadata metadata;
+    private long reads;
+    private long missingReads;
+    private long bytesRead;
+    private long writes;
+    private long bytesWritten;
+    private long selections;
+    private long selectedElements;
+    private final Map<Long, long[]> chunkReads = new HashMap<>();
+    private final Map<ArrayAccessProfile.Selection, long[]> distinctSelections = new LinkedHashMap<>();
+
+    private Counters(ZarrArrayMetadata metadata) {
+      this.metadata = metadata;
+    }
+
+    private synchronized ZarrArrayMetadata metadata() {
+      return metadata;
+    }
+
+    private synchronized void onRead(ChunkKey chunkKey, long bytes, boolean found) {
+      checkMetadata(chunkKey.getMetadata());
+      reads++;
+      if (found) {
+        bytesRead += bytes;
+      } else {
+        missingReads++;
+      }
+      chunkReads.computeIfAbsent(chunkKey.linearIndex(), index -> new long[1])[0]++;
+    }
+
+    private synchronized void onWrite(ChunkKey chunkKey, long bytes) {
+      checkMetadata(chunkKey.getMetadata());
+      writes++;
+      bytesWritten += bytes;
+    }
+
+    private synchronized void onSelection(ZarrArrayMetadata metadata, int[] shape, int[] offset) {
+      checkMetadata(metadata);
+      selections++;
+      long elements = 1;
+      for (int length : shape) {
+        elements *= length;
+      }
+      selectedElements += elements;
+      ArrayAccessProfile.Selection selection = new ArrayAccessProfile.Selection(shape, offset);
+      long[] count = distinctSelections.get(selection);
+      if (count != null) {
+        count[0]++;
+      } else if (distinctSelections.size() < MAX_SELECTIONS) {
+        distinctSelections.put(selection, new long[]{1L});
+      }
+    }
+
+    private void checkMetadata(ZarrArrayMetadata current) {
+      // the array was rewritten with another chunk layout, what was recorded no longer applies
+      if (!current.equals(metadata)) {
+        metadata = current;
+        reads = 0;
+        missingReads = 0;
+        bytesRead = 0;
+        writes = 0;
+        bytesWritten = 0;
+        selections = 0;
+        selectedElements = 0;
+        chunkReads.clear();
+        distinctSelections.clear();
+      }
+    }
+
+    private synchronized ArrayAccessProfile snapshot(String arrayKey, long storedChunks, long storedBytes) throws IOException {
+      Map<Long, Long> reads = new HashMap<>();
+      chunkReads.forEach((index, count) -> reads.put(index, count[0]));
+      Map<ArrayAccessProfile.Selection, Long> selectionCounts = new LinkedHashMap<>();
+      distinctSelections.forEach((selection, count) -> selectionCounts.put(selection, count[0]));
+      int itemSize = ChunkCodec.itemSize(metadata.getDtype());
+      long chunkElements = 1;
+      for (int chunk : metadata.getChunks()) {
+        chunkElements *= chunk;
+      }
+      double storedBytesPerElement;
+      if (storedChunks > 0) {
+        storedBytesPerElement = (double) storedBytes / (storedChunks * chunkElements);
+      } else if (this.reads > missingReads) {
+        storedBytesPerElement = (double) bytesRead / ((this.reads - missingReads) * chunkElements);
+      } else {
+        storedBytesPerElement = itemSize;
+      }
+      return new ArrayAccessProfile(
+          arrayKey, metadata, itemSize, storedBytesPerElement,
+          this.reads, missingReads, bytesRead, writes, bytesWritten, selections, selectedElements,
+          reads, selectionCounts);
+    }
+  }
+}
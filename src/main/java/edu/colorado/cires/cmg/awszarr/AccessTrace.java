@@ -0,0 +1,184 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary format of the access traces written by a {@link RecordingS3ClientWrapper}.  A trace starts with a header and
+ * is followed by one record per request, in the order requests completed.  Numbers are variable length, start times are
+ * deltas from the previous record and bucket names and keys are written once and then referred to by number, so a record
+ * of a repeated key takes a few bytes.  The table of written strings is cleared after {@link #MAX_STRINGS} strings, so the
+ * memory used to record a trace does not grow with the number of distinct keys.
+ */
+public final class AccessTrace {
+
+  private static final int MAGIC = 0x5A545243;
+  private static final byte VERSION = 2;
+  private static final TraceOperation[] OPERATIONS = TraceOperation.values();
+  private static final int RESET_STRINGS = 0xFF;
+
+  /**
+   * The maximum number of strings referred to by number before the table is cleared.
+   */
+  static final int MAX_STRINGS = 1 << 16;
+
+  private AccessTrace() {
+
+  }
+
+  /**
+   * Reads every event of a trace.
+   *
+   * @param inputStream the trace, which is not closed
+   * @return the events in the order they were recorded, which is the order the requests completed
+   * @throws IOException if the trace could not be read
+   */
+  public static List<TraceEvent> read(InputStream inputStream) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+    if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+      throw new IOException("Unsupported access trace format");
+    }
+    List<String> strings = new ArrayList<>();
+    List<TraceEvent> events = new ArrayList<>();
+    long start = 0;
+    int op;
+    while ((op = in.read()) >= 0) {
+      if (op == RESET_STRINGS) {
+        strings.clear();
+        continue;
+      }
+      try {
+        if (op >= OPERATIONS.length * 2) {
+          throw new IOException("Invalid access trace record: " + op);
+        }
+        start += zigZagDecode(readVarLong(in));
+        int thread = (int) readVarLong(in);
+        String bucket = readString(in, strings);
+        String key = readString(in, strings);
+        long offset = readVarLong(in);
+        long upload = readVarLong(in);
+        long bytes = readVarLong(in);
+        long latency = readVarLong(in);
+        events.add(new TraceEvent(start, thread, OPERATIONS[op >> 1], bucket, key, offset, upload, bytes, latency, (op & 1) != 0));
+      } catch (EOFException e) {
+        throw new IOException("Truncated access trace", e);
+      }
+    }
+    return events;
+  }
+
+  private static String readString(DataInputStream in, List<String> strings) throws IOException {
+    int id = (int) readVarLong(in);
+    if (id == strings.size()) {
+      strings.add(in.readUTF());
+    } else if (id > strings.size()) {
+      throw new IOException("Invalid access trace string reference: " + id);
+    }
+    return strings.get(id);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Invalid access trace number");
+  }
+
+  private static long zigZagDecode(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Writes a trace.  Records may be written by many threads.
+   */
+  static final class Writer implements Closeable {
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private long previousStart;
+
+    /**
+     * Creates a new Writer and writes the header of the trace.
+     *
+     * @param outputStream receives the trace and is closed by {@link #close()}
+     * @throws IOException if the header could not be written
+     */
+    Writer(OutputStream outputStream) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(outputStream));
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+    }
+
+    /**
+     * Writes a record.
+     *
+     * @param event the event
+     * @throws IOException if the record could not be written
+     */
+    synchronized void write(TraceEvent event) throws IOException {
+      // a record adds at most two strings
+      if (strings.size() > MAX_STRINGS - 2) {
+        out.writeByte(RESET_STRINGS);
+        strings.clear();
+      }
+      out.writeByte(event.getOperation().ordinal() << 1 | (event.isFailed() ? 1 : 0));
+      writeVarLong(zigZagEncode(event.getStartNanos() - previousStart));
+      previousStart = event.getStartNanos();
+      writeVarLong(event.getThread());
+      writeString(event.getBucket());
+      writeString(event.getKey());
+      writeVarLong(event.getOffset());
+      writeVarLong(event.getUpload());
+      writeVarLong(event.getBytes());
+      writeVarLong(event.getLatencyNanos());
+    }
+
+    private void writeString(String value) throws IOException {
+      Integer id = strings.get(value);
+      if (id != null) {
+        writeVarLong(id);
+        return;
+      }
+      writeVarLong(strings.size());
+      out.writeUTF(value);
+      strings.put(value, strings.size());
+    }
+
+    private void writeVarLong(long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        out.writeByte((int) (value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      out.writeByte((int) value);
+    }
+
+    private static long zigZagEncode(long value) {
+      return (value << 1) ^ (value >> 63);
+    }
+
+    synchronized void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      out.close();
+    }
+  }
+}
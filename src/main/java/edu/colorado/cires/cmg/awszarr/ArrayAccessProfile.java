@@ -0,0 +1,490 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A snapshot of the chunk traffic of one array of an {@link AwsS3ZarrStore}, recorded when
+ * {@link AwsS3ZarrStore.Builder#profileAccess(boolean)} is enabled: the chunk reads and writes, the bytes read compared to
+ * the bytes of the selections the application used, a heatmap of the chunks read, an estimate of the request cost and a
+ * recommended chunk shape for the observed selections.  Reads are counted as the store serves them, so reads answered by
+ * the prefetch or write-back buffers are counted even though they made no request.
+ */
+public final class ArrayAccessProfile {
+
+  /**
+   * The price of a S3 Standard GET request in USD, used by {@link #getEstimatedRequestCost()}.
+   */
+  public static final double GET_REQUEST_COST = 0.0004D / 1000D;
+
+  /**
+   * The price of a S3 Standard PUT request in USD, used by {@link #getEstimatedRequestCost()}.
+   */
+  public static final double PUT_REQUEST_COST = 0.005D / 1000D;
+
+  /**
+   * The time to first byte of a request in milliseconds assumed by {@link #getRecommendedChunks()}.
+   */
+  public static final double DEFAULT_LATENCY_MS = 30D;
+
+  /**
+   * The throughput of a single request in MiB per second assumed by {@link #getRecommendedChunks()}.
+   */
+  public static final double DEFAULT_BANDWIDTH_MB_PER_SECOND = 80D;
+
+  /**
+   * The largest decoded chunk, in bytes, that is recommended.
+   */
+  public static final long MAX_CHUNK_BYTES = 128L * 1024L * 1024L;
+
+  private static final int MAX_CANDIDATES = 4096;
+  private static final int MAX_SCALE = 64;
+
+  private final String arrayKey;
+  private final ZarrArrayMetadata metadata;
+  private final int[] shape;
+  private final int[] chunks;
+  private final int itemSize;
+  private final double storedBytesPerElement;
+  private final long reads;
+  private final long missingReads;
+  private final long bytesRead;
+  private final long writes;
+  private final long bytesWritten;
+  private final long selections;
+  private final long selectedElements;
+  private final Map<Long, Long> chunkReads;
+  private final Map<Selection, Long> distinctSelections;
+
+  ArrayAccessProfile(
+      String arrayKey, ZarrArrayMetadata metadata, int itemSize, double storedBytesPerElement,
+      long reads, long missingReads, long bytesRead, long writes, long bytesWritten, long selections, long selectedElements,
+      Map<Long, Long> chunkReads, Map<Selection, Long> distinctSelections) {
+    this.arrayKey = arrayKey;
+    this.metadata = metadata;
+    this.shape = metadata.getShape();
+    this.chunks = metadata.getChunks();
+    this.itemSize = itemSize;
+    this.storedBytesPerElement = storedBytesPerElement;
+    this.reads = reads;
+    this.missingReads = missingReads;
+    this.bytesRead = bytesRead;
+    this.writes = writes;
+    this.bytesWritten = bytesWritten;
+    this.selections = selections;
+    this.selectedElements = selectedElements;
+    this.chunkReads = chunkReads;
+    this.distinctSelections = distinctSelections;
+  }
+
+  /**
+   * Returns the key of the array, relative to the store root.
+   *
+   * @return the array key
+   */
+  public String getArrayKey() {
+    return arrayKey;
+  }
+
+  /**
+   * Returns the shape of the array.
+   *
+   * @return the shape
+   */
+  public int[] getShape() {
+    return shape.clone();
+  }
+
+  /**
+   * Returns the current chunk shape of the array.
+   *
+   * @return the chunk shape
+   */
+  public int[] getChunks() {
+    return chunks.clone();
+  }
+
+  /**
+   * Returns the number of chunk reads, including reads of chunks that do not exist.
+   *
+   * @return the number of chunk reads
+   */
+  public long getReads() {
+    return reads;
+  }
+
+  /**
+   * Returns the number of reads of chunks that do not exist, which are filled with the fill value.
+   *
+   * @return the number of reads of missing chunks
+   */
+  public long getMissingReads() {
+    return missingReads;
+  }
+
+  /**
+   * Returns the number of stored bytes read from chunks.
+   *
+   * @return the number of bytes read
+   */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  /**
+   * Returns the number of chunk writes.
+   *
+   * @return the number of chunk writes
+   */
+  public long getWrites() {
+    return writes;
+  }
+
+  /**
+   * Returns the number of bytes written to chunks.
+   *
+   * @return the number of bytes written
+   */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * Returns the number of selections recorded with {@link AwsS3ZarrStore#recordSelection(String, int[], int[])}.
+   *
+   * @return the number of selections
+   */
+  public long getSelections() {
+    return selections;
+  }
+
+  /**
+   * Returns the stored size of the elements of the recorded selections, estimated from the sizes of the array's chunks
+   * in the store.
+   *
+   * @return the number of bytes used, or 0 if no selections were recorded
+   */
+  public long getBytesUsed() {
+    return Math.round(selectedElements * storedBytesPerElement);
+  }
+
+  /**
+   * Returns the ratio of the bytes read to the bytes used, i.e. 40 when reads fetch 40 times more than the selections need.
+   *
+   * @return the read amplification, or 0 if no selections were recorded
+   */
+  public double getReadAmplification() {
+    long used = getBytesUsed();
+    return used == 0 ? 0D : (double) bytesRead / used;
+  }
+
+  /**
+   * Returns the price of the chunk requests, at {@link #GET_REQUEST_COST} per read and {@link #PUT_REQUEST_COST} per write.
+   *
+   * @return the estimated request cost in USD
+   */
+  public double getEstimatedRequestCost() {
+    return reads * GET_REQUEST_COST + writes * PUT_REQUEST_COST;
+  }
+
+  /**
+   * Returns the number of reads of a chunk.
+   *
+   * @param coordinates the chunk coordinates
+   * @return the number of reads
+   */
+  public long getChunkReads(int[] coordinates) {
+    if (coordinates.length != chunks.length) {
+      throw new IllegalArgumentException("Expected " + chunks.length + " coordinates");
+    }
+    return chunkReads.getOrDefault(metadata.linearIndex(coordinates), 0L);
+  }
+
+  /**
+   * Returns the most read chunks.
+   *
+   * @param limit the maximum number of chunks to return
+   * @return the chunk keys relative to the array, i.e. "0.3", mapped to their number of reads, most read first
+   */
+  public Map<String, Long> getHotChunks(int limit) {
+    List<Map.Entry<Long, Long>> entries = new ArrayList<>(chunkReads.entrySet());
+    entries.sort(Map.Entry.<Long, Long>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()));
+    Map<String, Long> hot = new LinkedHashMap<>();
+    for (Map.Entry<Long, Long> entry : entries.subList(0, Math.min(limit, entries.size()))) {
+      hot.put(metadata.chunkKey(metadata.coordinates(entry.getKey())), entry.getValue());
+    }
+    return hot;
+  }
+
+  /**
+   * Returns the number of reads of each chunk index along one dimension, summed over the other dimensions.
+   *
+   * @param dimension the dimension
+   * @return the reads by chunk index
+   */
+  public long[] getHeatmap(int dimension) {
+    int[] grid = metadata.getChunkGrid();
+    long[] heatmap = new long[grid[dimension]];
+    chunkReads.forEach((index, count) -> heatmap[metadata.coordinates(index)[dimension]] += count);
+    return heatmap;
+  }
+
+  /**
+   * Returns the number of reads of each chunk in the plane of two dimensions, summed over the other dimensions, i.e. a
+   * latitude by longitude map of the chunks read.
+   *
+   * @param rowDimension the dimension of the rows
+   * @param columnDimension the dimension of the columns
+   * @return the reads by row and column chunk index
+   */
+  public long[][] getHeatmap(int rowDimension, int columnDimension) {
+    if (rowDimension == columnDimension) {
+      throw new IllegalArgumentException("The row and column dimensions must be different");
+    }
+    int[] grid = metadata.getChunkGrid();
+    long[][] heatmap = new long[grid[rowDimension]][grid[columnDimension]];
+    chunkReads.forEach((index, count) -> {
+      int[] coordinates = metadata.coordinates(index);
+      heatmap[coordinates[rowDimension]][coordinates[columnDimension]] += count;
+    });
+    return heatmap;
+  }
+
+  /**
+   * Returns the number of chunk reads the recorded selections would need with another chunk shape.
+   *
+   * @param chunks the chunk shape
+   * @return the number of chunk reads
+   */
+  public long getEstimatedReads(int[] chunks) {
+    checkChunks(chunks);
+    long requests = 0;
+    for (Map.Entry<Selection, Long> entry : distinctSelections.entrySet()) {
+      requests += entry.getKey().chunksTouched(chunks) * entry.getValue();
+    }
+    return requests;
+  }
+
+  /**
+   * Returns the number of stored bytes the recorded selections would read with another chunk shape, assuming chunks
+   * compress as well as the current ones.
+   *
+   * @param chunks the chunk shape
+   * @return the number of bytes read
+   */
+  public long getEstimatedBytesRead(int[] chunks) {
+    return Math.round(getEstimatedReads(chunks) * elements(chunks) * storedBytesPerElement);
+  }
+
+  /**
+   * Returns the chunk shape that reads the recorded selections in the least time, with {@link #DEFAULT_LATENCY_MS} and
+   * {@link #DEFAULT_BANDWIDTH_MB_PER_SECOND}.
+   *
+   * @return the recommended chunk shape, which is the current chunk shape if no selections were recorded
+   */
+  public int[] getRecommendedChunks() {
+    return getRecommendedChunks(DEFAULT_LATENCY_MS, DEFAULT_BANDWIDTH_MB_PER_SECOND);
+  }
+
+  /**
+   * Returns the chunk shape that reads the recorded selections in the least time, where each chunk read costs the latency
+   * plus the time to transfer its stored bytes.  Candidates scale each dimension of the current chunk shape by powers of
+   * two, or span the whole dimension or the recorded selection lengths, and are at most {@link #MAX_CHUNK_BYTES} decoded.
+   *
+   * @param latencyMs the time to first byte of a request in milliseconds
+   * @param bandwidthMbPerSecond the throughput of a single request in MiB per second
+   * @return the recommended chunk shape, which is the current chunk shape if no selections were recorded
+   */
+  public int[] getRecommendedChunks(double latencyMs, double bandwidthMbPerSecond) {
+    if (latencyMs < 0D || bandwidthMbPerSecond <= 0D) {
+      throw new IllegalArgumentException("latency must not be negative and bandwidth must be positive");
+    }
+    if (distinctSelections.isEmpty()) {
+      return chunks.clone();
+    }
+    double secondsPerRequest = latencyMs / 1000D;
+    double secondsPerByte = 1D / (bandwidthMbPerSecond * 1024D * 1024D);
+    List<int[]> candidates = candidates();
+    int[] best = chunks.clone();
+    double bestTime = time(best, secondsPerRequest, secondsPerByte);
+    long combinations = 1;
+    for (int[] dimension : candidates) {
+      combinations *= dimension.length;
+    }
+    if (combinations <= MAX_CANDIDATES) {
+      int[] index = new int[chunks.length];
+      int[] candidate = new int[chunks.length];
+      for (long i = 0; i < combinations; i++) {
+        for (int d = 0; d < chunks.length; d++) {
+          candidate[d] = candidates.get(d)[index[d]];
+        }
+        double time = time(candidate, secondsPerRequest, secondsPerByte);
+        if (time < bestTime) {
+          bestTime = time;
+          best = candidate.clone();
+        }
+        for (int d = chunks.length - 1; d >= 0 && ++index[d] == candidates.get(d).length; d--) {
+          index[d] = 0;
+        }
+      }
+      return best;
+    }
+    // too many combinations, improve one dimension at a time until no dimension improves
+    boolean improved = true;
+    for (int round = 0; improved && round < 16; round++) {
+      improved = false;
+      for (int d = 0; d < chunks.length; d++) {
+        int[] candidate = best.clone();
+        for (int size : candidates.get(d)) {
+          candidate[d] = size;
+          double time = time(candidate, secondsPerRequest, secondsPerByte);
+          if (time < bestTime) {
+            bestTime = time;
+            best = candidate.clone();
+            improved = true;
+          }
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Returns how many current chunks along each dimension one recommended chunk spans, i.e. the factor to shard or combine
+   * the current chunks by.
+   *
+   * @return the sharding factor, or null if the recommended chunk shape is not a multiple of the current chunk shape
+   */
+  public int[] getShardingFactor() {
+    int[] recommended = getRecommendedChunks();
+    int[] factor = new int[chunks.length];
+    for (int d = 0; d < chunks.length; d++) {
+      if (recommended[d] % chunks[d] != 0 && recommended[d] != shape[d]) {
+        return null;
+      }
+      factor[d] = (recommended[d] + chunks[d] - 1) / chunks[d];
+    }
+    return factor;
+  }
+
+  private List<int[]> candidates() {
+    List<int[]> candidates = new ArrayList<>();
+    for (int d = 0; d < chunks.length; d++) {
+      TreeSet<Integer> sizes = new TreeSet<>();
+      sizes.add(chunks[d]);
+      sizes.add(Math.max(1, shape[d]));
+      for (int scale = 2; scale <= MAX_SCALE; scale *= 2) {
+        sizes.add(Math.max(1, chunks[d] / scale));
+        sizes.add((int) Math.min(Math.max(1, shape[d]), (long) chunks[d] * scale));
+      }
+      for (Selection selection : distinctSelections.keySet()) {
+        if (sizes.size() >= 2 * MAX_SCALE) {
+          break;
+        }
+        sizes.add(Math.max(1, Math.min(selection.shape[d], shape[d])));
+      }
+      candidates.add(sizes.stream().mapToInt(Integer::intValue).toArray());
+    }
+    return candidates;
+  }
+
+  private double time(int[] candidate, double secondsPerRequest, double secondsPerByte) {
+    long elements = elements(candidate);
+    if (elements * itemSize > MAX_CHUNK_BYTES && !Arrays.equals(candidate, chunks)) {
+      return Double.MAX_VALUE;
+    }
+    long requests = getEstimatedReads(candidate);
+    return requests * (secondsPerRequest + elements * storedBytesPerElement * secondsPerByte);
+  }
+
+  private void checkChunks(int[] chunks) {
+    if (chunks.length != this.chunks.length) {
+      throw new IllegalArgumentException("Expected " + this.chunks.length + " chunk dimensions");
+    }
+    for (int chunk : chunks) {
+      if (chunk < 1) {
+        throw new IllegalArgumentException("Chunk dimensions must be positive");
+      }
+    }
+  }
+
+  private static long elements(int[] chunks) {
+    long elements = 1;
+    for (int chunk : chunks) {
+      elements *= chunk;
+    }
+    return elements;
+  }
+
+  @Override
+  public String toString() {
+    return "ArrayAccessProfile{" +
+        "arrayKey='" + arrayKey + '\'' +
+        ", chunks=" + Arrays.toString(chunks) +
+        ", reads=" + reads +
+        ", missingReads=" + missingReads +
+        ", bytesRead=" + bytesRead +
+        ", bytesUsed=" + getBytesUsed() +
+        ", writes=" + writes +
+        ", bytesWritten=" + bytesWritten +
+        ", selections=" + selections +
+        ", estimatedRequestCost=" + getEstimatedRequestCost() +
+        ", recommendedChunks=" + Arrays.toString(getRecommendedChunks()) +
+        '}';
+  }
+
+  /**
+   * A region of an array read by the application.
+   */
+  static final class Selection {
+
+    private final int[] shape;
+    private final int[] offset;
+
+    Selection(int[] shape, int[] offset) {
+      this.shape = shape.clone();
+      this.offset = offset.clone();
+    }
+
+    /**
+     * Returns the number of chunks of a chunk shape that overlap this selection.
+     *
+     * @param chunks the chunk shape
+     * @return the number of chunks
+     */
+    long chunksTouched(int[] chunks) {
+      long count = 1;
+      for (int d = 0; d < chunks.length; d++) {
+        if (shape[d] <= 0) {
+          return 0;
+        }
+        int first = offset[d] / chunks[d];
+        int last = (offset[d] + shape[d] - 1) / chunks[d];
+        count *= last - first + 1;
+      }
+      return count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Selection selection = (Selection) o;
+      return Arrays.equals(shape, selection.shape) && Arrays.equals(offset, selection.offset);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Arrays.hashCode(shape) + Arrays.hashCode(offset);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import com.bc.zarr.ZarrConstants;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the parsed .zarray metadata of the arrays in a store and identifies which store keys are chunks.
+ */
+final class ArrayMetadataCache {
+
+  /**
+   * Reads a store object, relative to the store root.
+   */
+  interface Reader {
+
+    /**
+     * Opens a store object
+     *
+     * @param key the key relative to the store root
+     * @return an {@link Optional} that wraps an {@link InputStream} or an empty {@link Optional} if the object does not exist
+     * @throws IOException if the object could not be read
+     */
+    Optional<InputStream> read(String key) throws IOException;
+  }
+
+  private final Reader reader;
+  private final ConcurrentMap<String, Optional<ZarrArrayMetadata>> cache = new ConcurrentHashMap<>();
+
+  ArrayMetadataCache(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * Returns the metadata for an array
+   *
+   * @param arrayKey the array key relative to the store root
+   * @return the metadata or an empty {@link Optional} if there is no array at the given key
+   * @throws IOException if the metadata could not be read
+   */
+  Optional<ZarrArrayMetadata> get(String arrayKey) throws IOException {
+    String normalized = new S3Path(arrayKey).toString();
+    Optional<ZarrArrayMetadata> metadata = cache.get(normalized);
+    if (metadata == null) {
+      metadata = load(normalized);
+      Optional<ZarrArrayMetadata> existing = cache.putIfAbsent(normalized, metadata);
+      if (existing != null) {
+        metadata = existing;
+      }
+    }
+    return metadata;
+  }
+
+  private Optional<ZarrArrayMetadata> load(String arrayKey) throws IOException {
+    Optional<InputStream> inputStream = reader.read(new S3Path(arrayKey).resolve(ZarrConstants.FILENAME_DOT_ZARRAY).toString());
+    if (!inputStream.isPresent()) {
+      return Optional.empty();
+    }
+    try (InputStream in = inputStream.get()) {
+      return Optional.of(ZarrArrayMetadata.read(in));
+    }
+  }
+
+  /**
+   * Discards any cached metadata for an array, i.e. when its .zarray has been rewritten.
+   *
+   * @param arrayKey the array key relative to the store root
+   */
+  void invalidate(String arrayKey) {
+    cache.remove(new S3Path(arrayKey).toString());
+  }
+
+  /**
+   * Returns the array key if the given store key is a .zarray document.
+   *
+   * @param key a store key relative to the store root
+   * @return the array key or an empty {@link Optional} if the key is not a .zarray document
+   */
+  static Optional<String> arrayKeyOfMetadata(String key) {
+    List<String> parts = new S3Path(key).getParts();
+    if (parts.isEmpty() || !parts.get(parts.size() - 1).equals(ZarrConstants.FILENAME_DOT_ZARRAY)) {
+      return Optional.empty();
+    }
+    return Optional.of(new S3Path(parts.subList(0, parts.size() - 1)).toString());
+  }
+
+  /**
+   * Determines if a store key is a chunk of an array in this store.  Candidate arrays are found by walking up the key's parents
+   * while the trailing key parts look like chunk coordinates, so both "." and "/" dimension separators are supported.
+   *
+   * @param key a store key relative to the store root
+   * @return the {@link ChunkKey} or an empty {@link Optional} if the key is not a chunk
+   * @throws IOException if array metadata could not be read
+   */
+  Optional<ChunkKey> resolveChunk(String key) throws IOException {
+    List<String> parts = new S3Path(key).getParts();
+    if (parts.isEmpty()) {
+      return Optional.empty();
+    }
+    for (int split = parts.size() - 1; split >= 0; split--) {
+      String part = parts.get(split);
+      boolean lastPart = split == parts.size() - 1;
+      if (!(lastPart ? isDottedNumber(part) : isNumber(part))) {
+        break;
+      }
+      String arrayKey = new S3Path(parts.subList(0, split)).toString();
+      Optional<ZarrArrayMetadata> metadata = get(arrayKey);
+      if (metadata.isPresent()) {
+        int[] coordinates = metadata.get().parseChunkKey(String.join("/", parts.subList(split, parts.size())));
+        if (coordinates != null) {
+          return Optional.of(new ChunkKey(arrayKey, coordinates, metadata.get()));
+        }
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static boolean isNumber(String part) {
+    if (part.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < part.length(); i++) {
+      if (!Character.isDigit(part.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isDottedNumber(String part) {
+    if (part.isEmpty() || part.startsWith(".") || part.endsWith(".")) {
+      return false;
+    }
+    for (int i = 0; i < part.length(); i++) {
+      char c = part.charAt(i);
+      if (c != '.' && !Character.isDigit(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -3,23 +3,46 @@ package edu.colorado.cires.cmg.awszarr;
 import edu.colorado.cires.cmg.s3out.AwsS3ClientMultipartUpload;
 import edu.colorado.cires.cmg.s3out.NoContentTypeResolver;
 import edu.colorado.cires.cmg.s3out.S3ClientMultipartUpload;
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.IntFunction;
 import java.util.stream.Stream;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
 import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
 
 /**
  * A {@link S3ClientWrapper} that uses a {@link S3Client} to access files from an S3 bucket.
  */
-public class AwsS3ClientWrapper implements S3ClientWrapper {
+public class AwsS3ClientWrapper implements S3ClientWrapper, Closeable {
 
   /**
    * Creates a new {@link Builder} to build a AwsS3ClientWrapper
@@ -35,14 +58,34 @@ public class AwsS3ClientWrapper implements S3ClientWrapper {
    */
   public static class Builder {
 
+    private static final int DEFAULT_MAX_CONNECTIONS = 50;
+    private static final Duration DEFAULT_CONNECTION_ACQUISITION_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration DEFAULT_CONNECTION_MAX_IDLE_TIME = Duration.ofSeconds(15);
+
     private S3Client s3;
+    private Region region;
+    private AwsCredentialsProvider credentialsProvider;
+    private URI endpointOverride;
+    private HttpTransport httpTransport = HttpTransport.APACHE;
+    // the options that only apply to the Apache HTTP client are null until set, so they can be rejected for other clients
+    private Integer maxConnections;
+    private Duration connectionAcquisitionTimeout;
+    private Duration connectionMaxIdleTime;
+    private Duration connectionTimeToLive;
+    private Boolean useIdleConnectionReaper;
+    private Boolean tcpKeepAlive;
+    private Duration connectionTimeout;
+    private Duration socketTimeout;
+    private Integer socketReceiveBufferBytes;
+    private Integer socketSendBufferBytes;
 
     private Builder() {
 
     }
 
     /**
-     * Sets the {@link S3Client}
+     * Sets the {@link S3Client}.  When this is not set, a S3Client is built with the HTTP client options of this builder
+     * and is closed by {@link AwsS3ClientWrapper#close()}.
      *
      * @param s3 the {@link S3Client}
      * @return this Builder
@@ -52,25 +95,294 @@ public class AwsS3ClientWrapper implements S3ClientWrapper {
       return this;
     }
 
+    /**
+     * Sets the region of a built S3Client.
+     * Default: the region from the default region provider chain
+     *
+     * @param region the {@link Region}
+     * @return this Builder
+     */
+    public Builder region(Region region) {
+      this.region = region;
+      return this;
+    }
+
+    /**
+     * Sets the credentials of a built S3Client.
+     * Default: the default credentials provider chain
+     *
+     * @param credentialsProvider the {@link AwsCredentialsProvider}
+     * @return this Builder
+     */
+    public Builder credentialsProvider(AwsCredentialsProvider credentialsProvider) {
+      this.credentialsProvider = credentialsProvider;
+      return this;
+    }
+
+    /**
+     * Sets the endpoint of a built S3Client, i.e. for a S3 compatible service.
+     * Default: the S3 endpoint of the region
+     *
+     * @param endpointOverride the endpoint
+     * @return this Builder
+     */
+    public Builder endpointOverride(URI endpointOverride) {
+      this.endpointOverride = endpointOverride;
+      return this;
+    }
+
+    /**
+     * Sets the HTTP client of a built S3Client.  Setting an option that is marked {@link HttpTransport#APACHE} only with
+     * another transport makes {@link #build()} fail with an {@link IllegalArgumentException}.
+     * Default: {@link HttpTransport#APACHE}
+     *
+     * @param httpTransport the {@link HttpTransport}
+     * @return this Builder
+     */
+    public Builder httpTransport(HttpTransport httpTransport) {
+      this.httpTransport = Objects.requireNonNull(httpTransport);
+      return this;
+    }
+
+    /**
+     * Sets the size of the connection pool of a built S3Client.  This should be at least the number of concurrent requests
+     * made through this wrapper, i.e. the sum of {@link AwsS3ZarrStore.Builder#ioConcurrency(int)}, the upload buffers of
+     * concurrent writes and the number of threads reading chunks, otherwise requests wait for a free connection.
+     * {@link HttpTransport#APACHE} only.
+     * Default: 50
+     *
+     * @param maxConnections the maximum number of connections
+     * @return this Builder
+     */
+    public Builder maxConnections(int maxConnections) {
+      this.maxConnections = maxConnections;
+      return this;
+    }
+
+    /**
+     * Sets how long a request waits for a connection from the pool before failing.  {@link HttpTransport#APACHE} only.
+     * Default: 10 seconds
+     *
+     * @param connectionAcquisitionTimeout the maximum time to wait for a connection
+     * @return this Builder
+     */
+    public Builder connectionAcquisitionTimeout(Duration connectionAcquisitionTimeout) {
+      this.connectionAcquisitionTimeout = connectionAcquisitionTimeout;
+      return this;
+    }
+
+    /**
+     * Sets how long a connection may be idle in the pool before it is closed.  Keeping connections longer avoids TCP and TLS
+     * handshakes for bursty workloads, but S3 closes idle connections after about 20 seconds, so a longer idle time keeps
+     * connections that fail when reused.
+     * {@link HttpTransport#APACHE} only.
+     * Default: 15 seconds
+     *
+     * @param connectionMaxIdleTime the maximum idle time
+     * @return this Builder
+     */
+    public Builder connectionMaxIdleTime(Duration connectionMaxIdleTime) {
+      this.connectionMaxIdleTime = connectionMaxIdleTime;
+      return this;
+    }
+
+    /**
+     * Sets the maximum age of a pooled connection, after which it is closed rather than reused, so load is rebalanced across
+     * S3 front end hosts when DNS changes.  {@link HttpTransport#APACHE} only.
+     * Default: unlimited
+     *
+     * @param connectionTimeToLive the maximum age of a connection
+     * @return this Builder
+     */
+    public Builder connectionTimeToLive(Duration connectionTimeToLive) {
+      this.connectionTimeToLive = connectionTimeToLive;
+      return this;
+    }
+
+    /**
+     * When enabled, a background thread closes connections that have been idle longer than
+     * {@link #connectionMaxIdleTime(Duration)}, otherwise they are only checked when taken from the pool.
+     * {@link HttpTransport#APACHE} only.
+     * Default: true
+     *
+     * @param useIdleConnectionReaper true to close idle connections in the background
+     * @return this Builder
+     */
+    public Builder useIdleConnectionReaper(boolean useIdleConnectionReaper) {
+      this.useIdleConnectionReaper = useIdleConnectionReaper;
+      return this;
+    }
+
+    /**
+     * When enabled, TCP keep-alive is enabled on connections, so pooled connections dropped by the network are detected.
+     * {@link HttpTransport#APACHE} only.
+     * Default: false
+     *
+     * @param tcpKeepAlive true to enable TCP keep-alive
+     * @return this Builder
+     */
+    public Builder tcpKeepAlive(boolean tcpKeepAlive) {
+      this.tcpKeepAlive = tcpKeepAlive;
+      return this;
+    }
+
+    /**
+     * Sets the timeout for establishing a connection.
+     * Default: the HTTP client default
+     *
+     * @param connectionTimeout the connection timeout
+     * @return this Builder
+     */
+    public Builder connectionTimeout(Duration connectionTimeout) {
+      this.connectionTimeout = connectionTimeout;
+      return this;
+    }
+
+    /**
+     * Sets the timeout for reading from or writing to a connection.
+     * Default: the HTTP client default
+     *
+     * @param socketTimeout the socket timeout
+     * @return this Builder
+     */
+    public Builder socketTimeout(Duration socketTimeout) {
+      this.socketTimeout = socketTimeout;
+      return this;
+    }
+
+    /**
+     * Sets the socket receive buffer size of HTTPS connections.  Larger buffers allow a larger TCP window, which increases
+     * the throughput of a single connection reading large chunks over a high latency link.  TLS connections are then made
+     * with the JVM's default SSLContext and hostname verification instead of the SDK's TLS socket factory.
+     * {@link HttpTransport#APACHE} and HTTPS endpoints only, building fails with an {@link IllegalArgumentException} for
+     * other transports or an http {@link #endpointOverride(URI)}.
+     * Default: 0 (the operating system default)
+     *
+     * @param socketReceiveBufferBytes the receive buffer size in bytes
+     * @return this Builder
+     */
+    public Builder socketReceiveBufferBytes(int socketReceiveBufferBytes) {
+      this.socketReceiveBufferBytes = socketReceiveBufferBytes;
+      return this;
+    }
+
+    /**
+     * Sets the socket send buffer size of HTTPS connections, see {@link #socketReceiveBufferBytes(int)}.
+     * {@link HttpTransport#APACHE} and HTTPS endpoints only.
+     * Default: 0 (the operating system default)
+     *
+     * @param socketSendBufferBytes the send buffer size in bytes
+     * @return this Builder
+     */
+    public Builder socketSendBufferBytes(int socketSendBufferBytes) {
+      this.socketSendBufferBytes = socketSendBufferBytes;
+      return this;
+    }
+
     /**
      * Builds a new {@link AwsS3ClientWrapper}
      *
      * @return a new {@link AwsS3ClientWrapper}
      */
     public AwsS3ClientWrapper build() {
+      S3Client client = s3 == null ? buildS3Client() : s3;
       return new AwsS3ClientWrapper(
-          s3,
-          AwsS3ClientMultipartUpload.builder().s3(s3).contentTypeResolver(new NoContentTypeResolver()).build());
+          client,
+          AwsS3ClientMultipartUpload.builder().s3(client).contentTypeResolver(new NoContentTypeResolver()).build(),
+          s3 == null);
+    }
+
+    private S3Client buildS3Client() {
+      S3ClientBuilder builder = S3Client.builder().httpClient(buildHttpClient());
+      if (region != null) {
+        builder.region(region);
+      }
+      if (credentialsProvider != null) {
+        builder.credentialsProvider(credentialsProvider);
+      }
+      if (endpointOverride != null) {
+        builder.endpointOverride(endpointOverride);
+      }
+      return builder.build();
+    }
+
+    private SdkHttpClient buildHttpClient() {
+      if (httpTransport == HttpTransport.URL_CONNECTION) {
+        rejectApacheOption("maxConnections", maxConnections);
+        rejectApacheOption("connectionAcquisitionTimeout", connectionAcquisitionTimeout);
+        rejectApacheOption("connectionMaxIdleTime", connectionMaxIdleTime);
+        rejectApacheOption("connectionTimeToLive", connectionTimeToLive);
+        rejectApacheOption("useIdleConnectionReaper", useIdleConnectionReaper);
+        rejectApacheOption("tcpKeepAlive", tcpKeepAlive);
+        rejectApacheOption("socketReceiveBufferBytes", socketReceiveBufferBytes);
+        rejectApacheOption("socketSendBufferBytes", socketSendBufferBytes);
+        UrlConnectionHttpClient.Builder builder = UrlConnectionHttpClient.builder();
+        if (connectionTimeout != null) {
+          builder.connectionTimeout(connectionTimeout);
+        }
+        if (socketTimeout != null) {
+          builder.socketTimeout(socketTimeout);
+        }
+        return builder.build();
+      }
+      int connections = maxConnections == null ? DEFAULT_MAX_CONNECTIONS : maxConnections;
+      if (connections < 1) {
+        throw new IllegalArgumentException("maxConnections must be at least 1");
+      }
+      ApacheHttpClient.Builder builder = ApacheHttpClient.builder()
+          .maxConnections(connections)
+          .connectionAcquisitionTimeout(
+              connectionAcquisitionTimeout == null ? DEFAULT_CONNECTION_ACQUISITION_TIMEOUT : connectionAcquisitionTimeout)
+          .connectionMaxIdleTime(connectionMaxIdleTime == null ? DEFAULT_CONNECTION_MAX_IDLE_TIME : connectionMaxIdleTime)
+          .useIdleConnectionReaper(useIdleConnectionReaper == null || useIdleConnectionReaper)
+          .tcpKeepAlive(tcpKeepAlive != null && tcpKeepAlive);
+      if (connectionTimeToLive != null) {
+        builder.connectionTimeToLive(connectionTimeToLive);
+      }
+      if (connectionTimeout != null) {
+        builder.connectionTimeout(connectionTimeout);
+      }
+      if (socketTimeout != null) {
+        builder.socketTimeout(socketTimeout);
+      }
+      int receiveBufferBytes = socketReceiveBufferBytes == null ? 0 : socketReceiveBufferBytes;
+      int sendBufferBytes = socketSendBufferBytes == null ? 0 : socketSendBufferBytes;
+      if (receiveBufferBytes > 0 || sendBufferBytes > 0) {
+        // the socket factory of the Apache HTTP client is only used for https, http connections keep the default buffers
+        if (endpointOverride != null && "http".equalsIgnoreCase(endpointOverride.getScheme())) {
+          throw new IllegalArgumentException("socket buffer sizes are only supported for https endpoints: " + endpointOverride);
+        }
+        builder.socketFactory(new BufferedSocketFactory(receiveBufferBytes, sendBufferBytes));
+      }
+      return builder.build();
+    }
+
+    private void rejectApacheOption(String name, Object value) {
+      if (value != null) {
+        throw new IllegalArgumentException(name + " is only supported by " + HttpTransport.APACHE);
+      }
     }
 
   }
 
   private final S3Client s3;
   private final S3ClientMultipartUpload s3Upload;
+  private final boolean ownsClient;
 
-  private AwsS3ClientWrapper(S3Client s3, S3ClientMultipartUpload s3Upload) {
+  private AwsS3ClientWrapper(S3Client s3, S3ClientMultipartUpload s3Upload, boolean ownsClient) {
     this.s3 = s3;
     this.s3Upload = s3Upload;
+    this.ownsClient = ownsClient;
+  }
+
+  /**
+   * Closes the S3Client if it was built by this wrapper.  A S3Client set with {@link Builder#s3(S3Client)} is not closed.
+   */
+  @Override
+  public void close() {
+    if (ownsClient) {
+      s3.close();
+    }
   }
 
   @Override
@@ -82,16 +394,134 @@ public class AwsS3ClientWrapper implements S3ClientWrapper {
     }
   }
 
+  @Override
+  public Optional<InputStream> getObjectRange(String bucket, String key, long firstByte, long lastByte) {
+    try {
+      return Optional.of(s3.getObject(GetObjectRequest.builder().bucket(bucket).key(key).range("bytes=" + firstByte + "-" + lastByte).build()));
+    } catch (NoSuchKeyException e) {
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public Optional<ByteBuffer> getObjectBuffer(String bucket, String key) {
+    // sized from the Content-Length, so the contents are read once into a buffer of the exact size
+    return getObjectBuffer(bucket, key, ByteBuffer::allocate).map(buffer -> {
+      buffer.flip();
+      return buffer;
+    });
+  }
+
+  @Override
+  public Optional<ByteBuffer> getObjectBuffer(String bucket, String key, IntFunction<ByteBuffer> allocator) {
+    ResponseInputStream<GetObjectResponse> response;
+    try {
+      response = s3.getObject(GetObjectRequest.builder().bucket(bucket).key(key).build());
+    } catch (NoSuchKeyException e) {
+      return Optional.empty();
+    }
+    try (InputStream in = response) {
+      long length = response.response().contentLength();
+      if (length > Integer.MAX_VALUE) {
+        response.abort();
+        throw new IllegalStateException("Object is too large for a ByteBuffer: " + bucket + "/" + key);
+      }
+      ByteBuffer buffer = allocator.apply((int) length);
+      if (buffer.remaining() < length) {
+        response.abort();
+        throw new BufferOverflowException();
+      }
+      int end = buffer.position() + (int) length;
+      if (buffer.hasArray()) {
+        // read straight into the backing array
+        while (buffer.position() < end) {
+          int read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), end - buffer.position());
+          if (read == -1) {
+            throw new IOException("Unexpected end of object at " + (length - (end - buffer.position())));
+          }
+          buffer.position(buffer.position() + read);
+        }
+      } else {
+        byte[] transfer = new byte[(int) Math.min(length, 64 * 1024)];
+        while (buffer.position() < end) {
+          int read = in.read(transfer, 0, Math.min(transfer.length, end - buffer.position()));
+          if (read == -1) {
+            throw new IOException("Unexpected end of object at " + (length - (end - buffer.position())));
+          }
+          buffer.put(transfer, 0, read);
+        }
+      }
+      return Optional.of(buffer);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read object: " + bucket + "/" + key, e);
+    }
+  }
+
+  @Override
+  public void putObject(String bucket, String key, ByteBuffer contents) {
+    int length = contents.remaining();
+    // the stream reads the buffer in place and supports mark and reset, so the SDK can retry without copying the buffer
+    s3.putObject(
+        PutObjectRequest.builder().bucket(bucket).key(key).contentLength((long) length).build(),
+        RequestBody.fromInputStream(new ByteBufferInputStream(contents), length));
+  }
+
   @Override
   public void deleteObject(String bucket, String key) {
     s3.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
   }
 
+  @Override
+  public void copyObject(String sourceBucket, String sourceKey, String destinationBucket, String destinationKey) {
+    s3.copyObject(CopyObjectRequest.builder()
+        .copySource(copySource(sourceBucket, sourceKey))
+        .destinationBucket(destinationBucket)
+        .destinationKey(destinationKey)
+        .build());
+  }
+
+  @Override
+  public CompletedPart uploadPartCopy(
+      String sourceBucket, String sourceKey, long firstByte, long lastByte,
+      String destinationBucket, String destinationKey, String uploadId, int partNumber) {
+    UploadPartCopyResponse response = s3.uploadPartCopy(UploadPartCopyRequest.builder()
+        .copySource(copySource(sourceBucket, sourceKey))
+        .copySourceRange("bytes=" + firstByte + "-" + lastByte)
+        .destinationBucket(destinationBucket)
+        .destinationKey(destinationKey)
+        .uploadId(uploadId)
+        .partNumber(partNumber)
+        .build());
+    return CompletedPart.builder().partNumber(partNumber).eTag(response.copyPartResult().eTag()).build();
+  }
+
+  private static String copySource(String bucket, String key) {
+    StringBuilder sb = new StringBuilder(bucket);
+    for (String part : key.split("/", -1)) {
+      try {
+        sb.append('/').append(URLEncoder.encode(part, StandardCharsets.UTF_8.name()).replace("+", "%20"));
+      } catch (UnsupportedEncodingException e) {
+        throw new IllegalStateException("UTF-8 is not supported", e);
+      }
+    }
+    return sb.toString();
+  }
+
   @Override
   public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix) {
     return s3.listObjectsV2Paginator(ListObjectsV2Request.builder().bucket(bucket).prefix(prefix).build()).stream();
   }
 
+  @Override
+  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix, String startAfter, String delimiter) {
+    return s3.listObjectsV2Paginator(ListObjectsV2Request.builder()
+        .bucket(bucket)
+        .prefix(prefix)
+        .startAfter(startAfter)
+        .delimiter(delimiter)
+        .build()).stream();
+  }
+
   @Override
   public String createMultipartUpload(String bucket, String key) {
     return s3Upload.createMultipartUpload(bucket, key);
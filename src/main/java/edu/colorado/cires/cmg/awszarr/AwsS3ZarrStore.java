@@ -3,19 +3,40 @@ package edu.colorado.cires.cmg.awszarr;
 import com.bc.zarr.ZarrConstants;
 import com.bc.zarr.storage.Store;
 import edu.colorado.cires.cmg.s3out.S3OutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.reactivestreams.Publisher;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
 /**
  * An implementation of a {@link Store} that is backed by an AWS S3 bucket
  */
-public class AwsS3ZarrStore implements Store {
+public class AwsS3ZarrStore implements Store, Closeable {
 
   /**
    * Creates a new {@link Builder} that builds a new AwsS3ZarrStore
@@ -36,6 +57,25 @@ public class AwsS3ZarrStore implements Store {
     private S3ClientWrapper s3;
     private int multipartUploadMb = 5;
     private int maxUploadBuffers = 1;
+    private int uploadConcurrency = 1;
+    private boolean chunkIndex;
+    private boolean chunkIndexSidecar;
+    private int ioConcurrency = 16;
+    private boolean virtualThreads;
+    private boolean skipUnchangedChunks;
+    private boolean skipFillChunks;
+    private boolean manifest;
+    private String inventoryBucket;
+    private String inventoryKey;
+    private boolean hashedChunkLayout;
+    private int prefetchDepth;
+    private int prefetchMaxMb = 64;
+    private int writeBackMb;
+    private int decodedCacheMb;
+    private int decodeAheadDepth = 4;
+    private int decodeThreads = Runtime.getRuntime().availableProcessors();
+    private ZarrStoreContext context;
+    private boolean profileAccess;
 
     private Builder() {
 
@@ -96,7 +136,7 @@ public class AwsS3ZarrStore implements Store {
      * to be queued before blocking population of additional parts.  The default value is 1.
      * Specifying a higher value may improve upload speed at the expense of more heap usage.
      * Using a value higher than one should be tested to see if any performance gains are achieved
-     * for your situation.
+     * for your situation.  To upload the parts of one object concurrently, see {@link #uploadConcurrency(int)}.
      * Default: 1
      *
      * @param maxUploadBuffers the number of buffers in the queue before blocking
@@ -107,13 +147,295 @@ public class AwsS3ZarrStore implements Store {
       return this;
     }
 
+    /**
+     * Sets the number of parts of a single object that are uploaded concurrently.  When greater than one, part uploads run
+     * on a pool of this many workers shared by every output stream of this store, so the upload throughput of one large
+     * object scales with the number of connections.  Part buffers are then also shared by every output stream, with at most
+     * uploadConcurrency + {@link #maxUploadBuffers(int)} parts of {@link #multipartUploadMb(int)} held in memory, and
+     * objects no larger than one part are uploaded with a single request.  Runs on virtual threads when
+     * {@link #virtualThreads(boolean)} is enabled.
+     * Default: 1
+     *
+     * @param uploadConcurrency the number of concurrent part uploads
+     * @return this Builder
+     */
+    public Builder uploadConcurrency(int uploadConcurrency) {
+      this.uploadConcurrency = uploadConcurrency;
+      return this;
+    }
+
+    /**
+     * When enabled, the store keeps a bitmap per array of which chunks exist. The bitmap for an array is built from a single
+     * listing of the array the first time one of its chunks is read or written and is kept up to date by writes and deletes
+     * made through this store. Reads of chunks that do not exist return null (the fill value) without a request to S3.
+     * Only enable this if all writes to the zarr store are made through this store instance while it is open.
+     * Default: false
+     *
+     * @param chunkIndex true to enable the chunk existence index
+     * @return this Builder
+     */
+    public Builder chunkIndex(boolean chunkIndex) {
+      this.chunkIndex = chunkIndex;
+      return this;
+    }
+
+    /**
+     * When enabled along with {@link #chunkIndex(boolean)}, the chunk existence bitmap for an array is loaded from a sidecar
+     * object (.zchunkindex) next to the array's .zarray when present, instead of listing the array.  Modified bitmaps are
+     * written back to their sidecar objects by {@link AwsS3ZarrStore#flush()}.  The sidecar of an array is deleted before the
+     * first chunk of the array is written or deleted, so a store that is not flushed leaves no stale sidecar behind.  Every
+     * store writing to the array must enable sidecars, a writer without them leaves the sidecar unchanged.
+     * Default: false
+     *
+     * @param chunkIndexSidecar true to load and save chunk existence bitmaps as sidecar objects
+     * @return this Builder
+     */
+    public Builder chunkIndexSidecar(boolean chunkIndexSidecar) {
+      this.chunkIndexSidecar = chunkIndexSidecar;
+      return this;
+    }
+
+    /**
+     * When enabled, chunk writes are buffered in memory and compared with the ETag of the existing object when closed.  The
+     * upload is skipped when the contents are unchanged.  The ETags of an array are loaded from a single listing of the array
+     * the first time one of its chunks is written.  This requires a {@link S3ClientWrapper} whose listings include MD5 based
+     * ETags, objects encrypted with KMS are always uploaded.  Objects that were uploaded in parts only match if they were
+     * uploaded with the same {@link #multipartUploadMb(int)}.  A {@link FileS3ClientWrapper} only lists ETags when
+     * {@link FileS3ClientWrapper.Builder#eTags(boolean)} is enabled, otherwise every chunk is uploaded.
+     * Default: false
+     *
+     * @param skipUnchangedChunks true to skip uploads of unchanged chunks
+     * @return this Builder
+     */
+    public Builder skipUnchangedChunks(boolean skipUnchangedChunks) {
+      this.skipUnchangedChunks = skipUnchangedChunks;
+      return this;
+    }
+
+    /**
+     * When enabled, chunk writes are buffered in memory and compared with the encoded chunk in which every value is the
+     * array's fill value, computed from the array's .zarray.  A chunk that only contains the fill value is not uploaded and
+     * any existing object is deleted instead, since a missing chunk is read as the fill value.  Arrays without a fill value,
+     * or whose dtype or compressor is not supported by jzarr, are always uploaded.
+     * Default: false
+     *
+     * @param skipFillChunks true to skip uploads of chunks that only contain the fill value
+     * @return this Builder
+     */
+    public Builder skipFillChunks(boolean skipFillChunks) {
+      this.skipFillChunks = skipFillChunks;
+      return this;
+    }
+
+    /**
+     * When enabled, the store keeps an index of every object, with its size and ETag, in a single manifest object
+     * (.zmanifest) at the store root.  The manifest is read the first time keys are needed, or built from a single listing
+     * if it does not exist, and is kept up to date by writes and deletes made through this store, so
+     * {@link AwsS3ZarrStore#getArrayKeys()}, {@link AwsS3ZarrStore#getGroupKeys()},
+     * {@link AwsS3ZarrStore#getKeysEndingWith(String)} and {@link AwsS3ZarrStore#getRelativeLeafKeys(String)} do not list
+     * the bucket.  Changes to the manifest are written by {@link AwsS3ZarrStore#flush()}.  The manifest object is deleted
+     * before the first write or delete after it was read or flushed, so a store that was changed but not flushed is listed
+     * again when it is next opened.  Only enable this if all writes to the zarr store are made through stores with this
+     * option enabled, and only one store writes to the zarr store at a time, since the last store to flush replaces the
+     * manifest.
+     * Default: false
+     *
+     * @param manifest true to replace listings with a manifest object
+     * @return this Builder
+     */
+    public Builder manifest(boolean manifest) {
+      this.manifest = manifest;
+      return this;
+    }
+
+    /**
+     * Builds the manifest from a S3 Inventory report of the bucket, read through the {@link S3ClientWrapper}, instead of a
+     * listing of the whole store, when the manifest object does not exist yet.  This enables {@link #manifest(boolean)}.
+     * The data files of the report are read concurrently with up to {@link #ioConcurrency(int)} requests.  Changes made
+     * since the report are then reconciled with one delimited listing per group, which adds objects of arrays and groups
+     * created since the report and drops those deleted since.  Changes to the chunks of arrays that existed when the report
+     * was taken are not reconciled, so with {@link #chunkIndex(boolean)} the chunks of each array are listed from S3 rather
+     * than from the manifest.  Only CSV reports are supported.
+     * Default: none, the manifest is built from a listing
+     *
+     * @param bucket the bucket the inventory report is delivered to
+     * @param key the key of a report's manifest.json, or the prefix of an inventory configuration
+     *     (destination-prefix/source-bucket/configuration-id) to use the most recent report
+     * @return this Builder
+     */
+    public Builder inventory(String bucket, String key) {
+      this.inventoryBucket = bucket;
+      this.inventoryKey = key;
+      return this;
+    }
+
+    /**
+     * When enabled, chunks are stored under one of 256 hash directories at the store root (.zh00/ to .zhff/), chosen by
+     * the MD5 of the chunk's store key, i.e. the chunk "data/0.0" may be stored at ".zh3f/data/0.0".  Metadata documents
+     * (.zarray, .zgroup, .zattrs and other names starting with ".z") stay at their usual keys.  S3 scales request rates per
+     * key prefix, so this allows parallel writers to exceed the request rate of a single prefix.  Every store opening the
+     * zarr store must use the same layout and other zarr readers will not find the chunks.  Listing a group or array lists
+     * every hash directory, enable {@link #manifest(boolean)} to avoid this.
+     * Default: false
+     *
+     * @param hashedChunkLayout true to store chunks under hash directories
+     * @return this Builder
+     */
+    public Builder hashedChunkLayout(boolean hashedChunkLayout) {
+      this.hashedChunkLayout = hashedChunkLayout;
+      return this;
+    }
+
+    /**
+     * When greater than zero, reads of chunks are tracked per array and when consecutive reads move through the chunk grid
+     * with a constant stride, i.e. a sweep along time or row-major across tiles, up to prefetchDepth chunks ahead are
+     * fetched in the background, using up to {@link #ioConcurrency(int)} concurrent requests.  See
+     * {@link AwsS3ZarrStore#getPrefetchStats()} for the hit rate.
+     * Default: 0 (disabled)
+     *
+     * @param prefetchDepth the number of chunks to fetch ahead
+     * @return this Builder
+     */
+    public Builder prefetchDepth(int prefetchDepth) {
+      this.prefetchDepth = prefetchDepth;
+      return this;
+    }
+
+    /**
+     * Sets the maximum size in MiB of prefetched chunks held in memory waiting to be read.  The oldest are discarded when
+     * this is exceeded.
+     * Default: 64
+     *
+     * @param prefetchMaxMb the maximum size of prefetched chunks in MiB
+     * @return this Builder
+     */
+    public Builder prefetchMaxMb(int prefetchMaxMb) {
+      this.prefetchMaxMb = prefetchMaxMb;
+      return this;
+    }
+
+    /**
+     * When greater than zero, chunk writes are held in memory instead of being uploaded immediately, up to this size in MiB,
+     * and reads of those chunks are answered from memory.  Repeated writes to the same chunk, i.e. jzarr rewriting a chunk
+     * for each slab smaller than the chunk shape, are combined into a single upload.  The least recently written chunks are
+     * uploaded when this is exceeded, and every chunk is uploaded by {@link AwsS3ZarrStore#flush()}, so the store must be
+     * flushed or closed after writing.  Metadata is always uploaded immediately.
+     * Default: 0
+     *
+     * @param writeBackMb the maximum size of chunks waiting to be uploaded in MiB
+     * @return this Builder
+     */
+    public Builder writeBackMb(int writeBackMb) {
+      this.writeBackMb = writeBackMb;
+      return this;
+    }
+
+    /**
+     * Sets the maximum size in MiB of decoded chunks returned by {@link AwsS3ZarrStore#getDecodedChunk(String)} that are
+     * kept in direct buffers, outside the heap.  The least recently used are discarded when this is exceeded.  When 0,
+     * chunks are decoded each time they are read.
+     * Default: 0
+     *
+     * @param decodedCacheMb the maximum size of decoded chunks in MiB
+     * @return this Builder
+     */
+    public Builder decodedCacheMb(int decodedCacheMb) {
+      this.decodedCacheMb = decodedCacheMb;
+      return this;
+    }
+
+    /**
+     * When {@link #decodedCacheMb(int)} is enabled and consecutive calls to {@link AwsS3ZarrStore#getDecodedChunk(String)}
+     * move through an array's chunk grid with a constant stride, the next decodeAheadDepth chunks along that stride are
+     * fetched and decoded in the background.  0 disables decoding ahead.
+     * Default: 4
+     *
+     * @param decodeAheadDepth the number of chunks to decode ahead
+     * @return this Builder
+     */
+    public Builder decodeAheadDepth(int decodeAheadDepth) {
+      this.decodeAheadDepth = decodeAheadDepth;
+      return this;
+    }
+
+    /**
+     * Sets the number of threads decoding chunks ahead of demand.
+     * Default: the number of available processors
+     *
+     * @param decodeThreads the number of decoding threads
+     * @return this Builder
+     */
+    public Builder decodeThreads(int decodeThreads) {
+      this.decodeThreads = decodeThreads;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of concurrent S3 requests made by bulk operations such as {@link AwsS3ZarrStore#deleteAll(String)},
+     * by chunk prefetching and by listings of the hash directories of a {@link #hashedChunkLayout(boolean)} store.
+     * Default: 16
+     *
+     * @param ioConcurrency the maximum number of concurrent S3 requests
+     * @return this Builder
+     */
+    public Builder ioConcurrency(int ioConcurrency) {
+      this.ioConcurrency = ioConcurrency;
+      return this;
+    }
+
+    /**
+     * When enabled and running on Java 21 or later, concurrent S3 requests made by bulk operations run on virtual threads
+     * instead of a pool of platform threads, so {@link #ioConcurrency(int)} can be set to the number of connections
+     * available to the {@link S3ClientWrapper} without the cost of that many platform threads.  This is ignored on older
+     * JVMs.
+     * Default: false
+     *
+     * @param virtualThreads true to run concurrent S3 requests on virtual threads
+     * @return this Builder
+     */
+    public Builder virtualThreads(boolean virtualThreads) {
+      this.virtualThreads = virtualThreads;
+      return this;
+    }
+
+    /**
+     * Sets a {@link ZarrStoreContext} whose workers, memory budget, upload buffers and request rate limits are shared with
+     * the other stores using it.  The context's workers replace those sized by {@link #ioConcurrency(int)},
+     * {@link #uploadConcurrency(int)}, {@link #decodeThreads(int)} and {@link #virtualThreads(boolean)}, which are then
+     * ignored except by listings of hash directories, and the context's upload buffers replace those sized by {@link #maxUploadBuffers(int)} for concurrent part
+     * uploads.  The context must outlive the store.
+     * Default: none, the store has its own workers and no memory budget beyond its own limits
+     *
+     * @param context the {@link ZarrStoreContext}
+     * @return this Builder
+     */
+    public Builder context(ZarrStoreContext context) {
+      this.context = context;
+      return this;
+    }
+
+    /**
+     * When enabled, the chunk reads and writes made through the store are recorded per array, together with the selections
+     * reported with {@link AwsS3ZarrStore#recordSelection(String, int[], int[])}, and
+     * {@link AwsS3ZarrStore#getAccessProfiles()} reports the bytes read compared to the bytes used, the most read chunks
+     * and a recommended chunk shape for each array.
+     * Default: false
+     *
+     * @param profileAccess true to profile chunk access
+     * @return this Builder
+     */
+    public Builder profileAccess(boolean profileAccess) {
+      this.profileAccess = profileAccess;
+      return this;
+    }
+
     /**
      * Builds a new {@link AwsS3ZarrStore}
      *
      * @return a new {@link AwsS3ZarrStore}
      */
     public AwsS3ZarrStore build() {
-      return new AwsS3ZarrStore(s3, bucket, key, multipartUploadMb, maxUploadBuffers);
+      return new AwsS3ZarrStore(this);
     }
 
   }
@@ -123,34 +445,927 @@ public class AwsS3ZarrStore implements Store {
   private final S3ClientWrapper s3;
   private final int multipartUploadMb;
   private final int maxUploadBuffers;
+  private final ArrayMetadataCache metadataCache;
+  private final ChunkExistenceIndex chunkIndex;
+  private final int ioConcurrency;
+  private final boolean virtualThreads;
+  private final ChunkETagCache eTagCache;
+  private final AtomicLong skippedWrites = new AtomicLong();
+  private final FillChunkDetector fillChunks;
+  private final AtomicLong fillWrites = new AtomicLong();
+  private final StoreManifest manifest;
+  private final String inventoryBucket;
+  private final String inventoryKey;
+  private final KeyLayout layout;
+  private final ExecutorService prefetchExecutor;
+  private final ExecutorService uploadExecutor;
+  private final Semaphore uploadBuffers;
+  private final ChunkPrefetcher prefetcher;
+  private final WriteBackCache writeBack;
+  private final ExecutorService decodeExecutor;
+  private final DecodedChunkCache decodedCache;
+  private final ZarrStoreContext context;
+  private final AccessProfiler profiler;
 
-  private AwsS3ZarrStore(S3ClientWrapper s3, String bucket, String keyPrefix, int multipartUploadMb, int maxUploadBuffers) {
-    this.bucket = bucket.trim();
-    this.keyPrefix = new S3Path(keyPrefix);
-    this.s3 = Objects.requireNonNull(s3);
-    this.multipartUploadMb = multipartUploadMb;
-    this.maxUploadBuffers = maxUploadBuffers;
+  private AwsS3ZarrStore(Builder builder) {
+    this.bucket = builder.bucket.trim();
+    this.keyPrefix = new S3Path(builder.key);
+    this.context = builder.context;
+    this.s3 = context == null ? Objects.requireNonNull(builder.s3) : context.rateLimited(bucket, Objects.requireNonNull(builder.s3));
+    MemoryBudget memoryBudget = context == null ? MemoryBudget.unlimited() : context.getMemoryBudget();
+    this.multipartUploadMb = builder.multipartUploadMb;
+    this.maxUploadBuffers = builder.maxUploadBuffers;
+    this.layout = builder.hashedChunkLayout ? KeyLayout.HASHED : KeyLayout.FLAT;
+    if (builder.inventoryKey != null && builder.inventoryBucket == null) {
+      throw new IllegalArgumentException("inventory bucket is required");
+    }
+    this.inventoryBucket = builder.inventoryBucket == null ? null : builder.inventoryBucket.trim();
+    this.inventoryKey = builder.inventoryKey;
+    this.manifest = builder.manifest || inventoryKey != null ? new StoreManifest(new ManifestStorage()) : null;
+    this.metadataCache = new ArrayMetadataCache(this::readObject);
+    this.chunkIndex = builder.chunkIndex ? new ChunkExistenceIndex(metadataCache, new IndexStorage(), builder.chunkIndexSidecar) : null;
+    if (builder.ioConcurrency < 1) {
+      throw new IllegalArgumentException("ioConcurrency must be at least 1");
+    }
+    this.ioConcurrency = builder.ioConcurrency;
+    this.virtualThreads = builder.virtualThreads;
+    this.fillChunks = builder.skipFillChunks ? new FillChunkDetector() : null;
+    this.profiler = builder.profileAccess ? new AccessProfiler() : null;
+    this.eTagCache = builder.skipUnchangedChunks
+        ? new ChunkETagCache(metadataCache, this::listArrayObjects, multipartUploadMb * 1024L * 1024L)
+        : null;
+    if (builder.uploadConcurrency < 1) {
+      throw new IllegalArgumentException("uploadConcurrency must be at least 1");
+    }
+    if (builder.uploadConcurrency > 1 && context != null) {
+      this.uploadExecutor = context.getIoExecutor();
+      this.uploadBuffers = context.getUploadBuffers();
+    } else if (builder.uploadConcurrency > 1) {
+      this.uploadExecutor = IoExecutors.newExecutor("aws-zarr-upload", builder.uploadConcurrency, virtualThreads);
+      this.uploadBuffers = new Semaphore(builder.uploadConcurrency + Math.max(maxUploadBuffers, 1));
+    } else {
+      this.uploadExecutor = null;
+      this.uploadBuffers = null;
+    }
+    if (builder.prefetchDepth > 0) {
+      this.prefetchExecutor = context != null
+          ? context.getIoExecutor()
+          : IoExecutors.newExecutor("aws-zarr-prefetch", ioConcurrency, virtualThreads);
+      this.prefetcher = new ChunkPrefetcher(
+          this::fetchChunk, prefetchExecutor, builder.prefetchDepth, builder.prefetchMaxMb * 1024L * 1024L, memoryBudget);
+    } else {
+      this.prefetchExecutor = null;
+      this.prefetcher = null;
+    }
+    if (builder.decodedCacheMb > 0 && builder.decodeAheadDepth > 0 && context != null) {
+      this.decodeExecutor = context.getDecodeExecutor();
+    } else if (builder.decodedCacheMb > 0 && builder.decodeAheadDepth > 0) {
+      // decoding is CPU bound, so it always runs on platform threads
+      this.decodeExecutor = IoExecutors.newExecutor("aws-zarr-decode", builder.decodeThreads, false);
+    } else {
+      this.decodeExecutor = null;
+    }
+    this.decodedCache = new DecodedChunkCache(chunkKey -> fetchObject(chunkKey.storeKey()),
+        decodeExecutor, builder.decodeAheadDepth, builder.decodedCacheMb * 1024L * 1024L, memoryBudget);
+    this.writeBack = builder.writeBackMb > 0
+        ? new WriteBackCache(builder.writeBackMb * 1024L * 1024L, (key, bytes) -> writeChunk(key, bytes, bytes.length), memoryBudget)
+        : null;
   }
 
   @Override
   public InputStream getInputStream(String key) throws IOException {
-    return s3.getObject(bucket, keyPrefix.resolve(key).toString()).orElse(null);
+    InputStream inputStream = openInputStream(key);
+    if (profiler == null) {
+      return inputStream;
+    }
+    Optional<ChunkKey> chunkKey = metadataCache.resolveChunk(key);
+    if (!chunkKey.isPresent()) {
+      return inputStream;
+    }
+    if (inputStream == null) {
+      profiler.onRead(chunkKey.get(), 0, false);
+      return null;
+    }
+    return profiler.profile(chunkKey.get(), inputStream);
+  }
+
+  private void profileRead(String key, long size) throws IOException {
+    if (profiler != null) {
+      Optional<ChunkKey> chunkKey = metadataCache.resolveChunk(key);
+      if (chunkKey.isPresent()) {
+        profiler.onRead(chunkKey.get(), Math.max(size, 0), size >= 0);
+      }
+    }
+  }
+
+  private void profileWrite(String key, long size) throws IOException {
+    if (profiler != null) {
+      Optional<ChunkKey> chunkKey = metadataCache.resolveChunk(key);
+      if (chunkKey.isPresent()) {
+        profiler.onWrite(chunkKey.get(), size);
+      }
+    }
+  }
+
+  private InputStream openInputStream(String key) throws IOException {
+    byte[] dirty = readDirty(key);
+    if (dirty != null) {
+      return new ByteArrayInputStream(dirty);
+    }
+    Optional<Optional<ByteBuffer>> prefetched = readPrefetched(key);
+    if (prefetched.isPresent()) {
+      return prefetched.get().map(ByteBufferInputStream::new).orElse(null);
+    }
+    if (chunkIndex != null && !chunkIndex.mayExist(key)) {
+      return null;
+    }
+    return readObject(key).orElse(null);
+  }
+
+  private byte[] readDirty(String key) {
+    return writeBack == null ? null : writeBack.get(key);
+  }
+
+  private Optional<Optional<ByteBuffer>> readPrefetched(String key) throws IOException {
+    if (prefetcher == null) {
+      return Optional.empty();
+    }
+    Optional<ChunkKey> chunkKey = metadataCache.resolveChunk(key);
+    if (!chunkKey.isPresent()) {
+      return Optional.empty();
+    }
+    return prefetcher.read(chunkKey.get());
+  }
+
+  private Optional<ByteBuffer> fetchChunk(ChunkKey chunkKey) throws IOException {
+    if (chunkIndex != null && !chunkIndex.mayExist(chunkKey)) {
+      return Optional.empty();
+    }
+    return s3.getObjectBuffer(bucket, s3Key(chunkKey.storeKey()));
+  }
+
+  /**
+   * Returns the decoded contents of a chunk, decompressed with the compressor of its array's .zarray, so the values can be
+   * read directly in the array's dtype without jzarr.  Decoded chunks are kept when {@link Builder#decodedCacheMb(int)} is
+   * enabled, and chunks ahead of a constant stride through the chunk grid are decoded in the background, see
+   * {@link Builder#decodeAheadDepth(int)}.  Only compressors supported by jzarr are supported, and arrays with filters or
+   * with "order": "F" are not.
+   *
+   * @param key the store key of a chunk, i.e. "data/0.0"
+   * @return a read-only {@link ByteBuffer}, in the byte order of the array's dtype, containing the chunk's values in C order
+   *     or null if the chunk does not exist and is filled with the fill value
+   * @throws IllegalArgumentException if the key is not a chunk of an array
+   * @throws IOException if the chunk could not be read or decoded, or the array has filters or is not in C order
+   */
+  public ByteBuffer getDecodedChunk(String key) throws IOException {
+    Optional<ChunkKey> chunkKey = metadataCache.resolveChunk(key);
+    if (!chunkKey.isPresent()) {
+      throw new IllegalArgumentException("Not a chunk: " + key);
+    }
+    return decodedCache.get(chunkKey.get()).orElse(null);
+  }
+
+  /**
+   * Returns the chunk prefetching statistics, when {@link Builder#prefetchDepth(int)} is enabled.
+   *
+   * @return the {@link PrefetchStats}
+   */
+  public PrefetchStats getPrefetchStats() {
+    return prefetcher == null ? new PrefetchStats(0, 0, 0, 0) : prefetcher.getStats();
+  }
+
+  /**
+   * Returns the contents of a store object as a {@link ByteBuffer}.  This avoids the copies made when reading through
+   * {@link #getInputStream(String)} when the {@link S3ClientWrapper} supports it, i.e. the memory mapped files read by a
+   * {@link FileS3ClientWrapper}.  The returned buffer may be read-only.
+   *
+   * @param key the store key
+   * @return a {@link ByteBuffer} containing the object or null if the object does not exist
+   * @throws IOException if the object could not be read
+   */
+  public ByteBuffer getBuffer(String key) throws IOException {
+    ByteBuffer buffer = readObjectBuffer(key);
+    profileRead(key, buffer == null ? -1 : buffer.remaining());
+    return buffer;
+  }
+
+  private ByteBuffer readObjectBuffer(String key) throws IOException {
+    byte[] dirty = readDirty(key);
+    if (dirty != null) {
+      return ByteBuffer.wrap(dirty).asReadOnlyBuffer();
+    }
+    Optional<Optional<ByteBuffer>> prefetched = readPrefetched(key);
+    if (prefetched.isPresent()) {
+      return prefetched.get().orElse(null);
+    }
+    if (chunkIndex != null && !chunkIndex.mayExist(key)) {
+      return null;
+    }
+    return s3.getObjectBuffer(bucket, s3Key(key)).orElse(null);
+  }
+
+  /**
+   * Reads the contents of a store object into a buffer from a {@link ByteBufferPool}, sized from the object's length, so the
+   * object is read without intermediate copies, i.e. into a direct buffer.  The returned buffer is positioned at the start
+   * of the contents and must be returned with {@link ByteBufferPool#release(ByteBuffer)}.
+   *
+   * @param key the store key
+   * @param pool the {@link ByteBufferPool} to allocate the buffer from
+   * @return a {@link ByteBuffer} containing the object or null if the object does not exist
+   * @throws IOException if the object could not be read
+   */
+  public ByteBuffer getBuffer(String key, ByteBufferPool pool) throws IOException {
+    Optional<ByteBuffer> buffer = readBuffer(key, pool::acquire);
+    buffer.ifPresent(ByteBuffer::flip);
+    profileRead(key, buffer.map(ByteBuffer::remaining).orElse(-1));
+    return buffer.orElse(null);
+  }
+
+  /**
+   * Reads the contents of a store object into a buffer supplied by the caller.  The contents are written at the buffer's
+   * position, which is advanced past them, as when reading from a channel.
+   *
+   * @param key the store key
+   * @param destination the buffer to read into
+   * @return the number of bytes read or -1 if the object does not exist
+   * @throws java.nio.BufferOverflowException if the object is larger than the remaining bytes in the buffer
+   * @throws IOException if the object could not be read
+   */
+  public int read(String key, ByteBuffer destination) throws IOException {
+    int start = destination.position();
+    Optional<ByteBuffer> buffer = readBuffer(key, size -> destination);
+    int read = buffer.isPresent() ? destination.position() - start : -1;
+    profileRead(key, read);
+    return read;
+  }
+
+  private Optional<ByteBuffer> readBuffer(String key, IntFunction<ByteBuffer> allocator) throws IOException {
+    byte[] dirty = readDirty(key);
+    if (dirty != null) {
+      return Optional.of(allocator.apply(dirty.length).put(dirty));
+    }
+    Optional<Optional<ByteBuffer>> prefetched = readPrefetched(key);
+    if (prefetched.isPresent()) {
+      return prefetched.get().map(contents -> allocator.apply(contents.remaining()).put(contents));
+    }
+    if (chunkIndex != null && !chunkIndex.mayExist(key)) {
+      return Optional.empty();
+    }
+    return s3.getObjectBuffer(bucket, s3Key(key), allocator);
+  }
+
+  /**
+   * Returns a {@link Publisher} of the contents of store objects, i.e. every chunk of an array processed by a pipeline.  Each
+   * subscription fetches objects concurrently, up to the subscriber's outstanding demand and at most
+   * {@link Builder#ioConcurrency(int)} at a time, and delivers each object as soon as it has been fetched, so objects are
+   * delivered out of order with their keys attached.  At most ioConcurrency objects are held in memory per subscription.
+   * Objects that do not exist are delivered with a null buffer.  Use org.reactivestreams.FlowAdapters to subscribe with a
+   * {@code java.util.concurrent.Flow.Subscriber} on Java 9 or later.
+   *
+   * @param keys the store keys
+   * @return a {@link Publisher} of {@link ChunkPayload}
+   */
+  public Publisher<ChunkPayload> publish(Collection<String> keys) {
+    List<String> copy = new ArrayList<>(keys);
+    return new ChunkPublisher(() -> copy, this::fetchObject, ioConcurrency, virtualThreads, sharedIoExecutor());
+  }
+
+  /**
+   * Returns a {@link Publisher} of the contents of every object under a store key, i.e. every chunk and metadata document of
+   * an array, see {@link #publish(Collection)}.  The key is listed when the publisher is subscribed to.
+   *
+   * @param key the store key of an array or group, an empty key publishes the whole zarr store
+   * @return a {@link Publisher} of {@link ChunkPayload}
+   */
+  public Publisher<ChunkPayload> publishAll(String key) {
+    ChunkPublisher.KeySource keySource = () -> {
+      try (Stream<String> stream = listRelativeKeys(key)) {
+        return stream.map(relativeKey -> new S3Path(key).resolve(relativeKey).toString()).collect(Collectors.toList());
+      }
+    };
+    return new ChunkPublisher(keySource, this::fetchObject, ioConcurrency, virtualThreads, sharedIoExecutor());
+  }
+
+  private ExecutorService sharedIoExecutor() {
+    return context == null ? null : context.getIoExecutor();
+  }
+
+  private Optional<ByteBuffer> fetchObject(String key) throws IOException {
+    byte[] dirty = readDirty(key);
+    if (dirty != null) {
+      return Optional.of(ByteBuffer.wrap(dirty).asReadOnlyBuffer());
+    }
+    if (chunkIndex != null && !chunkIndex.mayExist(key)) {
+      return Optional.empty();
+    }
+    return s3.getObjectBuffer(bucket, s3Key(key));
+  }
+
+  /**
+   * Writes the remaining bytes of a buffer as a store object.  The buffer is uploaded in place, with a single request when
+   * it is no larger than {@link Builder#multipartUploadMb(int)}, otherwise as slices of the buffer in a multipart upload,
+   * uploaded concurrently when {@link Builder#uploadConcurrency(int)} is greater than one, avoiding the copies made when
+   * writing through {@link #getOutputStream(String)}.  The buffer position is not changed and the buffer must not be
+   * modified until this returns.
+   *
+   * @param key the store key
+   * @param contents the contents of the object
+   * @throws IOException if the object could not be written
+   */
+  public void putBuffer(String key, ByteBuffer contents) throws IOException {
+    profileWrite(key, contents.remaining());
+    if (writeBack != null) {
+      writeBack.remove(key);
+    }
+    if (isFillChunk(key, contents)) {
+      removeFillChunk(key);
+      return;
+    }
+    if (eTagCache != null && eTagCache.isChunk(key) && eTagCache.isUnchanged(key, contents)) {
+      skippedWrites.incrementAndGet();
+      return;
+    }
+    beforeChange(key);
+    String s3Key = s3Key(key);
+    int length = contents.remaining();
+    long partSize = multipartUploadMb * 1024L * 1024L;
+    if (length <= partSize) {
+      s3.putObject(bucket, s3Key, contents.duplicate());
+    } else {
+      String uploadId = s3.createMultipartUpload(bucket, s3Key);
+      try {
+        List<CompletedPart> parts = new ArrayList<>();
+        List<Future<CompletedPart>> uploads = new ArrayList<>();
+        for (int offset = 0; offset < length; offset += (int) partSize) {
+          ByteBuffer part = contents.duplicate();
+          part.position(contents.position() + offset);
+          part.limit(part.position() + (int) Math.min(partSize, length - offset));
+          int partNumber = parts.size() + uploads.size() + 1;
+          ByteBuffer slice = part.slice();
+          if (uploadExecutor == null) {
+            parts.add(s3.uploadPart(bucket, s3Key, uploadId, partNumber, slice));
+          } else {
+            uploads.add(uploadExecutor.submit(() -> s3.uploadPart(bucket, s3Key, uploadId, partNumber, slice)));
+          }
+        }
+        for (Future<CompletedPart> upload : uploads) {
+          parts.add(upload.get());
+        }
+        s3.completeMultipartUpload(bucket, s3Key, uploadId, parts);
+      } catch (InterruptedException | ExecutionException e) {
+        if (e instanceof InterruptedException) {
+          Thread.currentThread().interrupt();
+        }
+        try {
+          s3.abortMultipartUpload(bucket, s3Key, uploadId);
+        } catch (RuntimeException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+        throw new IOException("Unable to upload " + bucket + "/" + s3Key, e instanceof ExecutionException ? e.getCause() : e);
+      } catch (RuntimeException e) {
+        try {
+          s3.abortMultipartUpload(bucket, s3Key, uploadId);
+        } catch (RuntimeException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+        throw e;
+      }
+    }
+    onWrite(key, length, eTagCache == null ? null : ETags.eTag(contents));
   }
 
   @Override
   public OutputStream getOutputStream(String key) throws IOException {
+    OutputStream outputStream = openOutputStream(key);
+    return profiler == null ? outputStream : new CommittingOutputStream(outputStream, size -> profileWrite(key, size));
+  }
+
+  private OutputStream openOutputStream(String key) throws IOException {
+    if (writeBack != null && metadataCache.resolveChunk(key).isPresent()) {
+      return new DeferredOutputStream((bytes, length) -> {
+        writeBack.put(key, Arrays.copyOf(bytes, length));
+        decodedCache.invalidate(key);
+      });
+    }
+    if ((eTagCache != null || fillChunks != null) && metadataCache.resolveChunk(key).isPresent()) {
+      return new DeferredOutputStream((bytes, length) -> writeChunk(key, bytes, length));
+    }
+    beforeChange(key);
+    return new CommittingOutputStream(writeObject(key), size -> onWrite(key, size, null));
+  }
+
+  private void writeChunk(String key, byte[] bytes, int length) throws IOException {
+    if (isFillChunk(key, ByteBuffer.wrap(bytes, 0, length))) {
+      removeFillChunk(key);
+      return;
+    }
+    if (eTagCache != null && eTagCache.isUnchanged(key, bytes, length)) {
+      skippedWrites.incrementAndGet();
+      return;
+    }
+    beforeChange(key);
+    try (OutputStream outputStream = writeObject(key)) {
+      outputStream.write(bytes, 0, length);
+    }
+    onWrite(key, length, eTagCache == null ? null : ETags.eTag(bytes, length));
+  }
+
+  private boolean isFillChunk(String key, ByteBuffer contents) throws IOException {
+    if (fillChunks == null) {
+      return false;
+    }
+    Optional<ChunkKey> chunkKey = metadataCache.resolveChunk(key);
+    return chunkKey.isPresent() && fillChunks.isFill(chunkKey.get(), contents);
+  }
+
+  private void removeFillChunk(String key) throws IOException {
+    fillWrites.incrementAndGet();
+    // a chunk known not to exist does not need to be deleted
+    if (chunkIndex == null || chunkIndex.mayExist(key)) {
+      beforeChange(key);
+      s3.deleteObject(bucket, s3Key(key));
+    }
+    onDelete(key);
+  }
+
+  /**
+   * Returns the number of chunk writes that were skipped because the chunk was unchanged, when
+   * {@link Builder#skipUnchangedChunks(boolean)} is enabled.
+   *
+   * @return the number of skipped chunk writes
+   */
+  public long getSkippedWrites() {
+    return skippedWrites.get();
+  }
+
+  /**
+   * Returns the number of chunk writes that were not uploaded because the chunk only contained the fill value, when
+   * {@link Builder#skipFillChunks(boolean)} is enabled.
+   *
+   * @return the number of fill chunk writes
+   */
+  public long getFillWrites() {
+    return fillWrites.get();
+  }
+
+  /**
+   * Returns the number of chunk writes that were combined with a later write of the same chunk instead of being uploaded,
+   * when {@link Builder#writeBackMb(int)} is enabled.
+   *
+   * @return the number of combined chunk writes
+   */
+  public long getCombinedWrites() {
+    return writeBack == null ? 0L : writeBack.getCombinedWrites();
+  }
+
+  @Override
+  public void delete(String key) throws IOException {
+    if (writeBack != null) {
+      writeBack.remove(key);
+    }
+    beforeChange(key);
+    s3.deleteObject(bucket, s3Key(key));
+    onDelete(key);
+  }
+
+  /**
+   * Deletes every object under a store key, e.g. an array or group and all of its chunks.  Objects are deleted concurrently
+   * using up to {@link Builder#ioConcurrency(int)} requests at a time.
+   *
+   * @param key the store key of an array or group, an empty key deletes the whole zarr store
+   * @return the number of objects deleted
+   * @throws IOException if an object could not be deleted
+   */
+  public int deleteAll(String key) throws IOException {
+    if (writeBack != null) {
+      writeBack.removeAll(new S3Path(key).toString());
+    }
+    List<String> keys;
+    try (Stream<String> stream = listRelativeKeys(key)) {
+      keys = stream.map(relativeKey -> new S3Path(key).resolve(relativeKey).toString()).collect(Collectors.toList());
+    }
+    if (keys.isEmpty()) {
+      return 0;
+    }
+    for (String storeKey : keys) {
+      beforeChange(storeKey);
+    }
+    ExecutorService executor = context != null
+        ? context.getIoExecutor()
+        : IoExecutors.newExecutor("aws-zarr-delete", Math.min(ioConcurrency, keys.size()), virtualThreads);
+    List<Future<?>> futures = new ArrayList<>(keys.size());
+    try {
+      for (String storeKey : keys) {
+        futures.add(executor.submit(() -> {
+          try (RequestPriority.Scope scope = RequestPriority.BULK.enter()) {
+            s3.deleteObject(bucket, s3Key(storeKey));
+          }
+        }));
+      }
+      IOException failure = null;
+      for (int i = 0; i < keys.size(); i++) {
+        try {
+          futures.get(i).get();
+          onDelete(keys.get(i));
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = new IOException("Unable to delete " + keys.get(i), e.getCause());
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return keys.size();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while deleting " + key, e);
+    } finally {
+      if (context == null) {
+        executor.shutdownNow();
+      } else {
+        futures.forEach(future -> future.cancel(true));
+      }
+    }
+  }
+
+  /**
+   * Persists any state this store keeps about the zarr store, such as chunks held by {@link Builder#writeBackMb(int)},
+   * chunk existence bitmaps when {@link Builder#chunkIndexSidecar(boolean)} is enabled and the manifest when
+   * {@link Builder#manifest(boolean)} is enabled.
+   *
+   * @throws IOException if the state could not be written
+   */
+  public void flush() throws IOException {
+    if (writeBack != null) {
+      writeBack.flush();
+    }
+    if (chunkIndex != null) {
+      chunkIndex.save();
+    }
+    if (manifest != null) {
+      manifest.save();
+    }
+  }
+
+  /**
+   * Flushes this store, stops any chunk prefetching and decoding and releases the part upload workers and cached chunks.
+   * Workers shared through a {@link ZarrStoreContext} keep running.
+   *
+   * @throws IOException if the state could not be written
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      if (prefetcher != null) {
+        prefetcher.close();
+      }
+      decodedCache.close();
+      if (writeBack != null) {
+        writeBack.close();
+      }
+      if (context == null) {
+        if (prefetchExecutor != null) {
+          prefetchExecutor.shutdownNow();
+        }
+        if (uploadExecutor != null) {
+          uploadExecutor.shutdown();
+        }
+        if (decodeExecutor != null) {
+          decodeExecutor.shutdownNow();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the memory held by the prefetched, decoded and write-back chunks of this store.  When the store uses a
+   * {@link ZarrStoreContext}, this is its share of the context's memory budget.
+   *
+   * @return the number of bytes
+   */
+  public long getMemoryUsed() {
+    long used = decodedCache.getMemoryUsed();
+    if (prefetcher != null) {
+      used += prefetcher.getMemoryUsed();
+    }
+    if (writeBack != null) {
+      used += writeBack.getMemoryUsed();
+    }
+    return used;
+  }
+
+  /**
+   * Records a region of an array read by the application, when {@link Builder#profileAccess(boolean)} is enabled, so
+   * {@link #getAccessProfiles()} can compare the bytes read to the bytes used and recommend a chunk shape.  Call this with
+   * the shape and offset passed to jzarr's ZarrArray.read(shape, offset).
+   *
+   * @param arrayKey the store key of the array
+   * @param shape the shape of the region
+   * @param offset the offset of the region
+   * @throws IllegalArgumentException if there is no array at the key or the region is outside of the array
+   * @throws IOException if the array metadata could not be read
+   */
+  public void recordSelection(String arrayKey, int[] shape, int[] offset) throws IOException {
+    if (profiler == null) {
+      return;
+    }
+    String normalized = new S3Path(arrayKey).toString();
+    Optional<ZarrArrayMetadata> metadata = metadataCache.get(normalized);
+    if (!metadata.isPresent()) {
+      throw new IllegalArgumentException("Not an array: " + arrayKey);
+    }
+    profiler.onSelection(normalized, metadata.get(), shape, offset);
+  }
+
+  /**
+   * Returns the access profiles of the arrays read or written through this store, when
+   * {@link Builder#profileAccess(boolean)} is enabled.  Each profiled array is listed for the stored sizes of its chunks.
+   *
+   * @return the {@link ArrayAccessProfile} of each array, ordered by array key
+   * @throws IOException if an array could not be listed
+   */
+  public List<ArrayAccessProfile> getAccessProfiles() throws IOException {
+    return profiler == null ? Collections.emptyList() : profiler.snapshot(this::listArrayObjects);
+  }
+
+  private String s3Key(String key) {
+    return keyPrefix.resolve(layout.toPhysical(key)).toString();
+  }
+
+  private Optional<InputStream> readObject(String key) {
+    return s3.getObject(bucket, s3Key(key));
+  }
+
+  private OutputStream writeObject(String key) {
+    if (uploadExecutor != null) {
+      return new ParallelS3OutputStream(s3, bucket, s3Key(key), multipartUploadMb * 1024 * 1024, uploadExecutor, uploadBuffers);
+    }
     return S3OutputStream.builder()
         .s3(s3)
         .bucket(bucket)
-        .key(keyPrefix.resolve(key).toString())
+        .key(s3Key(key))
         .partSizeMib(multipartUploadMb)
         .uploadQueueSize(maxUploadBuffers)
         .build();
   }
 
-  @Override
-  public void delete(String key) throws IOException {
-    s3.deleteObject(bucket, keyPrefix.resolve(key).toString());
+  private void beforeChange(String key) throws IOException {
+    if (manifest != null) {
+      manifest.beforeChange();
+    }
+    if (chunkIndex != null) {
+      chunkIndex.beforeChange(key);
+    }
+  }
+
+  private void onWrite(String key, long size, String eTag) throws IOException {
+    ArrayMetadataCache.arrayKeyOfMetadata(key).ifPresent(metadataCache::invalidate);
+    invalidateCaches(key);
+    if (manifest != null) {
+      manifest.onWrite(key, size, eTag);
+    }
+    if (chunkIndex != null) {
+      chunkIndex.onWrite(key);
+    }
+    if (eTagCache != null) {
+      eTagCache.onWrite(key, eTag);
+    }
+  }
+
+  private void invalidateCaches(String key) throws IOException {
+    Optional<String> arrayKey = ArrayMetadataCache.arrayKeyOfMetadata(key);
+    if (arrayKey.isPresent()) {
+      decodedCache.invalidateArray(arrayKey.get());
+    } else {
+      decodedCache.invalidate(key);
+    }
+    if (prefetcher == null) {
+      return;
+    }
+    if (arrayKey.isPresent()) {
+      prefetcher.invalidateArray(arrayKey.get());
+    } else {
+      metadataCache.resolveChunk(key).ifPresent(prefetcher::invalidate);
+    }
+  }
+
+  private void onDelete(String key) throws IOException {
+    ArrayMetadataCache.arrayKeyOfMetadata(key).ifPresent(metadataCache::invalidate);
+    invalidateCaches(key);
+    if (manifest != null) {
+      manifest.onDelete(key);
+    }
+    if (chunkIndex != null) {
+      chunkIndex.onDelete(key);
+    }
+    if (eTagCache != null) {
+      eTagCache.onDelete(key);
+    }
+  }
+
+  private Stream<String> listRelativeKeys(String key) throws IOException {
+    final S3Path rootPath = keyPrefix.resolve(key);
+    String prefix = rootPath.size() == 0 ? "" : rootPath + "/";
+    return getObjects(prefix)
+        .map(S3Path::getParts)
+        .map(parts -> new S3Path(parts.subList(rootPath.size(), parts.size())))
+        .filter(s3Path -> s3Path.size() > 0)
+        .map(S3Path::toString);
+  }
+
+  private Stream<S3Object> listArrayObjects(String arrayKey) throws IOException {
+    final S3Path rootPath = keyPrefix.resolve(arrayKey);
+    String prefix = rootPath.size() == 0 ? "" : rootPath + "/";
+    return listObjects(prefix)
+        .map(object -> object.toBuilder().key(object.key().substring(prefix.length())).build());
+  }
+
+  /**
+   * Lists the objects whose logical S3 keys start with a prefix, from the manifest when it is enabled.
+   *
+   * @param prefix a S3 key prefix
+   * @return a {@link Stream} of {@link S3Object} with logical S3 keys
+   * @throws IOException if the manifest could not be loaded
+   */
+  private Stream<S3Object> listObjects(String prefix) throws IOException {
+    if (manifest == null && !layout.isHashed()) {
+      return s3.listObjectsV2Paginator(bucket, prefix).flatMap(response -> response.contents().stream());
+    }
+    String relativePrefix = relativePrefix(prefix);
+    Stream<S3Object> objects = manifest == null ? listPhysicalObjects(relativePrefix) : manifest.list(relativePrefix);
+    return objects.map(object -> object.toBuilder().key(keyPrefix.resolve(object.key()).toString()).build());
+  }
+
+  private String relativePrefix(String prefix) {
+    String root = keyPrefix.toString();
+    if (root.isEmpty()) {
+      return prefix;
+    } else if (prefix.length() <= root.length() + 1) {
+      return "";
+    }
+    return prefix.substring(root.length() + 1);
+  }
+
+  /**
+   * Lists the objects whose logical keys start with a prefix.  With the hashed layout, a prefix other than the store root is
+   * listed in the store root (for metadata) and in every hash directory, with up to {@link Builder#ioConcurrency(int)}
+   * listings at a time.
+   *
+   * @param relativePrefix a logical key prefix relative to the store root
+   * @return a {@link Stream} of {@link S3Object} with logical keys relative to the store root
+   * @throws IOException if a hash directory could not be listed
+   */
+  private Stream<S3Object> listPhysicalObjects(String relativePrefix) throws IOException {
+    String root = keyPrefix.size() == 0 ? "" : keyPrefix + "/";
+    if (!layout.isHashed() || relativePrefix.isEmpty()) {
+      return listPhysicalPrefix(root, root + relativePrefix);
+    }
+    List<String> prefixes = new ArrayList<>();
+    prefixes.add(root + relativePrefix);
+    KeyLayout.hashDirs().forEach(dir -> prefixes.add(root + dir + "/" + relativePrefix));
+    // not the context's I/O executor: listings are themselves run on it by ChunkPublisher and would wait on their own pool
+    ExecutorService executor = IoExecutors.newExecutor("aws-zarr-list", Math.min(ioConcurrency, prefixes.size()), virtualThreads);
+    List<Future<List<S3Object>>> futures = new ArrayList<>(prefixes.size());
+    try {
+      for (String prefix : prefixes) {
+        futures.add(executor.submit(() -> {
+          try (Stream<S3Object> objects = listPhysicalPrefix(root, prefix)) {
+            return objects.collect(Collectors.toList());
+          }
+        }));
+      }
+      List<S3Object> objects = new ArrayList<>();
+      for (Future<List<S3Object>> future : futures) {
+        objects.addAll(future.get());
+      }
+      return objects.stream();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while listing " + relativePrefix, e);
+    } catch (ExecutionException e) {
+      throw new IOException("Unable to list " + relativePrefix, e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private Stream<S3Object> listPhysicalPrefix(String root, String prefix) {
+    return s3.listObjectsV2Paginator(bucket, prefix)
+        .flatMap(response -> response.contents().stream())
+        .map(object -> object.toBuilder().key(layout.toLogical(object.key().substring(root.length()))).build());
+  }
+
+  private class ManifestStorage implements StoreManifest.Storage {
+
+    @Override
+    public Stream<S3Object> list() throws IOException {
+      if (inventoryKey != null) {
+        return InventoryIndex.build(new InventoryStorage());
+      }
+      return listPhysicalObjects("");
+    }
+
+    @Override
+    public Optional<InputStream> read(String key) {
+      return readObject(key);
+    }
+
+    @Override
+    public OutputStream write(String key) {
+      return writeObject(key);
+    }
+
+    @Override
+    public void delete(String key) {
+      s3.deleteObject(bucket, s3Key(key));
+    }
+  }
+
+  private class InventoryStorage implements InventoryIndex.Storage {
+
+    private final String root = keyPrefix.size() == 0 ? "" : keyPrefix + "/";
+
+    @Override
+    public void readInventory(Consumer<S3Object> consumer) throws IOException {
+      InventoryReport report = InventoryReport.read(s3, inventoryBucket, inventoryKey);
+      if (!report.getSourceBucket().equals(bucket)) {
+        throw new IOException("Inventory report is for bucket " + report.getSourceBucket() + " instead of " + bucket);
+      }
+      ExecutorService executor = context != null
+          ? context.getIoExecutor()
+          : IoExecutors.newExecutor("aws-zarr-inventory", ioConcurrency, virtualThreads);
+      try {
+        report.read(root, executor, object -> consumer.accept(
+            object.toBuilder().key(layout.toLogical(object.key().substring(root.length()))).build()));
+      } finally {
+        if (context == null) {
+          executor.shutdownNow();
+        }
+      }
+    }
+
+    @Override
+    public InventoryIndex.Directory listDirectory(String directory) throws IOException {
+      List<S3Object> objects = new ArrayList<>();
+      Set<String> subdirectories = new HashSet<>();
+      try (Stream<ListObjectsV2Response> pages = s3.listObjectsV2Paginator(bucket, root + directory, null, "/")) {
+        pages.forEach(page -> {
+          page.contents().forEach(object -> objects.add(object.toBuilder().key(object.key().substring(root.length())).build()));
+          page.commonPrefixes().stream()
+              .map(commonPrefix -> commonPrefix.prefix().substring(root.length()))
+              // chunks of the hashed layout are only listed with the directory of their array
+              .filter(subdirectory -> !(layout.isHashed() && directory.isEmpty() && isHashDir(subdirectory)))
+              .forEach(subdirectories::add);
+        });
+      } catch (RuntimeException e) {
+        throw new IOException("Unable to list " + bucket + "/" + root + directory, e);
+      }
+      return new InventoryIndex.Directory(objects, subdirectories);
+    }
+
+    private boolean isHashDir(String subdirectory) {
+      return KeyLayout.hashDirs().contains(subdirectory.substring(0, subdirectory.length() - 1));
+    }
+
+    @Override
+    public Stream<S3Object> list(String prefix) throws IOException {
+      return listPhysicalObjects(prefix);
+    }
+  }
+
+  private class IndexStorage implements ChunkExistenceIndex.Storage {
+
+    @Override
+    public Stream<String> list(String arrayKey) throws IOException {
+      if (inventoryKey == null) {
+        return listRelativeKeys(arrayKey);
+      }
+      // a manifest built from an inventory report misses chunks written to existing arrays since the report
+      S3Path arrayPath = new S3Path(arrayKey);
+      String prefix = arrayPath.size() == 0 ? "" : arrayPath + "/";
+      return listPhysicalObjects(prefix).map(object -> object.key().substring(prefix.length()));
+    }
+
+    @Override
+    public Optional<InputStream> read(String key) {
+      return readObject(key);
+    }
+
+    @Override
+    public OutputStream write(String key) throws IOException {
+      beforeChange(key);
+      return new CommittingOutputStream(writeObject(key), size -> onWrite(key, size, null));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+      beforeChange(key);
+      s3.deleteObject(bucket, s3Key(key));
+      onDelete(key);
+    }
   }
 
   private TreeSet<String> getParentsOf(String suffix) throws IOException {
@@ -186,9 +1401,8 @@ public class AwsS3ZarrStore implements Store {
 
   }
 
-  private Stream<S3Path> getObjects(String prefix) {
-    return s3.listObjectsV2Paginator(bucket, prefix)
-        .flatMap(response -> response.contents().stream())
+  private Stream<S3Path> getObjects(String prefix) throws IOException {
+    return listObjects(prefix)
         .map(S3Object::key)
         .map(S3Path::new);
   }
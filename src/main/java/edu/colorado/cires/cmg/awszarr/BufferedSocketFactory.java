@@ -0,0 +1,58 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A TLS socket factory for the Apache HTTP client that sets the socket send and receive buffer sizes before connecting, so
+ * the TCP window can be scaled for high bandwidth, high latency connections.  It replaces the SDK's TLS socket factory and
+ * connects with the JVM's default SSLContext and hostname verification.  The Apache HTTP client only uses it for https,
+ * plain http connections are made by its own factory.
+ */
+final class BufferedSocketFactory implements LayeredConnectionSocketFactory {
+
+  private final LayeredConnectionSocketFactory delegate = SSLConnectionSocketFactory.getSocketFactory();
+  private final int receiveBufferBytes;
+  private final int sendBufferBytes;
+
+  /**
+   * Creates a new BufferedSocketFactory
+   *
+   * @param receiveBufferBytes the socket receive buffer size in bytes, 0 for the default
+   * @param sendBufferBytes the socket send buffer size in bytes, 0 for the default
+   */
+  BufferedSocketFactory(int receiveBufferBytes, int sendBufferBytes) {
+    this.receiveBufferBytes = receiveBufferBytes;
+    this.sendBufferBytes = sendBufferBytes;
+  }
+
+  @Override
+  public Socket createSocket(HttpContext context) throws IOException {
+    Socket socket = delegate.createSocket(context);
+    // the receive buffer must be set before connecting for window scaling to be negotiated
+    if (receiveBufferBytes > 0) {
+      socket.setReceiveBufferSize(receiveBufferBytes);
+    }
+    if (sendBufferBytes > 0) {
+      socket.setSendBufferSize(sendBufferBytes);
+    }
+    return socket;
+  }
+
+  @Override
+  public Socket connectSocket(
+      int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress, InetSocketAddress localAddress,
+      HttpContext context) throws IOException {
+    return delegate.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+  }
+
+  @Override
+  public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+    return delegate.createLayeredSocket(socket, target, port, context);
+  }
+}
@@ -0,0 +1,138 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of reusable {@link ByteBuffer} for reading store objects with {@link AwsS3ZarrStore#getBuffer(String, ByteBufferPool)}.
+ * Buffers are allocated with a capacity rounded up to a power of two, so buffers can be reused for chunks whose compressed
+ * sizes differ slightly.  Buffers must be returned with {@link #release(ByteBuffer)} when they are no longer used.  This
+ * class is thread safe.
+ */
+public class ByteBufferPool {
+
+  private static final int MIN_CAPACITY = 4096;
+
+  /**
+   * Creates a new {@link Builder} to build a ByteBufferPool
+   *
+   * @return a new {@link Builder} to build a ByteBufferPool
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a new {@link ByteBufferPool}
+   */
+  public static class Builder {
+
+    private boolean direct;
+    private int maxPooledBuffers = 16;
+
+    private Builder() {
+
+    }
+
+    /**
+     * When enabled, direct buffers are allocated.  Direct buffers avoid a copy when read from a file channel or network
+     * channel and when passed to native code, but are more expensive to allocate, so they should be pooled.
+     * Default: false
+     *
+     * @param direct true to allocate direct buffers
+     * @return this Builder
+     */
+    public Builder direct(boolean direct) {
+      this.direct = direct;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of released buffers kept for reuse.  Buffers released when the pool is full are discarded.
+     * Default: 16
+     *
+     * @param maxPooledBuffers the maximum number of pooled buffers
+     * @return this Builder
+     */
+    public Builder maxPooledBuffers(int maxPooledBuffers) {
+      this.maxPooledBuffers = maxPooledBuffers;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link ByteBufferPool}
+     *
+     * @return a new {@link ByteBufferPool}
+     */
+    public ByteBufferPool build() {
+      return new ByteBufferPool(direct, maxPooledBuffers);
+    }
+  }
+
+  private final boolean direct;
+  private final int maxPooledBuffers;
+  private final List<ByteBuffer> buffers = new ArrayList<>();
+
+  private ByteBufferPool(boolean direct, int maxPooledBuffers) {
+    if (maxPooledBuffers < 0) {
+      throw new IllegalArgumentException("maxPooledBuffers must not be negative");
+    }
+    this.direct = direct;
+    this.maxPooledBuffers = maxPooledBuffers;
+  }
+
+  /**
+   * Returns a buffer with a position of zero and a limit of size, reusing the smallest pooled buffer that is large enough.
+   *
+   * @param size the number of bytes needed
+   * @return a {@link ByteBuffer} with size bytes remaining
+   */
+  public ByteBuffer acquire(int size) {
+    ByteBuffer buffer = take(size);
+    if (buffer == null) {
+      buffer = direct ? ByteBuffer.allocateDirect(capacity(size)) : ByteBuffer.allocate(capacity(size));
+    }
+    buffer.clear();
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool for reuse.  The buffer must not be used after it is released.
+   *
+   * @param buffer a buffer returned by {@link #acquire(int)}
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || buffer.isDirect() != direct || buffer.isReadOnly()) {
+      return;
+    }
+    synchronized (buffers) {
+      if (buffers.size() < maxPooledBuffers) {
+        buffers.add(buffer);
+      }
+    }
+  }
+
+  private ByteBuffer take(int size) {
+    synchronized (buffers) {
+      int best = -1;
+      for (int i = 0; i < buffers.size(); i++) {
+        int capacity = buffers.get(i).capacity();
+        if (capacity >= size && (best < 0 || capacity < buffers.get(best).capacity())) {
+          best = i;
+        }
+      }
+      return best < 0 ? null : buffers.remove(best);
+    }
+  }
+
+  private static int capacity(int size) {
+    if (size <= MIN_CAPACITY) {
+      return MIN_CAPACITY;
+    }
+    int capacity = Integer.highestOneBit(size - 1) << 1;
+    // sizes above 1 GiB cannot be rounded up to a power of two
+    return capacity <= 0 ? size : capacity;
+  }
+}
@@ -0,0 +1,216 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import com.bc.zarr.Compressor;
+import com.bc.zarr.CompressorFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+
+/**
+ * Encodes and decodes chunks using the dtype and compressor of their array's .zarray, with the compressors supported by
+ * jzarr.  Filters and column-major (F order) chunks are not supported.
+ */
+final class ChunkCodec {
+
+  private ChunkCodec() {
+
+  }
+
+  /**
+   * Creates the jzarr {@link Compressor} for the compressor of an array.
+   *
+   * @param metadata the array metadata
+   * @return the {@link Compressor} or an empty {@link Optional} if chunks are not compressed
+   * @throws IOException if the compressor is not supported
+   */
+  static Optional<Compressor> compressor(ZarrArrayMetadata metadata) throws IOException {
+    Map<String, Object> properties = metadata.getCompressor();
+    if (properties == null) {
+      return Optional.empty();
+    }
+    Object id = properties.get("id");
+    if (id == null) {
+      throw new IOException("Compressor has no id: " + properties);
+    }
+    if (id.equals("null")) {
+      return Optional.empty();
+    }
+    List<Object> keyValuePairs = new ArrayList<>();
+    for (Entry<String, Object> entry : properties.entrySet()) {
+      if (!entry.getKey().equals("id")) {
+        keyValuePairs.add(entry.getKey());
+        keyValuePairs.add(entry.getValue());
+      }
+    }
+    try {
+      return Optional.of(CompressorFactory.create(id.toString(), keyValuePairs.toArray()));
+    } catch (RuntimeException e) {
+      throw new IOException("Unsupported compressor: " + properties, e);
+    }
+  }
+
+  /**
+   * Checks that the chunks of an array can be decoded into values in C order.
+   *
+   * @param metadata the array metadata
+   * @throws IOException if the array has filters or its chunks are not in C order
+   */
+  static void checkDecodable(ZarrArrayMetadata metadata) throws IOException {
+    if (metadata.getFilters() != null) {
+      throw new IOException("Filters are not supported: " + metadata.getFilters());
+    }
+    if (!metadata.getOrder().equals("C")) {
+      throw new IOException("Unsupported order: " + metadata.getOrder());
+    }
+  }
+
+  /**
+   * Returns the size of one value of a dtype.
+   *
+   * @param dtype the dtype, i.e. "&lt;i4"
+   * @return the size in bytes
+   * @throws IOException if the dtype is not supported
+   */
+  static int itemSize(String dtype) throws IOException {
+    if (dtype == null || dtype.length() < 3) {
+      throw new IOException("Unsupported dtype: " + dtype);
+    }
+    try {
+      return Integer.parseInt(dtype.substring(2));
+    } catch (NumberFormatException e) {
+      throw new IOException("Unsupported dtype: " + dtype, e);
+    }
+  }
+
+  /**
+   * Returns the byte order of a dtype.
+   *
+   * @param dtype the dtype, i.e. "&lt;i4"
+   * @return the {@link ByteOrder}, the native order for single byte types
+   */
+  static ByteOrder byteOrder(String dtype) {
+    switch (dtype.charAt(0)) {
+      case '<':
+        return ByteOrder.LITTLE_ENDIAN;
+      case '>':
+        return ByteOrder.BIG_ENDIAN;
+      default:
+        return ByteOrder.nativeOrder();
+    }
+  }
+
+  /**
+   * Returns the size of a decoded chunk of an array.
+   *
+   * @param metadata the array metadata
+   * @return the size in bytes
+   * @throws IOException if the dtype is not supported or a chunk is too large for a buffer
+   */
+  static int decodedSize(ZarrArrayMetadata metadata) throws IOException {
+    long size = itemSize(metadata.getDtype());
+    for (int chunk : metadata.getChunks()) {
+      size *= chunk;
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Chunk is too large for a buffer: " + size + " bytes");
+    }
+    return (int) size;
+  }
+
+  /**
+   * Encodes a chunk of an array in which every value is the array's fill value, as jzarr would write it.
+   *
+   * @param metadata the array metadata
+   * @return the encoded chunk or an empty {@link Optional} if the array has no fill value, its dtype is not supported or its
+   *     chunks cannot be decoded, see {@link #checkDecodable(ZarrArrayMetadata)}
+   * @throws IOException if the chunk could not be encoded
+   */
+  static Optional<byte[]> encodeFillChunk(ZarrArrayMetadata metadata) throws IOException {
+    String dtype = metadata.getDtype();
+    Object fillValue = metadata.getFillValue();
+    if (dtype == null || dtype.length() < 3 || fillValue == null
+        || metadata.getFilters() != null || !metadata.getOrder().equals("C")) {
+      return Optional.empty();
+    }
+    int itemSize = itemSize(dtype);
+    ByteBuffer value = ByteBuffer.allocate(itemSize).order(byteOrder(dtype));
+    if (!putValue(value, dtype.charAt(1), itemSize, fillValue)) {
+      return Optional.empty();
+    }
+    byte[] decoded = new byte[decodedSize(metadata)];
+    for (int i = 0; i < decoded.length; i += itemSize) {
+      System.arraycopy(value.array(), 0, decoded, i, itemSize);
+    }
+    Optional<Compressor> compressor = compressor(metadata);
+    if (!compressor.isPresent()) {
+      return Optional.of(decoded);
+    }
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    compressor.get().compress(new ByteBufferInputStream(ByteBuffer.wrap(decoded)), encoded);
+    return Optional.of(encoded.toByteArray());
+  }
+
+  private static boolean putValue(ByteBuffer buffer, char kind, int itemSize, Object fillValue) {
+    switch (kind) {
+      case 'b':
+        if (itemSize != 1) {
+          return false;
+        }
+        boolean flag = fillValue instanceof Boolean ? (Boolean) fillValue : fillValue instanceof Number && ((Number) fillValue).intValue() != 0;
+        buffer.put((byte) (flag ? 1 : 0));
+        return true;
+      case 'i':
+      case 'u':
+        if (!(fillValue instanceof Number)) {
+          return false;
+        }
+        long integer = ((Number) fillValue).longValue();
+        switch (itemSize) {
+          case 1:
+            buffer.put((byte) integer);
+            return true;
+          case 2:
+            buffer.putShort((short) integer);
+            return true;
+          case 4:
+            buffer.putInt((int) integer);
+            return true;
+          case 8:
+            buffer.putLong(integer);
+            return true;
+          default:
+            return false;
+        }
+      case 'f':
+        double real;
+        if (fillValue instanceof Number) {
+          real = ((Number) fillValue).doubleValue();
+        } else if ("NaN".equals(fillValue)) {
+          real = Double.NaN;
+        } else if ("Infinity".equals(fillValue)) {
+          real = Double.POSITIVE_INFINITY;
+        } else if ("-Infinity".equals(fillValue)) {
+          real = Double.NEGATIVE_INFINITY;
+        } else {
+          return false;
+        }
+        if (itemSize == 4) {
+          buffer.putFloat((float) real);
+          return true;
+        }
+        if (itemSize == 8) {
+          buffer.putDouble(real);
+          return true;
+        }
+        return false;
+      default:
+        return false;
+    }
+  }
+}
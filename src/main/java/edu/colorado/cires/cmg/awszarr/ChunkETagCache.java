@@ -0,0 +1,140 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Tracks the ETags of the chunks of each array in a store so a chunk write can be skipped when the new contents are
+ * identical to the existing object.  The ETags of an array are loaded from a single listing of the array the first time
+ * one of its chunks is written and are then maintained by the writes and deletes made through the store.
+ */
+final class ChunkETagCache {
+
+  /**
+   * Lists the objects under an array.
+   */
+  interface Lister {
+
+    /**
+     * Lists the objects under an array.
+     *
+     * @param arrayKey the array key relative to the store root
+     * @return a {@link Stream} of {@link S3Object} with keys relative to the array
+     * @throws IOException if the listing fails
+     */
+    Stream<S3Object> list(String arrayKey) throws IOException;
+  }
+
+  private final ArrayMetadataCache metadataCache;
+  private final Lister lister;
+  private final long partSize;
+  private final ConcurrentMap<String, Map<String, String>> arrays = new ConcurrentHashMap<>();
+
+  ChunkETagCache(ArrayMetadataCache metadataCache, Lister lister, long partSize) {
+    this.metadataCache = metadataCache;
+    this.lister = lister;
+    this.partSize = partSize;
+  }
+
+  /**
+   * Determines if a store key is a chunk, which are the only objects whose writes may be skipped.
+   *
+   * @param key a store key relative to the store root
+   * @return true if the key is a chunk
+   * @throws IOException if array metadata could not be read
+   */
+  boolean isChunk(String key) throws IOException {
+    return metadataCache.resolveChunk(key).isPresent();
+  }
+
+  /**
+   * Determines if a chunk already exists with the given contents.
+   *
+   * @param key a store key relative to the store root
+   * @param bytes the new contents
+   * @param length the number of bytes in the new contents
+   * @return true if the existing object is known to have the same contents
+   * @throws IOException if the ETags could not be listed
+   */
+  boolean isUnchanged(String key, byte[] bytes, int length) throws IOException {
+    return isUnchanged(key, ByteBuffer.wrap(bytes, 0, length));
+  }
+
+  /**
+   * Determines if a chunk already exists with the given contents.
+   *
+   * @param key a store key relative to the store root
+   * @param contents the new contents, the remaining bytes of the buffer
+   * @return true if the existing object is known to have the same contents
+   * @throws IOException if the ETags could not be listed
+   */
+  boolean isUnchanged(String key, ByteBuffer contents) throws IOException {
+    Optional<ChunkKey> chunkKey = metadataCache.resolveChunk(key);
+    if (!chunkKey.isPresent()) {
+      return false;
+    }
+    String eTag = getETags(chunkKey.get().getArrayKey()).get(relativeKey(chunkKey.get()));
+    return ETags.matches(eTag, contents, partSize);
+  }
+
+  /**
+   * Records that a store object was written.
+   *
+   * @param key a store key relative to the store root
+   * @param eTag the ETag of the new contents or null if it is not known
+   * @throws IOException if array metadata could not be read
+   */
+  void onWrite(String key, String eTag) throws IOException {
+    Optional<String> arrayKey = ArrayMetadataCache.arrayKeyOfMetadata(key);
+    if (arrayKey.isPresent()) {
+      arrays.remove(arrayKey.get());
+      return;
+    }
+    Optional<ChunkKey> chunkKey = metadataCache.resolveChunk(key);
+    if (chunkKey.isPresent()) {
+      Map<String, String> eTags = arrays.get(chunkKey.get().getArrayKey());
+      if (eTags != null) {
+        if (eTag == null) {
+          eTags.remove(relativeKey(chunkKey.get()));
+        } else {
+          eTags.put(relativeKey(chunkKey.get()), eTag);
+        }
+      }
+    }
+  }
+
+  /**
+   * Records that a store object was deleted.
+   *
+   * @param key a store key relative to the store root
+   * @throws IOException if array metadata could not be read
+   */
+  void onDelete(String key) throws IOException {
+    onWrite(key, null);
+  }
+
+  private static String relativeKey(ChunkKey chunkKey) {
+    return chunkKey.getMetadata().chunkKey(chunkKey.getCoordinates());
+  }
+
+  private Map<String, String> getETags(String arrayKey) throws IOException {
+    Map<String, String> eTags = arrays.get(arrayKey);
+    if (eTags == null) {
+      Map<String, String> loaded = new ConcurrentHashMap<>();
+      try (Stream<S3Object> objects = lister.list(arrayKey)) {
+        objects.filter(object -> object.eTag() != null).forEach(object -> loaded.put(object.key(), object.eTag()));
+      }
+      eTags = arrays.putIfAbsent(arrayKey, loaded);
+      if (eTags == null) {
+        eTags = loaded;
+      }
+    }
+    return eTags;
+  }
+}
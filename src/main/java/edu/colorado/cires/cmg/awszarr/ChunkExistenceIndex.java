@@ -0,0 +1,306 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * Tracks which chunks of each array exist in a store using one bitmap per array.  A bitmap is built from a single listing
+ * of the array (or loaded from a sidecar object) the first time the array is touched and is then maintained by the writes
+ * and deletes made through the store.  This allows reads of chunks that were never written to be answered without a
+ * request to S3.  A sidecar is deleted before the first change to its array's chunks, so a writer that stops before saving
+ * the bitmap, or another writer that also uses sidecars, never leaves a sidecar that is missing chunks.
+ */
+final class ChunkExistenceIndex {
+
+  /**
+   * The name of the sidecar object, stored alongside an array's .zarray, that holds a persisted bitmap.
+   */
+  static final String SIDECAR_NAME = ".zchunkindex";
+
+  private static final int MAGIC = 0x5A434958;
+  private static final byte VERSION = 1;
+
+  /**
+   * Storage operations, relative to the store root, used to build and persist the index.
+   */
+  interface Storage {
+
+    /**
+     * Lists the keys under an array, relative to that array.
+     *
+     * @param arrayKey the array key relative to the store root
+     * @return a {@link Stream} of keys relative to the array
+     * @throws IOException if the listing fails
+     */
+    Stream<String> list(String arrayKey) throws IOException;
+
+    /**
+     * Reads a store object
+     *
+     * @param key the key relative to the store root
+     * @return an {@link Optional} that wraps an {@link InputStream} or an empty {@link Optional} if the object does not exist
+     * @throws IOException if the object could not be read
+     */
+    Optional<InputStream> read(String key) throws IOException;
+
+    /**
+     * Writes a store object
+     *
+     * @param key the key relative to the store root
+     * @return an {@link OutputStream} that writes the object when closed
+     * @throws IOException if the object could not be written
+     */
+    OutputStream write(String key) throws IOException;
+
+    /**
+     * Deletes a store object
+     *
+     * @param key the key relative to the store root
+     * @throws IOException if the object could not be deleted
+     */
+    void delete(String key) throws IOException;
+  }
+
+  private final ArrayMetadataCache metadataCache;
+  private final Storage storage;
+  private final boolean sidecar;
+  private final ConcurrentMap<String, ArrayIndex> arrays = new ConcurrentHashMap<>();
+
+  ChunkExistenceIndex(ArrayMetadataCache metadataCache, Storage storage, boolean sidecar) {
+    this.metadataCache = metadataCache;
+    this.storage = storage;
+    this.sidecar = sidecar;
+  }
+
+  /**
+   * Determines if a store object may exist.  Only chunk keys of indexed arrays can be ruled out.
+   *
+   * @param key a store key relative to the store root
+   * @return false if the key is a chunk that is known not to exist, true otherwise
+   * @throws IOException if the index could not be built
+   */
+  boolean mayExist(String key) throws IOException {
+    Optional<ChunkKey> chunkKey = metadataCache.resolveChunk(key);
+    if (!chunkKey.isPresent()) {
+      return true;
+    }
+    return getIndex(chunkKey.get()).contains(chunkKey.get().linearIndex());
+  }
+
+  /**
+   * Determines if a chunk may exist.
+   *
+   * @param chunkKey the chunk
+   * @return false if the chunk is known not to exist, true otherwise
+   * @throws IOException if the index could not be built
+   */
+  boolean mayExist(ChunkKey chunkKey) throws IOException {
+    return getIndex(chunkKey).contains(chunkKey.linearIndex());
+  }
+
+  /**
+   * Deletes the persisted sidecar of the array of a chunk that is about to be written or deleted, so it can not be read
+   * after the change.  Call before the change is made.  Does nothing if sidecars are not enabled.
+   *
+   * @param key a store key relative to the store root
+   * @throws IOException if the index could not be built or the sidecar could not be deleted
+   */
+  void beforeChange(String key) throws IOException {
+    if (!sidecar) {
+      return;
+    }
+    Optional<ChunkKey> chunkKey = metadataCache.resolveChunk(key);
+    if (chunkKey.isPresent()) {
+      getIndex(chunkKey.get()).invalidate();
+    }
+  }
+
+  /**
+   * Records that a store object was written.
+   *
+   * @param key a store key relative to the store root
+   * @throws IOException if the index could not be built
+   */
+  void onWrite(String key) throws IOException {
+    Optional<String> arrayKey = ArrayMetadataCache.arrayKeyOfMetadata(key);
+    if (arrayKey.isPresent()) {
+      // the chunk grid may have changed, the index will be rebuilt the next time it is needed
+      arrays.remove(arrayKey.get());
+      return;
+    }
+    Optional<ChunkKey> chunkKey = metadataCache.resolveChunk(key);
+    if (chunkKey.isPresent()) {
+      getIndex(chunkKey.get()).set(chunkKey.get().linearIndex(), true);
+    }
+  }
+
+  /**
+   * Records that a store object was deleted.
+   *
+   * @param key a store key relative to the store root
+   * @throws IOException if the index could not be built
+   */
+  void onDelete(String key) throws IOException {
+    Optional<String> arrayKey = ArrayMetadataCache.arrayKeyOfMetadata(key);
+    if (arrayKey.isPresent()) {
+      arrays.remove(arrayKey.get());
+      return;
+    }
+    Optional<ChunkKey> chunkKey = metadataCache.resolveChunk(key);
+    if (chunkKey.isPresent()) {
+      getIndex(chunkKey.get()).set(chunkKey.get().linearIndex(), false);
+    }
+  }
+
+  /**
+   * Writes a sidecar object for every array whose bitmap changed since it was loaded.  Does nothing if sidecars are not enabled.
+   *
+   * @throws IOException if a sidecar could not be written
+   */
+  void save() throws IOException {
+    if (!sidecar) {
+      return;
+    }
+    for (ArrayIndex index : arrays.values()) {
+      index.save();
+    }
+  }
+
+  private ArrayIndex getIndex(ChunkKey chunkKey) throws IOException {
+    ArrayIndex index = arrays.computeIfAbsent(chunkKey.getArrayKey(), arrayKey -> new ArrayIndex(arrayKey, chunkKey.getMetadata()));
+    index.load();
+    return index;
+  }
+
+  private final class ArrayIndex {
+
+    private final String arrayKey;
+    private final ZarrArrayMetadata metadata;
+    private final boolean indexable;
+    private final Object sidecarLock = new Object();
+    private BitSet chunks;
+    private boolean dirty;
+    private volatile boolean persisted;
+
+    private ArrayIndex(String arrayKey, ZarrArrayMetadata metadata) {
+      this.arrayKey = arrayKey;
+      this.metadata = metadata;
+      // a BitSet is addressed by int, arrays with larger chunk grids are not indexed
+      indexable = metadata.getChunkCount() <= Integer.MAX_VALUE;
+    }
+
+    private String sidecarKey() {
+      return new S3Path(arrayKey).resolve(SIDECAR_NAME).toString();
+    }
+
+    private synchronized void load() throws IOException {
+      if (chunks != null || !indexable) {
+        return;
+      }
+      BitSet loaded = sidecar ? readSidecar() : null;
+      if (loaded == null) {
+        loaded = new BitSet();
+        try (Stream<String> keys = storage.list(arrayKey)) {
+          final BitSet bits = loaded;
+          keys.map(metadata::parseChunkKey)
+              .filter(coordinates -> coordinates != null)
+              .forEach(coordinates -> bits.set((int) metadata.linearIndex(coordinates)));
+        }
+        dirty = sidecar;
+      } else {
+        persisted = true;
+      }
+      chunks = loaded;
+    }
+
+    private void invalidate() throws IOException {
+      if (!persisted) {
+        return;
+      }
+      synchronized (sidecarLock) {
+        if (persisted) {
+          storage.delete(sidecarKey());
+          persisted = false;
+          synchronized (this) {
+            // the bitmap is saved again even if the change does not flip a bit
+            dirty = true;
+          }
+        }
+      }
+    }
+
+    private BitSet readSidecar() throws IOException {
+      Optional<InputStream> inputStream = storage.read(sidecarKey());
+      if (!inputStream.isPresent()) {
+        return null;
+      }
+      try (DataInputStream in = new DataInputStream(inputStream.get())) {
+        if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+          return null;
+        }
+        int[] grid = new int[in.readInt()];
+        for (int i = 0; i < grid.length; i++) {
+          grid[i] = in.readInt();
+        }
+        if (!Arrays.equals(grid, metadata.getChunkGrid())) {
+          // the array was resized since the sidecar was written
+          return null;
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return BitSet.valueOf(bytes);
+      }
+    }
+
+    private synchronized boolean contains(long linearIndex) {
+      return chunks == null || chunks.get((int) linearIndex);
+    }
+
+    private synchronized void set(long linearIndex, boolean exists) {
+      if (chunks != null && chunks.get((int) linearIndex) != exists) {
+        chunks.set((int) linearIndex, exists);
+        dirty = true;
+      }
+    }
+
+    private void save() throws IOException {
+      // a change waits in invalidate() until the sidecar is written and then deletes it
+      synchronized (sidecarLock) {
+        byte[] bytes;
+        synchronized (this) {
+          if (chunks == null || !dirty) {
+            return;
+          }
+          bytes = chunks.toByteArray();
+          dirty = false;
+        }
+        int[] grid = metadata.getChunkGrid();
+        try (DataOutputStream out = new DataOutputStream(storage.write(sidecarKey()))) {
+          out.writeInt(MAGIC);
+          out.writeByte(VERSION);
+          out.writeInt(grid.length);
+          for (int dim : grid) {
+            out.writeInt(dim);
+          }
+          out.writeInt(bytes.length);
+          out.write(bytes);
+        } catch (IOException | RuntimeException e) {
+          synchronized (this) {
+            dirty = true;
+          }
+          throw e;
+        }
+        persisted = true;
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A store key that has been identified as a chunk of a zarr array.
+ */
+final class ChunkKey {
+
+  private final String arrayKey;
+  private final int[] coordinates;
+  private final ZarrArrayMetadata metadata;
+
+  ChunkKey(String arrayKey, int[] coordinates, ZarrArrayMetadata metadata) {
+    this.arrayKey = arrayKey;
+    this.coordinates = coordinates.clone();
+    this.metadata = metadata;
+  }
+
+  /**
+   * Returns the key of the array, relative to the store root, that this chunk belongs to.
+   *
+   * @return the array key
+   */
+  String getArrayKey() {
+    return arrayKey;
+  }
+
+  int[] getCoordinates() {
+    return coordinates.clone();
+  }
+
+  ZarrArrayMetadata getMetadata() {
+    return metadata;
+  }
+
+  long linearIndex() {
+    return metadata.linearIndex(coordinates);
+  }
+
+  /**
+   * Returns the store key of this chunk, relative to the store root.
+   *
+   * @return the store key
+   */
+  String storeKey() {
+    return new S3Path(arrayKey).resolve(metadata.chunkKey(coordinates)).toString();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ChunkKey chunkKey = (ChunkKey) o;
+    return arrayKey.equals(chunkKey.arrayKey) && Arrays.equals(coordinates, chunkKey.coordinates);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = Objects.hash(arrayKey);
+    result = 31 * result + Arrays.hashCode(coordinates);
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return storeKey();
+  }
+}
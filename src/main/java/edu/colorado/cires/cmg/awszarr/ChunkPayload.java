@@ -0,0 +1,43 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The contents of a store object published by {@link AwsS3ZarrStore#publish(java.util.Collection)}, with its key.
+ */
+public final class ChunkPayload {
+
+  private final String key;
+  private final ByteBuffer buffer;
+
+  ChunkPayload(String key, ByteBuffer buffer) {
+    this.key = key;
+    this.buffer = buffer;
+  }
+
+  /**
+   * Returns the store key of the object.
+   *
+   * @return the store key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Returns the contents of the object.  The buffer may be read-only.
+   *
+   * @return a {@link ByteBuffer} containing the object or null if the object does not exist
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  @Override
+  public String toString() {
+    return "ChunkPayload{" +
+        "key='" + key + '\'' +
+        ", bytes=" + (buffer == null ? "null" : buffer.remaining()) +
+        '}';
+  }
+}
@@ -0,0 +1,260 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Speculatively fetches chunks that are likely to be read next.  Reads of each array are tracked as linear chunk indexes
+ * in row-major (C) order.  When two consecutive reads of an array move by the same non-zero stride, the next chunks along
+ * that stride are fetched in the background, so a sweep along any dimension, or row-major across tiles, is detected.
+ * Prefetched chunks are held until they are read, up to a memory limit after which the oldest are discarded.  The memory is
+ * also counted against a {@link MemoryBudget} that may be shared with other stores.
+ */
+final class ChunkPrefetcher {
+
+  /**
+   * Fetches a chunk.
+   */
+  interface Fetcher {
+
+    /**
+     * Fetches a chunk
+     *
+     * @param chunkKey the chunk
+     * @return an {@link Optional} that wraps the chunk contents or an empty {@link Optional} if the chunk does not exist
+     * @throws IOException if the chunk could not be read
+     */
+    Optional<ByteBuffer> fetch(ChunkKey chunkKey) throws IOException;
+  }
+
+  private static final class ArrayState {
+
+    private long lastIndex = -1;
+    private long lastStride;
+  }
+
+  private final class Prefetch {
+
+    private final String key;
+    private final FutureTask<Optional<ByteBuffer>> future;
+    private long size;
+    private boolean released;
+
+    private Prefetch(ChunkKey chunkKey) {
+      this.key = chunkKey.storeKey();
+      // the task exists before the prefetch is published, so a concurrent read always has a future to wait for
+      this.future = new FutureTask<>(() -> {
+        try (RequestPriority.Scope scope = RequestPriority.PREFETCH.enter()) {
+          Optional<ByteBuffer> result = fetcher.fetch(chunkKey);
+          complete(result.map(ByteBuffer::remaining).orElse(0));
+          return result;
+        }
+      });
+    }
+
+    private synchronized void complete(long size) {
+      if (!released) {
+        this.size = size;
+        bytes.addAndGet(size);
+        account.add(size);
+      }
+    }
+
+    private synchronized boolean release() {
+      if (released) {
+        return false;
+      }
+      released = true;
+      bytes.addAndGet(-size);
+      account.add(-size);
+      return true;
+    }
+  }
+
+  private final Fetcher fetcher;
+  private final ExecutorService executor;
+  private final int depth;
+  private final long maxBytes;
+  private final ConcurrentMap<String, ArrayState> arrays = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Prefetch> prefetches = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Prefetch> order = new ConcurrentLinkedQueue<>();
+  private final AtomicLong bytes = new AtomicLong();
+  private final MemoryBudget.Account account;
+  private final AtomicLong issued = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong wasted = new AtomicLong();
+
+  ChunkPrefetcher(Fetcher fetcher, ExecutorService executor, int depth, long maxBytes, MemoryBudget budget) {
+    this.fetcher = fetcher;
+    this.executor = executor;
+    this.depth = depth;
+    this.maxBytes = maxBytes;
+    this.account = budget.newAccount(this::evict);
+  }
+
+  /**
+   * Records a read of a chunk, schedules prefetches when the access pattern is predictable and returns the prefetched
+   * contents of the chunk if it was prefetched.  If the prefetch is still in progress this waits for it rather than
+   * fetching the chunk again.
+   *
+   * @param chunkKey the chunk being read
+   * @return an empty {@link Optional} if the chunk was not prefetched, otherwise an {@link Optional} that wraps the
+   *     result of the prefetch, which is an empty {@link Optional} if the chunk does not exist
+   * @throws IOException if the prefetch failed
+   */
+  Optional<Optional<ByteBuffer>> read(ChunkKey chunkKey) throws IOException {
+    Prefetch prefetch = prefetches.remove(chunkKey.storeKey());
+    schedule(chunkKey);
+    if (prefetch == null) {
+      misses.incrementAndGet();
+      return Optional.empty();
+    }
+    order.remove(prefetch);
+    try {
+      Optional<ByteBuffer> result = prefetch.future.get();
+      hits.incrementAndGet();
+      return Optional.of(result);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading " + chunkKey, e);
+    } catch (ExecutionException | CancellationException e) {
+      // the prefetch failed, the chunk is read again by the caller
+      misses.incrementAndGet();
+      return Optional.empty();
+    } finally {
+      prefetch.release();
+    }
+  }
+
+  /**
+   * Discards a prefetched chunk, i.e. because it was written or deleted.
+   *
+   * @param chunkKey the chunk
+   */
+  void invalidate(ChunkKey chunkKey) {
+    Prefetch prefetch = prefetches.remove(chunkKey.storeKey());
+    if (prefetch != null) {
+      discard(prefetch);
+    }
+  }
+
+  /**
+   * Discards all prefetched chunks of an array, i.e. because its metadata was rewritten.
+   *
+   * @param arrayKey the array key relative to the store root
+   */
+  void invalidateArray(String arrayKey) {
+    arrays.remove(arrayKey);
+    String prefix = arrayKey.isEmpty() ? "" : arrayKey + "/";
+    for (Prefetch prefetch : prefetches.values()) {
+      if (prefetch.key.startsWith(prefix) && prefetches.remove(prefetch.key, prefetch)) {
+        discard(prefetch);
+      }
+    }
+  }
+
+  /**
+   * Returns the memory held by prefetched chunks.
+   *
+   * @return the number of bytes
+   */
+  long getMemoryUsed() {
+    return account.getUsed();
+  }
+
+  /**
+   * Discards every prefetched chunk and gives the memory back to the {@link MemoryBudget}.
+   */
+  void close() {
+    invalidateArray("");
+    account.close();
+  }
+
+  PrefetchStats getStats() {
+    return new PrefetchStats(issued.get(), hits.get(), misses.get(), wasted.get());
+  }
+
+  private void discard(Prefetch prefetch) {
+    order.remove(prefetch);
+    if (prefetch.release()) {
+      wasted.incrementAndGet();
+      prefetch.future.cancel(false);
+    }
+  }
+
+  private void schedule(ChunkKey chunkKey) {
+    ArrayState state = arrays.computeIfAbsent(chunkKey.getArrayKey(), arrayKey -> new ArrayState());
+    long index = chunkKey.linearIndex();
+    long stride;
+    boolean predictable;
+    synchronized (state) {
+      stride = state.lastIndex < 0 ? 0 : index - state.lastIndex;
+      predictable = stride != 0 && stride == state.lastStride;
+      state.lastStride = stride;
+      state.lastIndex = index;
+    }
+    if (!predictable) {
+      return;
+    }
+    ZarrArrayMetadata metadata = chunkKey.getMetadata();
+    long chunkCount = metadata.getChunkCount();
+    for (int i = 1; i <= depth; i++) {
+      long next = index + stride * i;
+      if (next < 0 || next >= chunkCount) {
+        break;
+      }
+      if (isFull(0)) {
+        account.reclaim(0);
+        evict(0);
+        if (isFull(0)) {
+          break;
+        }
+      }
+      submit(new ChunkKey(chunkKey.getArrayKey(), metadata.coordinates(next), metadata));
+    }
+  }
+
+  private void submit(ChunkKey chunkKey) {
+    Prefetch prefetch = new Prefetch(chunkKey);
+    if (prefetches.putIfAbsent(prefetch.key, prefetch) != null) {
+      return;
+    }
+    order.add(prefetch);
+    try {
+      executor.execute(prefetch.future);
+      issued.incrementAndGet();
+    } catch (RejectedExecutionException e) {
+      prefetches.remove(prefetch.key, prefetch);
+      order.remove(prefetch);
+      prefetch.release();
+      // a read that already took the prefetch stops waiting and fetches the chunk itself
+      prefetch.future.cancel(false);
+    }
+  }
+
+  private boolean isFull(long needed) {
+    return bytes.get() >= maxBytes || account.isExceeded(needed);
+  }
+
+  private void evict(long needed) {
+    Prefetch oldest;
+    while (isFull(needed) && (oldest = order.peek()) != null) {
+      if (prefetches.remove(oldest.key, oldest)) {
+        discard(oldest);
+      } else {
+        order.remove(oldest);
+      }
+    }
+  }
+}
@@ -0,0 +1,216 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Publishes the contents of a list of store objects.  Each subscription fetches objects concurrently, up to the outstanding
+ * demand of the subscriber and at most the configured concurrency, and delivers each object as soon as it has been fetched,
+ * so objects are delivered out of order.  At most concurrency objects are held in memory per subscription.  Fetches run on
+ * a shared executor when one is given, otherwise each subscription creates its own and shuts it down when it terminates.
+ */
+final class ChunkPublisher implements Publisher<ChunkPayload> {
+
+  /**
+   * Lists the keys to publish.
+   */
+  interface KeySource {
+
+    /**
+     * Lists the keys to publish
+     *
+     * @return the store keys
+     * @throws IOException if the keys could not be listed
+     */
+    List<String> list() throws IOException;
+  }
+
+  /**
+   * Fetches a store object.
+   */
+  interface Fetcher {
+
+    /**
+     * Fetches a store object
+     *
+     * @param key the store key
+     * @return an {@link Optional} that wraps the contents or an empty {@link Optional} if the object does not exist
+     * @throws IOException if the object could not be read
+     */
+    Optional<ByteBuffer> fetch(String key) throws IOException;
+  }
+
+  private final KeySource keySource;
+  private final Fetcher fetcher;
+  private final int concurrency;
+  private final boolean virtualThreads;
+  private final ExecutorService sharedExecutor;
+
+  ChunkPublisher(KeySource keySource, Fetcher fetcher, int concurrency, boolean virtualThreads, ExecutorService sharedExecutor) {
+    this.keySource = keySource;
+    this.fetcher = fetcher;
+    this.concurrency = concurrency;
+    this.virtualThreads = virtualThreads;
+    this.sharedExecutor = sharedExecutor;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super ChunkPayload> subscriber) {
+    Objects.requireNonNull(subscriber);
+    ChunkSubscription subscription = new ChunkSubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+    subscription.start();
+  }
+
+  private final class ChunkSubscription implements Subscription {
+
+    private final Subscriber<? super ChunkPayload> subscriber;
+    private final ExecutorService executor = sharedExecutor != null
+        ? sharedExecutor
+        : IoExecutors.newExecutor("aws-zarr-publish", concurrency, virtualThreads);
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final Queue<ChunkPayload> fetched = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private volatile List<String> keys;
+    private volatile boolean cancelled;
+    private volatile boolean stopped;
+    // only accessed by the thread draining
+    private int next;
+    private int outstanding;
+    private boolean terminated;
+
+    private ChunkSubscription(Subscriber<? super ChunkPayload> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    private void start() {
+      try {
+        executor.execute(() -> {
+          try {
+            keys = keySource.list();
+          } catch (Exception e) {
+            error.compareAndSet(null, e);
+          }
+          drain();
+        });
+      } catch (RejectedExecutionException e) {
+        // the shared executor was shut down, the subscriber still gets a terminal signal
+        error.compareAndSet(null, new IOException("Unable to list chunks", e));
+        drain();
+      }
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        error.compareAndSet(null, new IllegalArgumentException("The number of requested chunks must be positive: " + n));
+      } else {
+        requested.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      drain();
+    }
+
+    private void fetch(String key) {
+      // a shared executor is not shut down, fetches queued before the subscription terminated are skipped
+      if (stopped) {
+        return;
+      }
+      try {
+        fetched.add(new ChunkPayload(key, fetcher.fetch(key).orElse(null)));
+      } catch (Exception e) {
+        error.compareAndSet(null, new IOException("Unable to read " + key, e));
+      }
+      drain();
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        if (!terminated) {
+          drainOnce();
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void drainOnce() {
+      if (cancelled) {
+        terminate();
+        return;
+      }
+      Throwable failure = error.get();
+      if (failure != null) {
+        terminate();
+        subscriber.onError(failure);
+        return;
+      }
+      ChunkPayload payload;
+      while (requested.get() > 0 && (payload = fetched.poll()) != null) {
+        outstanding--;
+        if (requested.get() != Long.MAX_VALUE) {
+          requested.decrementAndGet();
+        }
+        subscriber.onNext(payload);
+        if (cancelled) {
+          terminate();
+          return;
+        }
+      }
+      List<String> keys = this.keys;
+      if (keys == null) {
+        return;
+      }
+      if (next == keys.size() && outstanding == 0) {
+        terminate();
+        subscriber.onComplete();
+        return;
+      }
+      // fetched objects are always for outstanding demand, so fetching never gets ahead of the subscriber
+      while (next < keys.size() && outstanding < concurrency && outstanding < requested.get()) {
+        String key = keys.get(next++);
+        outstanding++;
+        try {
+          executor.execute(() -> fetch(key));
+        } catch (RejectedExecutionException e) {
+          outstanding--;
+          error.compareAndSet(null, new IOException("Unable to read " + key, e));
+          // drained again by the loop in drain(), which delivers the error
+          drain();
+          return;
+        }
+      }
+    }
+
+    private void terminate() {
+      terminated = true;
+      stopped = true;
+      if (sharedExecutor == null) {
+        executor.shutdownNow();
+      }
+      fetched.clear();
+    }
+  }
+}
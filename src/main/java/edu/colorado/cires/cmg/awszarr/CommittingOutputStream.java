@@ -0,0 +1,57 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that runs a callback once the wrapped stream has been closed successfully, i.e. after an upload
+ * has been completed.
+ */
+class CommittingOutputStream extends FilterOutputStream {
+
+  /**
+   * A callback run after the wrapped stream has been closed.
+   */
+  interface Commit {
+
+    /**
+     * Called after the wrapped stream has been closed successfully.
+     *
+     * @param size the number of bytes written
+     * @throws IOException if the commit fails
+     */
+    void commit(long size) throws IOException;
+  }
+
+  private final Commit commit;
+  private boolean closed;
+  private long size;
+
+  CommittingOutputStream(OutputStream out, Commit commit) {
+    super(out);
+    this.commit = commit;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    out.write(b);
+    size++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    size += len;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    out.close();
+    commit.commit(size);
+  }
+}
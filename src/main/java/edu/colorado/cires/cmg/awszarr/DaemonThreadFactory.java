@@ -0,0 +1,30 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates numbered daemon platform threads, so pools that are not shut down do not keep the JVM running.  This is shared by
+ * the Java 8 and Java 21 implementations of {@link IoExecutors}.
+ */
+final class DaemonThreadFactory implements ThreadFactory {
+
+  private final String name;
+  private final AtomicInteger count = new AtomicInteger();
+
+  /**
+   * Creates a new DaemonThreadFactory
+   *
+   * @param name the prefix for thread names
+   */
+  DaemonThreadFactory(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -0,0 +1,323 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import com.bc.zarr.Compressor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Decodes chunks with the compressor and dtype from their array's .zarray and keeps the decoded chunks in direct buffers,
+ * outside the heap, up to a size limit, evicting the least recently used.  When consecutive reads of an array move through
+ * the chunk grid with a constant stride, the next chunks along that stride are fetched and decoded ahead of demand on a
+ * pool of workers, so decompression is spread across cores.  The memory is also counted against a {@link MemoryBudget} that
+ * may be shared with other stores.
+ */
+final class DecodedChunkCache {
+
+  /**
+   * Fetches the encoded contents of a chunk.
+   */
+  interface Fetcher {
+
+    /**
+     * Fetches the encoded contents of a chunk
+     *
+     * @param chunkKey the chunk
+     * @return an {@link Optional} that wraps the contents or an empty {@link Optional} if the chunk does not exist
+     * @throws IOException if the chunk could not be read
+     */
+    Optional<ByteBuffer> fetch(ChunkKey chunkKey) throws IOException;
+  }
+
+  private static final class ArrayState {
+
+    private long lastIndex = -1;
+    private long lastStride;
+  }
+
+  private final Fetcher fetcher;
+  private final ExecutorService executor;
+  private final int depth;
+  private final long maxBytes;
+  private final LinkedHashMap<String, ByteBuffer> decoded = new LinkedHashMap<>(16, 0.75F, true);
+  private final ConcurrentMap<String, Future<Optional<ByteBuffer>>> pending = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, ArrayState> arrays = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Object> decoding = new ConcurrentHashMap<>();
+  private final MemoryBudget.Account account;
+  private long bytes;
+
+  /**
+   * Creates a new DecodedChunkCache
+   *
+   * @param fetcher fetches encoded chunks
+   * @param executor decodes chunks ahead of demand, or null to only decode chunks when they are read
+   * @param depth the number of chunks to decode ahead along a constant stride
+   * @param maxBytes the maximum size of the decoded chunks held, 0 to not hold any
+   * @param budget the {@link MemoryBudget} the decoded chunks are counted against
+   */
+  DecodedChunkCache(Fetcher fetcher, ExecutorService executor, int depth, long maxBytes, MemoryBudget budget) {
+    this.fetcher = fetcher;
+    this.executor = executor;
+    this.depth = executor == null ? 0 : depth;
+    this.maxBytes = maxBytes;
+    this.account = budget.newAccount(this::trim);
+  }
+
+  /**
+   * Returns the decoded contents of a chunk, from the cache, from a decode ahead of demand in progress or by fetching and
+   * decoding it.
+   *
+   * @param chunkKey the chunk
+   * @return an {@link Optional} that wraps a read-only buffer of the decoded chunk in the byte order of the dtype, or an
+   *     empty {@link Optional} if the chunk does not exist
+   * @throws IOException if the chunk could not be read or decoded
+   */
+  Optional<ByteBuffer> get(ChunkKey chunkKey) throws IOException {
+    scheduleAhead(chunkKey);
+    String key = chunkKey.storeKey();
+    ByteBuffer cached;
+    synchronized (this) {
+      cached = decoded.get(key);
+    }
+    if (cached != null) {
+      return view(cached);
+    }
+    Future<Optional<ByteBuffer>> ahead = pending.get(key);
+    if (ahead != null) {
+      try {
+        return ahead.get().flatMap(DecodedChunkCache::view);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while decoding " + key, e);
+      } catch (ExecutionException | CancellationException e) {
+        // the chunk is decoded again below
+      }
+    } else {
+      // a decode ahead may have completed since the cache was checked
+      synchronized (this) {
+        cached = decoded.get(key);
+      }
+      if (cached != null) {
+        return view(cached);
+      }
+    }
+    return decodeAndCache(chunkKey).flatMap(DecodedChunkCache::view);
+  }
+
+  /**
+   * Discards a decoded chunk, i.e. because it was written or deleted.
+   *
+   * @param key the store key of the chunk
+   */
+  void invalidate(String key) {
+    decoding.remove(key);
+    pending.remove(key);
+    synchronized (this) {
+      ByteBuffer removed = decoded.remove(key);
+      if (removed != null) {
+        addBytes(-removed.capacity());
+      }
+    }
+  }
+
+  /**
+   * Discards all decoded chunks of an array, i.e. because its metadata was rewritten.
+   *
+   * @param arrayKey the array key relative to the store root
+   */
+  void invalidateArray(String arrayKey) {
+    arrays.remove(arrayKey);
+    String prefix = arrayKey.isEmpty() ? "" : arrayKey + "/";
+    decoding.keySet().removeIf(key -> key.startsWith(prefix));
+    pending.keySet().removeIf(key -> key.startsWith(prefix));
+    synchronized (this) {
+      Iterator<Entry<String, ByteBuffer>> iterator = decoded.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Entry<String, ByteBuffer> entry = iterator.next();
+        if (entry.getKey().startsWith(prefix)) {
+          iterator.remove();
+          addBytes(-entry.getValue().capacity());
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the memory held by decoded chunks.
+   *
+   * @return the number of bytes
+   */
+  long getMemoryUsed() {
+    return account.getUsed();
+  }
+
+  /**
+   * Discards every decoded chunk and gives the memory back to the {@link MemoryBudget}.
+   */
+  void close() {
+    invalidateArray("");
+    account.close();
+  }
+
+  private void addBytes(long delta) {
+    bytes += delta;
+    account.add(delta);
+  }
+
+  private synchronized void trim(long needed) {
+    Iterator<ByteBuffer> iterator = decoded.values().iterator();
+    while ((bytes > maxBytes || account.isExceeded(needed)) && iterator.hasNext()) {
+      addBytes(-iterator.next().capacity());
+      iterator.remove();
+    }
+  }
+
+  private static Optional<ByteBuffer> view(ByteBuffer buffer) {
+    // views of a buffer are big endian until the order is set
+    return Optional.of(buffer.asReadOnlyBuffer().order(buffer.order()));
+  }
+
+  private Optional<ByteBuffer> decodeAndCache(ChunkKey chunkKey) throws IOException {
+    String key = chunkKey.storeKey();
+    // invalidating the chunk removes the token, so a chunk written or deleted while it was being decoded is not cached
+    Object token = new Object();
+    decoding.put(key, token);
+    Optional<ByteBuffer> result;
+    try {
+      result = decode(chunkKey);
+    } catch (IOException | RuntimeException e) {
+      decoding.remove(key, token);
+      throw e;
+    }
+    // missing chunks are not cached, they hold no memory to charge against the limits
+    if (!result.isPresent() || maxBytes == 0 || result.get().capacity() > maxBytes) {
+      decoding.remove(key, token);
+      return result;
+    }
+    ByteBuffer value = result.get();
+    account.reclaim(value.capacity());
+    synchronized (this) {
+      if (decoding.remove(key, token)) {
+        ByteBuffer previous = decoded.put(key, value);
+        if (previous != null) {
+          addBytes(-previous.capacity());
+        }
+        addBytes(value.capacity());
+        trim(0);
+      }
+    }
+    return result;
+  }
+
+  private Optional<ByteBuffer> decode(ChunkKey chunkKey) throws IOException {
+    ChunkCodec.checkDecodable(chunkKey.getMetadata());
+    Optional<ByteBuffer> encoded = fetcher.fetch(chunkKey);
+    if (!encoded.isPresent()) {
+      return Optional.empty();
+    }
+    ZarrArrayMetadata metadata = chunkKey.getMetadata();
+    int size = ChunkCodec.decodedSize(metadata);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size).order(ChunkCodec.byteOrder(metadata.getDtype()));
+    try {
+      Optional<Compressor> compressor = ChunkCodec.compressor(metadata);
+      if (compressor.isPresent()) {
+        compressor.get().uncompress(new ByteBufferInputStream(encoded.get().duplicate()), new BufferOutputStream(buffer));
+      } else {
+        buffer.put(encoded.get().duplicate());
+      }
+    } catch (BufferOverflowException e) {
+      throw new IOException("Decoded chunk is larger than " + size + " bytes: " + chunkKey, e);
+    }
+    buffer.flip();
+    return Optional.of(buffer);
+  }
+
+  private void scheduleAhead(ChunkKey chunkKey) {
+    if (depth == 0) {
+      return;
+    }
+    ArrayState state = arrays.computeIfAbsent(chunkKey.getArrayKey(), arrayKey -> new ArrayState());
+    long index = chunkKey.linearIndex();
+    long stride;
+    boolean predictable;
+    synchronized (state) {
+      stride = state.lastIndex < 0 ? 0 : index - state.lastIndex;
+      predictable = stride != 0 && stride == state.lastStride;
+      state.lastStride = stride;
+      state.lastIndex = index;
+    }
+    if (!predictable) {
+      return;
+    }
+    ZarrArrayMetadata metadata = chunkKey.getMetadata();
+    long chunkCount = metadata.getChunkCount();
+    for (int i = 1; i <= depth; i++) {
+      long next = index + stride * i;
+      if (next < 0 || next >= chunkCount) {
+        break;
+      }
+      submit(new ChunkKey(chunkKey.getArrayKey(), metadata.coordinates(next), metadata));
+    }
+  }
+
+  private void submit(ChunkKey chunkKey) {
+    String key = chunkKey.storeKey();
+    synchronized (this) {
+      if (decoded.containsKey(key)) {
+        return;
+      }
+    }
+    FutureTask<Optional<ByteBuffer>> task = new FutureTask<>(() -> {
+      try (RequestPriority.Scope scope = RequestPriority.PREFETCH.enter()) {
+        return decodeAndCache(chunkKey);
+      }
+    });
+    if (pending.putIfAbsent(key, task) != null) {
+      return;
+    }
+    try {
+      executor.execute(() -> {
+        task.run();
+        pending.remove(key, task);
+      });
+    } catch (RejectedExecutionException e) {
+      // the store is closed
+      pending.remove(key, task);
+    }
+  }
+
+  /**
+   * Writes decoded bytes directly into the chunk buffer.
+   */
+  private static final class BufferOutputStream extends OutputStream {
+
+    private final ByteBuffer buffer;
+
+    private BufferOutputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+      buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      buffer.put(b, off, len);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that buffers everything written to it in memory and hands the complete contents to a callback
+ * when it is closed, so the contents can be inspected before deciding whether and how to write them.
+ */
+class DeferredOutputStream extends ByteArrayOutputStream {
+
+  /**
+   * Receives the contents of a {@link DeferredOutputStream} when it is closed.
+   */
+  interface Sink {
+
+    /**
+     * Called once when the stream is closed.
+     *
+     * @param bytes a buffer holding the contents, only the first length bytes are valid
+     * @param length the number of bytes written
+     * @throws IOException if the contents could not be written
+     */
+    void accept(byte[] bytes, int length) throws IOException;
+  }
+
+  private final Sink sink;
+  private boolean closed;
+
+  DeferredOutputStream(Sink sink) {
+    this.sink = sink;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    sink.accept(buf, count);
+  }
+}
@@ -0,0 +1,111 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes and compares S3 ETags.  The ETag of an object uploaded with a single request is the MD5 of its contents.  The
+ * ETag of an object uploaded with a multipart upload is the MD5 of the concatenated MD5s of its parts followed by "-" and
+ * the number of parts, so it can only be reproduced when the part size is known.
+ */
+final class ETags {
+
+  private ETags() {
+
+  }
+
+  static MessageDigest md5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not supported", e);
+    }
+  }
+
+  static String hex(byte[] digest) {
+    StringBuilder sb = new StringBuilder(digest.length * 2);
+    for (byte b : digest) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the ETag of an object uploaded with a single request, without quotes.
+   *
+   * @param bytes the object contents
+   * @param length the number of bytes in the object
+   * @return the ETag
+   */
+  static String eTag(byte[] bytes, int length) {
+    return eTag(ByteBuffer.wrap(bytes, 0, length));
+  }
+
+  /**
+   * Returns the ETag of an object uploaded with a single request, without quotes.
+   *
+   * @param contents the object contents, the remaining bytes of the buffer, the buffer position is not changed
+   * @return the ETag
+   */
+  static String eTag(ByteBuffer contents) {
+    MessageDigest md5 = md5();
+    md5.update(contents.duplicate());
+    return hex(md5.digest());
+  }
+
+  /**
+   * Determines if an ETag matches the given contents.  Both single request and multipart ETags are supported, multipart
+   * ETags only match if the object was uploaded with the given part size.  ETags that are not MD5 based, i.e. for objects
+   * encrypted with KMS, never match.
+   *
+   * @param eTag the ETag, with or without quotes
+   * @param bytes the contents
+   * @param length the number of bytes in the contents
+   * @param partSize the part size used for multipart uploads
+   * @return true if the ETag matches the contents
+   */
+  static boolean matches(String eTag, byte[] bytes, int length, long partSize) {
+    return matches(eTag, ByteBuffer.wrap(bytes, 0, length), partSize);
+  }
+
+  /**
+   * Determines if an ETag matches the given contents, see {@link #matches(String, byte[], int, long)}.
+   *
+   * @param eTag the ETag, with or without quotes
+   * @param contents the contents, the remaining bytes of the buffer, the buffer position is not changed
+   * @param partSize the part size used for multipart uploads
+   * @return true if the ETag matches the contents
+   */
+  static boolean matches(String eTag, ByteBuffer contents, long partSize) {
+    if (eTag == null) {
+      return false;
+    }
+    String value = eTag.startsWith("\"") && eTag.endsWith("\"") && eTag.length() > 1 ? eTag.substring(1, eTag.length() - 1) : eTag;
+    int dash = value.indexOf('-');
+    if (dash < 0) {
+      return value.equalsIgnoreCase(eTag(contents));
+    }
+    int parts;
+    try {
+      parts = Integer.parseInt(value.substring(dash + 1));
+    } catch (NumberFormatException e) {
+      return false;
+    }
+    int length = contents.remaining();
+    long expectedParts = Math.max(1, (length + partSize - 1) / partSize);
+    if (parts != expectedParts) {
+      return false;
+    }
+    MessageDigest combined = md5();
+    MessageDigest part = md5();
+    for (long offset = 0; offset < Math.max(length, 1); offset += partSize) {
+      ByteBuffer slice = contents.duplicate();
+      slice.position(contents.position() + (int) offset);
+      slice.limit(slice.position() + (int) Math.min(partSize, length - offset));
+      part.update(slice);
+      combined.update(part.digest());
+    }
+    return value.substring(0, dash).equalsIgnoreCase(hex(combined.digest()));
+  }
+}
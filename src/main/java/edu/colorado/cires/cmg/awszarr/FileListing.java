@@ -0,0 +1,347 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Lists files in a directory representing a S3 bucket as if they were objects in the bucket.  Keys are produced lazily in
+ * the same order as S3 (by UTF-8 bytes, which is code point order) by walking the directory tree depth first, reading only
+ * the directories along the current path.  Directories that cannot contain keys matching the prefix, or that sort entirely
+ * before startAfter, are never read.  A directory rolled up into a common prefix is only read until a matching file is
+ * found in it, so a delimited listing does not read the files of its subdirectories.
+ */
+final class FileListing {
+
+  /**
+   * The maximum number of keys and common prefixes in a page, the same as S3.
+   */
+  static final int MAX_KEYS = 1000;
+
+  /**
+   * Orders strings by code point, which is the same as the UTF-8 byte order used by S3.
+   */
+  static final Comparator<String> KEY_ORDER = (a, b) -> {
+    int i = 0;
+    int j = 0;
+    while (i < a.length() && j < b.length()) {
+      int ca = a.codePointAt(i);
+      int cb = b.codePointAt(j);
+      if (ca != cb) {
+        return Integer.compare(ca, cb);
+      }
+      i += Character.charCount(ca);
+      j += Character.charCount(cb);
+    }
+    return Integer.compare(a.length() - i, b.length() - j);
+  };
+
+  private FileListing() {
+
+  }
+
+  /**
+   * Lists the files in a directory representing a S3 bucket.
+   *
+   * @param bucketRoot the directory representing a S3 bucket
+   * @param prefix filters the results such that all keys start with this prefix
+   * @param startAfter only keys after this key are returned, may be null
+   * @param delimiter keys containing the delimiter after the prefix are rolled up into common prefixes, may be null
+   * @param eTags true to include the MD5 of each file as its ETag, which requires reading every listed file
+   * @return a {@link Stream} of {@link ListObjectsV2Response}
+   */
+  static Stream<ListObjectsV2Response> list(Path bucketRoot, String prefix, String startAfter, String delimiter, boolean eTags) {
+    PageIterator pages = new PageIterator(
+        bucketRoot.getFileName() == null ? "" : bucketRoot.getFileName().toString(),
+        new EntryIterator(bucketRoot, prefix == null ? "" : prefix, emptyToNull(startAfter), emptyToNull(delimiter), eTags),
+        prefix,
+        startAfter,
+        delimiter);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  private static String emptyToNull(String value) {
+    return value == null || value.isEmpty() ? null : value;
+  }
+
+  private static final class PageIterator implements Iterator<ListObjectsV2Response> {
+
+    private final String bucket;
+    private final EntryIterator entries;
+    private final String prefix;
+    private final String startAfter;
+    private final String delimiter;
+    private String continuationToken;
+    private boolean first = true;
+
+    private PageIterator(String bucket, EntryIterator entries, String prefix, String startAfter, String delimiter) {
+      this.bucket = bucket;
+      this.entries = entries;
+      this.prefix = prefix;
+      this.startAfter = startAfter;
+      this.delimiter = delimiter;
+    }
+
+    @Override
+    public boolean hasNext() {
+      // like S3, an empty listing is a single empty page
+      return first || entries.hasNext();
+    }
+
+    @Override
+    public ListObjectsV2Response next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      first = false;
+      List<S3Object> contents = new ArrayList<>();
+      List<CommonPrefix> commonPrefixes = new ArrayList<>();
+      String last = null;
+      while (contents.size() + commonPrefixes.size() < MAX_KEYS && entries.hasNext()) {
+        Listed listed = entries.next();
+        if (listed.object != null) {
+          contents.add(listed.object);
+          last = listed.object.key();
+        } else {
+          commonPrefixes.add(CommonPrefix.builder().prefix(listed.commonPrefix).build());
+          last = listed.commonPrefix;
+        }
+      }
+      boolean truncated = entries.hasNext();
+      ListObjectsV2Response response = ListObjectsV2Response.builder()
+          .name(bucket)
+          .prefix(prefix)
+          .startAfter(startAfter)
+          .delimiter(delimiter)
+          .maxKeys(MAX_KEYS)
+          .keyCount(contents.size() + commonPrefixes.size())
+          .contents(contents)
+          .commonPrefixes(commonPrefixes)
+          .continuationToken(continuationToken)
+          .isTruncated(truncated)
+          .nextContinuationToken(truncated ? last : null)
+          .build();
+      continuationToken = truncated ? last : null;
+      return response;
+    }
+  }
+
+  private static final class Listed {
+
+    private final S3Object object;
+    private final String commonPrefix;
+
+    private Listed(S3Object object, String commonPrefix) {
+      this.object = object;
+      this.commonPrefix = commonPrefix;
+    }
+  }
+
+  private static final class Entry {
+
+    private final String key;
+    private final Path path;
+    private final boolean directory;
+    private final BasicFileAttributes attributes;
+
+    private Entry(String key, Path path, boolean directory, BasicFileAttributes attributes) {
+      this.key = key;
+      this.path = path;
+      this.directory = directory;
+      this.attributes = attributes;
+    }
+  }
+
+  private static final class EntryIterator implements Iterator<Listed> {
+
+    private final String prefix;
+    private final String startAfter;
+    private final String delimiter;
+    private final boolean eTags;
+    private final Deque<Iterator<Entry>> stack = new ArrayDeque<>();
+    private final Deque<String> stackKeys = new ArrayDeque<>();
+    private String skipPrefix;
+    private Listed next;
+
+    private EntryIterator(Path bucketRoot, String prefix, String startAfter, String delimiter, boolean eTags) {
+      this.prefix = prefix;
+      this.startAfter = startAfter;
+      this.delimiter = delimiter;
+      this.eTags = eTags;
+      int slash = prefix.lastIndexOf('/');
+      String startKey = slash < 0 ? "" : prefix.substring(0, slash + 1);
+      Path startDir = startKey.isEmpty() ? bucketRoot : bucketRoot.resolve(startKey);
+      if (Files.isDirectory(startDir)) {
+        push(startDir, startKey);
+      }
+    }
+
+    private void push(Path dir, String dirKey) {
+      List<Entry> entries = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+        for (Path path : stream) {
+          BasicFileAttributes attributes;
+          try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+          } catch (NoSuchFileException e) {
+            continue;
+          }
+          String name = path.getFileName().toString();
+          if (attributes.isDirectory()) {
+            String key = dirKey + name + "/";
+            if (mayContainMatches(key)) {
+              entries.add(new Entry(key, path, true, attributes));
+            }
+          } else if (attributes.isRegularFile()) {
+            String key = dirKey + name;
+            if (matches(key)) {
+              entries.add(new Entry(key, path, false, attributes));
+            }
+          }
+        }
+      } catch (NoSuchFileException e) {
+        return;
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to list files: " + dir, e);
+      }
+      entries.sort((a, b) -> KEY_ORDER.compare(a.key, b.key));
+      stack.push(entries.iterator());
+      stackKeys.push(dirKey);
+    }
+
+    private boolean matches(String key) {
+      return key.startsWith(prefix) && (startAfter == null || KEY_ORDER.compare(key, startAfter) > 0);
+    }
+
+    private boolean mayContainMatches(String dirKey) {
+      if (!dirKey.startsWith(prefix) && !prefix.startsWith(dirKey)) {
+        return false;
+      }
+      // every key in the directory sorts before startAfter unless startAfter is in the directory or sorts before it
+      return startAfter == null || KEY_ORDER.compare(dirKey, startAfter) > 0 || startAfter.startsWith(dirKey);
+    }
+
+    private String commonPrefix(String key) {
+      if (delimiter == null || !key.startsWith(prefix)) {
+        return null;
+      }
+      int index = key.indexOf(delimiter, prefix.length());
+      return index < 0 ? null : key.substring(0, index + delimiter.length());
+    }
+
+    private Listed advance() {
+      while (!stack.isEmpty()) {
+        if (skipPrefix != null && stackKeys.peek().startsWith(skipPrefix)) {
+          stack.pop();
+          stackKeys.pop();
+          continue;
+        }
+        Iterator<Entry> entries = stack.peek();
+        if (!entries.hasNext()) {
+          stack.pop();
+          stackKeys.pop();
+          continue;
+        }
+        Entry entry = entries.next();
+        if (skipPrefix != null && entry.key.startsWith(skipPrefix)) {
+          continue;
+        }
+        String commonPrefix = commonPrefix(entry.key);
+        if (entry.directory) {
+          // every key in the directory rolls up into the same common prefix, which only needs one matching key
+          if (commonPrefix != null && containsMatch(entry.path, entry.key)) {
+            skipPrefix = commonPrefix;
+            return new Listed(null, commonPrefix);
+          }
+          if (commonPrefix == null) {
+            push(entry.path, entry.key);
+          }
+          continue;
+        }
+        if (commonPrefix != null) {
+          // all remaining keys under the common prefix sort together and are rolled up into it
+          skipPrefix = commonPrefix;
+          return new Listed(null, commonPrefix);
+        }
+        return new Listed(
+            S3Object.builder()
+                .key(entry.key)
+                .size(entry.attributes.size())
+                .lastModified(entry.attributes.lastModifiedTime().toInstant())
+                .eTag(eTags ? eTag(entry.path) : null)
+                .build(),
+            null);
+      }
+      return null;
+    }
+
+    private boolean containsMatch(Path dir, String dirKey) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+        for (Path path : stream) {
+          BasicFileAttributes attributes;
+          try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+          } catch (NoSuchFileException e) {
+            continue;
+          }
+          String name = path.getFileName().toString();
+          if (attributes.isRegularFile() && matches(dirKey + name)) {
+            return true;
+          }
+          if (attributes.isDirectory() && mayContainMatches(dirKey + name + "/") && containsMatch(path, dirKey + name + "/")) {
+            return true;
+          }
+        }
+      } catch (NoSuchFileException e) {
+        return false;
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to list files: " + dir, e);
+      }
+      return false;
+    }
+
+    private String eTag(Path path) {
+      try {
+        byte[] bytes = Files.readAllBytes(path);
+        return "\"" + ETags.eTag(bytes, bytes.length) + "\"";
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to read file: " + path, e);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) {
+        next = advance();
+      }
+      return next != null;
+    }
+
+    @Override
+    public Listed next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Listed result = next;
+      next = null;
+      return result;
+    }
+  }
+}
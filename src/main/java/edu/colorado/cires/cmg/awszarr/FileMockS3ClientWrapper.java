@@ -4,16 +4,18 @@ import edu.colorado.cires.cmg.s3out.FileMockS3ClientMultipartUpload;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.Optional;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 import software.amazon.awssdk.services.s3.model.CompletedPart;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
-import software.amazon.awssdk.services.s3.model.S3Object;
 
 /**
  * A mock implementation of a {@link S3ClientWrapper} that is backed by the local filesystem. This should be used for testing ONLY.
@@ -35,6 +37,9 @@ public class FileMockS3ClientWrapper implements S3ClientWrapper {
   public static class Builder {
 
     private Path mockBucketDir;
+    private int latencyMs = 0;
+    private int bandwidthMbPerSecond = 0;
+    private boolean eTags = false;
 
     private Builder() {
 
@@ -51,40 +56,151 @@ public class FileMockS3ClientWrapper implements S3ClientWrapper {
       return this;
     }
 
+    /**
+     * Sets the time each request waits before it is served, to mimic the first byte latency of S3 when benchmarking, i.e.
+     * when replaying a trace with a {@link TraceReplayer}.
+     * Default: 0 (no latency)
+     *
+     * @param latencyMs the latency of a request in milliseconds
+     * @return this Builder
+     */
+    public Builder latencyMs(int latencyMs) {
+      this.latencyMs = latencyMs;
+      return this;
+    }
+
+    /**
+     * Sets the throughput of a single request.  Reads and uploads additionally wait for the time the bytes would take to
+     * transfer at this rate.
+     * Default: 0 (unlimited)
+     *
+     * @param bandwidthMbPerSecond the throughput of a request in MiB per second
+     * @return this Builder
+     */
+    public Builder bandwidthMbPerSecond(int bandwidthMbPerSecond) {
+      this.bandwidthMbPerSecond = bandwidthMbPerSecond;
+      return this;
+    }
+
+    /**
+     * Sets whether listings include the MD5 of each file as its ETag, as S3 does for objects uploaded with a single
+     * request.  This reads every listed file, so only enable it to test features that compare ETags, i.e.
+     * {@link AwsS3ZarrStore.Builder#skipUnchangedChunks(boolean)} or resuming a {@link ZarrStoreCopier}.
+     * Default: false
+     *
+     * @param eTags true to include ETags in listings
+     * @return this Builder
+     */
+    public Builder eTags(boolean eTags) {
+      this.eTags = eTags;
+      return this;
+    }
+
     /**
      * Builds a new {@link FileMockS3ClientWrapper}
      *
      * @return a new {@link FileMockS3ClientWrapper}
      */
     public FileMockS3ClientWrapper build() {
-      return new FileMockS3ClientWrapper(mockBucketDir);
+      return new FileMockS3ClientWrapper(mockBucketDir, latencyMs, bandwidthMbPerSecond, eTags);
     }
   }
 
   private final Path mockBucketDir;
   private final FileMockS3ClientMultipartUpload s3Upload;
+  private final long latencyNanos;
+  private final long bytesPerSecond;
+  private final boolean eTags;
 
-  private FileMockS3ClientWrapper(Path mockBucketDir) {
+  private FileMockS3ClientWrapper(Path mockBucketDir, int latencyMs, int bandwidthMbPerSecond, boolean eTags) {
     this.mockBucketDir = mockBucketDir;
     this.s3Upload = FileMockS3ClientMultipartUpload.builder().mockBucketDir(mockBucketDir).build();
+    this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMs);
+    this.bytesPerSecond = bandwidthMbPerSecond * 1024L * 1024L;
+    this.eTags = eTags;
+  }
+
+  private void delay(long bytes) {
+    long nanos = latencyNanos;
+    if (bytesPerSecond > 0 && bytes > 0) {
+      nanos += bytes * 1_000_000_000L / bytesPerSecond;
+    }
+    if (nanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(nanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while simulating latency", e);
+      }
+    }
+  }
+
+  private static long size(Path path) {
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read file size: " + path, e);
+    }
   }
 
   @Override
   public Optional<InputStream> getObject(String bucket, String key) {
     Path path = mockBucketDir.resolve(bucket).resolve(key);
     if (Files.isRegularFile(path)) {
+      delay(size(path));
       try {
         return Optional.of(Files.newInputStream(path));
       } catch (IOException e) {
         throw new IllegalStateException("Unable to open input stream: " + path, e);
       }
     }
+    delay(0);
     return Optional.empty();
   }
 
+  @Override
+  public Optional<InputStream> getObjectRange(String bucket, String key, long firstByte, long lastByte) {
+    Path path = mockBucketDir.resolve(bucket).resolve(key);
+    if (Files.isRegularFile(path)) {
+      delay(Math.max(0, Math.min(lastByte + 1, size(path)) - firstByte));
+      try {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+          channel.position(firstByte);
+        } catch (IOException e) {
+          channel.close();
+          throw e;
+        }
+        return Optional.of(new RangeInputStream(Channels.newInputStream(channel), lastByte - firstByte + 1));
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to open input stream: " + path, e);
+      }
+    }
+    delay(0);
+    return Optional.empty();
+  }
+
+  @Override
+  public void putObject(String bucket, String key, ByteBuffer contents) {
+    Path path = mockBucketDir.resolve(bucket).resolve(key);
+    delay(contents.remaining());
+    try {
+      Files.createDirectories(path.getParent());
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        ByteBuffer buffer = contents.duplicate();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write file " + path, e);
+    }
+  }
+
   @Override
   public void deleteObject(String bucket, String key) {
     Path path = mockBucketDir.resolve(bucket).resolve(key);
+    delay(0);
     if (Files.exists(path) && Files.isRegularFile(path)) {
       try {
         Files.delete(path);
@@ -95,41 +211,54 @@ public class FileMockS3ClientWrapper implements S3ClientWrapper {
   }
 
   @Override
-  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix) {
-    Path bucketRoot = mockBucketDir.resolve(bucket);
-    Path start = bucketRoot.resolve(prefix);
-    TreeSet<String> results;
-    try (Stream<Path> stream = Files.walk(start)) {
-      results = stream
-          .filter(Files::isRegularFile)
-          .map(bucketRoot::relativize)
-          .map(Path::normalize)
-          .map(Path::toString)
-          .map(key -> key.replaceAll("\\\\", "/"))
-          .collect(Collectors.toCollection(TreeSet::new));
+  public void copyObject(String sourceBucket, String sourceKey, String destinationBucket, String destinationKey) {
+    Path source = mockBucketDir.resolve(sourceBucket).resolve(sourceKey);
+    Path destination = mockBucketDir.resolve(destinationBucket).resolve(destinationKey);
+    if (!Files.isRegularFile(source)) {
+      throw new IllegalStateException("No such file: " + source);
+    }
+    delay(0);
+    try {
+      Files.createDirectories(destination.getParent());
+      Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
     } catch (IOException e) {
-      throw new IllegalStateException("Unable to list files: " + start, e);
+      throw new IllegalStateException("Unable to copy file " + source + " to " + destination, e);
     }
-    return results.stream().map(key -> ListObjectsV2Response.builder().contents(S3Object.builder().key(key).build()).build());
+  }
+
+  @Override
+  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix) {
+    delay(0);
+    return FileListing.list(mockBucketDir.resolve(bucket), prefix, null, null, eTags);
+  }
+
+  @Override
+  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix, String startAfter, String delimiter) {
+    delay(0);
+    return FileListing.list(mockBucketDir.resolve(bucket), prefix, startAfter, delimiter, eTags);
   }
 
   @Override
   public String createMultipartUpload(String bucket, String key) {
+    delay(0);
     return s3Upload.createMultipartUpload(bucket, key);
   }
 
   @Override
   public CompletedPart uploadPart(String bucket, String key, String uploadId, int partNumber, ByteBuffer buffer) {
+    delay(buffer.remaining());
     return s3Upload.uploadPart(bucket, key, uploadId, partNumber, buffer);
   }
 
   @Override
   public void completeMultipartUpload(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts) {
+    delay(0);
     s3Upload.completeMultipartUpload(bucket, key, uploadId, completedParts);
   }
 
   @Override
   public void abortMultipartUpload(String bucket, String key, String uploadId) {
+    delay(0);
     s3Upload.abortMultipartUpload(bucket, key, uploadId);
   }
 }
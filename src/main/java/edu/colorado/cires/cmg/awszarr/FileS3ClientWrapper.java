@@ -0,0 +1,510 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+
+/**
+ * A {@link S3ClientWrapper} that is backed by a local or shared filesystem. Each directory in the root directory represents
+ * a bucket and each file in a bucket directory represents an object, the same layout read by {@link FileMockS3ClientWrapper}.
+ * Unlike {@link FileMockS3ClientWrapper}, this implementation is intended for production use. Reads are served from memory
+ * mapped files and the parts of a multipart upload are written with positional writes to a single staging file, which is
+ * moved into place when the upload is completed.
+ */
+public class FileS3ClientWrapper implements S3ClientWrapper {
+
+  /**
+   * The directory, in the root directory, where multipart uploads are staged. Bucket names cannot start with a ".", so
+   * this cannot collide with a bucket.
+   */
+  static final String UPLOAD_DIR = ".uploads";
+
+  private static final int COPY_BUFFER_BYTES = 1024 * 1024;
+
+  /**
+   * Creates a new {@link Builder} to build a FileS3ClientWrapper
+   *
+   * @return a new {@link Builder} to build a FileS3ClientWrapper
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a new {@link FileS3ClientWrapper}
+   */
+  public static class Builder {
+
+    private Path rootDir;
+    private int mmapThresholdBytes = 64 * 1024;
+    private boolean eTags = false;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link Path} to a directory containing directories representing S3 buckets.
+     * Required.
+     *
+     * @param rootDir a directory containing directories representing S3 buckets
+     * @return this Builder
+     */
+    public Builder rootDir(Path rootDir) {
+      this.rootDir = rootDir;
+      return this;
+    }
+
+    /**
+     * Files at least this size are read by memory mapping them. Smaller files are read into a heap buffer with a single
+     * read, as mapping a small file costs more than reading it.
+     * Default: 65536
+     *
+     * @param mmapThresholdBytes the minimum file size in bytes to memory map
+     * @return this Builder
+     */
+    public Builder mmapThresholdBytes(int mmapThresholdBytes) {
+      this.mmapThresholdBytes = mmapThresholdBytes;
+      return this;
+    }
+
+    /**
+     * Sets whether listings include the MD5 of each file as its ETag, as S3 does for objects uploaded with a single
+     * request.  {@link AwsS3ZarrStore.Builder#skipUnchangedChunks(boolean)} requires ETags, but computing them reads every
+     * listed file, so only enable this when the chunks read to compare are cheaper than the uploads saved.
+     * Default: false
+     *
+     * @param eTags true to include ETags in listings
+     * @return this Builder
+     */
+    public Builder eTags(boolean eTags) {
+      this.eTags = eTags;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link FileS3ClientWrapper}
+     *
+     * @return a new {@link FileS3ClientWrapper}
+     */
+    public FileS3ClientWrapper build() {
+      return new FileS3ClientWrapper(rootDir, mmapThresholdBytes, eTags);
+    }
+  }
+
+  private final Path rootDir;
+  private final int mmapThresholdBytes;
+  private final boolean eTags;
+  private final ConcurrentMap<String, Upload> uploads = new ConcurrentHashMap<>();
+
+  private FileS3ClientWrapper(Path rootDir, int mmapThresholdBytes, boolean eTags) {
+    this.rootDir = rootDir.toAbsolutePath().normalize();
+    this.mmapThresholdBytes = mmapThresholdBytes;
+    this.eTags = eTags;
+  }
+
+  private Path bucketDir(String bucket) {
+    if (bucket.isEmpty() || bucket.startsWith(".") || bucket.contains("/") || bucket.contains("\\")) {
+      throw new IllegalArgumentException("Invalid bucket name: " + bucket);
+    }
+    return rootDir.resolve(bucket);
+  }
+
+  private Path resolve(String bucket, String key) {
+    Path bucketDir = bucketDir(bucket);
+    Path path = bucketDir.resolve(key).normalize();
+    if (!path.startsWith(bucketDir) || path.equals(bucketDir)) {
+      throw new IllegalArgumentException("Invalid key: " + key);
+    }
+    return path;
+  }
+
+  private ByteBuffer read(FileChannel channel, int size) throws IOException {
+    if (size >= mmapThresholdBytes) {
+      return channel.map(MapMode.READ_ONLY, 0, size);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, buffer.position()) == -1) {
+        break;
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public Optional<InputStream> getObject(String bucket, String key) {
+    Path path = resolve(bucket, key);
+    if (!Files.isRegularFile(path)) {
+      return Optional.empty();
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        return Optional.of(Files.newInputStream(path));
+      }
+      return Optional.of(new ByteBufferInputStream(read(channel, (int) size)));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to open input stream: " + path, e);
+    }
+  }
+
+  @Override
+  public Optional<ByteBuffer> getObjectBuffer(String bucket, String key) {
+    Path path = resolve(bucket, key);
+    if (!Files.isRegularFile(path)) {
+      return Optional.empty();
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IllegalStateException("File is too large for a ByteBuffer: " + path);
+      }
+      return Optional.of(read(channel, (int) size));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read file: " + path, e);
+    }
+  }
+
+  @Override
+  public Optional<InputStream> getObjectRange(String bucket, String key, long firstByte, long lastByte) {
+    Path path = resolve(bucket, key);
+    if (!Files.isRegularFile(path)) {
+      return Optional.empty();
+    }
+    try {
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+      try {
+        channel.position(firstByte);
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+      return Optional.of(new RangeInputStream(Channels.newInputStream(channel), lastByte - firstByte + 1));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to open input stream: " + path, e);
+    }
+  }
+
+  @Override
+  public Optional<ByteBuffer> getObjectBuffer(String bucket, String key, IntFunction<ByteBuffer> allocator) {
+    Path path = resolve(bucket, key);
+    if (!Files.isRegularFile(path)) {
+      return Optional.empty();
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IllegalStateException("File is too large for a ByteBuffer: " + path);
+      }
+      ByteBuffer buffer = allocator.apply((int) size);
+      if (buffer.remaining() < size) {
+        throw new BufferOverflowException();
+      }
+      int start = buffer.position();
+      ByteBuffer target = buffer.duplicate();
+      target.limit(start + (int) size);
+      while (target.hasRemaining()) {
+        if (channel.read(target, target.position() - start) == -1) {
+          throw new IOException("Unexpected end of file at " + (target.position() - start));
+        }
+      }
+      buffer.position(target.position());
+      return Optional.of(buffer);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read file: " + path, e);
+    }
+  }
+
+  @Override
+  public void deleteObject(String bucket, String key) {
+    Path path = resolve(bucket, key);
+    if (Files.isRegularFile(path)) {
+      try {
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to delete file " + path, e);
+      }
+    }
+  }
+
+  @Override
+  public void copyObject(String sourceBucket, String sourceKey, String destinationBucket, String destinationKey) {
+    Path source = resolve(sourceBucket, sourceKey);
+    Path target = resolve(destinationBucket, destinationKey);
+    if (!Files.isRegularFile(source)) {
+      throw new IllegalStateException("No such object: " + sourceBucket + "/" + sourceKey);
+    }
+    // copy to a staging file first so readers never see a partially copied object
+    Path stagingFile = rootDir.resolve(UPLOAD_DIR).resolve(UUID.randomUUID().toString());
+    try {
+      Files.createDirectories(stagingFile.getParent());
+      Files.copy(source, stagingFile);
+      Files.createDirectories(target.getParent());
+      move(stagingFile, target);
+    } catch (IOException e) {
+      try {
+        Files.deleteIfExists(stagingFile);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw new IllegalStateException("Unable to copy " + sourceBucket + "/" + sourceKey + " to " + destinationBucket + "/" + destinationKey, e);
+    }
+  }
+
+  @Override
+  public CompletedPart uploadPartCopy(
+      String sourceBucket, String sourceKey, long firstByte, long lastByte,
+      String destinationBucket, String destinationKey, String uploadId, int partNumber) {
+    Upload upload = getUpload(destinationBucket, destinationKey, uploadId);
+    Path source = resolve(sourceBucket, sourceKey);
+    long length = lastByte - firstByte + 1;
+    MessageDigest md5 = md5();
+    long offset = upload.size.getAndAdd(length);
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, COPY_BUFFER_BYTES));
+      long copied = 0;
+      while (copied < length) {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), length - copied));
+        while (buffer.hasRemaining()) {
+          if (in.read(buffer, firstByte + copied + buffer.position()) == -1) {
+            throw new IOException("Unexpected end of file at " + (firstByte + copied + buffer.position()));
+          }
+        }
+        buffer.flip();
+        md5.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+          upload.channel.write(buffer, offset + copied + buffer.position());
+        }
+        copied += buffer.limit();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to copy part " + partNumber + " of " + destinationBucket + "/" + destinationKey, e);
+    }
+    upload.parts.put(partNumber, new Part(offset, length));
+    return CompletedPart.builder().partNumber(partNumber).eTag(hex(md5)).build();
+  }
+
+  @Override
+  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix) {
+    return FileListing.list(bucketDir(bucket), prefix, null, null, eTags);
+  }
+
+  @Override
+  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix, String startAfter, String delimiter) {
+    return FileListing.list(bucketDir(bucket), prefix, startAfter, delimiter, eTags);
+  }
+
+  @Override
+  public String createMultipartUpload(String bucket, String key) {
+    resolve(bucket, key);
+    String uploadId = UUID.randomUUID().toString();
+    Path stagingFile = rootDir.resolve(UPLOAD_DIR).resolve(uploadId);
+    try {
+      Files.createDirectories(stagingFile.getParent());
+      FileChannel channel = FileChannel.open(stagingFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      uploads.put(uploadId, new Upload(bucket, key, stagingFile, channel));
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to create staging file: " + stagingFile, e);
+    }
+    return uploadId;
+  }
+
+  private Upload getUpload(String bucket, String key, String uploadId) {
+    Upload upload = uploads.get(uploadId);
+    if (upload == null) {
+      throw new IllegalStateException("No such upload: " + uploadId);
+    }
+    if (!upload.bucket.equals(bucket) || !upload.key.equals(key)) {
+      throw new IllegalArgumentException("Upload " + uploadId + " is not for " + bucket + "/" + key);
+    }
+    return upload;
+  }
+
+  @Override
+  public CompletedPart uploadPart(String bucket, String key, String uploadId, int partNumber, ByteBuffer buffer) {
+    Upload upload = getUpload(bucket, key, uploadId);
+    ByteBuffer data = buffer.duplicate();
+    int length = data.remaining();
+    String eTag = md5Hex(data.duplicate());
+    // each part gets its own region of the staging file so parts can be written concurrently and in any order
+    long offset = upload.size.getAndAdd(length);
+    long position = offset;
+    try {
+      while (data.hasRemaining()) {
+        position += upload.channel.write(data, position);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write part " + partNumber + " of " + bucket + "/" + key, e);
+    }
+    upload.parts.put(partNumber, new Part(offset, length));
+    return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+  }
+
+  @Override
+  public void completeMultipartUpload(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts) {
+    Upload upload = getUpload(bucket, key, uploadId);
+    Path target = resolve(bucket, key);
+    List<CompletedPart> sorted = new ArrayList<>(completedParts);
+    sorted.sort(Comparator.comparing(CompletedPart::partNumber));
+    List<Part> parts = new ArrayList<>(sorted.size());
+    boolean contiguous = true;
+    long expectedOffset = 0;
+    for (CompletedPart completedPart : sorted) {
+      Part part = upload.parts.get(completedPart.partNumber());
+      if (part == null) {
+        throw new IllegalStateException("Part " + completedPart.partNumber() + " was not uploaded for " + bucket + "/" + key);
+      }
+      contiguous = contiguous && part.offset == expectedOffset;
+      expectedOffset += part.length;
+      parts.add(part);
+    }
+    contiguous = contiguous && expectedOffset == upload.size.get();
+    uploads.remove(uploadId);
+    try {
+      Files.createDirectories(target.getParent());
+      if (contiguous) {
+        // the common case, parts arrived in order so the staging file is the object
+        upload.channel.close();
+        move(upload.stagingFile, target);
+      } else {
+        Path assembled = upload.stagingFile.resolveSibling(uploadId + ".assembled");
+        try (FileChannel out = FileChannel.open(assembled, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+          for (Part part : parts) {
+            transfer(upload.channel, part, out);
+          }
+        }
+        upload.channel.close();
+        move(assembled, target);
+        Files.deleteIfExists(upload.stagingFile);
+      }
+    } catch (IOException e) {
+      cleanup(upload);
+      throw new IllegalStateException("Unable to complete upload of " + bucket + "/" + key, e);
+    }
+  }
+
+  private static void transfer(FileChannel source, Part part, FileChannel target) throws IOException {
+    long position = part.offset;
+    long remaining = part.length;
+    while (remaining > 0) {
+      long transferred = source.transferTo(position, remaining, target);
+      if (transferred <= 0) {
+        throw new IOException("Unable to transfer part at offset " + part.offset);
+      }
+      position += transferred;
+      remaining -= transferred;
+    }
+  }
+
+  private static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  @Override
+  public void abortMultipartUpload(String bucket, String key, String uploadId) {
+    Upload upload = uploads.remove(uploadId);
+    if (upload != null) {
+      cleanup(upload);
+    }
+  }
+
+  private static void cleanup(Upload upload) {
+    try {
+      upload.channel.close();
+      Files.deleteIfExists(upload.stagingFile);
+      Files.deleteIfExists(upload.stagingFile.resolveSibling(upload.stagingFile.getFileName() + ".assembled"));
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to delete staging file: " + upload.stagingFile, e);
+    }
+  }
+
+  static String md5Hex(ByteBuffer buffer) {
+    MessageDigest md5 = md5();
+    md5.update(buffer);
+    return hex(md5);
+  }
+
+  private static MessageDigest md5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not supported", e);
+    }
+  }
+
+  private static String hex(MessageDigest md5) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (byte b : md5.digest()) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.append('"').toString();
+  }
+
+  private static final class Upload {
+
+    private final String bucket;
+    private final String key;
+    private final Path stagingFile;
+    private final FileChannel channel;
+    private final AtomicLong size = new AtomicLong();
+    private final ConcurrentMap<Integer, Part> parts = new ConcurrentHashMap<>();
+
+    private Upload(String bucket, String key, Path stagingFile, FileChannel channel) {
+      this.bucket = bucket;
+      this.key = key;
+      this.stagingFile = stagingFile;
+      this.channel = channel;
+    }
+  }
+
+  private static final class Part {
+
+    private final long offset;
+    private final long length;
+
+    private Part(long offset, long length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
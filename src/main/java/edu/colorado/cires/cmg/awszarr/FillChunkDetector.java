@@ -0,0 +1,40 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Identifies chunks in which every value is the array's fill value, by comparing them with the encoded fill chunk of the
+ * array.  Such chunks do not need to be stored, since a missing chunk is read as the fill value.  The encoded fill chunk is
+ * computed once for each version of an array's metadata.
+ */
+final class FillChunkDetector {
+
+  private final ConcurrentMap<ZarrArrayMetadata, Optional<byte[]>> fillChunks = new ConcurrentHashMap<>();
+
+  /**
+   * Determines if a chunk is byte for byte identical to the encoded fill chunk of its array.
+   *
+   * @param chunkKey the chunk
+   * @param contents the encoded contents of the chunk, the buffer position is not changed
+   * @return true if every value in the chunk is the fill value
+   */
+  boolean isFill(ChunkKey chunkKey, ByteBuffer contents) {
+    Optional<byte[]> fillChunk = fillChunks.computeIfAbsent(chunkKey.getMetadata(), FillChunkDetector::encode);
+    return fillChunk.isPresent()
+        && fillChunk.get().length == contents.remaining()
+        && ByteBuffer.wrap(fillChunk.get()).equals(contents);
+  }
+
+  private static Optional<byte[]> encode(ZarrArrayMetadata metadata) {
+    try {
+      return ChunkCodec.encodeFillChunk(metadata);
+    } catch (IOException e) {
+      // chunks of arrays whose dtype or compressor is not supported are always stored
+      return Optional.empty();
+    }
+  }
+}
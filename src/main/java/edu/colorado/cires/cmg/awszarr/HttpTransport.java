@@ -0,0 +1,20 @@
+package edu.colorado.cires.cmg.awszarr;
+
+/**
+ * The HTTP client used by a {@link AwsS3ClientWrapper} that builds its own S3Client.
+ */
+public enum HttpTransport {
+
+  /**
+   * The Apache HTTP client, which pools connections and supports all of the connection tuning options of
+   * {@link AwsS3ClientWrapper.Builder}.
+   */
+  APACHE,
+
+  /**
+   * The HTTP client built on {@link java.net.HttpURLConnection}, which starts faster and has fewer dependencies.
+   * Connections are pooled by the JVM, limited by the http.maxConnections system property, so only the timeouts of
+   * {@link AwsS3ClientWrapper.Builder} apply, setting any other option fails the build.  This requires the software.amazon.awssdk:url-connection-client dependency.
+   */
+  URL_CONNECTION
+}
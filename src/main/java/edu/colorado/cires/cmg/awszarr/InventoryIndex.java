@@ -0,0 +1,140 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import com.bc.zarr.ZarrConstants;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Builds the index of every object in a store from a S3 Inventory report instead of listing the whole store, then
+ * reconciles the changes made since the report with a bounded live listing.  The live listing walks the group hierarchy
+ * with one delimited listing per group, so it never pages through the chunks of an array.  Objects directly in a group
+ * are replaced by the live listing, directories that no longer exist are dropped and directories that are not in the report
+ * are listed in full.  Changes to the objects inside arrays that existed when the report was taken are not reconciled.
+ */
+final class InventoryIndex {
+
+  /**
+   * Sorts after every key that starts with the same prefix.
+   */
+  private static final String MAX_SUFFIX = new String(Character.toChars(Character.MAX_CODE_POINT));
+
+  /**
+   * Storage operations, with logical keys relative to the store root, used to build the index.
+   */
+  interface Storage {
+
+    /**
+     * Reads the objects of the store from the inventory report.
+     *
+     * @param consumer receives each object, may be called concurrently
+     * @throws IOException if the report could not be read
+     */
+    void readInventory(Consumer<S3Object> consumer) throws IOException;
+
+    /**
+     * Lists the objects directly in a directory and its subdirectories.
+     *
+     * @param directory a directory prefix ending with "/", or an empty string for the store root
+     * @return the {@link Directory}
+     * @throws IOException if the listing fails
+     */
+    Directory listDirectory(String directory) throws IOException;
+
+    /**
+     * Lists every object under a prefix.
+     *
+     * @param prefix a key prefix
+     * @return a {@link Stream} of {@link S3Object}
+     * @throws IOException if the listing fails
+     */
+    Stream<S3Object> list(String prefix) throws IOException;
+  }
+
+  /**
+   * The result of a delimited listing of a directory.
+   */
+  static final class Directory {
+
+    private final List<S3Object> objects;
+    private final Set<String> subdirectories;
+
+    /**
+     * Creates a new Directory
+     *
+     * @param objects the objects directly in the directory
+     * @param subdirectories the prefixes of the subdirectories, ending with "/"
+     */
+    Directory(List<S3Object> objects, Set<String> subdirectories) {
+      this.objects = objects;
+      this.subdirectories = subdirectories;
+    }
+  }
+
+  private final Storage storage;
+  private final ConcurrentSkipListMap<String, S3Object> objects = new ConcurrentSkipListMap<>(FileListing.KEY_ORDER);
+
+  private InventoryIndex(Storage storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * Builds the index of a store.
+   *
+   * @param storage the {@link Storage} of the store
+   * @return a {@link Stream} of every {@link S3Object} in the store, in key order
+   * @throws IOException if the report could not be read or the live listing failed
+   */
+  static Stream<S3Object> build(Storage storage) throws IOException {
+    InventoryIndex index = new InventoryIndex(storage);
+    storage.readInventory(object -> index.objects.put(object.key(), object));
+    index.reconcile("");
+    return index.objects.values().stream();
+  }
+
+  private void reconcile(String directory) throws IOException {
+    Directory live = storage.listDirectory(directory);
+    List<String> reportedObjects = new ArrayList<>();
+    Set<String> reportedDirectories = new HashSet<>();
+    String key = objects.ceilingKey(directory);
+    while (key != null && key.startsWith(directory)) {
+      int slash = key.indexOf('/', directory.length());
+      if (slash < 0) {
+        reportedObjects.add(key);
+        key = objects.higherKey(key);
+      } else {
+        // skip the contents of the subdirectory
+        String subdirectory = key.substring(0, slash + 1);
+        reportedDirectories.add(subdirectory);
+        key = objects.higherKey(subdirectory + MAX_SUFFIX);
+      }
+    }
+
+    Set<String> liveObjects = live.objects.stream().map(S3Object::key).collect(Collectors.toSet());
+    reportedObjects.stream().filter(reported -> !liveObjects.contains(reported)).forEach(objects::remove);
+    live.objects.forEach(object -> objects.put(object.key(), object));
+
+    for (String reported : reportedDirectories) {
+      if (!live.subdirectories.contains(reported)) {
+        objects.subMap(reported, true, reported + MAX_SUFFIX, false).clear();
+      }
+    }
+    for (String subdirectory : live.subdirectories) {
+      if (!reportedDirectories.contains(subdirectory)) {
+        try (Stream<S3Object> added = storage.list(subdirectory)) {
+          added.forEach(object -> objects.put(object.key(), object));
+        }
+      } else if (!objects.containsKey(subdirectory + ZarrConstants.FILENAME_DOT_ZARRAY)) {
+        // the chunks of arrays are not listed
+        reconcile(subdirectory);
+      }
+    }
+  }
+}
@@ -0,0 +1,256 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import com.bc.zarr.ZarrUtils;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * A S3 Inventory report of a bucket, read from its manifest.json.  Only CSV reports are supported.  The data files of a
+ * report are gzip compressed CSV files whose columns are described by the fileSchema of the manifest, with URL encoded
+ * keys.
+ */
+final class InventoryReport {
+
+  /**
+   * The name of the manifest of a report.
+   */
+  static final String MANIFEST_NAME = "manifest.json";
+
+  private final S3ClientWrapper s3;
+  private final String destinationBucket;
+  private final String sourceBucket;
+  private final int keyColumn;
+  private final int sizeColumn;
+  private final int eTagColumn;
+  private final int isLatestColumn;
+  private final int isDeleteMarkerColumn;
+  private final List<String> files;
+
+  private InventoryReport(S3ClientWrapper s3, String destinationBucket, String key, Map<?, ?> manifest) throws IOException {
+    this.s3 = s3;
+    this.destinationBucket = destinationBucket;
+    this.sourceBucket = String.valueOf(manifest.get("sourceBucket"));
+    Object format = manifest.get("fileFormat");
+    if (!"CSV".equalsIgnoreCase(String.valueOf(format))) {
+      throw new IOException("Unsupported inventory format " + format + ", only CSV reports are supported: " + key);
+    }
+    List<String> schema = Stream.of(String.valueOf(manifest.get("fileSchema")).split(","))
+        .map(String::trim)
+        .collect(Collectors.toList());
+    this.keyColumn = schema.indexOf("Key");
+    if (keyColumn < 0) {
+      throw new IOException("Inventory schema has no Key column: " + key);
+    }
+    this.sizeColumn = schema.indexOf("Size");
+    this.eTagColumn = schema.indexOf("ETag");
+    this.isLatestColumn = schema.indexOf("IsLatest");
+    this.isDeleteMarkerColumn = schema.indexOf("IsDeleteMarker");
+    Object fileList = manifest.get("files");
+    if (!(fileList instanceof List)) {
+      throw new IOException("Inventory manifest has no files: " + key);
+    }
+    List<String> files = new ArrayList<>();
+    for (Object file : (List<?>) fileList) {
+      if (!(file instanceof Map) || ((Map<?, ?>) file).get("key") == null) {
+        throw new IOException("Invalid file in inventory manifest: " + key);
+      }
+      files.add(((Map<?, ?>) file).get("key").toString());
+    }
+    this.files = Collections.unmodifiableList(files);
+  }
+
+  /**
+   * Reads an inventory report.
+   *
+   * @param s3 the {@link S3ClientWrapper} to read the report with
+   * @param bucket the bucket the report is delivered to
+   * @param key the key of a manifest.json, or the prefix of an inventory configuration (destination-prefix/source-bucket/
+   *     configuration-id) in which case the most recent report is read
+   * @return the {@link InventoryReport}
+   * @throws IOException if no report was found or the report could not be read
+   */
+  static InventoryReport read(S3ClientWrapper s3, String bucket, String key) throws IOException {
+    String manifestKey = new S3Path(key).endsWith(new S3Path(MANIFEST_NAME)) ? key : latestManifest(s3, bucket, key);
+    Optional<InputStream> inputStream;
+    try {
+      inputStream = s3.getObject(bucket, manifestKey);
+    } catch (RuntimeException e) {
+      throw new IOException("Unable to read inventory manifest: " + bucket + "/" + manifestKey, e);
+    }
+    if (!inputStream.isPresent()) {
+      throw new IOException("Inventory manifest does not exist: " + bucket + "/" + manifestKey);
+    }
+    Map<?, ?> manifest;
+    try (Reader reader = new InputStreamReader(inputStream.get(), StandardCharsets.UTF_8)) {
+      manifest = ZarrUtils.fromJson(reader, Map.class);
+    }
+    if (manifest == null) {
+      throw new IOException("Empty inventory manifest: " + bucket + "/" + manifestKey);
+    }
+    return new InventoryReport(s3, bucket, manifestKey, manifest);
+  }
+
+  private static String latestManifest(S3ClientWrapper s3, String bucket, String configurationPrefix) throws IOException {
+    String prefix = new S3Path(configurationPrefix) + "/";
+    List<String> reports;
+    try (Stream<String> stream = s3.listObjectsV2Paginator(bucket, prefix, null, "/")
+        .flatMap(response -> response.commonPrefixes().stream())
+        .map(CommonPrefix::prefix)) {
+      // report folders are named by their creation time (YYYY-MM-DDTHH-MMZ), so the latest sorts last
+      reports = stream.filter(reportPrefix -> !reportPrefix.endsWith("/hive/") && !reportPrefix.endsWith("/data/"))
+          .sorted(Collections.reverseOrder(FileListing.KEY_ORDER))
+          .collect(Collectors.toList());
+    } catch (RuntimeException e) {
+      throw new IOException("Unable to list inventory reports: " + bucket + "/" + prefix, e);
+    }
+    for (String report : reports) {
+      String manifestKey = report + MANIFEST_NAME;
+      try (Stream<S3Object> manifests = s3.listObjectsV2Paginator(bucket, manifestKey)
+          .flatMap(response -> response.contents().stream())) {
+        if (manifests.anyMatch(object -> object.key().equals(manifestKey))) {
+          return manifestKey;
+        }
+      }
+    }
+    throw new IOException("No inventory report found: " + bucket + "/" + prefix);
+  }
+
+  /**
+   * Returns the bucket the report describes.
+   *
+   * @return the source bucket name
+   */
+  String getSourceBucket() {
+    return sourceBucket;
+  }
+
+  /**
+   * Reads the current objects in the report whose keys start with a prefix, reading the data files concurrently.
+   *
+   * @param prefix a S3 key prefix of the source bucket
+   * @param executor reads the data files, at most one task per file is submitted
+   * @param consumer receives each object, must be thread safe
+   * @throws IOException if a data file could not be read
+   */
+  void read(String prefix, ExecutorService executor, Consumer<S3Object> consumer) throws IOException {
+    List<Future<?>> reads = new ArrayList<>(files.size());
+    try {
+      for (String file : files) {
+        reads.add(executor.submit(() -> {
+          readFile(file, prefix, consumer);
+          return null;
+        }));
+      }
+      for (int i = 0; i < reads.size(); i++) {
+        try {
+          reads.get(i).get();
+        } catch (ExecutionException e) {
+          throw new IOException("Unable to read inventory file: " + destinationBucket + "/" + files.get(i), e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading inventory report", e);
+    } finally {
+      reads.forEach(read -> read.cancel(true));
+    }
+  }
+
+  private void readFile(String file, String prefix, Consumer<S3Object> consumer) throws IOException {
+    InputStream inputStream = s3.getObject(destinationBucket, file)
+        .orElseThrow(() -> new IOException("Inventory file does not exist: " + destinationBucket + "/" + file));
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(inputStream), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new IOException("Interrupted while reading inventory file: " + file);
+        }
+        List<String> row = parseRow(line);
+        String key = decodeKey(row.get(keyColumn));
+        if (!key.startsWith(prefix)
+            || (isLatestColumn >= 0 && "false".equalsIgnoreCase(column(row, isLatestColumn)))
+            || (isDeleteMarkerColumn >= 0 && "true".equalsIgnoreCase(column(row, isDeleteMarkerColumn)))) {
+          continue;
+        }
+        S3Object.Builder object = S3Object.builder().key(key);
+        String size = column(row, sizeColumn);
+        if (!size.isEmpty()) {
+          object.size(Long.parseLong(size));
+        }
+        String eTag = column(row, eTagColumn);
+        if (!eTag.isEmpty()) {
+          // listings quote ETags, inventory reports do not
+          object.eTag("\"" + eTag + "\"");
+        }
+        consumer.accept(object.build());
+      }
+    } catch (RuntimeException e) {
+      throw new IOException("Invalid inventory file: " + destinationBucket + "/" + file, e);
+    }
+  }
+
+  private static String column(List<String> row, int column) {
+    return column < 0 || column >= row.size() ? "" : row.get(column);
+  }
+
+  private static String decodeKey(String key) throws UnsupportedEncodingException {
+    if (key.indexOf('%') < 0 && key.indexOf('+') < 0) {
+      return key;
+    }
+    return URLDecoder.decode(key, StandardCharsets.UTF_8.name());
+  }
+
+  /**
+   * Parses a CSV row, fields may be quoted with a doubled quote as an escaped quote.
+   *
+   * @param line the row
+   * @return the fields
+   */
+  static List<String> parseRow(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else if (c == '"') {
+          quoted = false;
+        } else {
+          field.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+}
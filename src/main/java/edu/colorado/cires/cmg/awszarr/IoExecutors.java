@@ -0,0 +1,40 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors used to run blocking S3 requests concurrently.  This is the Java 8 implementation, which always uses
+ * platform threads.  The jar is a multi-release jar and contains a Java 21 implementation of this class that runs tasks on
+ * virtual threads when requested.
+ */
+final class IoExecutors {
+
+  private IoExecutors() {
+
+  }
+
+  /**
+   * Determines if this JVM supports virtual threads.
+   *
+   * @return true if virtual threads are supported
+   */
+  static boolean isVirtualThreadSupported() {
+    return false;
+  }
+
+  /**
+   * Creates an {@link ExecutorService} that runs at most concurrency tasks at a time.
+   *
+   * @param name the prefix for thread names
+   * @param concurrency the maximum number of tasks to run at a time
+   * @param virtualThreads true to run tasks on virtual threads when supported, this is ignored on JVMs older than 21
+   * @return a new {@link ExecutorService}
+   */
+  static ExecutorService newExecutor(String name, int concurrency, boolean virtualThreads) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be at least 1");
+    }
+    return Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory(name));
+  }
+}
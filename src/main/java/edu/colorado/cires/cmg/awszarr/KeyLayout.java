@@ -0,0 +1,92 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Maps the logical keys of a zarr store to the physical keys of objects, relative to the store root.  The flat layout uses
+ * the logical key as is.  The hashed layout keeps metadata documents (names starting with ".z") at their logical keys and
+ * stores every other object, i.e. chunks, under one of 256 hash directories at the store root (".zh00/" to ".zhff/")
+ * chosen by the MD5 of the logical key.  S3 scales request rates per key prefix, so spreading chunks across hash
+ * directories lets parallel writers exceed the request rate of a single prefix.  The mapping is reversible, the logical
+ * key follows the hash directory.
+ */
+final class KeyLayout {
+
+  /**
+   * The prefix of a hash directory name.
+   */
+  static final String HASH_DIR_PREFIX = ".zh";
+
+  static final KeyLayout FLAT = new KeyLayout(false);
+  static final KeyLayout HASHED = new KeyLayout(true);
+
+  private static final List<String> HASH_DIRS = IntStream.range(0, 256)
+      .mapToObj(i -> HASH_DIR_PREFIX + hex(i))
+      .collect(Collectors.toList());
+
+  private final boolean hashed;
+
+  private KeyLayout(boolean hashed) {
+    this.hashed = hashed;
+  }
+
+  boolean isHashed() {
+    return hashed;
+  }
+
+  /**
+   * Returns the names of the hash directories at the store root.
+   *
+   * @return the hash directory names
+   */
+  static List<String> hashDirs() {
+    return HASH_DIRS;
+  }
+
+  /**
+   * Returns the physical key of a logical key.
+   *
+   * @param logicalKey a logical key relative to the store root
+   * @return the physical key relative to the store root
+   */
+  String toPhysical(String logicalKey) {
+    String key = new S3Path(logicalKey).toString();
+    if (!hashed || key.isEmpty() || isMetadata(key)) {
+      return key;
+    }
+    return hashDir(key) + "/" + key;
+  }
+
+  /**
+   * Returns the logical key of a physical key.
+   *
+   * @param physicalKey a physical key relative to the store root
+   * @return the logical key relative to the store root
+   */
+  String toLogical(String physicalKey) {
+    if (!hashed) {
+      return physicalKey;
+    }
+    int slash = physicalKey.indexOf('/');
+    if (slash == HASH_DIR_PREFIX.length() + 2 && physicalKey.startsWith(HASH_DIR_PREFIX)) {
+      return physicalKey.substring(slash + 1);
+    }
+    return physicalKey;
+  }
+
+  private static boolean isMetadata(String key) {
+    return key.substring(key.lastIndexOf('/') + 1).startsWith(".z");
+  }
+
+  private static String hashDir(String key) {
+    byte[] digest = ETags.md5().digest(key.getBytes(StandardCharsets.UTF_8));
+    return HASH_DIR_PREFIX + hex(digest[0] & 0xFF);
+  }
+
+  private static String hex(int value) {
+    return new String(new char[]{Character.forDigit(value >> 4, 16), Character.forDigit(value & 0xF, 16)});
+  }
+}
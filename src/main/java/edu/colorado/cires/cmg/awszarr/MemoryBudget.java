@@ -0,0 +1,162 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the memory held by the caches of one or more stores against a shared limit.  Each cache records the bytes it holds
+ * in its own {@link Account}, so the usage of each store is known.  A cache that finds the budget exceeded first asks the
+ * other caches to give memory back with {@link Account#reclaim(long)}, then evicts its own entries.  The budget is not enforced
+ * by reservations, so it can be exceeded briefly while caches evict.
+ */
+final class MemoryBudget {
+
+  /**
+   * Evicts entries of a cache when another cache needs memory.
+   */
+  interface Reclaimer {
+
+    /**
+     * Evicts entries of a cache until the budget has room for the memory another cache is about to take, without blocking
+     * on other caches.
+     *
+     * @param bytes the number of bytes the other cache is about to take
+     */
+    void reclaim(long bytes);
+  }
+
+  /**
+   * The memory held by one cache.
+   */
+  final class Account {
+
+    private final AtomicLong used = new AtomicLong();
+    private final Reclaimer reclaimer;
+
+    private Account(Reclaimer reclaimer) {
+      this.reclaimer = reclaimer;
+    }
+
+    /**
+     * Records memory taken or given back by the cache.
+     *
+     * @param bytes the number of bytes, negative when memory is given back
+     */
+    void add(long bytes) {
+      used.addAndGet(bytes);
+      MemoryBudget.this.used.addAndGet(bytes);
+    }
+
+    /**
+     * Returns the memory held by the cache.
+     *
+     * @return the number of bytes
+     */
+    long getUsed() {
+      return used.get();
+    }
+
+    /**
+     * Determines if the caches sharing the budget hold more than the limit.
+     *
+     * @return true if the budget is exceeded
+     */
+    boolean isExceeded() {
+      return isExceeded(0);
+    }
+
+    /**
+     * Determines if the caches sharing the budget would hold more than the limit after taking more memory.
+     *
+     * @param bytes the number of bytes about to be taken
+     * @return true if the budget has no room for the memory
+     */
+    boolean isExceeded(long bytes) {
+      return MemoryBudget.this.used.get() > maxBytes - bytes;
+    }
+
+    /**
+     * Asks the other caches sharing the budget to evict entries, largest first, until the budget has room for the memory
+     * the cache is about to take.  This must not be called while holding a lock of the cache.
+     *
+     * @param bytes the number of bytes the cache is about to take
+     */
+    void reclaim(long bytes) {
+      if (!isExceeded(bytes)) {
+        return;
+      }
+      // sort copies of the usage, the live counters change while sorting and would break the ordering contract
+      List<Map.Entry<Account, Long>> others = new ArrayList<>();
+      for (Account other : accounts) {
+        if (other != this && other.reclaimer != null) {
+          others.add(new AbstractMap.SimpleImmutableEntry<>(other, other.getUsed()));
+        }
+      }
+      others.sort(Map.Entry.<Account, Long>comparingByValue().reversed());
+      for (Map.Entry<Account, Long> other : others) {
+        if (!isExceeded(bytes)) {
+          return;
+        }
+        other.getKey().reclaimer.reclaim(bytes);
+      }
+    }
+
+    /**
+     * Removes the cache from the budget, giving back any memory it still holds.
+     */
+    void close() {
+      if (accounts.remove(this)) {
+        add(-used.get());
+      }
+    }
+  }
+
+  private final long maxBytes;
+  private final AtomicLong used = new AtomicLong();
+  private final Set<Account> accounts = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Creates a new MemoryBudget
+   *
+   * @param maxBytes the maximum number of bytes the caches sharing this budget should hold
+   */
+  MemoryBudget(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Creates a budget without a limit, used to account for the memory of a store that does not share a budget.
+   *
+   * @return a new MemoryBudget
+   */
+  static MemoryBudget unlimited() {
+    return new MemoryBudget(Long.MAX_VALUE);
+  }
+
+  /**
+   * Creates an account for a cache.
+   *
+   * @param reclaimer evicts entries of the cache when another cache needs memory, or null if the cache only evicts its own
+   *     entries
+   * @return a new {@link Account}
+   */
+  Account newAccount(Reclaimer reclaimer) {
+    Account account = new Account(reclaimer);
+    accounts.add(account);
+    return account;
+  }
+
+  /**
+   * Returns the memory held by all caches sharing this budget.
+   *
+   * @return the number of bytes
+   */
+  long getUsed() {
+    return used.get();
+  }
+}
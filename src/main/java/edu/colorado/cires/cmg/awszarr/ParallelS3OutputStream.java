@@ -0,0 +1,196 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+/**
+ * An {@link OutputStream} that uploads an object in parts, with the parts of the same upload running concurrently on a
+ * shared executor.  Each part buffer is taken from a shared {@link Semaphore} before it is filled and is returned when its
+ * part has been uploaded, which bounds the memory used by every stream sharing the semaphore.  The parts are completed in
+ * part number order when the stream is closed.  An object no larger than one part is uploaded with a single request.
+ */
+final class ParallelS3OutputStream extends OutputStream {
+
+  private final S3ClientWrapper s3;
+  private final String bucket;
+  private final String key;
+  private final int partSize;
+  private final ExecutorService executor;
+  private final Semaphore buffers;
+  private final List<Future<CompletedPart>> parts = new ArrayList<>();
+  private volatile Throwable failure;
+  private volatile boolean aborted;
+  private String uploadId;
+  private byte[] buffer;
+  private int count;
+  private boolean closed;
+
+  /**
+   * Creates a new ParallelS3OutputStream
+   *
+   * @param s3 the {@link S3ClientWrapper}
+   * @param bucket the bucket name
+   * @param key the object key
+   * @param partSize the part size in bytes
+   * @param executor the executor running part uploads
+   * @param buffers a permit for each part buffer that may be held, shared by streams using the same executor
+   */
+  ParallelS3OutputStream(S3ClientWrapper s3, String bucket, String key, int partSize, ExecutorService executor, Semaphore buffers) {
+    this.s3 = s3;
+    this.bucket = bucket;
+    this.key = key;
+    this.partSize = partSize;
+    this.executor = executor;
+    this.buffers = buffers;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream is closed");
+    }
+    while (len > 0) {
+      // a full part is only submitted once more is written, so an object of exactly one part is a single request
+      if (buffer != null && count == partSize) {
+        submitPart();
+      }
+      if (buffer == null) {
+        acquireBuffer();
+      }
+      int n = Math.min(len, partSize - count);
+      System.arraycopy(b, off, buffer, count, n);
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  private void acquireBuffer() throws IOException {
+    checkFailure();
+    try {
+      buffers.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for an upload buffer: " + bucket + "/" + key);
+    }
+    buffer = new byte[partSize];
+    count = 0;
+  }
+
+  private void submitPart() throws IOException {
+    checkFailure();
+    if (uploadId == null) {
+      try {
+        uploadId = s3.createMultipartUpload(bucket, key);
+      } catch (RuntimeException e) {
+        abort(e);
+        throw new IOException("Unable to create upload: " + bucket + "/" + key, e);
+      }
+    }
+    String uploadId = this.uploadId;
+    int partNumber = parts.size() + 1;
+    ByteBuffer part = ByteBuffer.wrap(buffer, 0, count);
+    buffer = null;
+    count = 0;
+    try {
+      parts.add(executor.submit(() -> uploadPart(uploadId, partNumber, part)));
+    } catch (RuntimeException e) {
+      buffers.release();
+      abort(e);
+      throw new IOException("Unable to upload part " + partNumber + " of " + bucket + "/" + key, e);
+    }
+  }
+
+  private CompletedPart uploadPart(String uploadId, int partNumber, ByteBuffer part) {
+    try {
+      if (aborted) {
+        throw new IllegalStateException("Upload was aborted: " + bucket + "/" + key);
+      }
+      return s3.uploadPart(bucket, key, uploadId, partNumber, part);
+    } catch (RuntimeException e) {
+      failure = e;
+      throw e;
+    } finally {
+      buffers.release();
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable failure = this.failure;
+    if (failure != null) {
+      abort(failure);
+      throw new IOException("Unable to upload " + bucket + "/" + key, failure);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (uploadId == null) {
+        s3.putObject(bucket, key, buffer == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(buffer, 0, count));
+        return;
+      }
+      if (count > 0) {
+        submitPart();
+      }
+      List<CompletedPart> completed = new ArrayList<>(parts.size());
+      for (Future<CompletedPart> part : parts) {
+        completed.add(part.get());
+      }
+      s3.completeMultipartUpload(bucket, key, uploadId, completed);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      abort(e);
+      throw new InterruptedIOException("Interrupted while uploading " + bucket + "/" + key);
+    } catch (ExecutionException e) {
+      abort(e.getCause());
+      throw new IOException("Unable to upload " + bucket + "/" + key, e.getCause());
+    } catch (RuntimeException e) {
+      abort(e);
+      throw new IOException("Unable to upload " + bucket + "/" + key, e);
+    } finally {
+      releaseBuffer();
+    }
+  }
+
+  private void releaseBuffer() {
+    if (buffer != null) {
+      buffer = null;
+      buffers.release();
+    }
+  }
+
+  private void abort(Throwable cause) {
+    closed = true;
+    // queued parts skip their upload, but still run so their buffers are released
+    aborted = true;
+    releaseBuffer();
+    if (uploadId == null) {
+      return;
+    }
+    try {
+      s3.abortMultipartUpload(bucket, key, uploadId);
+    } catch (RuntimeException e) {
+      cause.addSuppressed(e);
+    }
+    uploadId = null;
+  }
+}
@@ -0,0 +1,76 @@
+package edu.colorado.cires.cmg.awszarr;
+
+/**
+ * A snapshot of the chunk prefetching statistics of an {@link AwsS3ZarrStore}.
+ */
+public final class PrefetchStats {
+
+  private final long issued;
+  private final long hits;
+  private final long misses;
+  private final long wasted;
+
+  PrefetchStats(long issued, long hits, long misses, long wasted) {
+    this.issued = issued;
+    this.hits = hits;
+    this.misses = misses;
+    this.wasted = wasted;
+  }
+
+  /**
+   * Returns the number of chunks fetched speculatively.
+   *
+   * @return the number of prefetches
+   */
+  public long getIssued() {
+    return issued;
+  }
+
+  /**
+   * Returns the number of chunk reads served by a prefetch.
+   *
+   * @return the number of hits
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * Returns the number of chunk reads that were not prefetched.
+   *
+   * @return the number of misses
+   */
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Returns the number of prefetched chunks that were discarded without being read, because the prefetch buffer was full
+   * or the chunk was written or deleted.
+   *
+   * @return the number of wasted prefetches
+   */
+  public long getWasted() {
+    return wasted;
+  }
+
+  /**
+   * Returns the fraction of chunk reads served by a prefetch.
+   *
+   * @return the hit rate between 0 and 1
+   */
+  public double getHitRate() {
+    long reads = hits + misses;
+    return reads == 0 ? 0D : (double) hits / reads;
+  }
+
+  @Override
+  public String toString() {
+    return "PrefetchStats{" +
+        "issued=" + issued +
+        ", hits=" + hits +
+        ", misses=" + misses +
+        ", wasted=" + wasted +
+        '}';
+  }
+}
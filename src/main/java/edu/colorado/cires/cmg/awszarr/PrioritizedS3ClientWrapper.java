@@ -0,0 +1,305 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+
+/**
+ * A {@link S3ClientWrapper} that schedules the requests made to another {@link S3ClientWrapper} by {@link RequestPriority},
+ * so background work such as prefetching, bulk deletes and uploads sharing a connection pool does not delay the chunk reads
+ * a caller is waiting for.  At most {@link Builder#maxConcurrency(int)} requests run at a time and each priority class can
+ * be limited to fewer.  When a request completes, the next request to run is the oldest waiting request of the highest
+ * priority class that is below its limit.
+ * <p>
+ * The priority of a request is the priority entered on the calling thread with {@link RequestPriority#enter()}.  Otherwise
+ * listings and reads of metadata documents (names starting with ".z") are {@link RequestPriority#METADATA}, other reads are
+ * {@link RequestPriority#INTERACTIVE} and writes, deletes and copies are {@link RequestPriority#BULK}.  A read holds its slot
+ * until its {@link InputStream} is closed and a listing holds a slot while each page is fetched.
+ * </p>
+ */
+public class PrioritizedS3ClientWrapper implements S3ClientWrapper {
+
+  /**
+   * Creates a new {@link Builder} to build a PrioritizedS3ClientWrapper
+   *
+   * @return a new {@link Builder} to build a PrioritizedS3ClientWrapper
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a new {@link PrioritizedS3ClientWrapper}
+   */
+  public static class Builder {
+
+    private S3ClientWrapper s3;
+    private int maxConcurrency = 50;
+    private final Map<RequestPriority, Integer> limits = new EnumMap<>(RequestPriority.class);
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientWrapper} that makes the requests.
+     * Required.
+     *
+     * @param s3 the {@link S3ClientWrapper}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientWrapper s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of concurrent requests of all priorities.  This should not exceed the size of the connection
+     * pool of the underlying client, otherwise requests wait for connections outside of this scheduler.
+     * Default: 50
+     *
+     * @param maxConcurrency the maximum number of concurrent requests
+     * @return this Builder
+     */
+    public Builder maxConcurrency(int maxConcurrency) {
+      this.maxConcurrency = maxConcurrency;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of concurrent requests of a priority class.
+     * Default: maxConcurrency for {@link RequestPriority#INTERACTIVE} and {@link RequestPriority#METADATA}, a quarter of
+     * maxConcurrency (at least 1) for {@link RequestPriority#PREFETCH} and {@link RequestPriority#BULK}
+     *
+     * @param priority the priority class
+     * @param limit the maximum number of concurrent requests of the priority class
+     * @return this Builder
+     */
+    public Builder limit(RequestPriority priority, int limit) {
+      limits.put(Objects.requireNonNull(priority), limit);
+      return this;
+    }
+
+    /**
+     * Builds a new {@link PrioritizedS3ClientWrapper}
+     *
+     * @return a new {@link PrioritizedS3ClientWrapper}
+     */
+    public PrioritizedS3ClientWrapper build() {
+      if (maxConcurrency < 1) {
+        throw new IllegalArgumentException("maxConcurrency must be at least 1");
+      }
+      int[] classLimits = new int[RequestPriority.values().length];
+      for (RequestPriority priority : RequestPriority.values()) {
+        int defaultLimit = priority.compareTo(RequestPriority.PREFETCH) >= 0 ? Math.max(1, maxConcurrency / 4) : maxConcurrency;
+        int limit = limits.getOrDefault(priority, defaultLimit);
+        if (limit < 1) {
+          throw new IllegalArgumentException("The limit of " + priority + " must be at least 1");
+        }
+        classLimits[priority.ordinal()] = limit;
+      }
+      return new PrioritizedS3ClientWrapper(Objects.requireNonNull(s3), new RequestScheduler(maxConcurrency, classLimits));
+    }
+  }
+
+  private final S3ClientWrapper s3;
+  private final RequestScheduler scheduler;
+
+  private PrioritizedS3ClientWrapper(S3ClientWrapper s3, RequestScheduler scheduler) {
+    this.s3 = s3;
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Returns the number of running requests of a priority class.
+   *
+   * @param priority the priority class
+   * @return the number of running requests
+   */
+  public int getActive(RequestPriority priority) {
+    return scheduler.getActive(priority);
+  }
+
+  /**
+   * Returns the number of requests of a priority class waiting to run.
+   *
+   * @param priority the priority class
+   * @return the number of waiting requests
+   */
+  public int getWaiting(RequestPriority priority) {
+    return scheduler.getWaiting(priority);
+  }
+
+  private static RequestPriority priority(RequestPriority defaultPriority) {
+    RequestPriority priority = RequestPriority.current();
+    return priority == null ? defaultPriority : priority;
+  }
+
+  private static RequestPriority readPriority(String key) {
+    String name = key.substring(key.lastIndexOf('/') + 1);
+    return priority(name.startsWith(".z") ? RequestPriority.METADATA : RequestPriority.INTERACTIVE);
+  }
+
+  private void acquire(RequestPriority priority) {
+    try {
+      scheduler.acquire(priority);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting to send a " + priority + " request", e);
+    }
+  }
+
+  private <T> T schedule(RequestPriority priority, Supplier<T> request) {
+    acquire(priority);
+    try {
+      return request.get();
+    } finally {
+      scheduler.release(priority);
+    }
+  }
+
+  private void schedule(RequestPriority priority, Runnable request) {
+    schedule(priority, () -> {
+      request.run();
+      return null;
+    });
+  }
+
+  @Override
+  public Optional<InputStream> getObject(String bucket, String key) {
+    return scheduleStream(readPriority(key), () -> s3.getObject(bucket, key));
+  }
+
+  @Override
+  public Optional<InputStream> getObjectRange(String bucket, String key, long firstByte, long lastByte) {
+    return scheduleStream(readPriority(key), () -> s3.getObjectRange(bucket, key, firstByte, lastByte));
+  }
+
+  private Optional<InputStream> scheduleStream(RequestPriority priority, Supplier<Optional<InputStream>> request) {
+    acquire(priority);
+    Optional<InputStream> inputStream;
+    try {
+      inputStream = request.get();
+    } catch (RuntimeException e) {
+      scheduler.release(priority);
+      throw e;
+    }
+    if (!inputStream.isPresent()) {
+      scheduler.release(priority);
+      return inputStream;
+    }
+    // the connection is in use until the response is consumed
+    AtomicBoolean released = new AtomicBoolean();
+    return Optional.of(new FilterInputStream(inputStream.get()) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          if (released.compareAndSet(false, true)) {
+            scheduler.release(priority);
+          }
+        }
+      }
+    });
+  }
+
+  @Override
+  public Optional<ByteBuffer> getObjectBuffer(String bucket, String key) {
+    return schedule(readPriority(key), () -> s3.getObjectBuffer(bucket, key));
+  }
+
+  @Override
+  public Optional<ByteBuffer> getObjectBuffer(String bucket, String key, IntFunction<ByteBuffer> allocator) {
+    return schedule(readPriority(key), () -> s3.getObjectBuffer(bucket, key, allocator));
+  }
+
+  @Override
+  public void putObject(String bucket, String key, ByteBuffer contents) {
+    schedule(priority(RequestPriority.BULK), () -> s3.putObject(bucket, key, contents));
+  }
+
+  @Override
+  public void copyObject(String sourceBucket, String sourceKey, String destinationBucket, String destinationKey) {
+    schedule(priority(RequestPriority.BULK), () -> s3.copyObject(sourceBucket, sourceKey, destinationBucket, destinationKey));
+  }
+
+  @Override
+  public CompletedPart uploadPartCopy(
+      String sourceBucket, String sourceKey, long firstByte, long lastByte,
+      String destinationBucket, String destinationKey, String uploadId, int partNumber) {
+    return schedule(priority(RequestPriority.BULK), () -> s3.uploadPartCopy(
+        sourceBucket, sourceKey, firstByte, lastByte, destinationBucket, destinationKey, uploadId, partNumber));
+  }
+
+  @Override
+  public void deleteObject(String bucket, String key) {
+    schedule(priority(RequestPriority.BULK), () -> s3.deleteObject(bucket, key));
+  }
+
+  @Override
+  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix) {
+    RequestPriority priority = priority(RequestPriority.METADATA);
+    return schedulePages(priority, schedule(priority, () -> s3.listObjectsV2Paginator(bucket, prefix)));
+  }
+
+  @Override
+  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix, String startAfter, String delimiter) {
+    RequestPriority priority = priority(RequestPriority.METADATA);
+    return schedulePages(priority, schedule(priority, () -> s3.listObjectsV2Paginator(bucket, prefix, startAfter, delimiter)));
+  }
+
+  private Stream<ListObjectsV2Response> schedulePages(RequestPriority priority, Stream<ListObjectsV2Response> pages) {
+    // pages are fetched lazily as the stream is consumed, each fetch is scheduled
+    Iterator<ListObjectsV2Response> iterator = pages.iterator();
+    Iterator<ListObjectsV2Response> scheduled = new Iterator<ListObjectsV2Response>() {
+      @Override
+      public boolean hasNext() {
+        return schedule(priority, iterator::hasNext);
+      }
+
+      @Override
+      public ListObjectsV2Response next() {
+        return schedule(priority, iterator::next);
+      }
+    };
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(scheduled, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .onClose(pages::close);
+  }
+
+  @Override
+  public String createMultipartUpload(String bucket, String key) {
+    return schedule(priority(RequestPriority.BULK), () -> s3.createMultipartUpload(bucket, key));
+  }
+
+  @Override
+  public CompletedPart uploadPart(String bucket, String key, String uploadId, int partNumber, ByteBuffer buffer) {
+    return schedule(priority(RequestPriority.BULK), () -> s3.uploadPart(bucket, key, uploadId, partNumber, buffer));
+  }
+
+  @Override
+  public void completeMultipartUpload(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts) {
+    schedule(priority(RequestPriority.BULK), () -> s3.completeMultipartUpload(bucket, key, uploadId, completedParts));
+  }
+
+  @Override
+  public void abortMultipartUpload(String bucket, String key, String uploadId) {
+    schedule(priority(RequestPriority.BULK), () -> s3.abortMultipartUpload(bucket, key, uploadId));
+  }
+}
@@ -0,0 +1,127 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+
+/**
+ * A {@link S3ClientWrapper} that waits on a {@link RequestRateLimiter} before each request made to another
+ * {@link S3ClientWrapper}.  Each page of a listing is a request.
+ */
+final class RateLimitedS3ClientWrapper implements S3ClientWrapper {
+
+  private final S3ClientWrapper s3;
+  private final RequestRateLimiter limiter;
+
+  RateLimitedS3ClientWrapper(S3ClientWrapper s3, RequestRateLimiter limiter) {
+    this.s3 = s3;
+    this.limiter = limiter;
+  }
+
+  private void acquire() {
+    try {
+      limiter.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting to send a request", e);
+    }
+  }
+
+  private <T> T limit(Supplier<T> request) {
+    acquire();
+    return request.get();
+  }
+
+  private Stream<ListObjectsV2Response> limitPages(Supplier<Stream<ListObjectsV2Response>> listing) {
+    // the first page is fetched by the request, each following page is fetched after the previous page is consumed
+    return limit(listing).peek(page -> {
+      if (Boolean.TRUE.equals(page.isTruncated())) {
+        acquire();
+      }
+    });
+  }
+
+  @Override
+  public Optional<InputStream> getObject(String bucket, String key) {
+    return limit(() -> s3.getObject(bucket, key));
+  }
+
+  @Override
+  public Optional<ByteBuffer> getObjectBuffer(String bucket, String key) {
+    return limit(() -> s3.getObjectBuffer(bucket, key));
+  }
+
+  @Override
+  public Optional<InputStream> getObjectRange(String bucket, String key, long firstByte, long lastByte) {
+    return limit(() -> s3.getObjectRange(bucket, key, firstByte, lastByte));
+  }
+
+  @Override
+  public Optional<ByteBuffer> getObjectBuffer(String bucket, String key, IntFunction<ByteBuffer> allocator) {
+    return limit(() -> s3.getObjectBuffer(bucket, key, allocator));
+  }
+
+  @Override
+  public void putObject(String bucket, String key, ByteBuffer contents) {
+    acquire();
+    s3.putObject(bucket, key, contents);
+  }
+
+  @Override
+  public void copyObject(String sourceBucket, String sourceKey, String destinationBucket, String destinationKey) {
+    acquire();
+    s3.copyObject(sourceBucket, sourceKey, destinationBucket, destinationKey);
+  }
+
+  @Override
+  public CompletedPart uploadPartCopy(
+      String sourceBucket, String sourceKey, long firstByte, long lastByte,
+      String destinationBucket, String destinationKey, String uploadId, int partNumber) {
+    return limit(() -> s3.uploadPartCopy(
+        sourceBucket, sourceKey, firstByte, lastByte, destinationBucket, destinationKey, uploadId, partNumber));
+  }
+
+  @Override
+  public void deleteObject(String bucket, String key) {
+    acquire();
+    s3.deleteObject(bucket, key);
+  }
+
+  @Override
+  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix) {
+    return limitPages(() -> s3.listObjectsV2Paginator(bucket, prefix));
+  }
+
+  @Override
+  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix, String startAfter, String delimiter) {
+    return limitPages(() -> s3.listObjectsV2Paginator(bucket, prefix, startAfter, delimiter));
+  }
+
+  @Override
+  public String createMultipartUpload(String bucket, String key) {
+    return limit(() -> s3.createMultipartUpload(bucket, key));
+  }
+
+  @Override
+  public CompletedPart uploadPart(String bucket, String key, String uploadId, int partNumber, ByteBuffer buffer) {
+    return limit(() -> s3.uploadPart(bucket, key, uploadId, partNumber, buffer));
+  }
+
+  @Override
+  public void completeMultipartUpload(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts) {
+    acquire();
+    s3.completeMultipartUpload(bucket, key, uploadId, completedParts);
+  }
+
+  @Override
+  public void abortMultipartUpload(String bucket, String key, String uploadId) {
+    acquire();
+    s3.abortMultipartUpload(bucket, key, uploadId);
+  }
+}
@@ -0,0 +1,381 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+
+/**
+ * A {@link S3ClientWrapper} that records every request made to another {@link S3ClientWrapper} in an access trace: the
+ * start time, the thread, the operation, the key, the bytes transferred and the latency.  The trace is written in the
+ * compact binary format read by {@link AccessTrace#read(InputStream)} and can be replayed against any
+ * {@link S3ClientWrapper} by a {@link TraceReplayer}.  A read is recorded when its {@link InputStream} is closed and a
+ * listing when it is exhausted or closed.  The requests of a multipart upload are recorded with the number of the upload,
+ * see {@link TraceEvent#getUpload()}.  Close this wrapper to finish the trace.
+ */
+public class RecordingS3ClientWrapper implements S3ClientWrapper, Closeable {
+
+  /**
+   * Creates a new {@link Builder} to build a RecordingS3ClientWrapper
+   *
+   * @return a new {@link Builder} to build a RecordingS3ClientWrapper
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a new {@link RecordingS3ClientWrapper}
+   */
+  public static class Builder {
+
+    private S3ClientWrapper s3;
+    private OutputStream trace;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientWrapper} that makes the requests.
+     * Required.
+     *
+     * @param s3 the {@link S3ClientWrapper}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientWrapper s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the {@link OutputStream} the trace is written to, which is closed by {@link RecordingS3ClientWrapper#close()}.
+     * Required.
+     *
+     * @param trace the {@link OutputStream} for the trace
+     * @return this Builder
+     */
+    public Builder trace(OutputStream trace) {
+      this.trace = trace;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link RecordingS3ClientWrapper}
+     *
+     * @return a new {@link RecordingS3ClientWrapper}
+     * @throws IOException if the trace header could not be written
+     */
+    public RecordingS3ClientWrapper build() throws IOException {
+      return new RecordingS3ClientWrapper(Objects.requireNonNull(s3), new AccessTrace.Writer(Objects.requireNonNull(trace)));
+    }
+  }
+
+  private final S3ClientWrapper s3;
+  private final AccessTrace.Writer writer;
+  private final long origin = System.nanoTime();
+  private final AtomicInteger threads = new AtomicInteger();
+  private final ThreadLocal<Integer> thread = ThreadLocal.withInitial(threads::getAndIncrement);
+  private final AtomicLong uploadSequence = new AtomicLong();
+  private final ConcurrentMap<String, Long> uploads = new ConcurrentHashMap<>();
+  private volatile IOException failure;
+
+  private RecordingS3ClientWrapper(S3ClientWrapper s3, AccessTrace.Writer writer) {
+    this.s3 = s3;
+    this.writer = writer;
+  }
+
+  /**
+   * Writes any buffered records of the trace.
+   *
+   * @throws IOException if the trace could not be written
+   */
+  public void flush() throws IOException {
+    checkFailure();
+    writer.flush();
+  }
+
+  /**
+   * Finishes the trace.  Requests made afterwards are not recorded.
+   *
+   * @throws IOException if the trace could not be written
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      checkFailure();
+    } finally {
+      writer.close();
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    IOException failure = this.failure;
+    if (failure != null) {
+      throw new IOException("Unable to write access trace", failure);
+    }
+  }
+
+  private final class Request {
+
+    private final TraceOperation operation;
+    private final String bucket;
+    private final String key;
+    private final long offset;
+    private final long upload;
+    private final int thread = RecordingS3ClientWrapper.this.thread.get();
+    private final long start = System.nanoTime();
+    private final AtomicBoolean recorded = new AtomicBoolean();
+
+    private Request(TraceOperation operation, String bucket, String key, long offset) {
+      this(operation, bucket, key, offset, 0);
+    }
+
+    private Request(TraceOperation operation, String bucket, String key, long offset, long upload) {
+      this.operation = operation;
+      this.bucket = bucket;
+      this.key = key;
+      this.offset = offset;
+      this.upload = upload;
+    }
+
+    private void record(long bytes, boolean failed) {
+      if (!recorded.compareAndSet(false, true)) {
+        return;
+      }
+      long end = System.nanoTime();
+      try {
+        writer.write(new TraceEvent(start - origin, thread, operation, bucket, key == null ? "" : key, offset, upload, bytes, end - start, failed));
+      } catch (IOException e) {
+        // a broken trace does not fail the request, it is reported by flush and close
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+
+    private <T> T run(Supplier<T> request, long bytes) {
+      T result;
+      try {
+        result = request.get();
+      } catch (RuntimeException e) {
+        record(bytes, true);
+        throw e;
+      }
+      record(bytes, false);
+      return result;
+    }
+
+    private void run(Runnable request, long bytes) {
+      run(() -> {
+        request.run();
+        return null;
+      }, bytes);
+    }
+
+    private Optional<ByteBuffer> readBuffer(Supplier<Optional<ByteBuffer>> request) {
+      Optional<ByteBuffer> result;
+      try {
+        result = request.get();
+      } catch (RuntimeException e) {
+        record(0, true);
+        throw e;
+      }
+      record(result.map(ByteBuffer::remaining).orElse(0), false);
+      return result;
+    }
+
+    private Optional<InputStream> read(Supplier<Optional<InputStream>> request) {
+      Optional<InputStream> result;
+      try {
+        result = request.get();
+      } catch (RuntimeException e) {
+        record(0, true);
+        throw e;
+      }
+      if (!result.isPresent()) {
+        record(0, false);
+        return result;
+      }
+      return Optional.of(new FilterInputStream(result.get()) {
+
+        private long count;
+
+        @Override
+        public int read() throws IOException {
+          int b = super.read();
+          if (b >= 0) {
+            count++;
+          }
+          return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          int n = super.read(b, off, len);
+          if (n > 0) {
+            count += n;
+          }
+          return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            record(count, false);
+          }
+        }
+      });
+    }
+
+    private Stream<ListObjectsV2Response> list(Supplier<Stream<ListObjectsV2Response>> request) {
+      Stream<ListObjectsV2Response> pages;
+      try {
+        pages = request.get();
+      } catch (RuntimeException e) {
+        record(0, true);
+        throw e;
+      }
+      Iterator<ListObjectsV2Response> iterator = pages.iterator();
+      long[] count = new long[1];
+      Iterator<ListObjectsV2Response> recording = new Iterator<ListObjectsV2Response>() {
+        @Override
+        public boolean hasNext() {
+          boolean hasNext;
+          try {
+            hasNext = iterator.hasNext();
+          } catch (RuntimeException e) {
+            record(count[0], true);
+            throw e;
+          }
+          if (!hasNext) {
+            record(count[0], false);
+          }
+          return hasNext;
+        }
+
+        @Override
+        public ListObjectsV2Response next() {
+          ListObjectsV2Response page = iterator.next();
+          count[0] += page.contents().size() + page.commonPrefixes().size();
+          return page;
+        }
+      };
+      return StreamSupport.stream(Spliterators.spliteratorUnknownSize(recording, Spliterator.ORDERED | Spliterator.NONNULL), false)
+          .onClose(() -> {
+            try {
+              pages.close();
+            } finally {
+              record(count[0], false);
+            }
+          });
+    }
+  }
+
+  @Override
+  public Optional<InputStream> getObject(String bucket, String key) {
+    return new Request(TraceOperation.GET, bucket, key, 0).read(() -> s3.getObject(bucket, key));
+  }
+
+  @Override
+  public Optional<ByteBuffer> getObjectBuffer(String bucket, String key) {
+    return new Request(TraceOperation.GET, bucket, key, 0).readBuffer(() -> s3.getObjectBuffer(bucket, key));
+  }
+
+  @Override
+  public Optional<ByteBuffer> getObjectBuffer(String bucket, String key, IntFunction<ByteBuffer> allocator) {
+    return new Request(TraceOperation.GET, bucket, key, 0).readBuffer(() -> s3.getObjectBuffer(bucket, key, allocator));
+  }
+
+  @Override
+  public Optional<InputStream> getObjectRange(String bucket, String key, long firstByte, long lastByte) {
+    return new Request(TraceOperation.GET_RANGE, bucket, key, firstByte).read(() -> s3.getObjectRange(bucket, key, firstByte, lastByte));
+  }
+
+  @Override
+  public void putObject(String bucket, String key, ByteBuffer contents) {
+    new Request(TraceOperation.PUT, bucket, key, 0).run(() -> s3.putObject(bucket, key, contents), contents.remaining());
+  }
+
+  @Override
+  public void copyObject(String sourceBucket, String sourceKey, String destinationBucket, String destinationKey) {
+    new Request(TraceOperation.COPY, destinationBucket, destinationKey, 0)
+        .run(() -> s3.copyObject(sourceBucket, sourceKey, destinationBucket, destinationKey), 0);
+  }
+
+  @Override
+  public CompletedPart uploadPartCopy(
+      String sourceBucket, String sourceKey, long firstByte, long lastByte,
+      String destinationBucket, String destinationKey, String uploadId, int partNumber) {
+    return new Request(TraceOperation.COPY, destinationBucket, destinationKey, partNumber).run(() -> s3.uploadPartCopy(
+        sourceBucket, sourceKey, firstByte, lastByte, destinationBucket, destinationKey, uploadId, partNumber), lastByte - firstByte + 1);
+  }
+
+  @Override
+  public void deleteObject(String bucket, String key) {
+    new Request(TraceOperation.DELETE, bucket, key, 0).run(() -> s3.deleteObject(bucket, key), 0);
+  }
+
+  @Override
+  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix) {
+    return new Request(TraceOperation.LIST, bucket, prefix, 0).list(() -> s3.listObjectsV2Paginator(bucket, prefix));
+  }
+
+  @Override
+  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix, String startAfter, String delimiter) {
+    return new Request(TraceOperation.LIST, bucket, prefix, delimiter == null ? 0 : 1)
+        .list(() -> s3.listObjectsV2Paginator(bucket, prefix, startAfter, delimiter));
+  }
+
+  @Override
+  public String createMultipartUpload(String bucket, String key) {
+    long upload = uploadSequence.incrementAndGet();
+    String uploadId = new Request(TraceOperation.CREATE_UPLOAD, bucket, key, 0, upload).run(() -> s3.createMultipartUpload(bucket, key), 0);
+    uploads.put(uploadId, upload);
+    return uploadId;
+  }
+
+  @Override
+  public CompletedPart uploadPart(String bucket, String key, String uploadId, int partNumber, ByteBuffer buffer) {
+    return new Request(TraceOperation.UPLOAD_PART, bucket, key, partNumber, uploads.getOrDefault(uploadId, 0L))
+        .run(() -> s3.uploadPart(bucket, key, uploadId, partNumber, buffer), buffer.remaining());
+  }
+
+  @Override
+  public void completeMultipartUpload(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts) {
+    new Request(TraceOperation.COMPLETE_UPLOAD, bucket, key, 0, upload(uploadId))
+        .run(() -> s3.completeMultipartUpload(bucket, key, uploadId, completedParts), 0);
+  }
+
+  @Override
+  public void abortMultipartUpload(String bucket, String key, String uploadId) {
+    new Request(TraceOperation.ABORT_UPLOAD, bucket, key, 0, upload(uploadId)).run(() -> s3.abortMultipartUpload(bucket, key, uploadId), 0);
+  }
+
+  private long upload(String uploadId) {
+    // the upload is finished, its id is no longer needed
+    Long upload = uploads.remove(uploadId);
+    return upload == null ? 0 : upload;
+  }
+}
@@ -0,0 +1,455 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import com.bc.zarr.storage.Store;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A {@link Store} for a zarr store that is replicated to several S3 buckets, i.e. in different regions. Reads are sent to
+ * the healthy replica with the lowest measured latency and fail over to the other replicas on errors. Writes and deletes
+ * are sent to the primary replica only, replication to the other buckets is expected to be handled by S3.
+ */
+public class ReplicatedS3ZarrStore implements Store {
+
+  /**
+   * Creates a new {@link Builder} that builds a new ReplicatedS3ZarrStore
+   *
+   * @return a new {@link Builder} that builds a new ReplicatedS3ZarrStore
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a new {@link ReplicatedS3ZarrStore}
+   */
+  public static class Builder {
+
+    private String key;
+    private String primaryBucket;
+    private S3ClientWrapper primaryS3;
+    private final List<String> replicaBuckets = new ArrayList<>();
+    private final List<S3ClientWrapper> replicaS3 = new ArrayList<>();
+    private int multipartUploadMb = 5;
+    private int maxUploadBuffers = 1;
+    private double latencySmoothing = 0.2;
+    private int probeInterval = 50;
+    private long failureCooldownMs = 1000;
+    private boolean fallbackToPrimaryOnMissing;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the bucket and {@link S3ClientWrapper} of the primary replica, which receives all writes and deletes and is also
+     * used for reads.
+     * Required.
+     *
+     * @param bucket the bucket name
+     * @param s3 the {@link S3ClientWrapper} for the bucket
+     * @return this Builder
+     */
+    public Builder primary(String bucket, S3ClientWrapper s3) {
+      this.primaryBucket = bucket;
+      this.primaryS3 = s3;
+      return this;
+    }
+
+    /**
+     * Adds a read replica. This may be called multiple times.
+     *
+     * @param bucket the bucket name
+     * @param s3 the {@link S3ClientWrapper} for the bucket, typically configured for the bucket's region
+     * @return this Builder
+     */
+    public Builder replica(String bucket, S3ClientWrapper s3) {
+      replicaBuckets.add(bucket);
+      replicaS3.add(s3);
+      return this;
+    }
+
+    /**
+     * Sets the key prefix for the zarr store, which must be the same in every replica.
+     * Required.
+     *
+     * @param key the key prefix for a zarr store in each S3 bucket
+     * @return this Builder
+     */
+    public Builder key(String key) {
+      this.key = key;
+      return this;
+    }
+
+    /**
+     * The part size in MiB used when writing to the primary replica. See {@link AwsS3ZarrStore.Builder#multipartUploadMb(int)}.
+     * Default: 5
+     *
+     * @param multipartUploadMb the part size in MiB
+     * @return this Builder
+     */
+    public Builder multipartUploadMb(int multipartUploadMb) {
+      this.multipartUploadMb = multipartUploadMb;
+      return this;
+    }
+
+    /**
+     * The number of upload buffers used when writing to the primary replica. See {@link AwsS3ZarrStore.Builder#maxUploadBuffers(int)}.
+     * Default: 1
+     *
+     * @param maxUploadBuffers the number of buffers in the queue before blocking
+     * @return this Builder
+     */
+    public Builder maxUploadBuffers(int maxUploadBuffers) {
+      this.maxUploadBuffers = maxUploadBuffers;
+      return this;
+    }
+
+    /**
+     * The weight, between 0 and 1, given to each new latency measurement in a replica's exponentially weighted moving average.
+     * Higher values react to latency changes faster but are noisier.
+     * Default: 0.2
+     *
+     * @param latencySmoothing the weight of new latency measurements
+     * @return this Builder
+     */
+    public Builder latencySmoothing(double latencySmoothing) {
+      this.latencySmoothing = latencySmoothing;
+      return this;
+    }
+
+    /**
+     * One in every probeInterval reads is sent to a random healthy replica other than the fastest one, so that latency
+     * measurements of the other replicas stay current.  A value of 0 disables probing.
+     * Default: 50
+     *
+     * @param probeInterval the number of reads per probe
+     * @return this Builder
+     */
+    public Builder probeInterval(int probeInterval) {
+      this.probeInterval = probeInterval;
+      return this;
+    }
+
+    /**
+     * After a request to a replica fails, the replica is not used for this many milliseconds unless all other replicas have
+     * also failed. The time doubles for each consecutive failure, up to one minute.
+     * Default: 1000
+     *
+     * @param failureCooldownMs the time in milliseconds a failed replica is avoided
+     * @return this Builder
+     */
+    public Builder failureCooldownMs(long failureCooldownMs) {
+      this.failureCooldownMs = failureCooldownMs;
+      return this;
+    }
+
+    /**
+     * When enabled, a read that finds no object in a read replica is retried against the primary. This hides replication
+     * lag for recently written objects at the cost of an extra request for objects that do not exist, such as missing chunks.
+     * Default: false
+     *
+     * @param fallbackToPrimaryOnMissing true to retry reads of missing objects against the primary
+     * @return this Builder
+     */
+    public Builder fallbackToPrimaryOnMissing(boolean fallbackToPrimaryOnMissing) {
+      this.fallbackToPrimaryOnMissing = fallbackToPrimaryOnMissing;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link ReplicatedS3ZarrStore}
+     *
+     * @return a new {@link ReplicatedS3ZarrStore}
+     */
+    public ReplicatedS3ZarrStore build() {
+      return new ReplicatedS3ZarrStore(this);
+    }
+  }
+
+  private static final long MAX_COOLDOWN_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final Replica primary;
+  private final List<Replica> replicas;
+  private final double latencySmoothing;
+  private final int probeInterval;
+  private final long failureCooldownNanos;
+  private final boolean fallbackToPrimaryOnMissing;
+  private final AtomicLong reads = new AtomicLong();
+
+  private ReplicatedS3ZarrStore(Builder builder) {
+    Objects.requireNonNull(builder.primaryS3, "a primary replica is required");
+    if (builder.latencySmoothing <= 0 || builder.latencySmoothing > 1) {
+      throw new IllegalArgumentException("latencySmoothing must be greater than 0 and at most 1");
+    }
+    latencySmoothing = builder.latencySmoothing;
+    probeInterval = builder.probeInterval;
+    failureCooldownNanos = TimeUnit.MILLISECONDS.toNanos(builder.failureCooldownMs);
+    fallbackToPrimaryOnMissing = builder.fallbackToPrimaryOnMissing;
+    List<Replica> all = new ArrayList<>();
+    primary = new Replica(builder.primaryBucket, createStore(builder, builder.primaryBucket, builder.primaryS3));
+    all.add(primary);
+    for (int i = 0; i < builder.replicaBuckets.size(); i++) {
+      String bucket = builder.replicaBuckets.get(i);
+      all.add(new Replica(bucket, createStore(builder, bucket, builder.replicaS3.get(i))));
+    }
+    replicas = Collections.unmodifiableList(all);
+  }
+
+  private static AwsS3ZarrStore createStore(Builder builder, String bucket, S3ClientWrapper s3) {
+    return AwsS3ZarrStore.builder()
+        .s3(s3)
+        .bucket(bucket)
+        .key(builder.key)
+        .multipartUploadMb(builder.multipartUploadMb)
+        .maxUploadBuffers(builder.maxUploadBuffers)
+        .build();
+  }
+
+  /**
+   * Returns the name of the bucket that reads are currently routed to.
+   *
+   * @return the bucket name of the fastest healthy replica
+   */
+  public String getPreferredBucket() {
+    return readOrder(false).get(0).bucket;
+  }
+
+  private List<Replica> readOrder(boolean probe) {
+    long now = System.nanoTime();
+    // sort a snapshot, the health and latency of each replica change concurrently and must not change during the sort
+    List<ReplicaState> states = new ArrayList<>(replicas.size());
+    int healthy = 0;
+    for (Replica replica : replicas) {
+      ReplicaState state = replica.state(now);
+      states.add(state);
+      if (state.healthy) {
+        healthy++;
+      }
+    }
+    // unhealthy replicas are tried last, in case every replica is failing
+    states.sort(Comparator.comparing((ReplicaState state) -> !state.healthy).thenComparingDouble(state -> state.latencyNanos));
+    List<Replica> ordered = new ArrayList<>(states.size());
+    states.forEach(state -> ordered.add(state.replica));
+    if (probe && healthy > 1) {
+      Replica probed = ordered.remove(1 + ThreadLocalRandom.current().nextInt(healthy - 1));
+      ordered.add(0, probed);
+    }
+    return ordered;
+  }
+
+  private boolean shouldProbe() {
+    return probeInterval > 0 && reads.incrementAndGet() % probeInterval == 0;
+  }
+
+  private interface ReadOperation<T> {
+
+    T read(AwsS3ZarrStore store) throws IOException;
+  }
+
+  /**
+   * Runs a read against each replica in order until one succeeds.
+   *
+   * @param operation the read
+   * @param measured true if the read's latency should update the replica's average, only object reads are measured so that
+   *     slower listings do not skew the comparison between replicas
+   * @return the result of the read
+   * @throws IOException if the read failed on every replica
+   */
+  private <T> T read(ReadOperation<T> operation, boolean measured) throws IOException {
+    Exception lastError = null;
+    for (Replica replica : readOrder(measured && shouldProbe())) {
+      long start = System.nanoTime();
+      try {
+        T result = operation.read(replica.store);
+        replica.success(measured ? System.nanoTime() - start : -1);
+        if (result == null && fallbackToPrimaryOnMissing && replica != primary) {
+          return operation.read(primary.store);
+        }
+        return result;
+      } catch (IOException | RuntimeException e) {
+        replica.failure(System.nanoTime());
+        lastError = e;
+      }
+    }
+    if (lastError instanceof IOException) {
+      throw (IOException) lastError;
+    }
+    throw (RuntimeException) Objects.requireNonNull(lastError);
+  }
+
+  /**
+   * Opens a store object on the fastest healthy replica, failing over to the other replicas if it cannot be opened.  An
+   * error while reading the returned stream is not retried on another replica, it is thrown to the caller and the replica
+   * is avoided by later reads.  Use {@link #getBuffer(String)} to have the whole read fail over.
+   *
+   * @param key the store key
+   * @return an {@link InputStream} of the object or null if the object does not exist
+   * @throws IOException if the object could not be opened on any replica
+   */
+  @Override
+  public InputStream getInputStream(String key) throws IOException {
+    return read(store -> {
+      InputStream inputStream = store.getInputStream(key);
+      return inputStream == null ? null : new ReplicaInputStream(inputStream, replicaOf(store));
+    }, true);
+  }
+
+  private Replica replicaOf(AwsS3ZarrStore store) {
+    for (Replica replica : replicas) {
+      if (replica.store == store) {
+        return replica;
+      }
+    }
+    throw new IllegalStateException("Unknown replica store");
+  }
+
+  /**
+   * Returns the contents of a store object as a {@link ByteBuffer}, read from the fastest healthy replica.
+   * See {@link AwsS3ZarrStore#getBuffer(String)}.
+   *
+   * @param key the store key
+   * @return a {@link ByteBuffer} containing the object or null if the object does not exist
+   * @throws IOException if the object could not be read
+   */
+  public ByteBuffer getBuffer(String key) throws IOException {
+    return read(store -> store.getBuffer(key), true);
+  }
+
+  @Override
+  public OutputStream getOutputStream(String key) throws IOException {
+    return primary.store.getOutputStream(key);
+  }
+
+  @Override
+  public void delete(String key) throws IOException {
+    primary.store.delete(key);
+  }
+
+  @Override
+  public TreeSet<String> getArrayKeys() throws IOException {
+    return read(AwsS3ZarrStore::getArrayKeys, false);
+  }
+
+  @Override
+  public TreeSet<String> getGroupKeys() throws IOException {
+    return read(AwsS3ZarrStore::getGroupKeys, false);
+  }
+
+  @Override
+  public TreeSet<String> getKeysEndingWith(String suffix) throws IOException {
+    return read(store -> store.getKeysEndingWith(suffix), false);
+  }
+
+  @Override
+  public Stream<String> getRelativeLeafKeys(String key) throws IOException {
+    return read(store -> store.getRelativeLeafKeys(key), false);
+  }
+
+  /**
+   * The health and latency of a replica at one point in time.
+   */
+  private static final class ReplicaState {
+
+    private final Replica replica;
+    private final boolean healthy;
+    private final double latencyNanos;
+
+    private ReplicaState(Replica replica, boolean healthy, double latencyNanos) {
+      this.replica = replica;
+      this.healthy = healthy;
+      this.latencyNanos = latencyNanos;
+    }
+  }
+
+  /**
+   * Marks the replica that an object is read from as failed when reading the object fails.
+   */
+  private static final class ReplicaInputStream extends FilterInputStream {
+
+    private final Replica replica;
+
+    private ReplicaInputStream(InputStream in, Replica replica) {
+      super(in);
+      this.replica = replica;
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        return super.read();
+      } catch (IOException | RuntimeException e) {
+        replica.failure(System.nanoTime());
+        throw e;
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      try {
+        return super.read(b, off, len);
+      } catch (IOException | RuntimeException e) {
+        replica.failure(System.nanoTime());
+        throw e;
+      }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      try {
+        return super.skip(n);
+      } catch (IOException | RuntimeException e) {
+        replica.failure(System.nanoTime());
+        throw e;
+      }
+    }
+  }
+
+  private final class Replica {
+
+    private final String bucket;
+    private final AwsS3ZarrStore store;
+    private double latencyNanos;
+    private int consecutiveFailures;
+    private long unhealthyUntil;
+    private boolean unhealthy;
+
+    private Replica(String bucket, AwsS3ZarrStore store) {
+      this.bucket = bucket;
+      this.store = store;
+    }
+
+    private synchronized ReplicaState state(long now) {
+      return new ReplicaState(this, !unhealthy || now - unhealthyUntil >= 0, latencyNanos);
+    }
+
+    private synchronized void success(long elapsedNanos) {
+      // an unmeasured replica starts at zero so that it is tried before its latency is known
+      if (elapsedNanos >= 0) {
+        latencyNanos = latencyNanos == 0 ? elapsedNanos : latencySmoothing * elapsedNanos + (1 - latencySmoothing) * latencyNanos;
+      }
+      consecutiveFailures = 0;
+      unhealthy = false;
+    }
+
+    private synchronized void failure(long now) {
+      consecutiveFailures++;
+      long cooldown = failureCooldownNanos << Math.min(consecutiveFailures - 1, 16);
+      unhealthy = true;
+      unhealthyUntil = now + Math.min(cooldown < 0 ? MAX_COOLDOWN_NANOS : cooldown, MAX_COOLDOWN_NANOS);
+    }
+  }
+}
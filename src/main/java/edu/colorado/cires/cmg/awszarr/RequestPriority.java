@@ -0,0 +1,66 @@
+package edu.colorado.cires.cmg.awszarr;
+
+/**
+ * The priority classes of S3 requests scheduled by a {@link PrioritizedS3ClientWrapper}, from highest to lowest priority.
+ * Requests made on a thread have the priority entered with {@link #enter()}, otherwise the
+ * {@link PrioritizedS3ClientWrapper} classifies them.
+ */
+public enum RequestPriority {
+
+  /**
+   * Reads of chunks that a caller is waiting for.
+   */
+  INTERACTIVE,
+
+  /**
+   * Reads of metadata documents and listings.
+   */
+  METADATA,
+
+  /**
+   * Speculative reads of chunks that may be read next.
+   */
+  PREFETCH,
+
+  /**
+   * Background work such as uploads, bulk deletes and copies.
+   */
+  BULK;
+
+  /**
+   * Restores the previous priority of a thread when closed.
+   */
+  public interface Scope extends AutoCloseable {
+
+    @Override
+    void close();
+  }
+
+  private static final ThreadLocal<RequestPriority> CURRENT = new ThreadLocal<>();
+
+  /**
+   * Sets the priority of the S3 requests made on the current thread until the returned {@link Scope} is closed.
+   *
+   * @return a {@link Scope} that restores the previous priority when closed
+   */
+  public Scope enter() {
+    RequestPriority previous = CURRENT.get();
+    CURRENT.set(this);
+    return () -> {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    };
+  }
+
+  /**
+   * Returns the priority entered on the current thread.
+   *
+   * @return the priority or null if none was entered
+   */
+  static RequestPriority current() {
+    return CURRENT.get();
+  }
+}
@@ -0,0 +1,45 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces requests so that no more than a fixed number start each second.  Capacity that goes unused is saved for up to one
+ * second, so a burst after an idle period may start up to the per second limit at once.
+ */
+final class RequestRateLimiter {
+
+  private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final long intervalNanos;
+  private long next = System.nanoTime();
+
+  /**
+   * Creates a new RequestRateLimiter
+   *
+   * @param requestsPerSecond the maximum number of requests to start each second
+   */
+  RequestRateLimiter(int requestsPerSecond) {
+    if (requestsPerSecond < 1) {
+      throw new IllegalArgumentException("requestsPerSecond must be at least 1");
+    }
+    this.intervalNanos = BURST_NANOS / requestsPerSecond;
+  }
+
+  /**
+   * Waits until a request may start.
+   *
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  void acquire() throws InterruptedException {
+    long wait;
+    synchronized (this) {
+      long now = System.nanoTime();
+      long start = Math.max(next, now - BURST_NANOS);
+      next = start + intervalNanos;
+      wait = start - now;
+    }
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent requests, overall and per {@link RequestPriority}.  When a request completes, the freed
+ * slot goes to the oldest waiting request of the highest priority class that is below its limit, so lower priority classes
+ * only run when higher priority classes have no runnable requests waiting.  Limiting the lower priority classes to fewer
+ * slots than the overall limit keeps slots free for interactive reads even while background work is saturating its own
+ * limit.
+ */
+final class RequestScheduler {
+
+  private static final RequestPriority[] PRIORITIES = RequestPriority.values();
+
+  private static final class Waiter {
+
+    private final Condition granted;
+    private boolean ready;
+
+    private Waiter(Condition granted) {
+      this.granted = granted;
+    }
+  }
+
+  private final int maxConcurrency;
+  private final int[] limits;
+  private final int[] active = new int[PRIORITIES.length];
+  private final List<Deque<Waiter>> waiting = new ArrayList<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private int totalActive;
+
+  RequestScheduler(int maxConcurrency, int[] limits) {
+    this.maxConcurrency = maxConcurrency;
+    this.limits = limits.clone();
+    for (int i = 0; i < PRIORITIES.length; i++) {
+      waiting.add(new ArrayDeque<>());
+    }
+  }
+
+  /**
+   * Waits for a slot to run a request.  Every successful call must be followed by a call to
+   * {@link #release(RequestPriority)}.
+   *
+   * @param priority the priority of the request
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  void acquire(RequestPriority priority) throws InterruptedException {
+    int p = priority.ordinal();
+    lock.lock();
+    try {
+      // waiters that could run have already been granted a slot, so only waiters that are blocked remain
+      if (waiting.get(p).isEmpty() && canRun(p)) {
+        start(p);
+        return;
+      }
+      Waiter waiter = new Waiter(lock.newCondition());
+      waiting.get(p).add(waiter);
+      try {
+        while (!waiter.ready) {
+          waiter.granted.await();
+        }
+      } catch (InterruptedException e) {
+        if (waiter.ready) {
+          finish(p);
+        } else {
+          waiting.get(p).remove(waiter);
+        }
+        throw e;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Releases the slot of a completed request.
+   *
+   * @param priority the priority of the request
+   */
+  void release(RequestPriority priority) {
+    lock.lock();
+    try {
+      finish(priority.ordinal());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of running requests of a priority class.
+   *
+   * @param priority the priority class
+   * @return the number of running requests
+   */
+  int getActive(RequestPriority priority) {
+    lock.lock();
+    try {
+      return active[priority.ordinal()];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of requests of a priority class waiting for a slot.
+   *
+   * @param priority the priority class
+   * @return the number of waiting requests
+   */
+  int getWaiting(RequestPriority priority) {
+    lock.lock();
+    try {
+      return waiting.get(priority.ordinal()).size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean canRun(int p) {
+    return totalActive < maxConcurrency && active[p] < limits[p];
+  }
+
+  private void start(int p) {
+    active[p]++;
+    totalActive++;
+  }
+
+  private void finish(int p) {
+    active[p]--;
+    totalActive--;
+    for (int i = 0; i < PRIORITIES.length && totalActive < maxConcurrency; i++) {
+      while (!waiting.get(i).isEmpty() && canRun(i)) {
+        Waiter waiter = waiting.get(i).poll();
+        waiter.ready = true;
+        start(i);
+        waiter.granted.signal();
+      }
+    }
+  }
+}
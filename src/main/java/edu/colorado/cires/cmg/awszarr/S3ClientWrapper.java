@@ -1,11 +1,23 @@
 package edu.colorado.cires.cmg.awszarr;
 
 import edu.colorado.cires.cmg.s3out.S3ClientMultipartUpload;
+import edu.colorado.cires.cmg.s3out.S3OutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.IntFunction;
 import java.util.stream.Stream;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
 
 /**
  * A wrapper around the S3Client from the AWS SDK v2.  This allows for calls to the S3Client to
@@ -33,6 +45,186 @@ public interface S3ClientWrapper extends S3ClientMultipartUpload {
    */
   Optional<InputStream> getObject(String bucket, String key);
 
+  /**
+   * Returns an {@link Optional} that wraps a {@link ByteBuffer} containing the contents of a file in
+   * a S3 bucket. An empty {@link Optional} will be returned if the file does not exist. The returned buffer
+   * may be read-only.  The default implementation reads the {@link InputStream} from {@link #getObject(String, String)}
+   * into a heap buffer.  Implementations may override this to avoid copying, i.e. by memory mapping a file.
+   *
+   * @param bucket the bucket name
+   * @param key a S3 key
+   * @return an {@link Optional} that wraps a {@link ByteBuffer} containing the contents of a file in a S3 bucket
+   */
+  default Optional<ByteBuffer> getObjectBuffer(String bucket, String key) {
+    return getObject(bucket, key).map(inputStream -> {
+      try (InputStream in = inputStream) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to read object: " + bucket + "/" + key, e);
+      }
+    });
+  }
+
+  /**
+   * Returns an {@link Optional} that wraps an {@link InputStream} for reading a byte range of a file in a S3 bucket.  An
+   * empty {@link Optional} will be returned if the file does not exist.  The default implementation skips to the range in
+   * the {@link InputStream} from {@link #getObject(String, String)}.  Implementations should override this to only
+   * transfer the range, i.e. with the Range header of a S3 GetObject request.
+   *
+   * @param bucket the bucket name
+   * @param key a S3 key
+   * @param firstByte the offset of the first byte to read
+   * @param lastByte the offset of the last byte to read, inclusive
+   * @return an {@link Optional} that wraps an {@link InputStream} for reading the range
+   */
+  default Optional<InputStream> getObjectRange(String bucket, String key, long firstByte, long lastByte) {
+    return getObject(bucket, key).map(inputStream -> {
+      try {
+        long skipped = 0;
+        while (skipped < firstByte) {
+          long n = inputStream.skip(firstByte - skipped);
+          if (n <= 0) {
+            throw new IOException("Unexpected end of object at " + skipped);
+          }
+          skipped += n;
+        }
+      } catch (IOException e) {
+        try {
+          inputStream.close();
+        } catch (IOException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+        throw new IllegalStateException("Unable to read object: " + bucket + "/" + key, e);
+      }
+      return new RangeInputStream(inputStream, lastByte - firstByte + 1);
+    });
+  }
+
+  /**
+   * Reads the contents of a file in a S3 bucket into a buffer supplied by the caller.  The allocator is called with the size
+   * of the file and must return a buffer with at least that many bytes remaining, i.e. a pooled or direct buffer.  The
+   * contents are written at the buffer's position, which is advanced past them.  An empty {@link Optional} will be returned
+   * if the file does not exist.  The default implementation copies the buffer from {@link #getObjectBuffer(String, String)}.
+   * Implementations should override this to read the file directly into the allocated buffer, i.e. sized from the
+   * Content-Length of the response.
+   *
+   * @param bucket the bucket name
+   * @param key a S3 key
+   * @param allocator returns a buffer for a file of the given size
+   * @return an {@link Optional} that wraps the allocated buffer
+   */
+  default Optional<ByteBuffer> getObjectBuffer(String bucket, String key, IntFunction<ByteBuffer> allocator) {
+    return getObjectBuffer(bucket, key).map(contents -> {
+      ByteBuffer buffer = allocator.apply(contents.remaining());
+      buffer.put(contents);
+      return buffer;
+    });
+  }
+
+  /**
+   * Uploads the remaining bytes of a buffer as a file in a S3 bucket with a single request.  The buffer position is not
+   * changed.  The default implementation uploads the buffer as the only part of a multipart upload.  Implementations should
+   * override this to use a S3 PutObject request.
+   *
+   * @param bucket the bucket name
+   * @param key a S3 key
+   * @param contents the contents of the file
+   */
+  default void putObject(String bucket, String key, ByteBuffer contents) {
+    String uploadId = createMultipartUpload(bucket, key);
+    try {
+      CompletedPart part = uploadPart(bucket, key, uploadId, 1, contents.duplicate());
+      completeMultipartUpload(bucket, key, uploadId, Collections.singletonList(part));
+    } catch (RuntimeException e) {
+      try {
+        abortMultipartUpload(bucket, key, uploadId);
+      } catch (RuntimeException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Copies a file in a S3 bucket to another key, possibly in another bucket.  The default implementation reads the file
+   * with {@link #getObject(String, String)} and uploads it with a multipart upload.  Implementations should override this
+   * to copy the file without transferring its contents through the JVM, i.e. with a S3 CopyObject request.
+   *
+   * @param sourceBucket the bucket name of the file to copy
+   * @param sourceKey the S3 key of the file to copy
+   * @param destinationBucket the bucket name to copy to
+   * @param destinationKey the S3 key to copy to
+   */
+  default void copyObject(String sourceBucket, String sourceKey, String destinationBucket, String destinationKey) {
+    InputStream source = getObject(sourceBucket, sourceKey)
+        .orElseThrow(() -> new IllegalStateException("No such object: " + sourceBucket + "/" + sourceKey));
+    try (InputStream in = source;
+        OutputStream out = S3OutputStream.builder().s3(this).bucket(destinationBucket).key(destinationKey).build()) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to copy object: " + sourceBucket + "/" + sourceKey, e);
+    }
+  }
+
+  /**
+   * Copies a byte range of a file in a S3 bucket as a part of a multipart upload.  The default implementation reads the range
+   * with {@link #getObject(String, String)} and uploads it with {@link #uploadPart(String, String, String, int, ByteBuffer)},
+   * which limits parts to 2 GiB.  Implementations should override this to copy the range without transferring its contents
+   * through the JVM, i.e. with a S3 UploadPartCopy request.
+   *
+   * @param sourceBucket the bucket name of the file to copy
+   * @param sourceKey the S3 key of the file to copy
+   * @param firstByte the offset of the first byte to copy
+   * @param lastByte the offset of the last byte to copy, inclusive
+   * @param destinationBucket the bucket name of the multipart upload
+   * @param destinationKey the S3 key of the multipart upload
+   * @param uploadId the multipart upload ID
+   * @param partNumber the part number
+   * @return the {@link CompletedPart}
+   */
+  default CompletedPart uploadPartCopy(
+      String sourceBucket, String sourceKey, long firstByte, long lastByte,
+      String destinationBucket, String destinationKey, String uploadId, int partNumber) {
+    long length = lastByte - firstByte + 1;
+    if (length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Part is too large to copy through a ByteBuffer: " + length);
+    }
+    InputStream source = getObject(sourceBucket, sourceKey)
+        .orElseThrow(() -> new IllegalStateException("No such object: " + sourceBucket + "/" + sourceKey));
+    ByteBuffer buffer = ByteBuffer.allocate((int) length);
+    try (InputStream in = source) {
+      long skipped = 0;
+      while (skipped < firstByte) {
+        long n = in.skip(firstByte - skipped);
+        if (n <= 0) {
+          throw new IOException("Unexpected end of object at " + skipped);
+        }
+        skipped += n;
+      }
+      while (buffer.hasRemaining()) {
+        int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+        if (read == -1) {
+          throw new IOException("Unexpected end of object at " + (firstByte + buffer.position()));
+        }
+        buffer.position(buffer.position() + read);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to copy part of object: " + sourceBucket + "/" + sourceKey, e);
+    }
+    buffer.flip();
+    return uploadPart(destinationBucket, destinationKey, uploadId, partNumber, buffer);
+  }
+
   /**
    * Deletes a file from a S3 bucket.
    *
@@ -50,4 +242,50 @@ public interface S3ClientWrapper extends S3ClientMultipartUpload {
    */
   Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix);
 
+  /**
+   * Returns a {@link Stream} representing the contents of a S3 bucket, supporting the startAfter and delimiter
+   * options of a ListObjectsV2 request.  The default implementation filters the results of
+   * {@link #listObjectsV2Paginator(String, String)}, implementations should override this to have the listing
+   * itself skip keys.
+   *
+   * @param bucket the bucket name
+   * @param prefix filters the results such that all objects start with this prefix
+   * @param startAfter only keys after this key are returned, may be null
+   * @param delimiter keys containing the delimiter after the prefix are rolled up into common prefixes, may be null
+   * @return a {@link Stream} representing the contents of a S3 bucket
+   */
+  default Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix, String startAfter, String delimiter) {
+    final String after = startAfter == null || startAfter.isEmpty() ? null : startAfter;
+    final String separator = delimiter == null || delimiter.isEmpty() ? null : delimiter;
+    final int prefixLength = prefix == null ? 0 : prefix.length();
+    final String[] lastCommonPrefix = new String[1];
+    return listObjectsV2Paginator(bucket, prefix).map(response -> {
+      List<S3Object> contents = new ArrayList<>();
+      List<CommonPrefix> commonPrefixes = new ArrayList<>();
+      for (S3Object object : response.contents()) {
+        String key = object.key();
+        if (after != null && FileListing.KEY_ORDER.compare(key, after) <= 0) {
+          continue;
+        }
+        int index = separator == null ? -1 : key.indexOf(separator, prefixLength);
+        if (index < 0) {
+          contents.add(object);
+        } else {
+          String commonPrefix = key.substring(0, index + separator.length());
+          if (!commonPrefix.equals(lastCommonPrefix[0])) {
+            lastCommonPrefix[0] = commonPrefix;
+            commonPrefixes.add(CommonPrefix.builder().prefix(commonPrefix).build());
+          }
+        }
+      }
+      return response.toBuilder()
+          .contents(contents)
+          .commonPrefixes(commonPrefixes)
+          .keyCount(contents.size() + commonPrefixes.size())
+          .startAfter(startAfter)
+          .delimiter(delimiter)
+          .build();
+    });
+  }
+
 }
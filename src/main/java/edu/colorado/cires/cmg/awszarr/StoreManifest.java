@@ -0,0 +1,299 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * An index of every object in a store, kept in a single manifest object at the store root, so keys can be discovered
+ * without listing the bucket.  The manifest is read once, or built from a single listing when it does not exist yet, and
+ * is then maintained by the writes and deletes made through the store.  Keys are stored sorted and prefix compressed, with
+ * the size and ETag of each object, in a gzip compressed binary document.  The manifest object is deleted before the first
+ * change after it was read or saved, so a store that is not saved after a change, i.e. because the writer crashed, is
+ * listed again when it is next opened instead of missing the keys written since.
+ */
+final class StoreManifest {
+
+  /**
+   * The name of the manifest object at the store root.
+   */
+  static final String MANIFEST_NAME = ".zmanifest";
+
+  private static final int MAGIC = 0x5A4D4E46;
+  private static final byte VERSION = 1;
+
+  /**
+   * Storage operations, relative to the store root, used to build and persist the manifest.
+   */
+  interface Storage {
+
+    /**
+     * Lists every object in the store.
+     *
+     * @return a {@link Stream} of {@link S3Object} with keys relative to the store root
+     * @throws IOException if the listing fails
+     */
+    Stream<S3Object> list() throws IOException;
+
+    /**
+     * Reads a store object
+     *
+     * @param key the key relative to the store root
+     * @return an {@link Optional} that wraps an {@link InputStream} or an empty {@link Optional} if the object does not exist
+     * @throws IOException if the object could not be read
+     */
+    Optional<InputStream> read(String key) throws IOException;
+
+    /**
+     * Writes a store object
+     *
+     * @param key the key relative to the store root
+     * @return an {@link OutputStream} that writes the object when closed
+     * @throws IOException if the object could not be written
+     */
+    OutputStream write(String key) throws IOException;
+
+    /**
+     * Deletes a store object
+     *
+     * @param key the key relative to the store root
+     * @throws IOException if the object could not be deleted
+     */
+    void delete(String key) throws IOException;
+  }
+
+  private static final class Entry {
+
+    private final long size;
+    private final String eTag;
+
+    private Entry(long size, String eTag) {
+      this.size = size;
+      this.eTag = eTag;
+    }
+  }
+
+  private final Storage storage;
+  private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>(FileListing.KEY_ORDER);
+  private final AtomicLong modifications = new AtomicLong();
+  private volatile boolean loaded;
+  private volatile boolean persisted;
+  private long savedModifications;
+
+  StoreManifest(Storage storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * Determines if a store key is the manifest object itself, which is never included in the manifest.
+   *
+   * @param key a store key relative to the store root
+   * @return true if the key is the manifest object
+   */
+  static boolean isManifest(String key) {
+    return new S3Path(key).toString().equals(MANIFEST_NAME);
+  }
+
+  /**
+   * Returns the objects whose keys start with a prefix, in key order.
+   *
+   * @param prefix a key prefix relative to the store root
+   * @return a {@link Stream} of {@link S3Object} with keys relative to the store root
+   * @throws IOException if the manifest could not be loaded
+   */
+  Stream<S3Object> list(String prefix) throws IOException {
+    load();
+    Iterator<Map.Entry<String, Entry>> iterator = entries.tailMap(prefix, true).entrySet().iterator();
+    // keys are sorted, so the matches end at the first key without the prefix
+    Iterator<Map.Entry<String, Entry>> matching = new Iterator<Map.Entry<String, Entry>>() {
+
+      private Map.Entry<String, Entry> next = advance();
+
+      private Map.Entry<String, Entry> advance() {
+        if (iterator.hasNext()) {
+          Map.Entry<String, Entry> entry = iterator.next();
+          if (entry.getKey().startsWith(prefix)) {
+            return entry;
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      public Map.Entry<String, Entry> next() {
+        if (next == null) {
+          throw new NoSuchElementException();
+        }
+        Map.Entry<String, Entry> result = next;
+        next = advance();
+        return result;
+      }
+    };
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(matching, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .map(entry -> S3Object.builder()
+            .key(entry.getKey())
+            .size(entry.getValue().size)
+            .eTag(entry.getValue().eTag)
+            .build());
+  }
+
+  /**
+   * Deletes the manifest object if it was read or saved, so it is rebuilt from a listing unless this manifest is saved
+   * again.  This must be called before a store object is written or deleted.
+   *
+   * @throws IOException if the manifest could not be loaded or deleted
+   */
+  void beforeChange() throws IOException {
+    load();
+    if (!persisted) {
+      return;
+    }
+    synchronized (this) {
+      if (persisted) {
+        storage.delete(MANIFEST_NAME);
+        persisted = false;
+      }
+    }
+  }
+
+  /**
+   * Records that a store object was written.
+   *
+   * @param key a store key relative to the store root
+   * @param size the size of the object
+   * @param eTag the ETag of the object or null if it is not known
+   * @throws IOException if the manifest could not be loaded
+   */
+  void onWrite(String key, long size, String eTag) throws IOException {
+    if (isManifest(key)) {
+      return;
+    }
+    load();
+    entries.put(new S3Path(key).toString(), new Entry(size, eTag));
+    modifications.incrementAndGet();
+    // a save since beforeChange() may not include this write
+    beforeChange();
+  }
+
+  /**
+   * Records that a store object was deleted.
+   *
+   * @param key a store key relative to the store root
+   * @throws IOException if the manifest could not be loaded
+   */
+  void onDelete(String key) throws IOException {
+    load();
+    if (entries.remove(new S3Path(key).toString()) != null) {
+      modifications.incrementAndGet();
+    }
+    beforeChange();
+  }
+
+  /**
+   * Writes the manifest object if the manifest changed since it was loaded or last saved.
+   *
+   * @throws IOException if the manifest could not be written
+   */
+  synchronized void save() throws IOException {
+    if (!loaded || modifications.get() == savedModifications) {
+      return;
+    }
+    long saving = modifications.get();
+    Map<String, Entry> snapshot = entries.clone();
+    try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(storage.write(MANIFEST_NAME)))) {
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      out.writeInt(snapshot.size());
+      String previous = "";
+      for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+        String key = entry.getKey();
+        int shared = sharedPrefixLength(previous, key);
+        out.writeShort(shared);
+        out.writeUTF(key.substring(shared));
+        out.writeLong(entry.getValue().size);
+        out.writeUTF(entry.getValue().eTag == null ? "" : entry.getValue().eTag);
+        previous = key;
+      }
+    }
+    savedModifications = saving;
+    persisted = true;
+  }
+
+  private static int sharedPrefixLength(String a, String b) {
+    int max = Math.min(Math.min(a.length(), b.length()), 0xFFFF);
+    int i = 0;
+    while (i < max && a.charAt(i) == b.charAt(i)) {
+      i++;
+    }
+    // do not split a surrogate pair
+    if (i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) {
+      i--;
+    }
+    return i;
+  }
+
+  private void load() throws IOException {
+    if (loaded) {
+      return;
+    }
+    synchronized (this) {
+      if (loaded) {
+        return;
+      }
+      if (read()) {
+        persisted = true;
+      } else {
+        try (Stream<S3Object> objects = storage.list()) {
+          objects.filter(object -> !isManifest(object.key()))
+              .forEach(object -> entries.put(object.key(), new Entry(object.size() == null ? 0 : object.size(), object.eTag())));
+        }
+        // the manifest did not exist, it will be written on the next save
+        modifications.incrementAndGet();
+      }
+      loaded = true;
+    }
+  }
+
+  private boolean read() throws IOException {
+    Optional<InputStream> inputStream = storage.read(MANIFEST_NAME);
+    if (!inputStream.isPresent()) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new GZIPInputStream(inputStream.get()))) {
+      if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+        throw new IOException("Unsupported manifest format: " + MANIFEST_NAME);
+      }
+      int count = in.readInt();
+      String previous = "";
+      for (int i = 0; i < count; i++) {
+        int shared = in.readUnsignedShort();
+        String key = previous.substring(0, shared) + in.readUTF();
+        long size = in.readLong();
+        String eTag = in.readUTF();
+        entries.put(key, new Entry(size, eTag.isEmpty() ? null : eTag));
+        previous = key;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,143 @@
+package edu.colorado.cires.cmg.awszarr;
+
+/**
+ * A S3 request recorded in an access trace by a {@link RecordingS3ClientWrapper}.
+ */
+public final class TraceEvent {
+
+  private final long startNanos;
+  private final int thread;
+  private final TraceOperation operation;
+  private final String bucket;
+  private final String key;
+  private final long offset;
+  private final long upload;
+  private final long bytes;
+  private final long latencyNanos;
+  private final boolean failed;
+
+  TraceEvent(
+      long startNanos, int thread, TraceOperation operation, String bucket, String key,
+      long offset, long upload, long bytes, long latencyNanos, boolean failed) {
+    this.startNanos = startNanos;
+    this.thread = thread;
+    this.operation = operation;
+    this.bucket = bucket;
+    this.key = key;
+    this.offset = offset;
+    this.upload = upload;
+    this.bytes = bytes;
+    this.latencyNanos = latencyNanos;
+    this.failed = failed;
+  }
+
+  /**
+   * Returns the time the request started, relative to the start of the recording.
+   *
+   * @return the start time in nanoseconds
+   */
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  /**
+   * Returns the thread that made the request, numbered in the order threads made their first request.
+   *
+   * @return the thread number
+   */
+  public int getThread() {
+    return thread;
+  }
+
+  /**
+   * Returns the kind of request.
+   *
+   * @return the {@link TraceOperation}
+   */
+  public TraceOperation getOperation() {
+    return operation;
+  }
+
+  /**
+   * Returns the bucket name.
+   *
+   * @return the bucket name
+   */
+  public String getBucket() {
+    return bucket;
+  }
+
+  /**
+   * Returns the S3 key, or the prefix of a listing.
+   *
+   * @return the S3 key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Returns the first byte of a ranged read, the part number of a part upload or 1 for a delimited listing, otherwise 0.
+   *
+   * @return the offset
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Returns the multipart upload of a {@link TraceOperation#CREATE_UPLOAD}, {@link TraceOperation#UPLOAD_PART},
+   * {@link TraceOperation#COMPLETE_UPLOAD} or {@link TraceOperation#ABORT_UPLOAD}, numbered from 1 in the order uploads
+   * were started, so the requests of an upload made by different threads, or of concurrent uploads of the same key, can
+   * be matched.
+   *
+   * @return the upload number, or 0 for other requests or requests of an upload that was not recorded
+   */
+  public long getUpload() {
+    return upload;
+  }
+
+  /**
+   * Returns the number of bytes read or written, or the number of objects listed.
+   *
+   * @return the number of bytes
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Returns the time from the start of the request until it completed.  For reads, the request completes when the
+   * {@link java.io.InputStream} is closed.
+   *
+   * @return the latency in nanoseconds
+   */
+  public long getLatencyNanos() {
+    return latencyNanos;
+  }
+
+  /**
+   * Determines if the request failed.
+   *
+   * @return true if the request threw an exception
+   */
+  public boolean isFailed() {
+    return failed;
+  }
+
+  @Override
+  public String toString() {
+    return "TraceEvent{" +
+        "startNanos=" + startNanos +
+        ", thread=" + thread +
+        ", operation=" + operation +
+        ", bucket='" + bucket + '\'' +
+        ", key='" + key + '\'' +
+        ", offset=" + offset +
+        ", upload=" + upload +
+        ", bytes=" + bytes +
+        ", latencyNanos=" + latencyNanos +
+        ", failed=" + failed +
+        '}';
+  }
+}
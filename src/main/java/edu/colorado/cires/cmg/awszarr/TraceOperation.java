@@ -0,0 +1,58 @@
+package edu.colorado.cires.cmg.awszarr;
+
+/**
+ * The kinds of S3 requests recorded in an access trace by a {@link RecordingS3ClientWrapper}.
+ */
+public enum TraceOperation {
+
+  /**
+   * A read of a whole object.
+   */
+  GET,
+
+  /**
+   * A read of a byte range of an object, the offset of the event is the first byte.
+   */
+  GET_RANGE,
+
+  /**
+   * A single request upload of an object.
+   */
+  PUT,
+
+  /**
+   * A deletion of an object.
+   */
+  DELETE,
+
+  /**
+   * A copy of an object, the key of the event is the destination key.  Copies are not replayed.
+   */
+  COPY,
+
+  /**
+   * A listing, the key of the event is the prefix, the offset is 1 if the listing was delimited by "/" and the bytes are
+   * the number of objects and common prefixes listed.
+   */
+  LIST,
+
+  /**
+   * The start of a multipart upload.
+   */
+  CREATE_UPLOAD,
+
+  /**
+   * The upload of a part, the offset of the event is the part number.
+   */
+  UPLOAD_PART,
+
+  /**
+   * The completion of a multipart upload.
+   */
+  COMPLETE_UPLOAD,
+
+  /**
+   * The abort of a multipart upload.
+   */
+  ABORT_UPLOAD
+}
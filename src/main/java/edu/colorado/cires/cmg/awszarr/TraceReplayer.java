@@ -0,0 +1,543 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+
+/**
+ * Replays an access trace recorded by a {@link RecordingS3ClientWrapper} against a {@link S3ClientWrapper}, i.e. a
+ * {@link FileMockS3ClientWrapper} with a latency model, to benchmark cache and concurrency settings offline against a real
+ * workload.  Each recorded thread is replayed by its own thread, which makes the requests of the recorded thread in
+ * order, each no earlier than its recorded start time scaled by the speed.  Reads and listings are replayed against the
+ * objects in the target bucket, uploads write zero filled objects of the recorded size and copies are not replayed.  The
+ * parts of a multipart upload are replayed after the upload was started and the upload is completed after its parts, even
+ * when they were made by different threads.
+ */
+public class TraceReplayer {
+
+  /**
+   * Creates a new {@link Builder} to build a TraceReplayer
+   *
+   * @return a new {@link Builder} to build a TraceReplayer
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a new {@link TraceReplayer}
+   */
+  public static class Builder {
+
+    private S3ClientWrapper s3;
+    private String bucket;
+    private double speed = 1D;
+    private boolean writes = false;
+    private boolean virtualThreads;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientWrapper} the trace is replayed against.
+     * Required.
+     *
+     * @param s3 the {@link S3ClientWrapper}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientWrapper s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the bucket every request is made to, instead of the recorded bucket.
+     * Default: the recorded bucket
+     *
+     * @param bucket the bucket name
+     * @return this Builder
+     */
+    public Builder bucket(String bucket) {
+      this.bucket = bucket;
+      return this;
+    }
+
+    /**
+     * Sets the rate of the replay relative to the recording, i.e. 2 makes requests twice as often as they were recorded.
+     * With 0 each thread makes its next request as soon as the previous one completed, so the order of requests of
+     * different threads is not kept, except that the requests of a multipart upload wait for the requests it depends on.
+     * Default: 1 (the recorded rate)
+     *
+     * @param speed the rate of the replay
+     * @return this Builder
+     */
+    public Builder speed(double speed) {
+      this.speed = speed;
+      return this;
+    }
+
+    /**
+     * Sets whether uploads and deletions are replayed.  These modify the target bucket, so they are skipped unless enabled.
+     * Default: false
+     *
+     * @param writes true to replay uploads and deletions
+     * @return this Builder
+     */
+    public Builder writes(boolean writes) {
+      this.writes = writes;
+      return this;
+    }
+
+    /**
+     * Sets whether the recorded threads are replayed on virtual threads.  This is ignored on JVMs older than 21.
+     * Default: false
+     *
+     * @param virtualThreads true to replay on virtual threads
+     * @return this Builder
+     */
+    public Builder virtualThreads(boolean virtualThreads) {
+      this.virtualThreads = virtualThreads;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link TraceReplayer}
+     *
+     * @return a new {@link TraceReplayer}
+     */
+    public TraceReplayer build() {
+      if (speed < 0D) {
+        throw new IllegalArgumentException("speed must not be negative");
+      }
+      return new TraceReplayer(Objects.requireNonNull(s3), bucket, speed, writes, virtualThreads);
+    }
+  }
+
+  private final S3ClientWrapper s3;
+  private final String bucket;
+  private final double speed;
+  private final boolean writes;
+  private final boolean virtualThreads;
+
+  private TraceReplayer(S3ClientWrapper s3, String bucket, double speed, boolean writes, boolean virtualThreads) {
+    this.s3 = s3;
+    this.bucket = bucket;
+    this.speed = speed;
+    this.writes = writes;
+    this.virtualThreads = virtualThreads;
+  }
+
+  /**
+   * Reads a trace and replays it.
+   *
+   * @param trace the trace, which is not closed
+   * @return the {@link Result} of the replay
+   * @throws IOException if the trace could not be read or the replay was interrupted
+   */
+  public Result replay(InputStream trace) throws IOException {
+    return replay(AccessTrace.read(trace));
+  }
+
+  /**
+   * Replays the events of a trace.  Failed requests are counted and do not stop the replay.
+   *
+   * @param events the events read by {@link AccessTrace#read(InputStream)}
+   * @return the {@link Result} of the replay
+   * @throws IOException if the replay was interrupted
+   */
+  public Result replay(List<TraceEvent> events) throws IOException {
+    Map<Integer, List<TraceEvent>> threads = new TreeMap<>();
+    for (TraceEvent event : events) {
+      threads.computeIfAbsent(event.getThread(), thread -> new ArrayList<>()).add(event);
+    }
+    if (threads.isEmpty()) {
+      return new Result(new ArrayList<>(), 0, 0L);
+    }
+    // the uploads are known before the workers start, so workers only wait for each other and never add to the map
+    Map<Long, Upload> uploads = new HashMap<>();
+    for (TraceEvent event : events) {
+      if (event.getOperation() == TraceOperation.CREATE_UPLOAD && event.getUpload() > 0) {
+        uploads.put(event.getUpload(), new Upload(event.getUpload()));
+      }
+    }
+    for (TraceEvent event : events) {
+      Upload upload = uploads.get(event.getUpload());
+      if (event.getOperation() == TraceOperation.UPLOAD_PART && upload != null) {
+        upload.partCount++;
+      }
+    }
+    for (Upload upload : uploads.values()) {
+      upload.partsDone = new CountDownLatch(upload.partCount);
+    }
+    List<Future<Worker>> futures = new ArrayList<>();
+    ExecutorService executor = IoExecutors.newExecutor("aws-zarr-replay", threads.size(), virtualThreads);
+    long origin = System.nanoTime();
+    try {
+      for (List<TraceEvent> thread : threads.values()) {
+        thread.sort(Comparator.comparingLong(TraceEvent::getStartNanos));
+        Worker worker = new Worker(origin, thread, uploads);
+        futures.add(executor.submit(worker::run, worker));
+      }
+      List<TraceEvent> replayed = new ArrayList<>();
+      int skipped = 0;
+      for (Future<Worker> future : futures) {
+        Worker worker = future.get();
+        replayed.addAll(worker.replayed);
+        skipped += worker.skipped;
+      }
+      return new Result(replayed, skipped, System.nanoTime() - origin);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while replaying trace", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Unable to replay trace", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * A multipart upload of the trace.  A request of the upload made by one thread can depend on a request made by another
+   * thread, so parts wait until the upload was started and the completion waits until every part was replayed.  Requests
+   * only wait for requests that started earlier, which are replayed first by their own threads, so the replay cannot
+   * deadlock.
+   */
+  private static final class Upload {
+
+    private final long number;
+    private final CountDownLatch created = new CountDownLatch(1);
+    private final List<CompletedPart> parts = new ArrayList<>();
+    private int partCount;
+    private CountDownLatch partsDone;
+    private volatile String uploadId;
+
+    private Upload(long number) {
+      this.number = number;
+    }
+
+    private String awaitCreated() throws IOException {
+      await(created);
+      String uploadId = this.uploadId;
+      if (uploadId == null) {
+        throw new IllegalStateException("Multipart upload " + number + " was not started");
+      }
+      return uploadId;
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a multipart upload");
+      }
+    }
+  }
+
+  private final class Worker {
+
+    private final long origin;
+    private final List<TraceEvent> events;
+    private final Map<Long, Upload> uploads;
+    private final List<TraceEvent> replayed = new ArrayList<>();
+    private int skipped;
+
+    private Worker(long origin, List<TraceEvent> events, Map<Long, Upload> uploads) {
+      this.origin = origin;
+      this.events = events;
+      this.uploads = uploads;
+    }
+
+    private void run() {
+      for (TraceEvent event : events) {
+        if (!isReplayed(event.getOperation())) {
+          skipped++;
+          continue;
+        }
+        if (speed > 0D) {
+          long wait = origin + (long) (event.getStartNanos() / speed) - System.nanoTime();
+          if (wait > 0) {
+            try {
+              TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              return;
+            }
+          }
+        }
+        String bucket = TraceReplayer.this.bucket == null ? event.getBucket() : TraceReplayer.this.bucket;
+        long start = System.nanoTime();
+        long bytes = 0;
+        boolean failed = false;
+        try {
+          bytes = request(bucket, event);
+        } catch (RuntimeException | IOException e) {
+          failed = true;
+        }
+        replayed.add(new TraceEvent(
+            start - origin, event.getThread(), event.getOperation(), bucket, event.getKey(),
+            event.getOffset(), event.getUpload(), bytes, System.nanoTime() - start, failed));
+      }
+    }
+
+    private boolean isReplayed(TraceOperation operation) {
+      switch (operation) {
+        case GET:
+        case GET_RANGE:
+        case LIST:
+          return true;
+        case COPY:
+          return false;
+        default:
+          return writes;
+      }
+    }
+
+    private long request(String bucket, TraceEvent event) throws IOException {
+      String key = event.getKey();
+      switch (event.getOperation()) {
+        case GET:
+          return read(s3.getObject(bucket, key));
+        case GET_RANGE:
+          return read(s3.getObjectRange(bucket, key, event.getOffset(), event.getOffset() + Math.max(event.getBytes(), 1L) - 1L));
+        case LIST:
+          return list(s3.listObjectsV2Paginator(bucket, key, null, event.getOffset() == 1L ? "/" : null), event.getBytes());
+        case PUT:
+          s3.putObject(bucket, key, ByteBuffer.allocate((int) event.getBytes()));
+          return event.getBytes();
+        case DELETE:
+          s3.deleteObject(bucket, key);
+          return 0;
+        case CREATE_UPLOAD: {
+          Upload upload = upload(event);
+          try {
+            upload.uploadId = s3.createMultipartUpload(bucket, key);
+          } finally {
+            upload.created.countDown();
+          }
+          return 0;
+        }
+        case UPLOAD_PART: {
+          Upload upload = upload(event);
+          try {
+            CompletedPart part = s3.uploadPart(
+                bucket, key, upload.awaitCreated(), (int) event.getOffset(), ByteBuffer.allocate((int) event.getBytes()));
+            synchronized (upload) {
+              upload.parts.add(part);
+            }
+          } finally {
+            upload.partsDone.countDown();
+          }
+          return event.getBytes();
+        }
+        case COMPLETE_UPLOAD: {
+          Upload upload = upload(event);
+          String uploadId = upload.awaitCreated();
+          Upload.await(upload.partsDone);
+          List<CompletedPart> parts;
+          synchronized (upload) {
+            parts = new ArrayList<>(upload.parts);
+          }
+          parts.sort(Comparator.comparing(CompletedPart::partNumber));
+          s3.completeMultipartUpload(bucket, key, uploadId, parts);
+          return 0;
+        }
+        case ABORT_UPLOAD: {
+          Upload upload = upload(event);
+          String uploadId = upload.awaitCreated();
+          Upload.await(upload.partsDone);
+          s3.abortMultipartUpload(bucket, key, uploadId);
+          return 0;
+        }
+        default:
+          throw new IllegalStateException("Unsupported operation: " + event.getOperation());
+      }
+    }
+
+    private Upload upload(TraceEvent event) {
+      Upload upload = uploads.get(event.getUpload());
+      if (upload == null) {
+        throw new IllegalStateException("No multipart upload was started for " + event.getKey());
+      }
+      return upload;
+    }
+
+    private long read(Optional<InputStream> object) throws IOException {
+      if (!object.isPresent()) {
+        return 0;
+      }
+      long bytes = 0;
+      byte[] buffer = new byte[8192];
+      try (InputStream inputStream = object.get()) {
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+          bytes += read;
+        }
+      }
+      return bytes;
+    }
+
+    private long list(Stream<ListObjectsV2Response> pages, long recorded) {
+      long listed = 0;
+      try (Stream<ListObjectsV2Response> stream = pages) {
+        // stop where the recorded listing stopped, i.e. when a caller only needed the first page
+        Iterator<ListObjectsV2Response> iterator = stream.iterator();
+        while (iterator.hasNext() && (listed < recorded || listed == 0)) {
+          ListObjectsV2Response page = iterator.next();
+          listed += page.contents().size() + page.commonPrefixes().size();
+        }
+      }
+      return listed;
+    }
+  }
+
+  /**
+   * The result of a replay: the requests that were made with their latencies.
+   */
+  public static final class Result {
+
+    private final List<TraceEvent> events;
+    private final int skipped;
+    private final long elapsedNanos;
+    private final Map<TraceOperation, long[]> latencies = new EnumMap<>(TraceOperation.class);
+
+    private Result(List<TraceEvent> events, int skipped, long elapsedNanos) {
+      events.sort(Comparator.comparingLong(TraceEvent::getStartNanos));
+      this.events = events;
+      this.skipped = skipped;
+      this.elapsedNanos = elapsedNanos;
+      Map<TraceOperation, List<Long>> byOperation = new EnumMap<>(TraceOperation.class);
+      for (TraceEvent event : events) {
+        byOperation.computeIfAbsent(event.getOperation(), operation -> new ArrayList<>()).add(event.getLatencyNanos());
+      }
+      for (Map.Entry<TraceOperation, List<Long>> entry : byOperation.entrySet()) {
+        long[] sorted = entry.getValue().stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        latencies.put(entry.getKey(), sorted);
+      }
+    }
+
+    /**
+     * Returns the replayed requests, ordered by the time they started relative to the start of the replay.
+     *
+     * @return the replayed requests
+     */
+    public List<TraceEvent> getEvents() {
+      return events;
+    }
+
+    /**
+     * Returns the number of requests that were made.
+     *
+     * @return the number of requests
+     */
+    public int getRequests() {
+      return events.size();
+    }
+
+    /**
+     * Returns the number of requests of a kind that were made.
+     *
+     * @param operation the kind of request
+     * @return the number of requests
+     */
+    public int getRequests(TraceOperation operation) {
+      long[] sorted = latencies.get(operation);
+      return sorted == null ? 0 : sorted.length;
+    }
+
+    /**
+     * Returns the number of requests that failed.
+     *
+     * @return the number of failed requests
+     */
+    public int getFailures() {
+      return (int) events.stream().filter(TraceEvent::isFailed).count();
+    }
+
+    /**
+     * Returns the number of recorded requests that were not replayed, because they were copies or writes were disabled.
+     *
+     * @return the number of skipped requests
+     */
+    public int getSkipped() {
+      return skipped;
+    }
+
+    /**
+     * Returns the number of bytes read and written by the requests.
+     *
+     * @return the number of bytes
+     */
+    public long getBytes() {
+      return events.stream().filter(event -> event.getOperation() != TraceOperation.LIST).mapToLong(TraceEvent::getBytes).sum();
+    }
+
+    /**
+     * Returns the time the replay took.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /**
+     * Returns a percentile of the latencies of a kind of request.
+     *
+     * @param operation the kind of request
+     * @param percentile the percentile between 0 and 100, i.e. 99 for the 99th percentile
+     * @return the latency in nanoseconds, or 0 if no such requests were made
+     */
+    public long getLatencyNanos(TraceOperation operation, double percentile) {
+      if (percentile < 0D || percentile > 100D) {
+        throw new IllegalArgumentException("percentile must be between 0 and 100");
+      }
+      long[] sorted = latencies.get(operation);
+      if (sorted == null) {
+        return 0L;
+      }
+      int index = (int) Math.ceil(percentile / 100D * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("Result{")
+          .append("requests=").append(getRequests())
+          .append(", failures=").append(getFailures())
+          .append(", skipped=").append(skipped)
+          .append(", bytes=").append(getBytes())
+          .append(", elapsedMs=").append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+      for (TraceOperation operation : latencies.keySet()) {
+        sb.append(", ").append(operation)
+            .append("={count=").append(getRequests(operation))
+            .append(", p50Ms=").append(TimeUnit.NANOSECONDS.toMillis(getLatencyNanos(operation, 50D)))
+            .append(", p99Ms=").append(TimeUnit.NANOSECONDS.toMillis(getLatencyNanos(operation, 99D)))
+            .append('}');
+      }
+      return sb.append('}').toString();
+    }
+  }
+}
@@ -0,0 +1,227 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Holds the contents of chunks that have been written but not uploaded, so repeated partial writes to the same chunk, i.e.
+ * jzarr reading, modifying and rewriting a chunk for each slab written, are combined into a single upload.  Reads of dirty
+ * chunks are answered from memory.  When the dirty chunks exceed the size limit, the least recently used are uploaded.  A
+ * chunk is never uploaded by two threads at once, so uploads of the same chunk cannot complete out of order.  The dirty
+ * chunks are also counted against a {@link MemoryBudget} that may be shared with other stores, they are uploaded when the
+ * budget is exceeded, but are never uploaded on behalf of another cache.
+ */
+final class WriteBackCache {
+
+  /**
+   * Uploads a chunk.
+   */
+  interface Writer {
+
+    /**
+     * Uploads a chunk
+     *
+     * @param key the store key
+     * @param bytes the contents of the chunk
+     * @throws IOException if the chunk could not be uploaded
+     */
+    void write(String key, byte[] bytes) throws IOException;
+  }
+
+  private final long maxBytes;
+  private final Writer writer;
+  private final LinkedHashMap<String, byte[]> dirty = new LinkedHashMap<>(16, 0.75F, true);
+  private final Map<String, byte[]> uploading = new HashMap<>();
+  private final MemoryBudget.Account account;
+  private long dirtyBytes;
+  private long combinedWrites;
+
+  /**
+   * Creates a new WriteBackCache
+   *
+   * @param maxBytes the maximum size of the dirty chunks, not counting chunks being uploaded
+   * @param writer uploads chunks
+   * @param budget the {@link MemoryBudget} the dirty chunks are counted against
+   */
+  WriteBackCache(long maxBytes, Writer writer, MemoryBudget budget) {
+    this.maxBytes = maxBytes;
+    this.writer = writer;
+    this.account = budget.newAccount(null);
+  }
+
+  /**
+   * Returns the contents of a chunk that has not been uploaded yet.
+   *
+   * @param key the store key
+   * @return the contents, which must not be modified, or null if the chunk is not dirty
+   */
+  synchronized byte[] get(String key) {
+    byte[] bytes = dirty.get(key);
+    return bytes != null ? bytes : uploading.get(key);
+  }
+
+  /**
+   * Records the new contents of a chunk, uploading the least recently used dirty chunks if the size limit is exceeded.
+   *
+   * @param key the store key
+   * @param bytes the contents of the chunk, which must not be modified afterwards
+   * @throws IOException if an evicted chunk could not be uploaded, the chunk stays dirty
+   */
+  void put(String key, byte[] bytes) throws IOException {
+    account.reclaim(bytes.length);
+    List<Entry<String, byte[]>> evicted = new ArrayList<>();
+    synchronized (this) {
+      byte[] previous = dirty.put(key, bytes);
+      if (previous != null) {
+        addDirtyBytes(-previous.length);
+        combinedWrites++;
+      }
+      addDirtyBytes(bytes.length);
+      Iterator<Entry<String, byte[]>> iterator = dirty.entrySet().iterator();
+      while ((dirtyBytes > maxBytes || account.isExceeded()) && iterator.hasNext()) {
+        Entry<String, byte[]> entry = iterator.next();
+        // a chunk that is already being uploaded stays dirty until that upload is done
+        if (!uploading.containsKey(entry.getKey())) {
+          iterator.remove();
+          addDirtyBytes(-entry.getValue().length);
+          uploading.put(entry.getKey(), entry.getValue());
+          evicted.add(new SimpleEntry<>(entry.getKey(), entry.getValue()));
+        }
+      }
+    }
+    upload(evicted);
+  }
+
+  /**
+   * Drops a dirty chunk without uploading it, i.e. because it is being deleted or overwritten directly.  Waits for an upload
+   * of the chunk in progress to complete, so the upload cannot overwrite what follows.
+   *
+   * @param key the store key
+   * @throws IOException if interrupted while waiting for an upload
+   */
+  synchronized void remove(String key) throws IOException {
+    // a failed upload makes the chunk dirty again, so wait before dropping it
+    awaitUploads(key);
+    byte[] bytes = dirty.remove(key);
+    if (bytes != null) {
+      addDirtyBytes(-bytes.length);
+    }
+  }
+
+  /**
+   * Drops every dirty chunk under a store key without uploading it, see {@link #remove(String)}.
+   *
+   * @param key the store key of an array or group, an empty key drops every chunk
+   * @throws IOException if interrupted while waiting for an upload
+   */
+  synchronized void removeAll(String key) throws IOException {
+    String prefix = key.isEmpty() ? "" : key + "/";
+    awaitUploads(prefix);
+    Iterator<Entry<String, byte[]>> iterator = dirty.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Entry<String, byte[]> entry = iterator.next();
+      if (entry.getKey().startsWith(prefix)) {
+        iterator.remove();
+        addDirtyBytes(-entry.getValue().length);
+      }
+    }
+  }
+
+  /**
+   * Uploads every dirty chunk.
+   *
+   * @throws IOException if a chunk could not be uploaded, chunks that could not be uploaded stay dirty
+   */
+  void flush() throws IOException {
+    List<Entry<String, byte[]>> flushed = new ArrayList<>();
+    synchronized (this) {
+      awaitUploads("");
+      for (Entry<String, byte[]> entry : dirty.entrySet()) {
+        uploading.put(entry.getKey(), entry.getValue());
+        flushed.add(new SimpleEntry<>(entry.getKey(), entry.getValue()));
+      }
+      dirty.clear();
+      addDirtyBytes(-dirtyBytes);
+    }
+    upload(flushed);
+  }
+
+  /**
+   * Returns the number of chunk writes that replaced a dirty chunk, i.e. the number of uploads saved.
+   *
+   * @return the number of combined writes
+   */
+  synchronized long getCombinedWrites() {
+    return combinedWrites;
+  }
+
+  /**
+   * Returns the memory held by dirty chunks.
+   *
+   * @return the number of bytes
+   */
+  long getMemoryUsed() {
+    return account.getUsed();
+  }
+
+  /**
+   * Gives the memory of any dirty chunks back to the {@link MemoryBudget}, after {@link #flush()}.
+   */
+  void close() {
+    account.close();
+  }
+
+  private void addDirtyBytes(long delta) {
+    dirtyBytes += delta;
+    account.add(delta);
+  }
+
+  private void awaitUploads(String prefix) throws IOException {
+    try {
+      while (uploading.keySet().stream().anyMatch(key -> key.startsWith(prefix))) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for chunk uploads");
+    }
+  }
+
+  private void upload(List<Entry<String, byte[]>> chunks) throws IOException {
+    IOException failure = null;
+    for (Entry<String, byte[]> chunk : chunks) {
+      boolean uploaded = false;
+      try {
+        writer.write(chunk.getKey(), chunk.getValue());
+        uploaded = true;
+      } catch (IOException | RuntimeException e) {
+        if (failure == null) {
+          failure = new IOException("Unable to upload " + chunk.getKey(), e);
+        } else {
+          failure.addSuppressed(e);
+        }
+      } finally {
+        synchronized (this) {
+          uploading.remove(chunk.getKey());
+          // a failed chunk is dirty again, unless it has been written since
+          if (!uploaded && !dirty.containsKey(chunk.getKey())) {
+            dirty.put(chunk.getKey(), chunk.getValue());
+            addDirtyBytes(chunk.getValue().length);
+          }
+          notifyAll();
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
@@ -0,0 +1,293 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import com.bc.zarr.ZarrUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * The subset of a .zarray document needed to reason about an array's chunk grid and to decode its chunks.
+ */
+final class ZarrArrayMetadata {
+
+  private static final String DEFAULT_DIMENSION_SEPARATOR = ".";
+  private static final String DEFAULT_ORDER = "C";
+
+  private final int[] shape;
+  private final int[] chunks;
+  private final int[] chunkGrid;
+  private final String dimensionSeparator;
+  private final String dtype;
+  private final Map<String, Object> compressor;
+  private final Object fillValue;
+  private final List<?> filters;
+  private final String order;
+
+  ZarrArrayMetadata(int[] shape, int[] chunks, String dimensionSeparator) {
+    this(shape, chunks, dimensionSeparator, null, null, null, null, null);
+  }
+
+  ZarrArrayMetadata(
+      int[] shape, int[] chunks, String dimensionSeparator, String dtype, Map<String, Object> compressor, Object fillValue,
+      List<?> filters, String order) {
+    if (shape.length != chunks.length) {
+      throw new IllegalArgumentException("shape and chunks must have the same number of dimensions");
+    }
+    this.shape = shape.clone();
+    this.chunks = chunks.clone();
+    this.dimensionSeparator = dimensionSeparator == null ? DEFAULT_DIMENSION_SEPARATOR : dimensionSeparator;
+    this.dtype = dtype;
+    this.compressor = compressor == null ? null : Collections.unmodifiableMap(new LinkedHashMap<>(compressor));
+    this.fillValue = fillValue;
+    this.filters = filters == null || filters.isEmpty() ? null : Collections.unmodifiableList(new ArrayList<>(filters));
+    this.order = order == null ? DEFAULT_ORDER : order;
+    chunkGrid = new int[shape.length];
+    for (int i = 0; i < shape.length; i++) {
+      chunkGrid[i] = chunks[i] <= 0 ? 0 : (int) ((shape[i] + (long) chunks[i] - 1) / chunks[i]);
+    }
+  }
+
+  static ZarrArrayMetadata read(InputStream inputStream) throws IOException {
+    Map<?, ?> json;
+    try (Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+      json = ZarrUtils.fromJson(reader, Map.class);
+    }
+    if (json == null) {
+      throw new IOException("Empty .zarray document");
+    }
+    Object separator = json.get("dimension_separator");
+    Object dtype = json.get("dtype");
+    Object filters = json.get("filters");
+    if (filters != null && !(filters instanceof List)) {
+      throw new IOException("Expected a JSON array but was: " + filters);
+    }
+    Object order = json.get("order");
+    return new ZarrArrayMetadata(
+        toIntArray(json.get("shape")),
+        toIntArray(json.get("chunks")),
+        separator == null ? null : separator.toString(),
+        dtype == null ? null : dtype.toString(),
+        toMap(json.get("compressor")),
+        json.get("fill_value"),
+        (List<?>) filters,
+        order == null ? null : order.toString());
+  }
+
+  private static Map<String, Object> toMap(Object value) throws IOException {
+    if (value == null) {
+      return null;
+    }
+    if (!(value instanceof Map)) {
+      throw new IOException("Expected a JSON object but was: " + value);
+    }
+    Map<String, Object> result = new LinkedHashMap<>();
+    for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+      result.put(String.valueOf(entry.getKey()), entry.getValue());
+    }
+    return result;
+  }
+
+  private static int[] toIntArray(Object value) throws IOException {
+    if (!(value instanceof List)) {
+      throw new IOException("Expected a JSON array but was: " + value);
+    }
+    List<?> list = (List<?>) value;
+    int[] result = new int[list.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = ((Number) list.get(i)).intValue();
+    }
+    return result;
+  }
+
+  int[] getShape() {
+    return shape.clone();
+  }
+
+  int[] getChunks() {
+    return chunks.clone();
+  }
+
+  int[] getChunkGrid() {
+    return chunkGrid.clone();
+  }
+
+  int getDimensions() {
+    return shape.length;
+  }
+
+  String getDimensionSeparator() {
+    return dimensionSeparator;
+  }
+
+  /**
+   * Returns the data type of the array, i.e. "&lt;i4".
+   *
+   * @return the dtype or null if it is not known
+   */
+  String getDtype() {
+    return dtype;
+  }
+
+  /**
+   * Returns the compressor configuration of the array.
+   *
+   * @return the compressor, including its "id", or null if chunks are not compressed
+   */
+  Map<String, Object> getCompressor() {
+    return compressor;
+  }
+
+  /**
+   * Returns the fill value of the array, as parsed from JSON.
+   *
+   * @return a {@link Number}, a {@link Boolean}, a {@link String} such as "NaN", or null if the array has no fill value
+   */
+  Object getFillValue() {
+    return fillValue;
+  }
+
+  /**
+   * Returns the filters applied to chunks before compression.
+   *
+   * @return the filter configurations or null if the array has no filters
+   */
+  List<?> getFilters() {
+    return filters;
+  }
+
+  /**
+   * Returns the memory layout of the values in a chunk, "C" for row-major or "F" for column-major.
+   *
+   * @return the order, "C" if the .zarray does not specify it
+   */
+  String getOrder() {
+    return order;
+  }
+
+  /**
+   * Returns the total number of chunks in the chunk grid.
+   *
+   * @return the number of chunks
+   */
+  long getChunkCount() {
+    long count = shape.length == 0 ? 0 : 1;
+    for (int dim : chunkGrid) {
+      count *= dim;
+    }
+    return count;
+  }
+
+  /**
+   * Parses a chunk key, relative to the array, into chunk grid coordinates.
+   *
+   * @param relativeKey the key relative to the array, i.e. "0.1" or "0/1"
+   * @return the chunk coordinates or null if the key is not a chunk of this array
+   */
+  int[] parseChunkKey(String relativeKey) {
+    if (shape.length == 0 || relativeKey.isEmpty()) {
+      return null;
+    }
+    String[] parts = relativeKey.split(Pattern.quote(dimensionSeparator), -1);
+    if (parts.length != shape.length) {
+      return null;
+    }
+    int[] coordinates = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      String part = parts[i];
+      if (part.isEmpty() || part.length() > 10) {
+        return null;
+      }
+      for (int c = 0; c < part.length(); c++) {
+        if (!Character.isDigit(part.charAt(c))) {
+          return null;
+        }
+      }
+      long coordinate = Long.parseLong(part);
+      if (coordinate >= chunkGrid[i]) {
+        return null;
+      }
+      coordinates[i] = (int) coordinate;
+    }
+    return coordinates;
+  }
+
+  /**
+   * Creates the chunk key, relative to the array, for the given chunk grid coordinates.
+   *
+   * @param coordinates the chunk coordinates
+   * @return the relative chunk key
+   */
+  String chunkKey(int[] coordinates) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < coordinates.length; i++) {
+      if (i > 0) {
+        sb.append(dimensionSeparator);
+      }
+      sb.append(coordinates[i]);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Converts chunk coordinates to a row-major (C order) position in the chunk grid.
+   *
+   * @param coordinates the chunk coordinates
+   * @return the position in the chunk grid
+   */
+  long linearIndex(int[] coordinates) {
+    long index = 0;
+    for (int i = 0; i < chunkGrid.length; i++) {
+      index = index * chunkGrid[i] + coordinates[i];
+    }
+    return index;
+  }
+
+  /**
+   * Converts a row-major (C order) position in the chunk grid to chunk coordinates.
+   *
+   * @param linearIndex the position in the chunk grid
+   * @return the chunk coordinates
+   */
+  int[] coordinates(long linearIndex) {
+    int[] coordinates = new int[chunkGrid.length];
+    long remaining = linearIndex;
+    for (int i = chunkGrid.length - 1; i >= 0; i--) {
+      coordinates[i] = (int) (remaining % chunkGrid[i]);
+      remaining /= chunkGrid[i];
+    }
+    return coordinates;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ZarrArrayMetadata that = (ZarrArrayMetadata) o;
+    return Arrays.equals(shape, that.shape) && Arrays.equals(chunks, that.chunks) && dimensionSeparator.equals(that.dimensionSeparator)
+        && Objects.equals(dtype, that.dtype) && Objects.equals(compressor, that.compressor) && Objects.equals(fillValue, that.fillValue)
+        && Objects.equals(filters, that.filters) && order.equals(that.order);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = Arrays.hashCode(shape);
+    result = 31 * result + Arrays.hashCode(chunks);
+    result = 31 * result + dimensionSeparator.hashCode();
+    result = 31 * result + Objects.hash(dtype, compressor, fillValue, filters, order);
+    return result;
+  }
+}
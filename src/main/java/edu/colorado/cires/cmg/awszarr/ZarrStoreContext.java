@@ -0,0 +1,228 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Resources shared by many {@link AwsS3ZarrStore} instances in one JVM, passed to {@link AwsS3ZarrStore.Builder#context(ZarrStoreContext)},
+ * so opening more stores does not multiply the threads and memory used.  A context owns:
+ * <ul>
+ *   <li>one pool of I/O workers for prefetching, concurrent part uploads and bulk deletes</li>
+ *   <li>one pool of workers for decoding chunks ahead of demand</li>
+ *   <li>one memory budget for prefetched chunks, decoded chunks and write-back chunks, with the usage of each store
+ *   available from {@link AwsS3ZarrStore#getMemoryUsed()}</li>
+ *   <li>one pool of part buffers for concurrent part uploads</li>
+ *   <li>one request rate limiter per bucket</li>
+ * </ul>
+ * The per store settings of {@link AwsS3ZarrStore.Builder}, such as {@link AwsS3ZarrStore.Builder#prefetchMaxMb(int)}, still
+ * enable each feature and limit each store.  Close the stores before closing the context.
+ */
+public class ZarrStoreContext implements Closeable {
+
+  /**
+   * Creates a new {@link Builder} that builds a new ZarrStoreContext
+   *
+   * @return a new {@link Builder} that builds a new ZarrStoreContext
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a new {@link ZarrStoreContext}
+   */
+  public static class Builder {
+
+    private int ioConcurrency = 64;
+    private boolean virtualThreads;
+    private int decodeThreads = Runtime.getRuntime().availableProcessors();
+    private int memoryMb = 512;
+    private int uploadBuffers = 16;
+    private int requestsPerSecond;
+    private final Map<String, Integer> bucketRequestsPerSecond = new HashMap<>();
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the number of I/O workers shared by all stores for prefetching, concurrent part uploads and bulk deletes.
+     * Default: 64
+     *
+     * @param ioConcurrency the number of I/O workers
+     * @return this Builder
+     */
+    public Builder ioConcurrency(int ioConcurrency) {
+      this.ioConcurrency = ioConcurrency;
+      return this;
+    }
+
+    /**
+     * When enabled, the shared I/O workers are virtual threads on JVMs that support them, see
+     * {@link AwsS3ZarrStore.Builder#virtualThreads(boolean)}.
+     * Default: false
+     *
+     * @param virtualThreads true to use virtual threads for I/O
+     * @return this Builder
+     */
+    public Builder virtualThreads(boolean virtualThreads) {
+      this.virtualThreads = virtualThreads;
+      return this;
+    }
+
+    /**
+     * Sets the number of workers shared by all stores for decoding chunks ahead of demand.
+     * Default: the number of available processors
+     *
+     * @param decodeThreads the number of decode workers
+     * @return this Builder
+     */
+    public Builder decodeThreads(int decodeThreads) {
+      this.decodeThreads = decodeThreads;
+      return this;
+    }
+
+    /**
+     * Sets the memory in MiB that prefetched, decoded and write-back chunks of all stores may hold together.  When the budget
+     * is exceeded, prefetched and decoded chunks of the largest users are discarded first and write-back chunks are uploaded
+     * by the store that holds them.
+     * Default: 512
+     *
+     * @param memoryMb the shared memory budget in MiB
+     * @return this Builder
+     */
+    public Builder memoryMb(int memoryMb) {
+      this.memoryMb = memoryMb;
+      return this;
+    }
+
+    /**
+     * Sets the number of part buffers shared by all stores for concurrent part uploads, see
+     * {@link AwsS3ZarrStore.Builder#uploadConcurrency(int)}.  Each buffer is the part size of the store that uses it.
+     * Default: 16
+     *
+     * @param uploadBuffers the number of part buffers
+     * @return this Builder
+     */
+    public Builder uploadBuffers(int uploadBuffers) {
+      this.uploadBuffers = uploadBuffers;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of requests per second all stores may make to each bucket, 0 for no limit.
+     * Default: 0
+     *
+     * @param requestsPerSecond the maximum number of requests per second to each bucket
+     * @return this Builder
+     */
+    public Builder requestsPerSecond(int requestsPerSecond) {
+      this.requestsPerSecond = requestsPerSecond;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of requests per second all stores may make to one bucket, overriding
+     * {@link #requestsPerSecond(int)}, 0 for no limit.
+     *
+     * @param bucket the bucket name
+     * @param requestsPerSecond the maximum number of requests per second to the bucket
+     * @return this Builder
+     */
+    public Builder requestsPerSecond(String bucket, int requestsPerSecond) {
+      bucketRequestsPerSecond.put(Objects.requireNonNull(bucket).trim(), requestsPerSecond);
+      return this;
+    }
+
+    /**
+     * Builds a new {@link ZarrStoreContext}
+     *
+     * @return a new {@link ZarrStoreContext}
+     */
+    public ZarrStoreContext build() {
+      if (memoryMb < 0) {
+        throw new IllegalArgumentException("memoryMb must not be negative");
+      }
+      if (uploadBuffers < 1) {
+        throw new IllegalArgumentException("uploadBuffers must be at least 1");
+      }
+      if (requestsPerSecond < 0 || bucketRequestsPerSecond.values().stream().anyMatch(limit -> limit < 0)) {
+        throw new IllegalArgumentException("requestsPerSecond must not be negative");
+      }
+      return new ZarrStoreContext(this);
+    }
+  }
+
+  private final ExecutorService ioExecutor;
+  private final ExecutorService decodeExecutor;
+  private final MemoryBudget memoryBudget;
+  private final Semaphore uploadBuffers;
+  private final int requestsPerSecond;
+  private final Map<String, Integer> bucketRequestsPerSecond;
+  private final ConcurrentMap<String, RequestRateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
+  private ZarrStoreContext(Builder builder) {
+    this.ioExecutor = IoExecutors.newExecutor("aws-zarr-io", builder.ioConcurrency, builder.virtualThreads);
+    // decoding is CPU bound, so it always runs on platform threads
+    this.decodeExecutor = IoExecutors.newExecutor("aws-zarr-decode", builder.decodeThreads, false);
+    this.memoryBudget = new MemoryBudget(builder.memoryMb * 1024L * 1024L);
+    this.uploadBuffers = new Semaphore(builder.uploadBuffers);
+    this.requestsPerSecond = builder.requestsPerSecond;
+    this.bucketRequestsPerSecond = new HashMap<>(builder.bucketRequestsPerSecond);
+  }
+
+  /**
+   * Returns the memory held by the prefetched, decoded and write-back chunks of all stores using this context.
+   *
+   * @return the number of bytes
+   */
+  public long getMemoryUsed() {
+    return memoryBudget.getUsed();
+  }
+
+  ExecutorService getIoExecutor() {
+    return ioExecutor;
+  }
+
+  ExecutorService getDecodeExecutor() {
+    return decodeExecutor;
+  }
+
+  MemoryBudget getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  Semaphore getUploadBuffers() {
+    return uploadBuffers;
+  }
+
+  /**
+   * Wraps a {@link S3ClientWrapper} so its requests to a bucket count against the rate limit of the bucket.
+   *
+   * @param bucket the bucket name
+   * @param s3 the {@link S3ClientWrapper}
+   * @return the wrapped {@link S3ClientWrapper}, or s3 if the bucket has no rate limit
+   */
+  S3ClientWrapper rateLimited(String bucket, S3ClientWrapper s3) {
+    int limit = bucketRequestsPerSecond.getOrDefault(bucket, requestsPerSecond);
+    if (limit == 0) {
+      return s3;
+    }
+    return new RateLimitedS3ClientWrapper(s3, rateLimiters.computeIfAbsent(bucket, name -> new RequestRateLimiter(limit)));
+  }
+
+  /**
+   * Stops the shared workers.  Stores using this context must be closed first.
+   */
+  @Override
+  public void close() {
+    ioExecutor.shutdown();
+    decodeExecutor.shutdownNow();
+  }
+}
@@ -0,0 +1,633 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import com.bc.zarr.ZarrConstants;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Copies a zarr store, or an array or group in a zarr store, to another key prefix, possibly in another bucket, using
+ * server-side copies. The source is listed once and objects are copied concurrently, so no object data is transferred
+ * through the JVM when the {@link S3ClientWrapper} supports server-side copies.  Chunks are copied before metadata, so an
+ * interrupted copy does not look like a complete zarr store, and running the same copy again only copies the objects that
+ * are missing from the destination.  The copied objects are recorded in a resume log in the destination, which is deleted
+ * when the copy completes.
+ */
+public class ZarrStoreCopier {
+
+  /**
+   * The name of the directory, in the destination, holding the resume log of an incomplete copy.
+   */
+  static final String RESUME_LOG_NAME = ".zcopylog";
+
+  private static final long MIB = 1024L * 1024L;
+  private static final int RESUME_LOG_SEGMENT_SIZE = 1000;
+
+  /**
+   * Creates a new {@link Builder} that builds a new ZarrStoreCopier
+   *
+   * @return a new {@link Builder} that builds a new ZarrStoreCopier
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a new {@link ZarrStoreCopier}
+   */
+  public static class Builder {
+
+    private S3ClientWrapper s3;
+    private String sourceBucket;
+    private String sourceKey;
+    private String destinationBucket;
+    private String destinationKey;
+    private int concurrency = 16;
+    private boolean virtualThreads;
+    private int multipartCopyThresholdMb = 1024;
+    private int multipartCopyPartMb = 256;
+    private boolean skipExisting = true;
+    private ProgressListener progressListener;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientWrapper} representing S3 bucket actions. It must have access to both buckets.
+     * Required.
+     *
+     * @param s3 the {@link S3ClientWrapper}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientWrapper s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the bucket name to copy from.
+     * Required.
+     *
+     * @param sourceBucket the bucket name to copy from
+     * @return this Builder
+     */
+    public Builder sourceBucket(String sourceBucket) {
+      this.sourceBucket = sourceBucket;
+      return this;
+    }
+
+    /**
+     * Sets the key prefix of the zarr store, array or group to copy.
+     * Required.
+     *
+     * @param sourceKey the key prefix to copy
+     * @return this Builder
+     */
+    public Builder sourceKey(String sourceKey) {
+      this.sourceKey = sourceKey;
+      return this;
+    }
+
+    /**
+     * Sets the bucket name to copy to.
+     * Default: the source bucket
+     *
+     * @param destinationBucket the bucket name to copy to
+     * @return this Builder
+     */
+    public Builder destinationBucket(String destinationBucket) {
+      this.destinationBucket = destinationBucket;
+      return this;
+    }
+
+    /**
+     * Sets the key prefix to copy to.
+     * Required.
+     *
+     * @param destinationKey the key prefix to copy to
+     * @return this Builder
+     */
+    public Builder destinationKey(String destinationKey) {
+      this.destinationKey = destinationKey;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of concurrent copy requests.
+     * Default: 16
+     *
+     * @param concurrency the maximum number of concurrent copy requests
+     * @return this Builder
+     */
+    public Builder concurrency(int concurrency) {
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * When enabled and running on Java 21 or later, copy requests run on virtual threads instead of a pool of platform
+     * threads.  This is ignored on older JVMs.
+     * Default: false
+     *
+     * @param virtualThreads true to run copy requests on virtual threads
+     * @return this Builder
+     */
+    public Builder virtualThreads(boolean virtualThreads) {
+      this.virtualThreads = virtualThreads;
+      return this;
+    }
+
+    /**
+     * Objects at least this size in MiB are copied in parts with a multipart upload. S3 does not allow a single copy
+     * request for objects larger than 5 GiB.
+     * Default: 1024
+     *
+     * @param multipartCopyThresholdMb the minimum object size in MiB to copy in parts
+     * @return this Builder
+     */
+    public Builder multipartCopyThresholdMb(int multipartCopyThresholdMb) {
+      this.multipartCopyThresholdMb = multipartCopyThresholdMb;
+      return this;
+    }
+
+    /**
+     * Sets the part size in MiB of a multipart copy.  This value must be between 5 and 2047.
+     * Default: 256
+     *
+     * @param multipartCopyPartMb the part size in MiB
+     * @return this Builder
+     */
+    public Builder multipartCopyPartMb(int multipartCopyPartMb) {
+      this.multipartCopyPartMb = multipartCopyPartMb;
+      return this;
+    }
+
+    /**
+     * When enabled, chunks that already exist in the destination with the same size and ETag as the source are not copied
+     * again, which allows an interrupted copy to be resumed.  A server-side copy does not keep the ETag of a source uploaded
+     * in parts, so chunks are also skipped when the resume log records that they were copied from a source with the current
+     * ETag.  Other chunks are copied, so a rewritten source replaces stale destination chunks even when their sizes match.
+     * Metadata objects are always copied.
+     * Default: true
+     *
+     * @param skipExisting true to skip chunks that already exist in the destination
+     * @return this Builder
+     */
+    public Builder skipExisting(boolean skipExisting) {
+      this.skipExisting = skipExisting;
+      return this;
+    }
+
+    /**
+     * Sets a {@link ProgressListener} that is notified after each object is copied or skipped.
+     *
+     * @param progressListener the {@link ProgressListener}
+     * @return this Builder
+     */
+    public Builder progressListener(ProgressListener progressListener) {
+      this.progressListener = progressListener;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link ZarrStoreCopier}
+     *
+     * @return a new {@link ZarrStoreCopier}
+     */
+    public ZarrStoreCopier build() {
+      return new ZarrStoreCopier(this);
+    }
+  }
+
+  /**
+   * Receives progress updates from a {@link ZarrStoreCopier}.  This is called from the threads making copy requests, so
+   * implementations must be thread safe.
+   */
+  @FunctionalInterface
+  public interface ProgressListener {
+
+    /**
+     * Called after an object is copied or skipped.
+     *
+     * @param progress the {@link Progress} of the copy
+     */
+    void onProgress(Progress progress);
+  }
+
+  /**
+   * A snapshot of the progress of a copy.
+   */
+  public static final class Progress {
+
+    private final String key;
+    private final long totalObjects;
+    private final long totalBytes;
+    private final long copiedObjects;
+    private final long copiedBytes;
+    private final long skippedObjects;
+
+    private Progress(String key, long totalObjects, long totalBytes, long copiedObjects, long copiedBytes, long skippedObjects) {
+      this.key = key;
+      this.totalObjects = totalObjects;
+      this.totalBytes = totalBytes;
+      this.copiedObjects = copiedObjects;
+      this.copiedBytes = copiedBytes;
+      this.skippedObjects = skippedObjects;
+    }
+
+    /**
+     * Returns the store key, relative to the source key, of the object that was just copied or skipped.
+     *
+     * @return the store key or null for the final snapshot
+     */
+    public String getKey() {
+      return key;
+    }
+
+    /**
+     * Returns the number of objects in the source.
+     *
+     * @return the number of objects in the source
+     */
+    public long getTotalObjects() {
+      return totalObjects;
+    }
+
+    /**
+     * Returns the total size of the objects in the source.
+     *
+     * @return the total size in bytes
+     */
+    public long getTotalBytes() {
+      return totalBytes;
+    }
+
+    /**
+     * Returns the number of objects copied so far.
+     *
+     * @return the number of objects copied
+     */
+    public long getCopiedObjects() {
+      return copiedObjects;
+    }
+
+    /**
+     * Returns the size of the objects copied so far.
+     *
+     * @return the number of bytes copied
+     */
+    public long getCopiedBytes() {
+      return copiedBytes;
+    }
+
+    /**
+     * Returns the number of objects that were skipped because they already exist in the destination.
+     *
+     * @return the number of objects skipped
+     */
+    public long getSkippedObjects() {
+      return skippedObjects;
+    }
+
+    @Override
+    public String toString() {
+      return "Progress{" +
+          "key='" + key + '\'' +
+          ", totalObjects=" + totalObjects +
+          ", totalBytes=" + totalBytes +
+          ", copiedObjects=" + copiedObjects +
+          ", copiedBytes=" + copiedBytes +
+          ", skippedObjects=" + skippedObjects +
+          '}';
+    }
+  }
+
+  private final S3ClientWrapper s3;
+  private final String sourceBucket;
+  private final S3Path sourceKey;
+  private final String destinationBucket;
+  private final S3Path destinationKey;
+  private final int concurrency;
+  private final boolean virtualThreads;
+  private final long multipartCopyThresholdBytes;
+  private final long multipartCopyPartBytes;
+  private final boolean skipExisting;
+  private final ProgressListener progressListener;
+
+  private ZarrStoreCopier(Builder builder) {
+    this.s3 = Objects.requireNonNull(builder.s3);
+    this.sourceBucket = builder.sourceBucket.trim();
+    this.sourceKey = new S3Path(builder.sourceKey);
+    this.destinationBucket = builder.destinationBucket == null ? sourceBucket : builder.destinationBucket.trim();
+    this.destinationKey = new S3Path(Objects.requireNonNull(builder.destinationKey));
+    if (builder.concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be at least 1");
+    }
+    if (builder.multipartCopyPartMb < 5 || builder.multipartCopyPartMb > 2047) {
+      throw new IllegalArgumentException("multipartCopyPartMb must be between 5 and 2047");
+    }
+    if (sourceBucket.equals(destinationBucket) && sourceKey.equals(destinationKey)) {
+      throw new IllegalArgumentException("The source and destination are the same");
+    }
+    this.concurrency = builder.concurrency;
+    this.virtualThreads = builder.virtualThreads;
+    this.multipartCopyThresholdBytes = builder.multipartCopyThresholdMb * MIB;
+    this.multipartCopyPartBytes = builder.multipartCopyPartMb * MIB;
+    this.skipExisting = builder.skipExisting;
+    this.progressListener = builder.progressListener;
+  }
+
+  /**
+   * Copies every object under the source key to the destination key.  When a copy fails, the remaining copies still run
+   * and an exception is thrown when they are done.  Running the copy again resumes it.
+   *
+   * @return the final {@link Progress} of the copy
+   * @throws IOException if an object could not be copied
+   */
+  public Progress copy() throws IOException {
+    Map<String, S3Object> sources = list(sourceBucket, sourceKey);
+    Map<String, S3Object> existing = skipExisting
+        ? list(destinationBucket, destinationKey)
+        : list(destinationBucket, destinationKey.resolve(RESUME_LOG_NAME));
+    ResumeLog log = new ResumeLog(existing);
+    if (skipExisting) {
+      log.load();
+    }
+
+    List<String> chunkKeys = new ArrayList<>();
+    List<String> metadataKeys = new ArrayList<>();
+    long totalBytes = 0;
+    for (Map.Entry<String, S3Object> entry : sources.entrySet()) {
+      totalBytes += entry.getValue().size();
+      if (isMetadata(entry.getKey())) {
+        metadataKeys.add(entry.getKey());
+      } else {
+        chunkKeys.add(entry.getKey());
+      }
+    }
+    Counters counters = new Counters(sources.size(), totalBytes);
+
+    ExecutorService executor = IoExecutors.newExecutor("aws-zarr-copy", concurrency, virtualThreads);
+    try {
+      IOException failure = copyAll(executor, chunkKeys, sources, existing, log, counters);
+      // metadata is copied last, and only if every chunk was copied, so an incomplete copy is not a readable zarr store
+      if (failure == null) {
+        failure = copyAll(executor, metadataKeys, sources, Collections.emptyMap(), log, counters);
+      }
+      if (failure != null) {
+        log.flush(failure);
+        throw failure;
+      }
+      log.delete();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      IOException failure = new IOException("Interrupted while copying " + sourceBucket + "/" + sourceKey, e);
+      log.flush(failure);
+      throw failure;
+    } finally {
+      executor.shutdownNow();
+    }
+    return counters.snapshot(null);
+  }
+
+  private IOException copyAll(
+      ExecutorService executor, List<String> keys, Map<String, S3Object> sources, Map<String, S3Object> existing,
+      ResumeLog log, Counters counters)
+      throws InterruptedException {
+    IOException failure = null;
+    List<Future<?>> futures = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      S3Object source = sources.get(key);
+      long size = source.size();
+      futures.add(executor.submit(() -> {
+        if (isCopied(key, source, existing.get(key), log)) {
+          counters.skipped.incrementAndGet();
+        } else {
+          copyObject(key, size);
+          log.record(key, source.eTag());
+          counters.copiedObjects.incrementAndGet();
+          counters.copiedBytes.addAndGet(size);
+        }
+        if (progressListener != null) {
+          progressListener.onProgress(counters.snapshot(key));
+        }
+      }));
+    }
+    for (int i = 0; i < keys.size(); i++) {
+      try {
+        futures.get(i).get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = new IOException("Unable to copy " + keys.get(i), e.getCause());
+        } else {
+          failure.addSuppressed(e.getCause());
+        }
+      }
+    }
+    return failure;
+  }
+
+  private void copyObject(String key, long size) {
+    String source = sourceKey.resolve(key).toString();
+    String destination = destinationKey.resolve(key).toString();
+    if (size == 0 || size < multipartCopyThresholdBytes) {
+      s3.copyObject(sourceBucket, source, destinationBucket, destination);
+      return;
+    }
+    String uploadId = s3.createMultipartUpload(destinationBucket, destination);
+    try {
+      List<CompletedPart> parts = new ArrayList<>();
+      int partNumber = 1;
+      for (long firstByte = 0; firstByte < size; firstByte += multipartCopyPartBytes) {
+        long lastByte = Math.min(firstByte + multipartCopyPartBytes, size) - 1;
+        parts.add(s3.uploadPartCopy(sourceBucket, source, firstByte, lastByte, destinationBucket, destination, uploadId, partNumber++));
+      }
+      s3.completeMultipartUpload(destinationBucket, destination, uploadId, parts);
+    } catch (RuntimeException e) {
+      try {
+        s3.abortMultipartUpload(destinationBucket, destination, uploadId);
+      } catch (RuntimeException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e;
+    }
+  }
+
+  private Map<String, S3Object> list(String bucket, S3Path key) {
+    String prefix = key.size() == 0 ? "" : key + "/";
+    Map<String, S3Object> objects = new HashMap<>();
+    try (Stream<S3Object> stream = s3.listObjectsV2Paginator(bucket, prefix).flatMap(response -> response.contents().stream())) {
+      stream.forEach(object -> objects.put(object.key().substring(prefix.length()), object));
+    }
+    return objects;
+  }
+
+  private static boolean isCopied(String key, S3Object source, S3Object destination, ResumeLog log) {
+    if (destination == null || !source.size().equals(destination.size())) {
+      return false;
+    }
+    // a size match alone would keep stale chunks of a rewritten source, objects are only skipped when their ETags match
+    String eTag = source.eTag();
+    return eTag != null && (eTag.equals(destination.eTag()) || log.isCopied(key, eTag));
+  }
+
+  static boolean isMetadata(String key) {
+    String name = key.substring(key.lastIndexOf('/') + 1);
+    return name.equals(ZarrConstants.FILENAME_DOT_ZARRAY)
+        || name.equals(ZarrConstants.FILENAME_DOT_ZGROUP)
+        || name.equals(ZarrConstants.FILENAME_DOT_ZATTRS)
+        || name.equals(".zmetadata")
+        || name.equals(ChunkExistenceIndex.SIDECAR_NAME)
+        || name.equals(StoreManifest.MANIFEST_NAME);
+  }
+
+  /**
+   * Records the source ETags of copied objects in segment objects under {@link #RESUME_LOG_NAME} in the destination.  A
+   * segment is written for every {@link #RESUME_LOG_SEGMENT_SIZE} copies and when a copy fails, so a copy that is killed
+   * only copies the objects of its last segment again when it is resumed.
+   */
+  private final class ResumeLog {
+
+    private final List<String> segments = new ArrayList<>();
+    private final Map<String, String> copied = new HashMap<>();
+    private final Map<String, String> pending = new HashMap<>();
+    private int nextSegment;
+
+    private ResumeLog(Map<String, S3Object> existing) {
+      String prefix = RESUME_LOG_NAME + "/";
+      for (String key : new TreeSet<>(existing.keySet())) {
+        if (key.startsWith(prefix)) {
+          segments.add(key);
+          try {
+            nextSegment = Math.max(nextSegment, Integer.parseInt(key.substring(prefix.length())) + 1);
+          } catch (NumberFormatException e) {
+            // not a segment written by this class, it is deleted with the log
+          }
+        }
+      }
+    }
+
+    private void load() throws IOException {
+      for (String segment : segments) {
+        Optional<InputStream> inputStream = s3.getObject(destinationBucket, destinationKey.resolve(segment).toString());
+        if (!inputStream.isPresent()) {
+          continue;
+        }
+        try (DataInputStream in = new DataInputStream(inputStream.get())) {
+          while (true) {
+            String key;
+            try {
+              key = in.readUTF();
+            } catch (EOFException e) {
+              break;
+            }
+            copied.put(key, in.readUTF());
+          }
+        }
+      }
+    }
+
+    private boolean isCopied(String key, String eTag) {
+      return eTag.equals(copied.get(key));
+    }
+
+    private void record(String key, String eTag) {
+      if (eTag == null) {
+        return;
+      }
+      Map<String, String> segment;
+      synchronized (this) {
+        pending.put(key, eTag);
+        if (pending.size() < RESUME_LOG_SEGMENT_SIZE) {
+          return;
+        }
+        segment = new HashMap<>(pending);
+        pending.clear();
+      }
+      write(segment);
+    }
+
+    private void flush(IOException failure) {
+      Map<String, String> segment;
+      synchronized (this) {
+        segment = new HashMap<>(pending);
+        pending.clear();
+      }
+      if (segment.isEmpty()) {
+        return;
+      }
+      try {
+        write(segment);
+      } catch (RuntimeException e) {
+        failure.addSuppressed(e);
+      }
+    }
+
+    private void write(Map<String, String> segment) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        for (Map.Entry<String, String> entry : segment.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeUTF(entry.getValue());
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to write resume log", e);
+      }
+      String key;
+      synchronized (this) {
+        key = RESUME_LOG_NAME + "/" + nextSegment++;
+        segments.add(key);
+      }
+      s3.putObject(destinationBucket, destinationKey.resolve(key).toString(), ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    private void delete() {
+      List<String> keys;
+      synchronized (this) {
+        keys = new ArrayList<>(segments);
+        segments.clear();
+      }
+      for (String key : keys) {
+        s3.deleteObject(destinationBucket, destinationKey.resolve(key).toString());
+      }
+    }
+  }
+
+  private static final class Counters {
+
+    private final long totalObjects;
+    private final long totalBytes;
+    private final AtomicLong copiedObjects = new AtomicLong();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    private Counters(long totalObjects, long totalBytes) {
+      this.totalObjects = totalObjects;
+      this.totalBytes = totalBytes;
+    }
+
+    private Progress snapshot(String key) {
+      return new Progress(key, totalObjects, totalBytes, copiedObjects.get(), copiedBytes.get(), skipped.get());
+    }
+  }
+}
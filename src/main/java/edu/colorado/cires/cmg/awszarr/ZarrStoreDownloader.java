@@ -0,0 +1,647 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Downloads a zarr store, or an array or group in a zarr store, to a local directory in the layout read by
+ * {@link FileS3ClientWrapper} and {@link FileMockS3ClientWrapper}, i.e. the object "bucket/key/data/0.0" is written to
+ * "rootDir/bucket/key/data/0.0".  The source is listed once and objects are downloaded concurrently, with large objects
+ * downloaded as concurrent byte ranges.  Objects are written to a staging directory and moved into place when complete.
+ * Chunks are downloaded before metadata, and running the same download again skips the files that are already complete.
+ */
+public class ZarrStoreDownloader {
+
+  /**
+   * The directory, in the root directory, where downloads are staged.  Bucket names cannot start with a ".", so this
+   * cannot collide with a bucket.
+   */
+  static final String DOWNLOAD_DIR = ".downloads";
+
+  private static final long MIB = 1024L * 1024L;
+  private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+  /**
+   * Creates a new {@link Builder} that builds a new ZarrStoreDownloader
+   *
+   * @return a new {@link Builder} that builds a new ZarrStoreDownloader
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a new {@link ZarrStoreDownloader}
+   */
+  public static class Builder {
+
+    private S3ClientWrapper s3;
+    private String bucket;
+    private String key;
+    private Path rootDir;
+    private int concurrency = 16;
+    private boolean virtualThreads;
+    private int rangedGetThresholdMb = 64;
+    private int rangedGetPartMb = 16;
+    private boolean skipExisting = true;
+    private boolean verifyETags = true;
+    private ProgressListener progressListener;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientWrapper} representing S3 bucket actions.
+     * Required.
+     *
+     * @param s3 the {@link S3ClientWrapper}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientWrapper s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the bucket name to download from.
+     * Required.
+     *
+     * @param bucket the bucket name
+     * @return this Builder
+     */
+    public Builder bucket(String bucket) {
+      this.bucket = bucket;
+      return this;
+    }
+
+    /**
+     * Sets the key prefix of the zarr store, array or group to download.
+     * Required.
+     *
+     * @param key the key prefix to download
+     * @return this Builder
+     */
+    public Builder key(String key) {
+      this.key = key;
+      return this;
+    }
+
+    /**
+     * Sets the {@link Path} to a directory containing directories representing S3 buckets.  Objects are written under the
+     * directory of the bucket.
+     * Required.
+     *
+     * @param rootDir a directory containing directories representing S3 buckets
+     * @return this Builder
+     */
+    public Builder rootDir(Path rootDir) {
+      this.rootDir = rootDir;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of concurrent GET requests.
+     * Default: 16
+     *
+     * @param concurrency the maximum number of concurrent GET requests
+     * @return this Builder
+     */
+    public Builder concurrency(int concurrency) {
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * When enabled and running on Java 21 or later, GET requests run on virtual threads instead of a pool of platform
+     * threads.  This is ignored on older JVMs.
+     * Default: false
+     *
+     * @param virtualThreads true to run GET requests on virtual threads
+     * @return this Builder
+     */
+    public Builder virtualThreads(boolean virtualThreads) {
+      this.virtualThreads = virtualThreads;
+      return this;
+    }
+
+    /**
+     * Objects at least this size in MiB are downloaded as concurrent byte ranges, so a single large object uses more than
+     * one connection.
+     * Default: 64
+     *
+     * @param rangedGetThresholdMb the minimum object size in MiB to download in ranges
+     * @return this Builder
+     */
+    public Builder rangedGetThresholdMb(int rangedGetThresholdMb) {
+      this.rangedGetThresholdMb = rangedGetThresholdMb;
+      return this;
+    }
+
+    /**
+     * Sets the size in MiB of the byte ranges of large objects.
+     * Default: 16
+     *
+     * @param rangedGetPartMb the range size in MiB
+     * @return this Builder
+     */
+    public Builder rangedGetPartMb(int rangedGetPartMb) {
+      this.rangedGetPartMb = rangedGetPartMb;
+      return this;
+    }
+
+    /**
+     * When enabled, files that already exist with the same size as the object are not downloaded again, which allows an
+     * interrupted download to be resumed.
+     * Default: true
+     *
+     * @param skipExisting true to skip files that already exist
+     * @return this Builder
+     */
+    public Builder skipExisting(boolean skipExisting) {
+      this.skipExisting = skipExisting;
+      return this;
+    }
+
+    /**
+     * When enabled along with {@link #skipExisting(boolean)}, an existing file is only skipped if its MD5 also matches the
+     * ETag of the object.  ETags of objects uploaded in parts or encrypted with KMS are not MD5s, so these files are
+     * compared by size only.
+     * Default: true
+     *
+     * @param verifyETags true to compare the MD5 of existing files with the ETag of objects
+     * @return this Builder
+     */
+    public Builder verifyETags(boolean verifyETags) {
+      this.verifyETags = verifyETags;
+      return this;
+    }
+
+    /**
+     * Sets a {@link ProgressListener} that is notified after each object is downloaded or skipped.
+     *
+     * @param progressListener the {@link ProgressListener}
+     * @return this Builder
+     */
+    public Builder progressListener(ProgressListener progressListener) {
+      this.progressListener = progressListener;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link ZarrStoreDownloader}
+     *
+     * @return a new {@link ZarrStoreDownloader}
+     */
+    public ZarrStoreDownloader build() {
+      return new ZarrStoreDownloader(this);
+    }
+  }
+
+  /**
+   * Receives progress updates from a {@link ZarrStoreDownloader}.  This is called from the threads making GET requests, so
+   * implementations must be thread safe.
+   */
+  @FunctionalInterface
+  public interface ProgressListener {
+
+    /**
+     * Called after an object is downloaded or skipped.
+     *
+     * @param progress the {@link Progress} of the download
+     */
+    void onProgress(Progress progress);
+  }
+
+  /**
+   * A snapshot of the progress of a download.
+   */
+  public static final class Progress {
+
+    private final String key;
+    private final long totalObjects;
+    private final long totalBytes;
+    private final long downloadedObjects;
+    private final long downloadedBytes;
+    private final long skippedObjects;
+    private final long elapsedNanos;
+
+    private Progress(
+        String key, long totalObjects, long totalBytes, long downloadedObjects, long downloadedBytes, long skippedObjects,
+        long elapsedNanos) {
+      this.key = key;
+      this.totalObjects = totalObjects;
+      this.totalBytes = totalBytes;
+      this.downloadedObjects = downloadedObjects;
+      this.downloadedBytes = downloadedBytes;
+      this.skippedObjects = skippedObjects;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the store key, relative to the downloaded key, of the object that was just downloaded or skipped.
+     *
+     * @return the store key or null for the final snapshot
+     */
+    public String getKey() {
+      return key;
+    }
+
+    /**
+     * Returns the number of objects in the source.
+     *
+     * @return the number of objects in the source
+     */
+    public long getTotalObjects() {
+      return totalObjects;
+    }
+
+    /**
+     * Returns the total size of the objects in the source.
+     *
+     * @return the total size in bytes
+     */
+    public long getTotalBytes() {
+      return totalBytes;
+    }
+
+    /**
+     * Returns the number of objects downloaded so far.
+     *
+     * @return the number of objects downloaded
+     */
+    public long getDownloadedObjects() {
+      return downloadedObjects;
+    }
+
+    /**
+     * Returns the number of bytes downloaded so far, including the completed ranges of objects still being downloaded.
+     *
+     * @return the number of bytes downloaded
+     */
+    public long getDownloadedBytes() {
+      return downloadedBytes;
+    }
+
+    /**
+     * Returns the number of objects that were skipped because they were already downloaded.
+     *
+     * @return the number of objects skipped
+     */
+    public long getSkippedObjects() {
+      return skippedObjects;
+    }
+
+    /**
+     * Returns the time since the download started.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /**
+     * Returns the download throughput since the download started.
+     *
+     * @return the number of bytes downloaded per second
+     */
+    public double getBytesPerSecond() {
+      return elapsedNanos == 0 ? 0D : downloadedBytes * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return "Progress{" +
+          "key='" + key + '\'' +
+          ", totalObjects=" + totalObjects +
+          ", totalBytes=" + totalBytes +
+          ", downloadedObjects=" + downloadedObjects +
+          ", downloadedBytes=" + downloadedBytes +
+          ", skippedObjects=" + skippedObjects +
+          ", bytesPerSecond=" + (long) getBytesPerSecond() +
+          '}';
+    }
+  }
+
+  private final S3ClientWrapper s3;
+  private final String bucket;
+  private final S3Path key;
+  private final Path rootDir;
+  private final Path storeDir;
+  private final int concurrency;
+  private final boolean virtualThreads;
+  private final long rangedGetThresholdBytes;
+  private final long rangedGetPartBytes;
+  private final boolean skipExisting;
+  private final boolean verifyETags;
+  private final ProgressListener progressListener;
+
+  private ZarrStoreDownloader(Builder builder) {
+    this.s3 = Objects.requireNonNull(builder.s3);
+    this.bucket = builder.bucket.trim();
+    this.key = new S3Path(builder.key);
+    this.rootDir = builder.rootDir.toAbsolutePath().normalize();
+    if (bucket.isEmpty() || bucket.startsWith(".") || bucket.contains("/") || bucket.contains("\\")) {
+      throw new IllegalArgumentException("Invalid bucket name: " + bucket);
+    }
+    Path bucketDir = rootDir.resolve(bucket);
+    this.storeDir = key.size() == 0 ? bucketDir : bucketDir.resolve(key.toString()).normalize();
+    if (!storeDir.startsWith(bucketDir)) {
+      throw new IllegalArgumentException("Invalid key: " + key);
+    }
+    if (builder.concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be at least 1");
+    }
+    if (builder.rangedGetPartMb < 1) {
+      throw new IllegalArgumentException("rangedGetPartMb must be at least 1");
+    }
+    this.concurrency = builder.concurrency;
+    this.virtualThreads = builder.virtualThreads;
+    this.rangedGetThresholdBytes = builder.rangedGetThresholdMb * MIB;
+    this.rangedGetPartBytes = builder.rangedGetPartMb * MIB;
+    this.skipExisting = builder.skipExisting;
+    this.verifyETags = builder.verifyETags;
+    this.progressListener = builder.progressListener;
+  }
+
+  /**
+   * Downloads every object under the key.  When a download fails, the remaining downloads still run and an exception is
+   * thrown when they are done.  Running the download again resumes it.
+   *
+   * @return the final {@link Progress} of the download
+   * @throws IOException if an object could not be downloaded
+   */
+  public Progress download() throws IOException {
+    String prefix = key.size() == 0 ? "" : key + "/";
+    List<S3Object> objects;
+    try (Stream<S3Object> stream = s3.listObjectsV2Paginator(bucket, prefix).flatMap(response -> response.contents().stream())) {
+      objects = stream.collect(Collectors.toList());
+    }
+    List<S3Object> chunks = new ArrayList<>();
+    List<S3Object> metadata = new ArrayList<>();
+    long totalBytes = 0;
+    for (S3Object object : objects) {
+      totalBytes += object.size();
+      if (ZarrStoreCopier.isMetadata(relativeKey(object))) {
+        metadata.add(object);
+      } else {
+        chunks.add(object);
+      }
+    }
+    Counters counters = new Counters(objects.size(), totalBytes);
+    Files.createDirectories(rootDir.resolve(DOWNLOAD_DIR));
+
+    ExecutorService executor = IoExecutors.newExecutor("aws-zarr-download", concurrency, virtualThreads);
+    try {
+      IOException failure = downloadAll(executor, chunks, counters);
+      // metadata is downloaded last, and only if every chunk was downloaded, so an incomplete download is not a readable
+      // zarr store
+      if (failure == null) {
+        failure = downloadAll(executor, metadata, counters);
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while downloading " + bucket + "/" + key, e);
+    } finally {
+      executor.shutdownNow();
+    }
+    return counters.snapshot(null);
+  }
+
+  private String relativeKey(S3Object object) {
+    int prefixLength = key.size() == 0 ? 0 : key.toString().length() + 1;
+    return object.key().substring(prefixLength);
+  }
+
+  private Path target(String relativeKey) throws IOException {
+    Path target = storeDir.resolve(relativeKey).normalize();
+    if (!target.startsWith(storeDir) || target.equals(storeDir)) {
+      throw new IOException("Invalid key: " + relativeKey);
+    }
+    return target;
+  }
+
+  private IOException downloadAll(ExecutorService executor, List<S3Object> objects, Counters counters) throws InterruptedException {
+    List<Download> downloads = new ArrayList<>();
+    List<Future<?>> futures = new ArrayList<>();
+    for (S3Object object : objects) {
+      Download download = new Download(object);
+      downloads.add(download);
+      futures.add(executor.submit(() -> download.start(executor, counters)));
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        // failures are recorded by the download
+      }
+    }
+    IOException failure = null;
+    for (Download download : downloads) {
+      IOException downloadFailure = download.await();
+      if (downloadFailure == null) {
+        continue;
+      }
+      if (failure == null) {
+        failure = downloadFailure;
+      } else {
+        failure.addSuppressed(downloadFailure);
+      }
+    }
+    return failure;
+  }
+
+  /**
+   * The download of one object, in one or more byte ranges written to a staging file.
+   */
+  private final class Download {
+
+    private final S3Object object;
+    private final String relativeKey;
+    private final List<Future<?>> ranges = new ArrayList<>();
+    private final AtomicInteger remainingRanges = new AtomicInteger();
+    private volatile IOException failure;
+    private Path stagingFile;
+    private FileChannel channel;
+
+    private Download(S3Object object) {
+      this.object = object;
+      this.relativeKey = relativeKey(object);
+    }
+
+    private void start(ExecutorService executor, Counters counters) {
+      try {
+        Path target = target(relativeKey);
+        if (skipExisting && isComplete(target)) {
+          counters.skipped.incrementAndGet();
+          notifyProgress(counters);
+          return;
+        }
+        long size = object.size();
+        stagingFile = rootDir.resolve(DOWNLOAD_DIR).resolve(UUID.randomUUID().toString());
+        channel = FileChannel.open(stagingFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        if (size < rangedGetThresholdBytes || size <= rangedGetPartBytes) {
+          remainingRanges.set(1);
+          downloadRange(target, 0, size - 1, counters);
+          return;
+        }
+        int count = (int) ((size + rangedGetPartBytes - 1) / rangedGetPartBytes);
+        remainingRanges.set(count);
+        synchronized (ranges) {
+          for (long firstByte = 0; firstByte < size; firstByte += rangedGetPartBytes) {
+            long first = firstByte;
+            long last = Math.min(firstByte + rangedGetPartBytes, size) - 1;
+            ranges.add(executor.submit(() -> downloadRange(target, first, last, counters)));
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        fail(e);
+      }
+    }
+
+    private void downloadRange(Path target, long firstByte, long lastByte, Counters counters) {
+      try {
+        if (failure == null && lastByte >= firstByte) {
+          InputStream source = s3.getObjectRange(bucket, object.key(), firstByte, lastByte)
+              .orElseThrow(() -> new IOException("Object was deleted: " + object.key()));
+          try (InputStream in = source) {
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_BYTES);
+            long position = firstByte;
+            int read;
+            while ((read = in.read(buffer.array())) != -1) {
+              buffer.limit(read);
+              while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+              }
+              buffer.clear();
+              counters.downloadedBytes.addAndGet(read);
+            }
+            if (position != lastByte + 1) {
+              throw new IOException("Unexpected end of object at " + position + ": " + object.key());
+            }
+          }
+        }
+        if (remainingRanges.decrementAndGet() == 0 && failure == null) {
+          complete(target);
+          counters.downloadedObjects.incrementAndGet();
+          notifyProgress(counters);
+        }
+      } catch (IOException | RuntimeException e) {
+        fail(e);
+      }
+    }
+
+    private void complete(Path target) throws IOException {
+      channel.close();
+      Files.createDirectories(target.getParent());
+      try {
+        Files.move(stagingFile, target, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(stagingFile, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+
+    private synchronized void fail(Exception e) {
+      if (failure == null) {
+        failure = new IOException("Unable to download " + object.key(), e);
+      } else {
+        failure.addSuppressed(e);
+      }
+    }
+
+    private IOException await() throws InterruptedException {
+      List<Future<?>> submitted;
+      synchronized (ranges) {
+        submitted = new ArrayList<>(ranges);
+      }
+      for (Future<?> range : submitted) {
+        try {
+          range.get();
+        } catch (ExecutionException e) {
+          fail(e);
+        }
+      }
+      if (failure != null && stagingFile != null) {
+        try {
+          if (channel != null) {
+            channel.close();
+          }
+          Files.deleteIfExists(stagingFile);
+        } catch (IOException e) {
+          failure.addSuppressed(e);
+        }
+      }
+      return failure;
+    }
+
+    private boolean isComplete(Path target) throws IOException {
+      if (!Files.isRegularFile(target) || Files.size(target) != object.size()) {
+        return false;
+      }
+      String eTag = object.eTag();
+      if (!verifyETags || eTag == null || eTag.contains("-")) {
+        return true;
+      }
+      MessageDigest md5 = ETags.md5();
+      try (FileChannel in = FileChannel.open(target, StandardOpenOption.READ)) {
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_BYTES);
+        while (in.read(buffer) != -1) {
+          buffer.flip();
+          md5.update(buffer);
+          buffer.clear();
+        }
+      }
+      return eTag.replace("\"", "").equalsIgnoreCase(ETags.hex(md5.digest()));
+    }
+
+    private void notifyProgress(Counters counters) {
+      if (progressListener != null) {
+        progressListener.onProgress(counters.snapshot(relativeKey));
+      }
+    }
+  }
+
+  private static final class Counters {
+
+    private final long totalObjects;
+    private final long totalBytes;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong downloadedObjects = new AtomicLong();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    private Counters(long totalObjects, long totalBytes) {
+      this.totalObjects = totalObjects;
+      this.totalBytes = totalBytes;
+    }
+
+    private Progress snapshot(String key) {
+      return new Progress(
+          key, totalObjects, totalBytes, downloadedObjects.get(), downloadedBytes.get(), skipped.get(), System.nanoTime() - startNanos);
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the executors used to run blocking S3 requests concurrently.  This is the Java 21 implementation, which runs tasks
+ * on virtual threads when requested.  Blocking S3 requests park a virtual thread instead of holding a platform thread, so
+ * the concurrency can be sized to the number of connections rather than to the number of threads the JVM can afford.
+ */
+final class IoExecutors {
+
+  private IoExecutors() {
+
+  }
+
+  /**
+   * Determines if this JVM supports virtual threads.
+   *
+   * @return true if virtual threads are supported
+   */
+  static boolean isVirtualThreadSupported() {
+    return true;
+  }
+
+  /**
+   * Creates an {@link ExecutorService} that runs at most concurrency tasks at a time.
+   *
+   * @param name the prefix for thread names
+   * @param concurrency the maximum number of tasks to run at a time
+   * @param virtualThreads true to run tasks on virtual threads
+   * @return a new {@link ExecutorService}
+   */
+  static ExecutorService newExecutor(String name, int concurrency, boolean virtualThreads) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be at least 1");
+    }
+    if (!virtualThreads) {
+      return Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory(name));
+    }
+    return new BoundedExecutorService(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory()), concurrency);
+  }
+
+  /**
+   * Limits the number of tasks running at a time on a thread-per-task executor. Waiting tasks are parked virtual threads
+   * rather than entries in a queue.  {@link #shutdownNow()} interrupts the waiting tasks, which are then cancelled instead
+   * of run.
+   */
+  private static final class BoundedExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private volatile boolean stopped;
+
+    private BoundedExecutorService(ExecutorService delegate, int concurrency) {
+      this.delegate = delegate;
+      permits = new Semaphore(concurrency, true);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      delegate.execute(() -> {
+        try {
+          permits.acquire();
+        } catch (InterruptedException e) {
+          cancel(command);
+          return;
+        }
+        try {
+          if (stopped) {
+            cancel(command);
+          } else {
+            command.run();
+          }
+        } finally {
+          permits.release();
+        }
+      });
+    }
+
+    private static void cancel(Runnable command) {
+      // tasks from submit() are futures, cancelling them releases any thread waiting for their result
+      if (command instanceof Future) {
+        ((Future<?>) command).cancel(false);
+      }
+    }
+
+    @Override
+    public void shutdown() {
+      delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      stopped = true;
+      return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      return delegate.awaitTermination(timeout, unit);
+    }
+  }
+}
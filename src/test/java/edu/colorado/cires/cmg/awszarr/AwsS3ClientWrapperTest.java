@@ -0,0 +1,83 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.Socket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+
+public class AwsS3ClientWrapperTest {
+
+  private static final List<Consumer<AwsS3ClientWrapper.Builder>> APACHE_OPTIONS = Arrays.asList(
+      builder -> builder.maxConnections(256),
+      builder -> builder.connectionAcquisitionTimeout(Duration.ofSeconds(5)),
+      builder -> builder.connectionMaxIdleTime(Duration.ofSeconds(10)),
+      builder -> builder.connectionTimeToLive(Duration.ofMinutes(1)),
+      builder -> builder.useIdleConnectionReaper(false),
+      builder -> builder.tcpKeepAlive(true),
+      builder -> builder.socketReceiveBufferBytes(1024 * 1024),
+      builder -> builder.socketSendBufferBytes(1024 * 1024));
+
+  private static AwsS3ClientWrapper.Builder builder(HttpTransport httpTransport) {
+    return AwsS3ClientWrapper.builder()
+        .region(Region.US_EAST_1)
+        .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("access", "secret")))
+        .httpTransport(httpTransport)
+        .connectionTimeout(Duration.ofSeconds(2))
+        .socketTimeout(Duration.ofSeconds(30));
+  }
+
+  @Test
+  public void testApacheOptions() {
+    for (Consumer<AwsS3ClientWrapper.Builder> option : APACHE_OPTIONS) {
+      AwsS3ClientWrapper.Builder builder = builder(HttpTransport.APACHE);
+      option.accept(builder);
+      builder.build().close();
+    }
+    AwsS3ClientWrapper.Builder builder = builder(HttpTransport.APACHE);
+    APACHE_OPTIONS.forEach(option -> option.accept(builder));
+    builder.build().close();
+  }
+
+  @Test
+  public void testUrlConnection() {
+    builder(HttpTransport.URL_CONNECTION).build().close();
+    for (Consumer<AwsS3ClientWrapper.Builder> option : APACHE_OPTIONS) {
+      AwsS3ClientWrapper.Builder builder = builder(HttpTransport.URL_CONNECTION);
+      option.accept(builder);
+      assertThrows(IllegalArgumentException.class, builder::build);
+    }
+  }
+
+  @Test
+  public void testSocketBuffersRequireHttps() {
+    URI http = URI.create("http://localhost:9000");
+    URI https = URI.create("https://localhost:9000");
+    builder(HttpTransport.APACHE).endpointOverride(http).build().close();
+    builder(HttpTransport.APACHE).endpointOverride(https).socketReceiveBufferBytes(1024 * 1024).build().close();
+    assertThrows(IllegalArgumentException.class,
+        () -> builder(HttpTransport.APACHE).endpointOverride(http).socketSendBufferBytes(1024 * 1024).build());
+  }
+
+  @Test
+  public void testMaxConnections() {
+    assertThrows(IllegalArgumentException.class, () -> builder(HttpTransport.APACHE).maxConnections(0).build());
+  }
+
+  @Test
+  public void testBufferedSocketFactory() throws Exception {
+    try (Socket socket = new BufferedSocketFactory(64 * 1024, 32 * 1024).createSocket(null)) {
+      // the operating system may round the sizes up
+      assertTrue(socket.getReceiveBufferSize() >= 64 * 1024);
+      assertTrue(socket.getSendBufferSize() >= 32 * 1024);
+    }
+  }
+}
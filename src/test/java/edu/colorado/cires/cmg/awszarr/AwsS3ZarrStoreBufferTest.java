@@ -0,0 +1,92 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.ZARR_DIR;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.bytes;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.countingS3;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.storeWith;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AwsS3ZarrStoreBufferTest {
+
+  private CountingS3ClientWrapper s3;
+  private AwsS3ZarrStore store;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    createTestGeoStore();
+    s3 = countingS3();
+    store = storeWith(s3, builder -> { });
+  }
+
+  @Test
+  public void testGetBufferFromPool() throws Exception {
+    byte[] expected = Files.readAllBytes(ZARR_DIR.resolve("data/0.0"));
+    ByteBufferPool pool = ByteBufferPool.builder().direct(true).build();
+
+    ByteBuffer buffer = store.getBuffer("data/0.0", pool);
+    assertTrue(buffer.isDirect());
+    assertEquals(0, buffer.position());
+    assertArrayEquals(expected, bytes(buffer));
+    pool.release(buffer);
+
+    // the released buffer is reused
+    assertSame(buffer, store.getBuffer("data/1.0", pool));
+    assertArrayEquals(Files.readAllBytes(ZARR_DIR.resolve("data/1.0")), bytes(buffer));
+
+    assertNull(store.getBuffer("data/999.0", pool));
+  }
+
+  @Test
+  public void testReadIntoBuffer() throws Exception {
+    byte[] expected = Files.readAllBytes(ZARR_DIR.resolve("data/0.0"));
+    ByteBuffer buffer = ByteBuffer.allocate(expected.length + 10);
+    buffer.position(10);
+
+    assertEquals(expected.length, store.read("data/0.0", buffer));
+    assertEquals(expected.length + 10, buffer.position());
+    buffer.position(10);
+    assertArrayEquals(expected, bytes(buffer));
+
+    assertEquals(-1, store.read("data/999.0", ByteBuffer.allocate(10)));
+    assertThrows(BufferOverflowException.class, () -> store.read("data/0.0", ByteBuffer.allocate(expected.length - 1)));
+  }
+
+  @Test
+  public void testPutBufferSingleRequest() throws Exception {
+    ByteBuffer contents = ByteBuffer.allocateDirect(1000);
+    new Random(1).ints(1000).forEach(i -> contents.put((byte) i));
+    contents.flip();
+
+    store.putBuffer("data/0.0", contents);
+
+    assertEquals(0, contents.position());
+    assertEquals(1, s3.puts.size());
+    assertEquals(0, s3.uploads.size());
+    assertArrayEquals(bytes(contents), Files.readAllBytes(ZARR_DIR.resolve("data/0.0")));
+  }
+
+  @Test
+  public void testPutBufferInParts() throws Exception {
+    byte[] expected = new byte[12 * 1024 * 1024];
+    new Random(1).nextBytes(expected);
+
+    store.putBuffer("data/0.0", ByteBuffer.wrap(expected));
+
+    assertEquals(0, s3.puts.size());
+    assertEquals(1, s3.uploads.size());
+    assertArrayEquals(expected, Files.readAllBytes(ZARR_DIR.resolve("data/0.0")));
+  }
+}
@@ -0,0 +1,143 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.BUCKET;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.MOCK_BUCKETS_DIR;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.ZARR_DIR;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.ZARR_KEY;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.countingS3;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.storeWith;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.bc.zarr.ZarrArray;
+import com.bc.zarr.ZarrGroup;
+import edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.TestData;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class AwsS3ZarrStoreChunkIndexTest {
+
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+
+  @ParameterizedTest
+  @ValueSource(strings = {"test-zarr/geo-data.zarr", ""})
+  public void testMissingChunkDoesNotGet(String zarrKey) throws Exception {
+    createTestGeoStore(BUCKET_DIR, zarrKey);
+
+    CountingS3ClientWrapper s3 = countingS3();
+    AwsS3ZarrStore store = storeWith(s3, builder -> builder.key(zarrKey).chunkIndex(true));
+
+    assertNull(store.getInputStream("subGroup1/subGroup1Array1/0"));
+    assertNull(store.getInputStream("subGroup1/subGroup1Array1/1"));
+    assertFalse(s3.gets.stream().anyMatch(key -> key.endsWith("subGroup1Array1/0") || key.endsWith("subGroup1Array1/1")));
+    assertEquals(1, s3.listings.size());
+
+    try (InputStream inputStream = store.getInputStream("time/0")) {
+      assertNotNull(inputStream);
+    }
+  }
+
+  @Test
+  public void testWriteAndDeleteUpdateIndex() throws Exception {
+    createTestGeoStore();
+
+    CountingS3ClientWrapper s3 = countingS3();
+    AwsS3ZarrStore store = storeWith(s3, builder -> builder.chunkIndex(true));
+
+    assertNull(store.getInputStream("subGroup2/subGroup2Array1/1"));
+
+    write(store, "subGroup2/subGroup2Array1/1", new byte[20]);
+    try (InputStream inputStream = store.getInputStream("subGroup2/subGroup2Array1/1")) {
+      assertNotNull(inputStream);
+    }
+
+    store.delete("subGroup2/subGroup2Array1/1");
+    s3.gets.clear();
+    assertNull(store.getInputStream("subGroup2/subGroup2Array1/1"));
+    assertTrue(s3.gets.isEmpty());
+    assertEquals(1, s3.listings.size());
+  }
+
+  @Test
+  public void testSidecar() throws Exception {
+    createTestGeoStore();
+
+    AwsS3ZarrStore store = storeWith(countingS3(), builder -> builder.chunkIndex(true).chunkIndexSidecar(true));
+
+    write(store, "subGroup2/subGroup2Array2/0", new byte[20]);
+    store.flush();
+
+    assertTrue(Files.isRegularFile(ZARR_DIR.resolve("subGroup2/subGroup2Array2").resolve(ChunkExistenceIndex.SIDECAR_NAME)));
+
+    CountingS3ClientWrapper s3 = countingS3();
+    store = storeWith(s3, builder -> builder.chunkIndex(true).chunkIndexSidecar(true));
+
+    try (InputStream inputStream = store.getInputStream("subGroup2/subGroup2Array2/0")) {
+      assertNotNull(inputStream);
+    }
+    assertNull(store.getInputStream("subGroup2/subGroup2Array2/1"));
+    assertTrue(s3.listings.isEmpty());
+  }
+
+  @Test
+  public void testUnflushedWriteInvalidatesSidecar() throws Exception {
+    createTestGeoStore();
+    AwsS3ZarrStore.Builder builder = AwsS3ZarrStore.builder()
+        .s3(countingS3())
+        .bucket(BUCKET)
+        .key(ZARR_KEY)
+        .manifest(true)
+        .chunkIndex(true)
+        .chunkIndexSidecar(true);
+
+    AwsS3ZarrStore store = builder.build();
+    assertNull(store.getInputStream("subGroup2/subGroup2Array2/1"));
+    store.flush();
+    Path sidecar = ZARR_DIR.resolve("subGroup2/subGroup2Array2").resolve(ChunkExistenceIndex.SIDECAR_NAME);
+    assertTrue(Files.isRegularFile(sidecar));
+    // the manifest records the sidecar
+    assertTrue(builder.build().getRelativeLeafKeys("subGroup2/subGroup2Array2").collect(Collectors.toList())
+        .contains(ChunkExistenceIndex.SIDECAR_NAME));
+
+    store = builder.build();
+    write(store, "subGroup2/subGroup2Array2/1", new byte[20]);
+    // the writer never flushes
+    assertFalse(Files.exists(sidecar));
+
+    try (InputStream inputStream = builder.build().getInputStream("subGroup2/subGroup2Array2/1")) {
+      assertNotNull(inputStream);
+    }
+  }
+
+  @Test
+  public void testReadUsage() throws Exception {
+    TestData expectedData = createTestGeoStore();
+
+    AwsS3ZarrStore store = storeWith(countingS3(), builder -> builder.chunkIndex(true));
+
+    ZarrGroup root = ZarrGroup.open(store);
+    TestData readData = new TestData(
+        (long[]) root.openArray("longitude").read(),
+        (long[]) root.openArray("latitude").read(),
+        (long[]) root.openArray("time").read(),
+        (int[]) root.openArray("data").read()
+    );
+    assertEquals(expectedData, readData);
+
+    ZarrArray array = ZarrGroup.open(store).openArray("subGroup1/subGroup1Array1");
+    int[] fill = new int[10];
+    Arrays.fill(fill, 11);
+    assertEquals(Arrays.toString(fill), Arrays.toString((int[]) array.read()));
+  }
+}
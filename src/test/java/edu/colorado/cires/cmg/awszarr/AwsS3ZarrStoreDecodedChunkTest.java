@@ -0,0 +1,163 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.MOCK_BUCKETS_DIR;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.countingS3;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.storeWith;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.write;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.CompressorFactory;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+import com.bc.zarr.ZarrGroup;
+import edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.TestData;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AwsS3ZarrStoreDecodedChunkTest {
+
+  private TestData expectedData;
+  private CountingS3ClientWrapper s3;
+  private AwsS3ZarrStore store;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    expectedData = createTestGeoStore();
+    s3 = countingS3();
+    store = storeWith(s3, builder -> builder.decodedCacheMb(16).decodeAheadDepth(4).decodeThreads(2));
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    store.close();
+  }
+
+  @Test
+  public void testUncompressedChunk() throws Exception {
+    ByteBuffer chunk = store.getDecodedChunk("longitude/3");
+
+    assertEquals(10 * Long.BYTES, chunk.remaining());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(expectedData.longitude[30 + i], chunk.getLong(i * Long.BYTES));
+    }
+  }
+
+  @Test
+  public void testCompressedChunk() throws Exception {
+    int[] values = IntStream.range(0, 100).map(i -> i * 7).toArray();
+    ZarrArray array = ZarrGroup.open(store).createArray("compressed",
+        new ArrayParams().shape(100).chunks(25).dataType(DataType.i4).compressor(CompressorFactory.create("zlib", "level", 1)));
+    array.write(values, new int[]{100}, new int[]{0});
+
+    ByteBuffer chunk = store.getDecodedChunk("compressed/2");
+
+    int[] decoded = new int[25];
+    chunk.asIntBuffer().get(decoded);
+    assertArrayEquals(IntStream.range(50, 75).map(i -> i * 7).toArray(), decoded);
+  }
+
+  @Test
+  public void testCachedAndDecodedAhead() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      ByteBuffer chunk = store.getDecodedChunk("longitude/" + i);
+      assertEquals(expectedData.longitude[i * 10], chunk.getLong(0));
+    }
+    assertEquals(expectedData.longitude[0], store.getDecodedChunk("longitude/0").getLong(0));
+
+    // every chunk is fetched once, whether it was decoded on demand or ahead, and then read from the cache
+    assertEquals(s3.gets.stream().distinct().count(), s3.gets.size());
+  }
+
+  @Test
+  public void testWriteInvalidatesDecodedChunk() throws Exception {
+    assertEquals(expectedData.time[0], store.getDecodedChunk("time/0").getLong(0));
+
+    ZarrArray time = ZarrGroup.open(store).openArray("time");
+    time.write(new long[]{-1L}, new int[]{1}, new int[]{0});
+
+    assertEquals(-1L, store.getDecodedChunk("time/0").getLong(0));
+  }
+
+  @Test
+  public void testWriteToAnotherChunkDuringDecode() throws Exception {
+    CountDownLatch fetching = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    S3ClientWrapper files = FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    CountingS3ClientWrapper blocking = new CountingS3ClientWrapper(files) {
+      @Override
+      public Optional<InputStream> getObject(String bucket, String key) {
+        if (key.endsWith("/longitude/0") && fetching.getCount() > 0) {
+          fetching.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        return super.getObject(bucket, key);
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    AwsS3ZarrStore decodingStore = storeWith(blocking, builder -> builder.decodedCacheMb(16));
+    try {
+      Future<ByteBuffer> decode = executor.submit(() -> decodingStore.getDecodedChunk("longitude/0"));
+      assertTrue(fetching.await(10, TimeUnit.SECONDS));
+      ZarrGroup.open(decodingStore).openArray("time").write(new long[]{-1L}, new int[]{1}, new int[]{0});
+      release.countDown();
+      assertEquals(expectedData.longitude[0], decode.get(10, TimeUnit.SECONDS).getLong(0));
+
+      // the write to another chunk did not keep the decoded chunk out of the cache
+      assertEquals(expectedData.longitude[0], decodingStore.getDecodedChunk("longitude/0").getLong(0));
+      assertEquals(1, blocking.gets.stream().filter(key -> key.endsWith("/longitude/0")).count());
+    } finally {
+      executor.shutdownNow();
+      decodingStore.close();
+    }
+  }
+
+  @Test
+  public void testMissingChunk() throws Exception {
+    ZarrGroup.open(store).createArray("empty", new ArrayParams().shape(10).chunks(5).dataType(DataType.i4));
+
+    assertNull(store.getDecodedChunk("empty/1"));
+    assertNull(store.getDecodedChunk("empty/1"));
+    assertThrows(IllegalArgumentException.class, () -> store.getDecodedChunk("empty/.zarray"));
+
+    // missing chunks are not cached, so they are looked up each time
+    assertEquals(2, s3.gets.stream().filter(key -> key.endsWith("/empty/1")).count());
+  }
+
+  @Test
+  public void testUnsupportedLayouts() throws Exception {
+    writeZarray("fortran", "null", "F");
+    writeZarray("filtered", "[{\"id\": \"delta\", \"dtype\": \"<i4\"}]", "C");
+    for (String array : new String[]{"fortran", "filtered"}) {
+      write(store, array + "/0", new byte[20]);
+      assertThrows(IOException.class, () -> store.getDecodedChunk(array + "/0"));
+    }
+  }
+
+  private void writeZarray(String array, String filters, String order) throws Exception {
+    String zarray = "{\"chunks\": [5], \"compressor\": null, \"dtype\": \"<i4\", \"fill_value\": 0, \"filters\": " + filters
+        + ", \"order\": \"" + order + "\", \"shape\": [10], \"zarr_format\": 2}";
+    write(store, array + "/.zarray", zarray.getBytes(StandardCharsets.UTF_8));
+  }
+}
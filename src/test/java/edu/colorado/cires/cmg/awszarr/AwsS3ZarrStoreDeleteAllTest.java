@@ -0,0 +1,41 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.ZARR_DIR;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.countingS3;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.storeWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class AwsS3ZarrStoreDeleteAllTest {
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  public void testDeleteAll(boolean virtualThreads) throws Exception {
+    createTestGeoStore();
+
+    long expectedCount;
+    try (Stream<Path> files = Files.walk(ZARR_DIR.resolve("data"))) {
+      expectedCount = files.filter(Files::isRegularFile).count();
+    }
+
+    CountingS3ClientWrapper s3 = countingS3();
+    AwsS3ZarrStore store = storeWith(s3, builder -> builder.ioConcurrency(4).virtualThreads(virtualThreads).chunkIndex(true));
+
+    assertEquals(expectedCount, store.deleteAll("data"));
+    assertEquals(expectedCount, s3.deletes.size());
+    assertFalse(Files.exists(ZARR_DIR.resolve("data/.zarray")));
+    assertTrue(Files.exists(ZARR_DIR.resolve("time/.zarray")));
+    assertNull(store.getInputStream("data/0.0"));
+
+    assertEquals(0, store.deleteAll("data"));
+  }
+}
@@ -0,0 +1,87 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.ZARR_DIR;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.countingS3;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.storeWith;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.CompressorFactory;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+import com.bc.zarr.ZarrGroup;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AwsS3ZarrStoreFillChunkTest {
+
+  private CountingS3ClientWrapper s3;
+  private AwsS3ZarrStore store;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    createTestGeoStore();
+    s3 = countingS3();
+    store = storeWith(s3, builder -> builder.skipFillChunks(true));
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    store.close();
+  }
+
+  private void testFillChunkIsNotUploaded(String compressor) throws Exception {
+    ZarrArray array = ZarrGroup.open(store).createArray(compressor,
+        new ArrayParams().shape(100).chunks(25).dataType(DataType.i4).fillValue(-1).compressor(CompressorFactory.create(compressor)));
+    int[] values = IntStream.range(0, 100).map(i -> i >= 25 && i < 50 ? -1 : i).toArray();
+    array.write(values, new int[]{100}, new int[]{0});
+
+    assertEquals(1, store.getFillWrites());
+    assertTrue(Files.exists(ZARR_DIR.resolve(compressor).resolve("0")));
+    assertFalse(Files.exists(ZARR_DIR.resolve(compressor).resolve("1")));
+    assertTrue(Files.exists(ZARR_DIR.resolve(compressor).resolve("2")));
+
+    int[] read = (int[]) array.read();
+    assertArrayEquals(values, read);
+  }
+
+  @Test
+  public void testCompressedFillChunkIsNotUploaded() throws Exception {
+    testFillChunkIsNotUploaded("zlib");
+  }
+
+  @Test
+  public void testUncompressedFillChunkIsNotUploaded() throws Exception {
+    testFillChunkIsNotUploaded("null");
+  }
+
+  @Test
+  public void testFillChunkReplacesExistingChunk() throws Exception {
+    ZarrGroup.open(store).createArray("replaced",
+        new ArrayParams().shape(100).chunks(25).dataType(DataType.i4).byteOrder(ByteOrder.BIG_ENDIAN).fillValue(7)
+            .compressor(CompressorFactory.create("null")));
+    int[] fill = new int[25];
+    Arrays.fill(fill, 7);
+    ByteBuffer contents = ByteBuffer.allocate(25 * Integer.BYTES).order(ByteOrder.BIG_ENDIAN);
+    contents.asIntBuffer().put(IntStream.range(0, 25).toArray());
+    store.putBuffer("replaced/0", contents);
+    assertTrue(Files.exists(ZARR_DIR.resolve("replaced/0")));
+
+    contents.clear();
+    contents.asIntBuffer().put(fill);
+    store.putBuffer("replaced/0", contents);
+
+    assertEquals(1, store.getFillWrites());
+    assertFalse(Files.exists(ZARR_DIR.resolve("replaced/0")));
+  }
+}
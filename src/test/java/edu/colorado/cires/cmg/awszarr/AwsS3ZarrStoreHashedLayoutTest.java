@@ -0,0 +1,88 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.bc.zarr.ZarrGroup;
+import edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.TestData;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class AwsS3ZarrStoreHashedLayoutTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final String EXPECTED_BUCKET = "my-expected-bucket";
+  private static final String ZARR_KEY = "test-zarr/geo-data.zarr";
+  private static final Path ZARR_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET).resolve(ZARR_KEY);
+
+  @Test
+  public void testKeyLayout() {
+    String physical = KeyLayout.HASHED.toPhysical("data/0.0");
+    assertTrue(physical.matches("\\.zh[0-9a-f]{2}/data/0\\.0"));
+    assertEquals("data/0.0", KeyLayout.HASHED.toLogical(physical));
+    assertEquals("data/.zarray", KeyLayout.HASHED.toPhysical("data/.zarray"));
+    assertEquals("data/.zarray", KeyLayout.HASHED.toLogical("data/.zarray"));
+    assertEquals("data/0.0", KeyLayout.FLAT.toPhysical("data/0.0"));
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  public void testHashedLayout(boolean manifest) throws Exception {
+    FileUtils.deleteQuietly(MOCK_BUCKETS_DIR.resolve(BUCKET).toFile());
+    TestData expectedData = createTestGeoStore(MOCK_BUCKETS_DIR.resolve(EXPECTED_BUCKET), ZARR_KEY);
+    S3ClientWrapper s3 = FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    AwsS3ZarrStore store = AwsS3ZarrStore.builder()
+        .s3(s3)
+        .bucket(BUCKET)
+        .key(ZARR_KEY)
+        .hashedChunkLayout(true)
+        .manifest(manifest)
+        .build();
+    assertEquals(expectedData, createTestGeoStore(store));
+    store.flush();
+
+    assertTrue(Files.exists(ZARR_DIR.resolve("data/.zarray")));
+    assertFalse(Files.exists(ZARR_DIR.resolve("data/0.0")));
+    assertTrue(Files.exists(ZARR_DIR.resolve(KeyLayout.HASHED.toPhysical("data/0.0"))));
+    List<Path> hashDirs;
+    try (Stream<Path> files = Files.list(ZARR_DIR)) {
+      hashDirs = files.filter(path -> path.getFileName().toString().startsWith(KeyLayout.HASH_DIR_PREFIX)).collect(Collectors.toList());
+    }
+    assertTrue(hashDirs.size() > 1);
+
+    AwsS3ZarrStore expectedStore = AwsS3ZarrStore.builder().s3(s3).bucket(EXPECTED_BUCKET).key(ZARR_KEY).build();
+    store = AwsS3ZarrStore.builder()
+        .s3(s3)
+        .bucket(BUCKET)
+        .key(ZARR_KEY)
+        .hashedChunkLayout(true)
+        .manifest(manifest)
+        .build();
+    assertEquals(expectedStore.getArrayKeys(), store.getArrayKeys());
+    assertEquals(expectedStore.getGroupKeys(), store.getGroupKeys());
+    assertEquals(
+        expectedStore.getRelativeLeafKeys("data").collect(Collectors.toList()),
+        store.getRelativeLeafKeys("data").collect(Collectors.toList()));
+
+    ZarrGroup root = ZarrGroup.open(store);
+    TestData readData = new TestData(
+        (long[]) root.openArray("longitude").read(),
+        (long[]) root.openArray("latitude").read(),
+        (long[]) root.openArray("time").read(),
+        (int[]) root.openArray("data").read()
+    );
+    assertEquals(expectedData, readData);
+  }
+}
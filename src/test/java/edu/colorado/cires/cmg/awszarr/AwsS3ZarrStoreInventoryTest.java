@@ -0,0 +1,162 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+import com.bc.zarr.ZarrGroup;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AwsS3ZarrStoreInventoryTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final String INVENTORY_BUCKET = "my-inventory-bucket";
+  private static final String ZARR_KEY = "test-zarr/geo-data.zarr";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+  private static final Path INVENTORY_DIR = MOCK_BUCKETS_DIR.resolve(INVENTORY_BUCKET);
+  private static final String CONFIGURATION = "inventory/" + BUCKET + "/daily";
+
+  private S3ClientWrapper mock;
+  private AwsS3ZarrStore listingStore;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    createTestGeoStore(BUCKET_DIR, ZARR_KEY);
+    FileUtils.deleteQuietly(INVENTORY_DIR.toFile());
+    mock = FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    listingStore = AwsS3ZarrStore.builder()
+        .s3(mock)
+        .bucket(BUCKET)
+        .key(ZARR_KEY)
+        .build();
+  }
+
+  private static void writeReport(String report, String sourceBucket) throws IOException {
+    Path dataFile = INVENTORY_DIR.resolve(CONFIGURATION).resolve("data/" + report + ".csv.gz");
+    Files.createDirectories(dataFile.getParent());
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(BUCKET_DIR)) {
+      files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+    try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(dataFile)), StandardCharsets.UTF_8)) {
+      for (Path file : files) {
+        String key = BUCKET_DIR.relativize(file).toString().replace('\\', '/');
+        writer.write("\"" + BUCKET + "\",\"" + URLEncoder.encode(key, "UTF-8") + "\",\"" + Files.size(file) + "\"\n");
+      }
+    }
+    Path manifest = INVENTORY_DIR.resolve(CONFIGURATION).resolve(report).resolve(InventoryReport.MANIFEST_NAME);
+    Files.createDirectories(manifest.getParent());
+    String json = "{\"sourceBucket\":\"" + sourceBucket + "\","
+        + "\"destinationBucket\":\"arn:aws:s3:::" + INVENTORY_BUCKET + "\","
+        + "\"fileFormat\":\"CSV\","
+        + "\"fileSchema\":\"Bucket, Key, Size\","
+        + "\"files\":[{\"key\":\"" + CONFIGURATION + "/data/" + report + ".csv.gz\"}]}";
+    Files.write(manifest, json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private AwsS3ZarrStore inventoryStore(S3ClientWrapper s3) {
+    return AwsS3ZarrStore.builder()
+        .s3(s3)
+        .bucket(BUCKET)
+        .key(ZARR_KEY)
+        .inventory(INVENTORY_BUCKET, CONFIGURATION)
+        .build();
+  }
+
+  @Test
+  public void testIndexFromInventory() throws Exception {
+    writeReport("2026-10-18T00-00Z", BUCKET);
+    CountingS3ClientWrapper s3 = new CountingS3ClientWrapper(mock);
+    AwsS3ZarrStore store = inventoryStore(s3);
+
+    assertEquals(listingStore.getArrayKeys(), store.getArrayKeys());
+    assertEquals(listingStore.getGroupKeys(), store.getGroupKeys());
+    assertEquals(
+        listingStore.getRelativeLeafKeys("data").collect(Collectors.toList()),
+        store.getRelativeLeafKeys("data").collect(Collectors.toList()));
+    // only the root group is listed, not the chunks of its arrays
+    assertTrue(s3.listings.stream().noneMatch(prefix -> prefix.startsWith(ZARR_KEY + "/data")));
+  }
+
+  @Test
+  public void testChangesSinceReportAreReconciled() throws Exception {
+    writeReport("2026-10-17T00-00Z", "some-other-bucket");
+    writeReport("2026-10-18T00-00Z", BUCKET);
+    FileUtils.deleteDirectory(BUCKET_DIR.resolve(ZARR_KEY).resolve("time").toFile());
+    ZarrArray extra = ZarrGroup.open(listingStore).createArray("extra", new ArrayParams().shape(10).chunks(5).dataType(DataType.i4));
+    extra.write(new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, new int[]{10}, new int[]{0});
+
+    CountingS3ClientWrapper s3 = new CountingS3ClientWrapper(mock);
+    AwsS3ZarrStore store = inventoryStore(s3);
+
+    assertEquals(listingStore.getArrayKeys(), store.getArrayKeys());
+    assertFalse(store.getArrayKeys().contains("time"));
+    assertEquals(
+        listingStore.getRelativeLeafKeys("extra").collect(Collectors.toList()),
+        store.getRelativeLeafKeys("extra").collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testChunkIndexSeesChunksWrittenSinceReport() throws Exception {
+    Path chunk = BUCKET_DIR.resolve(ZARR_KEY).resolve("data/0.0");
+    byte[] contents = Files.readAllBytes(chunk);
+    Files.delete(chunk);
+    writeReport("2026-10-18T00-00Z", BUCKET);
+    Files.write(chunk, contents);
+
+    AwsS3ZarrStore store = AwsS3ZarrStore.builder()
+        .s3(mock)
+        .bucket(BUCKET)
+        .key(ZARR_KEY)
+        .inventory(INVENTORY_BUCKET, CONFIGURATION)
+        .chunkIndex(true)
+        .build();
+    try (InputStream inputStream = store.getInputStream("data/0.0")) {
+      assertNotNull(inputStream);
+    }
+  }
+
+  @Test
+  public void testReportOfOtherBucket() throws Exception {
+    writeReport("2026-10-18T00-00Z", "some-other-bucket");
+
+    assertThrows(IOException.class, () -> inventoryStore(mock).getArrayKeys());
+  }
+
+  @Test
+  public void testManifestIsSaved() throws Exception {
+    writeReport("2026-10-18T00-00Z", BUCKET);
+    AwsS3ZarrStore store = inventoryStore(mock);
+    store.getArrayKeys();
+    store.flush();
+
+    // the saved manifest is used from now on, the report is not read again
+    FileUtils.deleteDirectory(INVENTORY_DIR.toFile());
+    CountingS3ClientWrapper s3 = new CountingS3ClientWrapper(mock);
+    assertEquals(listingStore.getArrayKeys(), inventoryStore(s3).getArrayKeys());
+    assertEquals(0, s3.listings.size());
+  }
+}
@@ -0,0 +1,101 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.bc.zarr.ZarrGroup;
+import edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.TestData;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class AwsS3ZarrStoreManifestTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+
+  private static AwsS3ZarrStore store(S3ClientWrapper s3, String zarrKey, boolean manifest) {
+    return AwsS3ZarrStore.builder()
+        .s3(s3)
+        .bucket(BUCKET)
+        .key(zarrKey)
+        .manifest(manifest)
+        .build();
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"test-zarr/geo-data.zarr", ""})
+  public void testManifest(String zarrKey) throws Exception {
+    TestData expectedData = createTestGeoStore(BUCKET_DIR, zarrKey);
+    S3ClientWrapper mock = FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    AwsS3ZarrStore listingStore = store(mock, zarrKey, false);
+
+    CountingS3ClientWrapper s3 = new CountingS3ClientWrapper(mock);
+    AwsS3ZarrStore store = store(s3, zarrKey, true);
+    assertEquals(listingStore.getArrayKeys(), store.getArrayKeys());
+    assertEquals(listingStore.getGroupKeys(), store.getGroupKeys());
+    assertEquals(listingStore.getKeysEndingWith(".zattrs"), store.getKeysEndingWith(".zattrs"));
+    assertEquals(
+        listingStore.getRelativeLeafKeys("data").collect(Collectors.toList()),
+        store.getRelativeLeafKeys("data").collect(Collectors.toList()));
+    assertEquals(1, s3.listings.size());
+
+    store.flush();
+    assertTrue(Files.exists(BUCKET_DIR.resolve(zarrKey).resolve(StoreManifest.MANIFEST_NAME)));
+
+    s3 = new CountingS3ClientWrapper(mock);
+    store = store(s3, zarrKey, true);
+    try (OutputStream outputStream = store.getOutputStream("data/extra/0")) {
+      outputStream.write("extra".getBytes(StandardCharsets.UTF_8));
+    }
+    store.delete("time/0");
+    List<String> dataKeys = store.getRelativeLeafKeys("data").collect(Collectors.toList());
+    assertTrue(dataKeys.contains("extra/0"));
+    assertFalse(store.getRelativeLeafKeys("time").collect(Collectors.toList()).contains("0"));
+    store.flush();
+    assertEquals(0, s3.listings.size());
+
+    s3 = new CountingS3ClientWrapper(mock);
+    store = store(s3, zarrKey, true);
+    assertEquals(dataKeys, store.getRelativeLeafKeys("data").collect(Collectors.toList()));
+    assertTrue(store.getKeysEndingWith(StoreManifest.MANIFEST_NAME).isEmpty());
+    assertEquals(0, s3.listings.size());
+
+    ZarrGroup root = ZarrGroup.open(store);
+    assertEquals(expectedData.longitude.length, ((long[]) root.openArray("longitude").read()).length);
+  }
+
+  @Test
+  public void testUnflushedChangesInvalidateManifest() throws Exception {
+    String zarrKey = "test-zarr/geo-data.zarr";
+    createTestGeoStore(BUCKET_DIR, zarrKey);
+    S3ClientWrapper mock = FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    AwsS3ZarrStore store = store(mock, zarrKey, true);
+    store.getArrayKeys();
+    store.flush();
+    Path manifest = BUCKET_DIR.resolve(zarrKey).resolve(StoreManifest.MANIFEST_NAME);
+    assertTrue(Files.exists(manifest));
+
+    store = store(mock, zarrKey, true);
+    try (OutputStream outputStream = store.getOutputStream("data/extra/0")) {
+      outputStream.write("extra".getBytes(StandardCharsets.UTF_8));
+    }
+    // the writer never flushes
+    assertFalse(Files.exists(manifest));
+
+    CountingS3ClientWrapper s3 = new CountingS3ClientWrapper(mock);
+    store = store(s3, zarrKey, true);
+    assertTrue(store.getRelativeLeafKeys("data").collect(Collectors.toList()).contains("extra/0"));
+    assertEquals(1, s3.listings.size());
+  }
+}
@@ -0,0 +1,64 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.ZARR_DIR;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.countingS3;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.read;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.storeWith;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class AwsS3ZarrStorePrefetchTest {
+
+  private CountingS3ClientWrapper s3;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    createTestGeoStore();
+    s3 = countingS3();
+  }
+
+  private AwsS3ZarrStore store() {
+    return storeWith(s3, builder -> builder.prefetchDepth(4));
+  }
+
+  private static void assertChunk(AwsS3ZarrStore store, String key) throws Exception {
+    assertArrayEquals(Files.readAllBytes(ZARR_DIR.resolve(key)), read(store, key));
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2})
+  public void testStridedReadsArePrefetched(int stride) throws Exception {
+    try (AwsS3ZarrStore store = store()) {
+      for (int i = 0; i < 20; i++) {
+        assertChunk(store, "longitude/" + (i * stride));
+      }
+
+      PrefetchStats stats = store.getPrefetchStats();
+      assertEquals(3, stats.getMisses());
+      assertEquals(17, stats.getHits());
+      assertEquals(21, stats.getIssued());
+      assertEquals(0, stats.getWasted());
+    }
+  }
+
+  @Test
+  public void testRandomReadsAreNotPrefetched() throws Exception {
+    try (AwsS3ZarrStore store = store()) {
+      for (int index : new int[]{5, 17, 3, 42, 8, 100}) {
+        assertChunk(store, "longitude/" + index);
+      }
+
+      PrefetchStats stats = store.getPrefetchStats();
+      assertEquals(0, stats.getIssued());
+      assertEquals(6, stats.getMisses());
+      assertEquals(6, s3.gets.size());
+    }
+  }
+}
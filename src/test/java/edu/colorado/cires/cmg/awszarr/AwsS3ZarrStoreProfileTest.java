@@ -0,0 +1,129 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+import com.bc.zarr.ZarrGroup;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AwsS3ZarrStoreProfileTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final String ZARR_KEY = "test-zarr/geo-data.zarr";
+
+  private AwsS3ZarrStore store;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    createTestGeoStore(MOCK_BUCKETS_DIR.resolve(BUCKET), ZARR_KEY);
+    store = newStore(true);
+  }
+
+  private static AwsS3ZarrStore newStore(boolean profileAccess) {
+    return AwsS3ZarrStore.builder()
+        .s3(FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).build())
+        .bucket(BUCKET)
+        .key(ZARR_KEY)
+        .profileAccess(profileAccess)
+        .build();
+  }
+
+  private ArrayAccessProfile profile(String arrayKey) throws Exception {
+    return store.getAccessProfiles().stream()
+        .filter(profile -> profile.getArrayKey().equals(arrayKey))
+        .findFirst()
+        .orElseThrow(IllegalStateException::new);
+  }
+
+  @Test
+  public void testWholeArrayReadsRecommendLargerChunks() throws Exception {
+    ZarrArray data = ZarrGroup.open(store).openArray("data");
+    for (int i = 0; i < 5; i++) {
+      data.read(new int[]{2000, 10}, new int[]{0, 0});
+      store.recordSelection("data", new int[]{2000, 10}, new int[]{0, 0});
+    }
+
+    List<ArrayAccessProfile> profiles = store.getAccessProfiles();
+    assertEquals(1, profiles.size());
+    ArrayAccessProfile profile = profiles.get(0);
+    assertEquals("data", profile.getArrayKey());
+    assertEquals(10, profile.getReads());
+    assertEquals(0, profile.getMissingReads());
+    assertEquals(10 * 1000 * 10 * 4, profile.getBytesRead());
+    assertEquals(profile.getBytesRead(), profile.getBytesUsed());
+    assertEquals(1D, profile.getReadAmplification(), 0.0001D);
+    assertArrayEquals(new long[]{5, 5}, profile.getHeatmap(0));
+    assertEquals(10 * ArrayAccessProfile.GET_REQUEST_COST, profile.getEstimatedRequestCost(), 1e-12);
+
+    // one chunk spanning the array reads each selection with one request
+    assertEquals(5, profile.getEstimatedReads(new int[]{2000, 10}));
+    assertArrayEquals(new int[]{2000, 10}, profile.getRecommendedChunks());
+    assertArrayEquals(new int[]{2, 1}, profile.getShardingFactor());
+  }
+
+  @Test
+  public void testPointReadsRecommendSmallerChunks() throws Exception {
+    ZarrArray longitude = ZarrGroup.open(store).openArray("longitude");
+    for (int i = 0; i < 20; i++) {
+      longitude.read(new int[]{1}, new int[]{i});
+      store.recordSelection("longitude", new int[]{1}, new int[]{i});
+    }
+
+    ArrayAccessProfile profile = profile("longitude");
+    assertEquals(20, profile.getReads());
+    assertEquals(20 * 10 * 8, profile.getBytesRead());
+    assertEquals(20 * 8, profile.getBytesUsed());
+    assertEquals(10D, profile.getReadAmplification(), 0.0001D);
+    Map<String, Long> hot = new LinkedHashMap<>();
+    hot.put("0", 10L);
+    hot.put("1", 10L);
+    assertEquals(hot, profile.getHotChunks(5));
+    assertEquals(10, profile.getChunkReads(new int[]{1}));
+    assertEquals(0, profile.getChunkReads(new int[]{2}));
+
+    assertArrayEquals(new int[]{1}, profile.getRecommendedChunks());
+    assertNull(profile.getShardingFactor());
+    assertEquals(20 * 8, profile.getEstimatedBytesRead(new int[]{1}));
+  }
+
+  @Test
+  public void testWritesAreProfiled() throws Exception {
+    ZarrArray extra = ZarrGroup.open(store).createArray("extra", new ArrayParams().shape(10).chunks(5).dataType(DataType.i4));
+    extra.write(new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, new int[]{10}, new int[]{0});
+
+    ArrayAccessProfile profile = profile("extra");
+    assertEquals(2, profile.getWrites());
+    assertTrue(profile.getBytesWritten() > 0);
+    // without selections the current chunks are kept
+    assertArrayEquals(new int[]{5}, profile.getRecommendedChunks());
+  }
+
+  @Test
+  public void testInvalidSelections() throws Exception {
+    assertThrows(IllegalArgumentException.class, () -> store.recordSelection("data", new int[]{1, 1}, new int[]{2000, 0}));
+    assertThrows(IllegalArgumentException.class, () -> store.recordSelection("data", new int[]{1}, new int[]{0}));
+    assertThrows(IllegalArgumentException.class, () -> store.recordSelection("subGroup1", new int[]{1}, new int[]{0}));
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    AwsS3ZarrStore store = newStore(false);
+    ZarrGroup.open(store).openArray("time").read();
+    store.recordSelection("time", new int[]{2000}, new int[]{0});
+    assertTrue(store.getAccessProfiles().isEmpty());
+  }
+}
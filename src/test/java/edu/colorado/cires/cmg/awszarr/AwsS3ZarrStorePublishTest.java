@@ -0,0 +1,144 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class AwsS3ZarrStorePublishTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final String ZARR_KEY = "test-zarr/geo-data.zarr";
+  private static final Path ZARR_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET).resolve(ZARR_KEY);
+
+  private AwsS3ZarrStore store;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    createTestGeoStore(MOCK_BUCKETS_DIR.resolve(BUCKET), ZARR_KEY);
+    store = AwsS3ZarrStore.builder()
+        .s3(FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).build())
+        .bucket(BUCKET)
+        .key(ZARR_KEY)
+        .ioConcurrency(4)
+        .build();
+  }
+
+  private static class CollectingSubscriber implements Subscriber<ChunkPayload> {
+
+    private final int batch;
+    private final int cancelAfter;
+    private final Map<String, ByteBuffer> payloads = new ConcurrentHashMap<>();
+    private final AtomicInteger received = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Subscription subscription;
+    private volatile Throwable error;
+
+    private CollectingSubscriber(int batch, int cancelAfter) {
+      this.batch = batch;
+      this.cancelAfter = cancelAfter;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(batch);
+    }
+
+    @Override
+    public void onNext(ChunkPayload payload) {
+      payloads.put(payload.getKey(), payload.getBuffer() == null ? ByteBuffer.allocate(0) : payload.getBuffer());
+      int count = received.incrementAndGet();
+      if (count == cancelAfter) {
+        subscription.cancel();
+        done.countDown();
+      } else if (count % batch == 0) {
+        subscription.request(batch);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      done.countDown();
+    }
+
+    private void await() throws InterruptedException {
+      assertTrue(done.await(30, TimeUnit.SECONDS));
+      assertNull(error);
+    }
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void testPublishAll() throws Exception {
+    List<String> expected;
+    try (Stream<Path> files = Files.walk(ZARR_DIR.resolve("longitude"))) {
+      expected = files.filter(Files::isRegularFile)
+          .map(path -> ZARR_DIR.relativize(path).toString().replace('\\', '/'))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+
+    CollectingSubscriber subscriber = new CollectingSubscriber(3, -1);
+    store.publishAll("longitude").subscribe(subscriber);
+    subscriber.await();
+
+    assertEquals(expected, subscriber.payloads.keySet().stream().sorted().collect(Collectors.toList()));
+    for (String key : expected) {
+      assertArrayEquals(Files.readAllBytes(ZARR_DIR.resolve(key)), bytes(subscriber.payloads.get(key)));
+    }
+  }
+
+  @Test
+  public void testPublishMissingKey() throws Exception {
+    CollectingSubscriber subscriber = new CollectingSubscriber(10, -1);
+    store.publish(Arrays.asList("time/0", "time/9999")).subscribe(subscriber);
+    subscriber.await();
+
+    assertEquals(2, subscriber.received.get());
+    assertArrayEquals(Files.readAllBytes(ZARR_DIR.resolve("time/0")), bytes(subscriber.payloads.get("time/0")));
+    assertEquals(0, subscriber.payloads.get("time/9999").remaining());
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    CollectingSubscriber subscriber = new CollectingSubscriber(2, 2);
+    store.publishAll("longitude").subscribe(subscriber);
+    subscriber.await();
+
+    // no more than the requested chunks are delivered
+    Thread.sleep(100);
+    assertEquals(2, subscriber.received.get());
+  }
+}
@@ -0,0 +1,73 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.MOCK_BUCKETS_DIR;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.ZARR_DIR;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.countingS3;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.storeWith;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.write;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AwsS3ZarrStoreSkipUnchangedTest {
+
+  private CountingS3ClientWrapper s3;
+  private AwsS3ZarrStore store;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    createTestGeoStore();
+    s3 = countingS3(true);
+    store = storeWith(s3, builder -> builder.skipUnchangedChunks(true));
+  }
+
+  @Test
+  public void testUnchangedChunkIsNotUploaded() throws Exception {
+    write(store, "data/0.0", Files.readAllBytes(ZARR_DIR.resolve("data/0.0")));
+    write(store, "data/1.0", Files.readAllBytes(ZARR_DIR.resolve("data/1.0")));
+
+    assertEquals(2, store.getSkippedWrites());
+    assertEquals(0, s3.uploads.size());
+    assertEquals(1, s3.listings.size());
+  }
+
+  @Test
+  public void testChangedChunkIsUploaded() throws Exception {
+    byte[] changed = Files.readAllBytes(ZARR_DIR.resolve("data/0.0"));
+    changed[0]++;
+
+    write(store, "data/0.0", changed);
+    assertEquals(0, store.getSkippedWrites());
+    assertEquals(1, s3.uploads.size());
+    assertArrayEquals(changed, Files.readAllBytes(ZARR_DIR.resolve("data/0.0")));
+
+    // the ETag of the upload is remembered
+    write(store, "data/0.0", changed);
+    assertEquals(1, store.getSkippedWrites());
+    assertEquals(1, s3.uploads.size());
+    assertEquals(1, s3.listings.size());
+  }
+
+  @Test
+  public void testMetadataIsAlwaysUploaded() throws Exception {
+    write(store, "data/.zattrs", Files.readAllBytes(ZARR_DIR.resolve("data/.zattrs")));
+
+    assertEquals(0, store.getSkippedWrites());
+    assertEquals(1, s3.uploads.size());
+  }
+
+  @Test
+  public void testFileS3ClientWrapperETags() throws Exception {
+    byte[] chunk = Files.readAllBytes(ZARR_DIR.resolve("data/0.0"));
+    for (boolean eTags : new boolean[]{false, true}) {
+      store = storeWith(FileS3ClientWrapper.builder().rootDir(MOCK_BUCKETS_DIR).eTags(eTags).build(),
+          builder -> builder.skipUnchangedChunks(true));
+      write(store, "data/0.0", chunk);
+      assertEquals(eTags ? 1 : 0, store.getSkippedWrites());
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.ZARR_DIR;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.ZARR_KEY;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.countingS3;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.read;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.storeWith;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.write;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AwsS3ZarrStoreWriteBackTest {
+
+  private CountingS3ClientWrapper s3;
+  private AwsS3ZarrStore store;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    createTestGeoStore();
+    s3 = countingS3();
+    store = storeWith(s3, builder -> builder.writeBackMb(1));
+  }
+
+  private static byte[] filled(int size, int value) {
+    byte[] bytes = new byte[size];
+    Arrays.fill(bytes, (byte) value);
+    return bytes;
+  }
+
+  @Test
+  public void testRepeatedWritesAreCombined() throws Exception {
+    byte[] original = Files.readAllBytes(ZARR_DIR.resolve("data/0.0"));
+    for (int i = 1; i <= 3; i++) {
+      write(store, "data/0.0", filled(100, i));
+      assertArrayEquals(filled(100, i), read(store, "data/0.0"));
+    }
+
+    assertEquals(0, s3.uploads.size() + s3.puts.size());
+    // only the array metadata is read
+    assertEquals(Arrays.asList(ZARR_KEY + "/data/.zarray"), s3.gets);
+    assertEquals(2, store.getCombinedWrites());
+    assertArrayEquals(original, Files.readAllBytes(ZARR_DIR.resolve("data/0.0")));
+
+    store.flush();
+    assertEquals(1, s3.uploads.size() + s3.puts.size());
+    assertArrayEquals(filled(100, 3), Files.readAllBytes(ZARR_DIR.resolve("data/0.0")));
+
+    // flushed chunks are read from S3
+    assertArrayEquals(filled(100, 3), read(store, "data/0.0"));
+    assertEquals(2, s3.gets.size());
+  }
+
+  @Test
+  public void testLeastRecentlyWrittenChunkIsEvicted() throws Exception {
+    write(store, "data/0.0", filled(600 * 1024, 1));
+    write(store, "data/1.0", filled(600 * 1024, 2));
+
+    assertEquals(1, s3.uploads.size() + s3.puts.size());
+    assertArrayEquals(filled(600 * 1024, 1), Files.readAllBytes(ZARR_DIR.resolve("data/0.0")));
+
+    store.close();
+    assertEquals(2, s3.uploads.size() + s3.puts.size());
+    assertArrayEquals(filled(600 * 1024, 2), Files.readAllBytes(ZARR_DIR.resolve("data/1.0")));
+  }
+
+  @Test
+  public void testMetadataIsWrittenImmediately() throws Exception {
+    write(store, "data/.zattrs", Files.readAllBytes(ZARR_DIR.resolve("data/.zattrs")));
+
+    assertEquals(1, s3.uploads.size() + s3.puts.size());
+  }
+
+  @Test
+  public void testDeleteDropsDirtyChunk() throws Exception {
+    write(store, "data/0.0", filled(100, 1));
+    store.delete("data/0.0");
+    store.flush();
+
+    assertEquals(0, s3.uploads.size() + s3.puts.size());
+    assertFalse(Files.exists(ZARR_DIR.resolve("data/0.0")));
+  }
+}
@@ -0,0 +1,89 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+
+/**
+ * A {@link S3ClientWrapper} that records the keys requested from another {@link S3ClientWrapper}.
+ */
+public class CountingS3ClientWrapper implements S3ClientWrapper {
+
+  private final S3ClientWrapper delegate;
+  public final List<String> gets = Collections.synchronizedList(new ArrayList<>());
+  public final List<String> listings = Collections.synchronizedList(new ArrayList<>());
+  public final List<String> uploads = Collections.synchronizedList(new ArrayList<>());
+  public final List<String> deletes = Collections.synchronizedList(new ArrayList<>());
+  public final List<String> copies = Collections.synchronizedList(new ArrayList<>());
+  public final List<String> puts = Collections.synchronizedList(new ArrayList<>());
+
+  public CountingS3ClientWrapper(S3ClientWrapper delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Optional<InputStream> getObject(String bucket, String key) {
+    gets.add(key);
+    return delegate.getObject(bucket, key);
+  }
+
+  @Override
+  public void putObject(String bucket, String key, ByteBuffer contents) {
+    puts.add(key);
+    delegate.putObject(bucket, key, contents);
+  }
+
+  @Override
+  public void deleteObject(String bucket, String key) {
+    deletes.add(key);
+    delegate.deleteObject(bucket, key);
+  }
+
+  @Override
+  public void copyObject(String sourceBucket, String sourceKey, String destinationBucket, String destinationKey) {
+    copies.add(sourceKey);
+    delegate.copyObject(sourceBucket, sourceKey, destinationBucket, destinationKey);
+  }
+
+  @Override
+  public CompletedPart uploadPartCopy(
+      String sourceBucket, String sourceKey, long firstByte, long lastByte,
+      String destinationBucket, String destinationKey, String uploadId, int partNumber) {
+    copies.add(sourceKey);
+    return delegate.uploadPartCopy(sourceBucket, sourceKey, firstByte, lastByte, destinationBucket, destinationKey, uploadId, partNumber);
+  }
+
+  @Override
+  public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix) {
+    listings.add(prefix);
+    return delegate.listObjectsV2Paginator(bucket, prefix);
+  }
+
+  @Override
+  public String createMultipartUpload(String bucket, String key) {
+    uploads.add(key);
+    return delegate.createMultipartUpload(bucket, key);
+  }
+
+  @Override
+  public CompletedPart uploadPart(String bucket, String key, String uploadId, int partNumber, ByteBuffer buffer) {
+    return delegate.uploadPart(bucket, key, uploadId, partNumber, buffer);
+  }
+
+  @Override
+  public void completeMultipartUpload(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts) {
+    delegate.completeMultipartUpload(bucket, key, uploadId, completedParts);
+  }
+
+  @Override
+  public void abortMultipartUpload(String bucket, String key, String uploadId) {
+    delegate.abortMultipartUpload(bucket, key, uploadId);
+  }
+}
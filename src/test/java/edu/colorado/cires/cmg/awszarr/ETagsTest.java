@@ -0,0 +1,36 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import org.junit.jupiter.api.Test;
+
+public class ETagsTest {
+
+  private static final byte[] BYTES = "hello world".getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void testSinglePart() {
+    assertTrue(ETags.matches("\"5eb63bbbe01eeed093cb22bb8f5acdc3\"", BYTES, BYTES.length, 5));
+    assertTrue(ETags.matches("5eb63bbbe01eeed093cb22bb8f5acdc3", BYTES, BYTES.length, 5));
+    assertFalse(ETags.matches("\"5eb63bbbe01eeed093cb22bb8f5acdc3\"", BYTES, BYTES.length - 1, 5));
+    assertFalse(ETags.matches(null, BYTES, BYTES.length, 5));
+  }
+
+  @Test
+  public void testMultipart() {
+    MessageDigest combined = ETags.md5();
+    for (int offset = 0; offset < BYTES.length; offset += 5) {
+      MessageDigest part = ETags.md5();
+      part.update(BYTES, offset, Math.min(5, BYTES.length - offset));
+      combined.update(part.digest());
+    }
+    String eTag = "\"" + ETags.hex(combined.digest()) + "-3\"";
+
+    assertTrue(ETags.matches(eTag, BYTES, BYTES.length, 5));
+    assertFalse(ETags.matches(eTag, BYTES, BYTES.length, 6));
+    assertFalse(ETags.matches(eTag.replace("-3", "-2"), BYTES, BYTES.length, 5));
+  }
+}
@@ -0,0 +1,152 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.bc.zarr.ZarrGroup;
+import edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.TestData;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+public class FileS3ClientWrapperTest {
+
+  private static final Path ROOT_DIR = Paths.get("target/file-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final String ZARR_KEY = "test-zarr/geo-data.zarr";
+  private static final Path BUCKET_DIR = ROOT_DIR.resolve(BUCKET);
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(ROOT_DIR.toFile());
+    Files.createDirectories(BUCKET_DIR);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 65536})
+  public void testGetObject(int mmapThresholdBytes) throws Exception {
+    createTestGeoStore(BUCKET_DIR, ZARR_KEY);
+    S3ClientWrapper s3 = FileS3ClientWrapper.builder().rootDir(ROOT_DIR).mmapThresholdBytes(mmapThresholdBytes).build();
+
+    byte[] expected = Files.readAllBytes(BUCKET_DIR.resolve(ZARR_KEY).resolve("data/0.0"));
+
+    try (InputStream inputStream = s3.getObject(BUCKET, ZARR_KEY + "/data/0.0").get()) {
+      assertArrayEquals(expected, IOUtils.toByteArray(inputStream));
+    }
+
+    ByteBuffer buffer = s3.getObjectBuffer(BUCKET, ZARR_KEY + "/data/0.0").get();
+    byte[] actual = new byte[buffer.remaining()];
+    buffer.get(actual);
+    assertArrayEquals(expected, actual);
+
+    assertFalse(s3.getObject(BUCKET, ZARR_KEY + "/.foo").isPresent());
+    assertFalse(s3.getObjectBuffer(BUCKET, ZARR_KEY + "/.foo").isPresent());
+  }
+
+  @Test
+  public void testOutOfOrderParts() throws Exception {
+    S3ClientWrapper s3 = FileS3ClientWrapper.builder().rootDir(ROOT_DIR).build();
+
+    String key = "foo/bar.txt";
+    String uploadId = s3.createMultipartUpload(BUCKET, key);
+    CompletedPart part2 = s3.uploadPart(BUCKET, key, uploadId, 2, ByteBuffer.wrap("world".getBytes(StandardCharsets.UTF_8)));
+    CompletedPart part1 = s3.uploadPart(BUCKET, key, uploadId, 1, ByteBuffer.wrap("hello ".getBytes(StandardCharsets.UTF_8)));
+    s3.completeMultipartUpload(BUCKET, key, uploadId, Arrays.asList(part2, part1));
+
+    assertEquals("hello world", new String(Files.readAllBytes(BUCKET_DIR.resolve(key)), StandardCharsets.UTF_8));
+    try (Stream<Path> staged = Files.list(ROOT_DIR.resolve(FileS3ClientWrapper.UPLOAD_DIR))) {
+      assertEquals(0, staged.count());
+    }
+  }
+
+  @Test
+  public void testCopy() throws Exception {
+    S3ClientWrapper s3 = FileS3ClientWrapper.builder().rootDir(ROOT_DIR).build();
+    Files.createDirectories(BUCKET_DIR.resolve("foo"));
+    Files.write(BUCKET_DIR.resolve("foo/bar.txt"), "hello world".getBytes(StandardCharsets.UTF_8));
+
+    s3.copyObject(BUCKET, "foo/bar.txt", BUCKET, "copy/bar.txt");
+    assertEquals("hello world", new String(Files.readAllBytes(BUCKET_DIR.resolve("copy/bar.txt")), StandardCharsets.UTF_8));
+
+    String key = "parts/bar.txt";
+    String uploadId = s3.createMultipartUpload(BUCKET, key);
+    CompletedPart part2 = s3.uploadPartCopy(BUCKET, "foo/bar.txt", 6, 10, BUCKET, key, uploadId, 2);
+    CompletedPart part1 = s3.uploadPartCopy(BUCKET, "foo/bar.txt", 0, 5, BUCKET, key, uploadId, 1);
+    s3.completeMultipartUpload(BUCKET, key, uploadId, Arrays.asList(part1, part2));
+
+    assertEquals("hello world", new String(Files.readAllBytes(BUCKET_DIR.resolve(key)), StandardCharsets.UTF_8));
+    assertEquals(FileS3ClientWrapper.md5Hex(ByteBuffer.wrap("hello ".getBytes(StandardCharsets.UTF_8))), part1.eTag());
+  }
+
+  @Test
+  public void testAbort() throws Exception {
+    S3ClientWrapper s3 = FileS3ClientWrapper.builder().rootDir(ROOT_DIR).build();
+
+    String key = "foo/bar.txt";
+    String uploadId = s3.createMultipartUpload(BUCKET, key);
+    s3.uploadPart(BUCKET, key, uploadId, 1, ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)));
+    s3.abortMultipartUpload(BUCKET, key, uploadId);
+
+    assertFalse(Files.exists(BUCKET_DIR.resolve(key)));
+    try (Stream<Path> staged = Files.list(ROOT_DIR.resolve(FileS3ClientWrapper.UPLOAD_DIR))) {
+      assertEquals(0, staged.count());
+    }
+  }
+
+  @Test
+  public void testDeleteObject() throws Exception {
+    createTestGeoStore(BUCKET_DIR, ZARR_KEY);
+    S3ClientWrapper s3 = FileS3ClientWrapper.builder().rootDir(ROOT_DIR).build();
+
+    assertTrue(Files.exists(BUCKET_DIR.resolve(ZARR_KEY).resolve(".zattrs")));
+    s3.deleteObject(BUCKET, ZARR_KEY + "/.zattrs");
+    assertFalse(Files.exists(BUCKET_DIR.resolve(ZARR_KEY).resolve(".zattrs")));
+  }
+
+  @Test
+  public void testStoreRoundTrip() throws Exception {
+    TestData expectedData = createTestGeoStore(ROOT_DIR.resolve("expected-bucket"), ZARR_KEY);
+
+    AwsS3ZarrStore store = AwsS3ZarrStore.builder()
+        .s3(FileS3ClientWrapper.builder().rootDir(ROOT_DIR).mmapThresholdBytes(0).build())
+        .bucket(BUCKET)
+        .key(ZARR_KEY)
+        .build();
+
+    assertEquals(expectedData, createTestGeoStore(store));
+
+    ZarrGroup root = ZarrGroup.open(store);
+    TestData readData = new TestData(
+        (long[]) root.openArray("longitude").read(),
+        (long[]) root.openArray("latitude").read(),
+        (long[]) root.openArray("time").read(),
+        (int[]) root.openArray("data").read()
+    );
+    assertEquals(expectedData, readData);
+
+    assertArrayEquals(
+        Files.readAllBytes(BUCKET_DIR.resolve(ZARR_KEY).resolve(".zgroup")),
+        toBytes(store.getBuffer(".zgroup")));
+  }
+
+  private static byte[] toBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
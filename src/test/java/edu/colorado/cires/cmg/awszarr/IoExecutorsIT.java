@@ -0,0 +1,85 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs against the packaged multi-release jar, so on Java 21 these exercise the Java 21 implementation of
+ * {@link IoExecutors}.
+ */
+public class IoExecutorsIT {
+
+  private static boolean isVirtual(Thread thread) throws Exception {
+    return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+  }
+
+  @Test
+  public void testVirtualThreadsAreBounded() throws Exception {
+    assumeTrue(IoExecutors.isVirtualThreadSupported());
+    ExecutorService executor = IoExecutors.newExecutor("test-io", 2, true);
+    try {
+      AtomicInteger running = new AtomicInteger();
+      AtomicInteger maxRunning = new AtomicInteger();
+      List<Future<Boolean>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(() -> {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          Thread.sleep(20);
+          running.decrementAndGet();
+          return isVirtual(Thread.currentThread());
+        }));
+      }
+      for (Future<Boolean> future : futures) {
+        assertTrue(future.get(10, TimeUnit.SECONDS));
+      }
+      assertEquals(2, maxRunning.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testShutdownNowCancelsWaitingTasks() throws Exception {
+    assumeTrue(IoExecutors.isVirtualThreadSupported());
+    ExecutorService executor = IoExecutors.newExecutor("test-io", 1, true);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Future<?> running = executor.submit(() -> {
+      started.countDown();
+      release.await();
+      return null;
+    });
+    AtomicInteger ran = new AtomicInteger();
+    Future<?> waiting = executor.submit(ran::incrementAndGet);
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    executor.shutdownNow();
+    assertThrows(CancellationException.class, () -> waiting.get(10, TimeUnit.SECONDS));
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertTrue(running.isDone());
+    assertEquals(0, ran.get());
+  }
+
+  @Test
+  public void testPlatformThreads() throws Exception {
+    ExecutorService executor = IoExecutors.newExecutor("test-io", 2, false);
+    try {
+      Thread thread = executor.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+      assertTrue(thread.isDaemon());
+      assertTrue(thread.getName().startsWith("test-io-"));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
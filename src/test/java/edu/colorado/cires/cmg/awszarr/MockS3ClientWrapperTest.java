@@ -10,13 +10,18 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
@@ -96,5 +101,95 @@ public class MockS3ClientWrapperTest {
 
   }
 
+  @Test
+  public void testListObjectsV2PaginatorStartAfterAndDelimiter() throws Exception {
+
+    List<ListObjectsV2Response> pages;
+    try (Stream<ListObjectsV2Response> stream = s3ClientWrapper.listObjectsV2Paginator(BUCKET, ZARR_KEY + "/", null, "/")) {
+      pages = stream.collect(Collectors.toList());
+    }
+    assertEquals(1, pages.size());
+    assertEquals(Arrays.asList(
+        ZARR_KEY + "/.zattrs",
+        ZARR_KEY + "/.zgroup"
+    ), pages.get(0).contents().stream().map(S3Object::key).collect(Collectors.toList()));
+    assertEquals(Arrays.asList(
+        ZARR_KEY + "/data/",
+        ZARR_KEY + "/latitude/",
+        ZARR_KEY + "/longitude/",
+        ZARR_KEY + "/subGroup1/",
+        ZARR_KEY + "/subGroup2/",
+        ZARR_KEY + "/time/"
+    ), pages.get(0).commonPrefixes().stream().map(CommonPrefix::prefix).collect(Collectors.toList()));
+
+    List<String> keys;
+    try (Stream<ListObjectsV2Response> stream = s3ClientWrapper.listObjectsV2Paginator(BUCKET, ZARR_KEY + "/time", ZARR_KEY + "/time/.zattrs", null)) {
+      keys = stream.flatMap(response -> response.contents().stream()).map(S3Object::key).collect(Collectors.toList());
+    }
+    assertEquals(Arrays.asList(
+        ZARR_KEY + "/time/0",
+        ZARR_KEY + "/time/1"
+    ), keys);
+
+    try (Stream<ListObjectsV2Response> stream = s3ClientWrapper.listObjectsV2Paginator(BUCKET, ZARR_KEY + "/lat")) {
+      keys = stream.flatMap(response -> response.contents().stream()).map(S3Object::key).collect(Collectors.toList());
+    }
+    assertEquals(Arrays.asList(
+        ZARR_KEY + "/latitude/.zarray",
+        ZARR_KEY + "/latitude/.zattrs"
+    ), keys.subList(0, 2));
+    assertEquals(202, keys.size());
+  }
+
+  @Test
+  public void testListObjectsV2PaginatorPages() throws Exception {
+    Path dir = BUCKET_DIR.resolve("paging");
+    FileUtils.deleteQuietly(dir.toFile());
+    Files.createDirectories(dir.resolve("a"));
+    Files.write(dir.resolve("a.b"), new byte[1]);
+    Files.write(dir.resolve("a").resolve("b"), new byte[1]);
+    for (int i = 0; i < 2500; i++) {
+      Files.write(dir.resolve(String.format("c%04d", i)), new byte[1]);
+    }
+
+    List<ListObjectsV2Response> pages;
+    try (Stream<ListObjectsV2Response> stream = s3ClientWrapper.listObjectsV2Paginator(BUCKET, "paging/")) {
+      pages = stream.collect(Collectors.toList());
+    }
+
+    assertEquals(Arrays.asList(1000, 1000, 502), pages.stream().map(page -> page.contents().size()).collect(Collectors.toList()));
+    assertEquals(Arrays.asList(true, true, false), pages.stream().map(ListObjectsV2Response::isTruncated).collect(Collectors.toList()));
+    List<String> keys = pages.stream().flatMap(page -> page.contents().stream()).map(S3Object::key).collect(Collectors.toList());
+    assertEquals("paging/a.b", keys.get(0));
+    assertEquals("paging/a/b", keys.get(1));
+    List<String> sorted = new ArrayList<>(keys);
+    Collections.sort(sorted);
+    assertEquals(sorted, keys);
+
+    FileUtils.deleteQuietly(dir.toFile());
+  }
+
+  @Test
+  public void testListObjectsV2PaginatorDelimiterSkipsEmptyDirectories() throws Exception {
+    Path dir = BUCKET_DIR.resolve("delimited");
+    FileUtils.deleteQuietly(dir.toFile());
+    Files.createDirectories(dir.resolve("empty").resolve("nested"));
+    Files.createDirectories(dir.resolve("deep").resolve("nested"));
+    Files.write(dir.resolve("deep").resolve("nested").resolve("0"), new byte[1]);
+    Files.write(dir.resolve("file"), new byte[1]);
+
+    List<ListObjectsV2Response> pages;
+    try (Stream<ListObjectsV2Response> stream = s3ClientWrapper.listObjectsV2Paginator(BUCKET, "delimited/", null, "/")) {
+      pages = stream.collect(Collectors.toList());
+    }
+
+    assertEquals(1, pages.size());
+    assertEquals(Collections.singletonList("delimited/file"),
+        pages.get(0).contents().stream().map(S3Object::key).collect(Collectors.toList()));
+    assertEquals(Collections.singletonList("delimited/deep/"),
+        pages.get(0).commonPrefixes().stream().map(CommonPrefix::prefix).collect(Collectors.toList()));
+
+    FileUtils.deleteQuietly(dir.toFile());
+  }
 
 }
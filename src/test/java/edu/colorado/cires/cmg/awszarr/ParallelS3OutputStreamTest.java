@@ -0,0 +1,141 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+public class ParallelS3OutputStreamTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final String KEY = "parallel-upload/object";
+  private static final int PART_SIZE = 1024;
+
+  private SlowS3ClientWrapper s3;
+  private ExecutorService executor;
+  private Semaphore buffers;
+
+  /**
+   * Holds each part upload open briefly so concurrent uploads overlap.
+   */
+  private static class SlowS3ClientWrapper extends CountingS3ClientWrapper {
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final AtomicInteger aborts = new AtomicInteger();
+    private volatile int failPart = -1;
+
+    private SlowS3ClientWrapper(S3ClientWrapper delegate) {
+      super(delegate);
+    }
+
+    @Override
+    public CompletedPart uploadPart(String bucket, String key, String uploadId, int partNumber, ByteBuffer buffer) {
+      maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+      try {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+        if (partNumber == failPart) {
+          throw new IllegalStateException("Unable to upload part " + partNumber);
+        }
+        return super.uploadPart(bucket, key, uploadId, partNumber, buffer);
+      } finally {
+        active.decrementAndGet();
+      }
+    }
+
+    @Override
+    public void abortMultipartUpload(String bucket, String key, String uploadId) {
+      aborts.incrementAndGet();
+      super.abortMultipartUpload(bucket, key, uploadId);
+    }
+  }
+
+  @BeforeEach
+  public void setup() throws Exception {
+    Files.deleteIfExists(MOCK_BUCKETS_DIR.resolve(BUCKET).resolve(KEY));
+    s3 = new SlowS3ClientWrapper(FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    executor = Executors.newFixedThreadPool(4);
+    buffers = new Semaphore(6);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private OutputStream stream() {
+    return new ParallelS3OutputStream(s3, BUCKET, KEY, PART_SIZE, executor, buffers);
+  }
+
+  private static byte[] random(int size) {
+    byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void testConcurrentParts() throws Exception {
+    byte[] expected = random(PART_SIZE * 12 + 100);
+
+    try (OutputStream out = stream()) {
+      for (int offset = 0; offset < expected.length; offset += 300) {
+        out.write(expected, offset, Math.min(300, expected.length - offset));
+      }
+    }
+
+    assertArrayEquals(expected, Files.readAllBytes(MOCK_BUCKETS_DIR.resolve(BUCKET).resolve(KEY)));
+    assertEquals(1, s3.uploads.size());
+    assertTrue(s3.maxActive.get() > 1);
+    assertTrue(s3.maxActive.get() <= 4);
+    assertEquals(6, buffers.availablePermits());
+  }
+
+  @Test
+  public void testSinglePart() throws Exception {
+    byte[] expected = random(PART_SIZE);
+
+    try (OutputStream out = stream()) {
+      out.write(expected);
+    }
+
+    assertArrayEquals(expected, Files.readAllBytes(MOCK_BUCKETS_DIR.resolve(BUCKET).resolve(KEY)));
+    assertEquals(0, s3.uploads.size());
+    assertEquals(1, s3.puts.size());
+    assertEquals(6, buffers.availablePermits());
+  }
+
+  @Test
+  public void testFailedPart() throws Exception {
+    s3.failPart = 3;
+
+    assertThrows(IOException.class, () -> {
+      try (OutputStream out = stream()) {
+        out.write(random(PART_SIZE * 8));
+      }
+    });
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1, s3.aborts.get());
+    assertEquals(6, buffers.availablePermits());
+  }
+}
@@ -0,0 +1,166 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.bc.zarr.ZarrGroup;
+import edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.TestData;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ReplicatedS3ZarrStoreTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String PRIMARY_BUCKET = "my-primary-bucket";
+  private static final String REPLICA_BUCKET = "my-replica-bucket";
+  private static final String ZARR_KEY = "test-zarr/geo-data.zarr";
+
+  private TestData expectedData;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    expectedData = createTestGeoStore(MOCK_BUCKETS_DIR.resolve(PRIMARY_BUCKET), ZARR_KEY);
+    createTestGeoStore(MOCK_BUCKETS_DIR.resolve(REPLICA_BUCKET), ZARR_KEY);
+  }
+
+  private static S3ClientWrapper mock() {
+    return FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+  }
+
+  private static S3ClientWrapper slow() {
+    return new CountingS3ClientWrapper(mock()) {
+      @Override
+      public Optional<InputStream> getObject(String bucket, String key) {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return super.getObject(bucket, key);
+      }
+    };
+  }
+
+  private static S3ClientWrapper failing() {
+    return new CountingS3ClientWrapper(mock()) {
+      @Override
+      public Optional<InputStream> getObject(String bucket, String key) {
+        throw new IllegalStateException("unavailable");
+      }
+    };
+  }
+
+  private static S3ClientWrapper breaking() {
+    return new CountingS3ClientWrapper(mock()) {
+      @Override
+      public Optional<InputStream> getObject(String bucket, String key) {
+        return Optional.of(new InputStream() {
+          @Override
+          public int read() throws IOException {
+            throw new IOException("connection reset");
+          }
+        });
+      }
+    };
+  }
+
+  @Test
+  public void testReadsPreferFastestReplica() throws Exception {
+    ReplicatedS3ZarrStore store = ReplicatedS3ZarrStore.builder()
+        .primary(PRIMARY_BUCKET, slow())
+        .replica(REPLICA_BUCKET, mock())
+        .key(ZARR_KEY)
+        .probeInterval(0)
+        .build();
+
+    for (int i = 0; i < 5; i++) {
+      try (InputStream inputStream = store.getInputStream(".zattrs")) {
+        IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+      }
+    }
+
+    assertEquals(REPLICA_BUCKET, store.getPreferredBucket());
+
+    ZarrGroup root = ZarrGroup.open(store);
+    TestData readData = new TestData(
+        (long[]) root.openArray("longitude").read(),
+        (long[]) root.openArray("latitude").read(),
+        (long[]) root.openArray("time").read(),
+        (int[]) root.openArray("data").read()
+    );
+    assertEquals(expectedData, readData);
+  }
+
+  @Test
+  public void testFailover() throws Exception {
+    ReplicatedS3ZarrStore store = ReplicatedS3ZarrStore.builder()
+        .primary(PRIMARY_BUCKET, slow())
+        .replica(REPLICA_BUCKET, failing())
+        .key(ZARR_KEY)
+        .probeInterval(0)
+        .failureCooldownMs(60000)
+        .build();
+
+    String expected = new String(Files.readAllBytes(MOCK_BUCKETS_DIR.resolve(PRIMARY_BUCKET).resolve(ZARR_KEY).resolve(".zattrs")), StandardCharsets.UTF_8);
+    for (int i = 0; i < 3; i++) {
+      try (InputStream inputStream = store.getInputStream(".zattrs")) {
+        assertEquals(expected, IOUtils.toString(inputStream, StandardCharsets.UTF_8));
+      }
+    }
+
+    assertEquals(PRIMARY_BUCKET, store.getPreferredBucket());
+  }
+
+  @Test
+  public void testStreamFailureAvoidsReplica() throws Exception {
+    ReplicatedS3ZarrStore store = ReplicatedS3ZarrStore.builder()
+        .primary(PRIMARY_BUCKET, slow())
+        .replica(REPLICA_BUCKET, breaking())
+        .key(ZARR_KEY)
+        .probeInterval(0)
+        .failureCooldownMs(60000)
+        .build();
+
+    // the replica opens the object, but reading it fails and is not retried on the primary
+    assertEquals(REPLICA_BUCKET, store.getPreferredBucket());
+    try (InputStream inputStream = store.getInputStream(".zattrs")) {
+      assertThrows(IOException.class, () -> IOUtils.toString(inputStream, StandardCharsets.UTF_8));
+    }
+
+    assertEquals(PRIMARY_BUCKET, store.getPreferredBucket());
+    String expected = new String(Files.readAllBytes(MOCK_BUCKETS_DIR.resolve(PRIMARY_BUCKET).resolve(ZARR_KEY).resolve(".zattrs")), StandardCharsets.UTF_8);
+    try (InputStream inputStream = store.getInputStream(".zattrs")) {
+      assertEquals(expected, IOUtils.toString(inputStream, StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testWritesGoToPrimary() throws Exception {
+    ReplicatedS3ZarrStore store = ReplicatedS3ZarrStore.builder()
+        .primary(PRIMARY_BUCKET, mock())
+        .replica(REPLICA_BUCKET, mock())
+        .key(ZARR_KEY)
+        .build();
+
+    try (OutputStream outputStream = store.getOutputStream("data/.zattrs")) {
+      IOUtils.write("{}", outputStream, StandardCharsets.UTF_8);
+    }
+    store.delete("time/0");
+
+    assertEquals("{}", new String(Files.readAllBytes(MOCK_BUCKETS_DIR.resolve(PRIMARY_BUCKET).resolve(ZARR_KEY).resolve("data/.zattrs")), StandardCharsets.UTF_8));
+    assertFalse(Files.exists(MOCK_BUCKETS_DIR.resolve(PRIMARY_BUCKET).resolve(ZARR_KEY).resolve("time/0")));
+    assertTrue(Files.exists(MOCK_BUCKETS_DIR.resolve(REPLICA_BUCKET).resolve(ZARR_KEY).resolve("time/0")));
+  }
+}
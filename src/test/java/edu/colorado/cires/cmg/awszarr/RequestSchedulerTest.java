@@ -0,0 +1,107 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RequestSchedulerTest {
+
+  private ExecutorService executor;
+
+  @BeforeEach
+  public void setup() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @AfterEach
+  public void teardown() {
+    executor.shutdownNow();
+  }
+
+  private static int[] limits(int interactive, int metadata, int prefetch, int bulk) {
+    return new int[]{interactive, metadata, prefetch, bulk};
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "Timed out");
+      Thread.sleep(5);
+    }
+  }
+
+  private Future<?> acquire(RequestScheduler scheduler, RequestPriority priority) {
+    return executor.submit(() -> {
+      scheduler.acquire(priority);
+      return null;
+    });
+  }
+
+  @Test
+  public void testHigherPriorityRunsFirst() throws Exception {
+    RequestScheduler scheduler = new RequestScheduler(1, limits(1, 1, 1, 1));
+    scheduler.acquire(RequestPriority.BULK);
+
+    Future<?> bulk = acquire(scheduler, RequestPriority.BULK);
+    await(() -> scheduler.getWaiting(RequestPriority.BULK) == 1);
+    Future<?> interactive = acquire(scheduler, RequestPriority.INTERACTIVE);
+    await(() -> scheduler.getWaiting(RequestPriority.INTERACTIVE) == 1);
+
+    scheduler.release(RequestPriority.BULK);
+    interactive.get(10, TimeUnit.SECONDS);
+    assertEquals(1, scheduler.getActive(RequestPriority.INTERACTIVE));
+    assertEquals(1, scheduler.getWaiting(RequestPriority.BULK));
+
+    scheduler.release(RequestPriority.INTERACTIVE);
+    bulk.get(10, TimeUnit.SECONDS);
+    assertEquals(1, scheduler.getActive(RequestPriority.BULK));
+  }
+
+  @Test
+  public void testBackgroundLimitLeavesSlotsForInteractive() throws Exception {
+    RequestScheduler scheduler = new RequestScheduler(4, limits(4, 4, 1, 1));
+    scheduler.acquire(RequestPriority.PREFETCH);
+    scheduler.acquire(RequestPriority.BULK);
+
+    Future<?> prefetch = acquire(scheduler, RequestPriority.PREFETCH);
+    await(() -> scheduler.getWaiting(RequestPriority.PREFETCH) == 1);
+
+    // the background classes are at their limits, interactive requests do not wait
+    scheduler.acquire(RequestPriority.INTERACTIVE);
+    scheduler.acquire(RequestPriority.INTERACTIVE);
+    assertEquals(2, scheduler.getActive(RequestPriority.INTERACTIVE));
+
+    scheduler.release(RequestPriority.BULK);
+    // the freed slot cannot go to the waiting prefetch, which is still at its limit
+    assertEquals(1, scheduler.getWaiting(RequestPriority.PREFETCH));
+
+    scheduler.release(RequestPriority.PREFETCH);
+    prefetch.get(10, TimeUnit.SECONDS);
+    assertEquals(1, scheduler.getActive(RequestPriority.PREFETCH));
+  }
+
+  @Test
+  public void testInterruptedWaiterIsRemoved() throws Exception {
+    RequestScheduler scheduler = new RequestScheduler(1, limits(1, 1, 1, 1));
+    scheduler.acquire(RequestPriority.INTERACTIVE);
+
+    Future<?> bulk = acquire(scheduler, RequestPriority.BULK);
+    await(() -> scheduler.getWaiting(RequestPriority.BULK) == 1);
+    bulk.cancel(true);
+    await(() -> scheduler.getWaiting(RequestPriority.BULK) == 0);
+
+    scheduler.release(RequestPriority.INTERACTIVE);
+    for (RequestPriority priority : Arrays.asList(RequestPriority.values())) {
+      assertEquals(0, scheduler.getActive(priority));
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.bc.zarr.ZarrGroup;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TraceReplayerTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final String ZARR_KEY = "test-zarr/geo-data.zarr";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+
+  private S3ClientWrapper mock;
+  private ByteArrayOutputStream trace;
+  private RecordingS3ClientWrapper recorder;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    createTestGeoStore(BUCKET_DIR, ZARR_KEY);
+    mock = FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    trace = new ByteArrayOutputStream();
+    recorder = RecordingS3ClientWrapper.builder().s3(mock).trace(trace).build();
+  }
+
+  private List<TraceEvent> finishTrace() throws Exception {
+    recorder.close();
+    return AccessTrace.read(new ByteArrayInputStream(trace.toByteArray()));
+  }
+
+  @Test
+  public void testRecordAndReplay() throws Exception {
+    AwsS3ZarrStore store = AwsS3ZarrStore.builder()
+        .s3(recorder)
+        .bucket(BUCKET)
+        .key(ZARR_KEY)
+        .build();
+    ZarrGroup.open(store).openArray("data").read();
+    try (InputStream inputStream = recorder.getObjectRange(BUCKET, ZARR_KEY + "/time/0", 8, 15).get()) {
+      assertEquals(8, inputStream.read(new byte[16]));
+    }
+    List<TraceEvent> events = finishTrace();
+
+    long chunkSize = Files.size(BUCKET_DIR.resolve(ZARR_KEY).resolve("data/0.0"));
+    assertTrue(events.stream().anyMatch(event -> event.getOperation() == TraceOperation.GET
+        && event.getKey().equals(ZARR_KEY + "/data/0.0")
+        && event.getBytes() == chunkSize));
+    TraceEvent range = events.get(events.size() - 1);
+    assertEquals(TraceOperation.GET_RANGE, range.getOperation());
+    assertEquals(8, range.getOffset());
+    assertEquals(8, range.getBytes());
+    assertFalse(range.isFailed());
+
+    CountingS3ClientWrapper s3 = new CountingS3ClientWrapper(mock);
+    TraceReplayer.Result result = TraceReplayer.builder().s3(s3).speed(0).build()
+        .replay(new ByteArrayInputStream(trace.toByteArray()));
+
+    assertEquals(events.size(), result.getRequests());
+    assertEquals(0, result.getFailures());
+    assertEquals(0, result.getSkipped());
+    assertEquals(
+        events.stream().filter(event -> event.getOperation() == TraceOperation.GET).count(),
+        result.getRequests(TraceOperation.GET));
+    assertTrue(s3.gets.contains(ZARR_KEY + "/data/0.0"));
+  }
+
+  @Test
+  public void testWritesAreSkippedUnlessEnabled() throws Exception {
+    String key = ZARR_KEY + "/extra/0";
+    recorder.putObject(BUCKET, key, ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+    recorder.deleteObject(BUCKET, key);
+    recorder.putObject(BUCKET, key, ByteBuffer.wrap(new byte[]{5, 6}));
+    List<TraceEvent> events = finishTrace();
+    assertEquals(3, events.size());
+
+    CountingS3ClientWrapper s3 = new CountingS3ClientWrapper(mock);
+    TraceReplayer.Result result = TraceReplayer.builder().s3(s3).speed(0).build().replay(events);
+    assertEquals(0, result.getRequests());
+    assertEquals(3, result.getSkipped());
+    assertTrue(s3.puts.isEmpty());
+
+    Files.delete(BUCKET_DIR.resolve(key));
+    result = TraceReplayer.builder().s3(s3).speed(0).writes(true).build().replay(events);
+    assertEquals(3, result.getRequests());
+    assertEquals(6, result.getBytes());
+    assertEquals(2, s3.puts.size());
+    assertEquals(1, s3.deletes.size());
+    assertEquals(2, Files.size(BUCKET_DIR.resolve(key)));
+  }
+
+  @Test
+  public void testReplayAtRecordedRate() throws Exception {
+    recorder.getObject(BUCKET, ZARR_KEY + "/.zgroup").get().close();
+    Thread.sleep(200);
+    recorder.getObject(BUCKET, ZARR_KEY + "/.zattrs").get().close();
+    List<TraceEvent> events = finishTrace();
+
+    S3ClientWrapper slow = FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).latencyMs(20).build();
+    TraceReplayer.Result result = TraceReplayer.builder().s3(slow).build().replay(events);
+
+    assertEquals(2, result.getRequests(TraceOperation.GET));
+    assertTrue(result.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(200));
+    assertTrue(result.getLatencyNanos(TraceOperation.GET, 50) >= TimeUnit.MILLISECONDS.toNanos(20));
+    List<Long> starts = result.getEvents().stream().map(TraceEvent::getStartNanos).collect(Collectors.toList());
+    assertTrue(starts.get(1) - starts.get(0) >= TimeUnit.MILLISECONDS.toNanos(150));
+  }
+
+  @Test
+  public void testUploadsAcrossThreads() throws Exception {
+    // two uploads of the same key, with the parts made by another thread
+    String key = ZARR_KEY + "/extra/0";
+    String first = recorder.createMultipartUpload(BUCKET, key);
+    String second = recorder.createMultipartUpload(BUCKET, key);
+    CompletedPart[] parts = new CompletedPart[2];
+    Thread thread = new Thread(() -> {
+      parts[0] = recorder.uploadPart(BUCKET, key, first, 1, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+      parts[1] = recorder.uploadPart(BUCKET, key, second, 1, ByteBuffer.wrap(new byte[]{4, 5}));
+    });
+    thread.start();
+    thread.join();
+    recorder.abortMultipartUpload(BUCKET, key, first);
+    recorder.completeMultipartUpload(BUCKET, key, second, Collections.singletonList(parts[1]));
+    List<TraceEvent> events = finishTrace();
+    assertEquals(6, events.size());
+    assertEquals(2, events.stream().map(TraceEvent::getThread).distinct().count());
+    assertEquals(3, events.stream().filter(event -> event.getUpload() == 1).count());
+    assertEquals(3, events.stream().filter(event -> event.getUpload() == 2).count());
+
+    Files.delete(BUCKET_DIR.resolve(key));
+    CountingS3ClientWrapper s3 = new CountingS3ClientWrapper(mock);
+    TraceReplayer.Result result = TraceReplayer.builder().s3(s3).speed(0).writes(true).build().replay(events);
+    assertEquals(6, result.getRequests());
+    assertEquals(0, result.getFailures());
+    assertEquals(2, Files.size(BUCKET_DIR.resolve(key)));
+  }
+
+  @Test
+  public void testStringTableIsBounded() throws Exception {
+    ByteArrayOutputStream trace = new ByteArrayOutputStream();
+    int count = AccessTrace.MAX_STRINGS + 10;
+    try (AccessTrace.Writer writer = new AccessTrace.Writer(trace)) {
+      for (int i = 0; i < count; i++) {
+        writer.write(new TraceEvent(i, 0, TraceOperation.GET, BUCKET, "key/" + i, 0, 0, 1, 1, false));
+      }
+      writer.write(new TraceEvent(count, 0, TraceOperation.GET, BUCKET, "key/0", 0, 0, 1, 1, false));
+    }
+    List<TraceEvent> events = AccessTrace.read(new ByteArrayInputStream(trace.toByteArray()));
+    assertEquals(count + 1, events.size());
+    assertEquals("key/" + (count - 1), events.get(count - 1).getKey());
+    assertEquals("key/0", events.get(count).getKey());
+    assertEquals(BUCKET, events.get(count).getBucket());
+  }
+}
@@ -9,15 +9,26 @@ import com.bc.zarr.ZarrGroup;
 import com.bc.zarr.storage.FileSystemStore;
 import com.bc.zarr.storage.Store;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.function.Consumer;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import ucar.ma2.InvalidRangeException;
 
 public class ZarrStoreBuilder {
 
+  public static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  public static final String BUCKET = "my-test-bucket";
+  public static final String ZARR_KEY = "test-zarr/geo-data.zarr";
+  public static final Path ZARR_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET).resolve(ZARR_KEY);
+
   public static class DataPoint {
 
     public final long longitude;
@@ -48,6 +59,57 @@ public class ZarrStoreBuilder {
     return dataPoints;
   }
 
+  /**
+   * Creates the test zarr store at {@link #ZARR_KEY} in the mock {@link #BUCKET}.
+   */
+  public static TestData createTestGeoStore() throws IOException, InvalidRangeException {
+    return createTestGeoStore(MOCK_BUCKETS_DIR.resolve(BUCKET), ZARR_KEY);
+  }
+
+  /**
+   * Creates a {@link CountingS3ClientWrapper} over the mock buckets.
+   */
+  public static CountingS3ClientWrapper countingS3() {
+    return countingS3(false);
+  }
+
+  /**
+   * Creates a {@link CountingS3ClientWrapper} over the mock buckets, which lists ETags when eTags is true.
+   */
+  public static CountingS3ClientWrapper countingS3(boolean eTags) {
+    return new CountingS3ClientWrapper(FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).eTags(eTags).build());
+  }
+
+  /**
+   * Builds an {@link AwsS3ZarrStore} for the test zarr store with the options set by a test.
+   */
+  public static AwsS3ZarrStore storeWith(S3ClientWrapper s3, Consumer<AwsS3ZarrStore.Builder> options) {
+    AwsS3ZarrStore.Builder builder = AwsS3ZarrStore.builder()
+        .s3(s3)
+        .bucket(BUCKET)
+        .key(ZARR_KEY);
+    options.accept(builder);
+    return builder.build();
+  }
+
+  public static void write(Store store, String key, byte[] bytes) throws IOException {
+    try (OutputStream outputStream = store.getOutputStream(key)) {
+      outputStream.write(bytes);
+    }
+  }
+
+  public static byte[] read(Store store, String key) throws IOException {
+    try (InputStream inputStream = store.getInputStream(key)) {
+      return inputStream == null ? null : IOUtils.toByteArray(inputStream);
+    }
+  }
+
+  public static byte[] bytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
   public static TestData createTestGeoStore(Path bucketDir, String zarrKey) throws IOException, InvalidRangeException {
     Path testZarr = bucketDir.resolve(zarrKey);
     FileUtils.deleteQuietly(bucketDir.toFile());
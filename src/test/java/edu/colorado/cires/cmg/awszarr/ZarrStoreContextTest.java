@@ -0,0 +1,149 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.BUCKET;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.ZARR_KEY;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.countingS3;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.storeWith;
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class ZarrStoreContextTest {
+
+  private CountingS3ClientWrapper s3;
+  private ZarrStoreContext context;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    createTestGeoStore();
+    s3 = countingS3();
+    context = ZarrStoreContext.builder()
+        .memoryMb(1)
+        .decodeThreads(2)
+        .ioConcurrency(4)
+        .requestsPerSecond(BUCKET, 20)
+        .build();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    context.close();
+  }
+
+  private AwsS3ZarrStore newStore() {
+    return storeWith(s3, builder -> builder.context(context).decodedCacheMb(16).writeBackMb(2));
+  }
+
+  @Test
+  public void testWriteBackIsLimitedByBudget() throws Exception {
+    try (AwsS3ZarrStore first = newStore(); AwsS3ZarrStore second = newStore()) {
+      write(first, "data/0.0", new byte[600 * 1024]);
+      write(second, "data/1.0", new byte[600 * 1024]);
+
+      // the second store is over the shared budget and uploads its own chunk, the first store keeps its chunk
+      assertEquals(1, s3.uploads.size() + s3.puts.size());
+      assertEquals(600 * 1024, first.getMemoryUsed());
+      assertEquals(0, second.getMemoryUsed());
+      assertEquals(600 * 1024, context.getMemoryUsed());
+    }
+    assertEquals(2, s3.uploads.size() + s3.puts.size());
+    assertEquals(0, context.getMemoryUsed());
+  }
+
+  @Test
+  public void testDecodedChunksAreReclaimed() throws Exception {
+    try (AwsS3ZarrStore first = newStore(); AwsS3ZarrStore second = newStore()) {
+      first.getDecodedChunk("longitude/0");
+      assertEquals(10 * Long.BYTES, first.getMemoryUsed());
+
+      write(second, "data/0.0", new byte[1024 * 1024 - Long.BYTES]);
+
+      // the decoded chunk of the first store is discarded to make room for the dirty chunk of the second
+      assertEquals(0, first.getMemoryUsed());
+      assertEquals(1024 * 1024 - Long.BYTES, second.getMemoryUsed());
+      assertEquals(0, s3.uploads.size() + s3.puts.size());
+    }
+  }
+
+  @Test
+  public void testRequestsPerBucketAreRateLimited() {
+    S3ClientWrapper first = context.rateLimited(BUCKET, s3);
+    S3ClientWrapper second = context.rateLimited(BUCKET, s3);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 11; i++) {
+      first.getObjectBuffer(BUCKET, ZARR_KEY + "/.zgroup");
+      second.getObjectBuffer(BUCKET, ZARR_KEY + "/.zgroup");
+    }
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    // 22 requests at 20 per second, the limit is shared by both wrappers
+    assertTrue(elapsed >= 1000, "elapsed " + elapsed);
+    assertEquals(22, s3.gets.size());
+    assertSame(s3, context.rateLimited("other-bucket", s3));
+  }
+
+  /**
+   * Completes with the error of a subscription, or with null when the subscription completes.
+   */
+  private static final class TerminalSubscriber implements Subscriber<ChunkPayload> {
+
+    private final CompletableFuture<Throwable> terminated = new CompletableFuture<>();
+    private volatile Subscription subscription;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(ChunkPayload payload) {
+
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      terminated.complete(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      terminated.complete(null);
+    }
+  }
+
+  @Test
+  public void testPublishAfterCloseSignalsError() throws Exception {
+    try (AwsS3ZarrStore store = newStore()) {
+      context.close();
+      TerminalSubscriber subscriber = new TerminalSubscriber();
+      store.publish(Arrays.asList("time/0", "time/1")).subscribe(subscriber);
+      subscriber.subscription.request(2);
+      assertNotNull(subscriber.terminated.get(30, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testFetchAfterCloseSignalsError() throws Exception {
+    try (AwsS3ZarrStore store = newStore()) {
+      TerminalSubscriber subscriber = new TerminalSubscriber();
+      store.publish(Arrays.asList("time/0", "time/1")).subscribe(subscriber);
+      // the listing was queued before the close and still runs, the fetches are rejected
+      context.close();
+      subscriber.subscription.request(2);
+      assertNotNull(subscriber.terminated.get(30, TimeUnit.SECONDS));
+    }
+  }
+}
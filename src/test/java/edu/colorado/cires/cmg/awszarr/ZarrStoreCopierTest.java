@@ -0,0 +1,191 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.bc.zarr.ZarrGroup;
+import edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.TestData;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+
+public class ZarrStoreCopierTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String SOURCE_BUCKET = "my-staging-bucket";
+  private static final String DESTINATION_BUCKET = "my-production-bucket";
+  private static final String ZARR_KEY = "test-zarr/geo-data.zarr";
+  private static final Path SOURCE_DIR = MOCK_BUCKETS_DIR.resolve(SOURCE_BUCKET).resolve(ZARR_KEY);
+  private static final Path DESTINATION_DIR = MOCK_BUCKETS_DIR.resolve(DESTINATION_BUCKET).resolve(ZARR_KEY);
+
+  private TestData expectedData;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(MOCK_BUCKETS_DIR.resolve(DESTINATION_BUCKET).toFile());
+    expectedData = createTestGeoStore(MOCK_BUCKETS_DIR.resolve(SOURCE_BUCKET), ZARR_KEY);
+  }
+
+  private static S3ClientWrapper mock() {
+    return FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).eTags(true).build();
+  }
+
+  private static ZarrStoreCopier.Builder copier(S3ClientWrapper s3) {
+    return ZarrStoreCopier.builder()
+        .s3(s3)
+        .sourceBucket(SOURCE_BUCKET)
+        .sourceKey(ZARR_KEY)
+        .destinationBucket(DESTINATION_BUCKET)
+        .destinationKey(ZARR_KEY)
+        .concurrency(4);
+  }
+
+  private static List<String> files(Path dir) throws Exception {
+    try (Stream<Path> files = Files.walk(dir)) {
+      return files.filter(Files::isRegularFile).map(dir::relativize).map(Path::toString).sorted().collect(Collectors.toList());
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 1024})
+  public void testCopy(int multipartCopyThresholdMb) throws Exception {
+    List<ZarrStoreCopier.Progress> updates = new CopyOnWriteArrayList<>();
+
+    ZarrStoreCopier.Progress progress = copier(mock())
+        .multipartCopyThresholdMb(multipartCopyThresholdMb)
+        .progressListener(updates::add)
+        .build()
+        .copy();
+
+    List<String> sourceFiles = files(SOURCE_DIR);
+    assertEquals(sourceFiles, files(DESTINATION_DIR));
+    for (String file : sourceFiles) {
+      assertArrayEquals(Files.readAllBytes(SOURCE_DIR.resolve(file)), Files.readAllBytes(DESTINATION_DIR.resolve(file)));
+    }
+    assertEquals(sourceFiles.size(), progress.getTotalObjects());
+    assertEquals(sourceFiles.size(), progress.getCopiedObjects());
+    assertEquals(progress.getTotalBytes(), progress.getCopiedBytes());
+    assertEquals(sourceFiles.size(), updates.size());
+
+    AwsS3ZarrStore store = AwsS3ZarrStore.builder().s3(mock()).bucket(DESTINATION_BUCKET).key(ZARR_KEY).build();
+    ZarrGroup root = ZarrGroup.open(store);
+    TestData readData = new TestData(
+        (long[]) root.openArray("longitude").read(),
+        (long[]) root.openArray("latitude").read(),
+        (long[]) root.openArray("time").read(),
+        (int[]) root.openArray("data").read()
+    );
+    assertEquals(expectedData, readData);
+  }
+
+  @Test
+  public void testResume() throws Exception {
+    copier(mock()).build().copy();
+    Files.delete(DESTINATION_DIR.resolve("data/0.0"));
+    Files.delete(DESTINATION_DIR.resolve("data/.zarray"));
+
+    CountingS3ClientWrapper s3 = new CountingS3ClientWrapper(mock());
+    ZarrStoreCopier.Progress progress = copier(s3).build().copy();
+
+    long metadataCount = files(SOURCE_DIR).stream()
+        .filter(file -> Paths.get(file).getFileName().toString().startsWith(".z"))
+        .count();
+    assertEquals(1 + metadataCount, progress.getCopiedObjects());
+    assertEquals(progress.getTotalObjects() - progress.getCopiedObjects(), progress.getSkippedObjects());
+    assertEquals(files(SOURCE_DIR), files(DESTINATION_DIR));
+    assertEquals(2, s3.listings.size());
+    assertEquals(progress.getCopiedObjects(), s3.copies.size());
+    assertEquals(0, s3.gets.size());
+  }
+
+  @Test
+  public void testResumeCopiesRewrittenChunksOfTheSameSize() throws Exception {
+    copier(mock()).build().copy();
+    Path chunk = SOURCE_DIR.resolve("data/0.0");
+    byte[] rewritten = Files.readAllBytes(chunk);
+    for (int i = 0; i < rewritten.length; i++) {
+      rewritten[i] = (byte) ~rewritten[i];
+    }
+    Files.write(chunk, rewritten);
+
+    copier(mock()).build().copy();
+
+    assertArrayEquals(rewritten, Files.readAllBytes(DESTINATION_DIR.resolve("data/0.0")));
+  }
+
+  /**
+   * Lists the source with the ETags of objects uploaded in one part, which a server-side copy does not keep, and fails the
+   * copy of one object.
+   */
+  private static final class MultipartSourceS3ClientWrapper extends CountingS3ClientWrapper {
+
+    private final String failingKey;
+
+    private MultipartSourceS3ClientWrapper(String failingKey) {
+      super(mock());
+      this.failingKey = failingKey;
+    }
+
+    @Override
+    public Stream<ListObjectsV2Response> listObjectsV2Paginator(String bucket, String prefix) {
+      Stream<ListObjectsV2Response> responses = super.listObjectsV2Paginator(bucket, prefix);
+      if (!bucket.equals(SOURCE_BUCKET)) {
+        return responses;
+      }
+      return responses.map(response -> response.toBuilder()
+          .contents(response.contents().stream()
+              .map(object -> object.toBuilder().eTag(object.eTag().replaceAll("\"$", "-1\"")).build())
+              .collect(Collectors.toList()))
+          .build());
+    }
+
+    @Override
+    public void copyObject(String sourceBucket, String sourceKey, String destinationBucket, String destinationKey) {
+      if (sourceKey.equals(ZARR_KEY + "/" + failingKey)) {
+        throw new IllegalStateException("Copy failed");
+      }
+      super.copyObject(sourceBucket, sourceKey, destinationBucket, destinationKey);
+    }
+  }
+
+  @Test
+  public void testResumeWithMultipartSourceETags() throws Exception {
+    assertThrows(IOException.class, () -> copier(new MultipartSourceS3ClientWrapper("data/0.0")).build().copy());
+    assertFalse(Files.exists(DESTINATION_DIR.resolve("data/0.0")));
+
+    MultipartSourceS3ClientWrapper s3 = new MultipartSourceS3ClientWrapper(null);
+    ZarrStoreCopier.Progress progress = copier(s3).build().copy();
+
+    long metadataCount = files(SOURCE_DIR).stream()
+        .filter(file -> Paths.get(file).getFileName().toString().startsWith(".z"))
+        .count();
+    // the destination ETags differ from the source, the resume log identifies the copied chunks
+    assertEquals(1 + metadataCount, progress.getCopiedObjects());
+    // the resume log is deleted
+    assertEquals(files(SOURCE_DIR), files(DESTINATION_DIR));
+  }
+
+  @Test
+  public void testSameSourceAndDestination() {
+    assertThrows(IllegalArgumentException.class, () -> ZarrStoreCopier.builder()
+        .s3(mock())
+        .sourceBucket(SOURCE_BUCKET)
+        .sourceKey(ZARR_KEY)
+        .destinationKey(ZARR_KEY)
+        .build());
+  }
+}
@@ -0,0 +1,121 @@
+package edu.colorado.cires.cmg.awszarr;
+
+import static edu.colorado.cires.cmg.awszarr.ZarrStoreBuilder.createTestGeoStore;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ZarrStoreDownloaderTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final Path DOWNLOAD_DIR = Paths.get("target/downloads");
+  private static final String BUCKET = "my-test-bucket";
+  private static final String ZARR_KEY = "test-zarr/geo-data.zarr";
+  private static final Path SOURCE_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET).resolve(ZARR_KEY);
+  private static final Path DESTINATION_DIR = DOWNLOAD_DIR.resolve(BUCKET).resolve(ZARR_KEY);
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(DOWNLOAD_DIR.toFile());
+    createTestGeoStore(MOCK_BUCKETS_DIR.resolve(BUCKET), ZARR_KEY);
+  }
+
+  private static S3ClientWrapper mock() {
+    return FileMockS3ClientWrapper.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+  }
+
+  private static ZarrStoreDownloader.Builder downloader(S3ClientWrapper s3) {
+    return ZarrStoreDownloader.builder()
+        .s3(s3)
+        .bucket(BUCKET)
+        .key(ZARR_KEY)
+        .rootDir(DOWNLOAD_DIR)
+        .concurrency(4);
+  }
+
+  private static List<String> files(Path dir) throws Exception {
+    try (Stream<Path> files = Files.walk(dir)) {
+      return files.filter(Files::isRegularFile).map(dir::relativize).map(Path::toString).sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static void assertDownloaded() throws Exception {
+    List<String> sourceFiles = files(SOURCE_DIR);
+    assertEquals(sourceFiles, files(DESTINATION_DIR));
+    for (String file : sourceFiles) {
+      assertArrayEquals(Files.readAllBytes(SOURCE_DIR.resolve(file)), Files.readAllBytes(DESTINATION_DIR.resolve(file)));
+    }
+    assertEquals(0, files(DOWNLOAD_DIR.resolve(ZarrStoreDownloader.DOWNLOAD_DIR)).size());
+  }
+
+  @Test
+  public void testDownload() throws Exception {
+    List<ZarrStoreDownloader.Progress> updates = new CopyOnWriteArrayList<>();
+
+    ZarrStoreDownloader.Progress progress = downloader(mock()).progressListener(updates::add).build().download();
+
+    assertDownloaded();
+    long objects = files(SOURCE_DIR).size();
+    assertEquals(objects, progress.getTotalObjects());
+    assertEquals(objects, progress.getDownloadedObjects());
+    assertEquals(progress.getTotalBytes(), progress.getDownloadedBytes());
+    assertEquals(objects, updates.size());
+  }
+
+  @Test
+  public void testRangedDownload() throws Exception {
+    byte[] large = new byte[3 * 1024 * 1024 + 17];
+    new Random(7).nextBytes(large);
+    Files.write(SOURCE_DIR.resolve("large"), large);
+    try {
+      ZarrStoreDownloader.Progress progress = downloader(mock())
+          .rangedGetThresholdMb(0)
+          .rangedGetPartMb(1)
+          .build()
+          .download();
+
+      assertDownloaded();
+      assertEquals(progress.getTotalBytes(), progress.getDownloadedBytes());
+    } finally {
+      Files.delete(SOURCE_DIR.resolve("large"));
+    }
+  }
+
+  @Test
+  public void testResume() throws Exception {
+    downloader(mock()).build().download();
+    Files.delete(DESTINATION_DIR.resolve("data/0.0"));
+    Files.write(DESTINATION_DIR.resolve("latitude/0"), new byte[0]);
+
+    CountingS3ClientWrapper s3 = new CountingS3ClientWrapper(mock());
+    ZarrStoreDownloader.Progress progress = downloader(s3).build().download();
+
+    assertDownloaded();
+    assertEquals(2, progress.getDownloadedObjects());
+    assertEquals(progress.getTotalObjects() - 2, progress.getSkippedObjects());
+    assertEquals(1, s3.listings.size());
+    assertEquals(2, s3.gets.size());
+  }
+
+  @Test
+  public void testInvalidBucket() {
+    assertThrows(IllegalArgumentException.class, () -> ZarrStoreDownloader.builder()
+        .s3(mock())
+        .bucket("../escape")
+        .key(ZARR_KEY)
+        .rootDir(DOWNLOAD_DIR)
+        .build());
+  }
+}